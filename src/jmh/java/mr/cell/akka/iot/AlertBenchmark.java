@@ -0,0 +1,117 @@
+package mr.cell.akka.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of evaluating alert rules on every reading a device records, and the time from a reading to its alert at a
+ * subscriber.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlertBenchmark {
+
+	private static final int BURST_SIZE = 1000;
+	private static final Timeout TIMEOUT = Timeout.apply(10, TimeUnit.SECONDS);
+
+	@Param({"0", "4"})
+	public int rules;
+
+	private ActorSystem system;
+	private ActorRef device;
+	private ActorRef collector;
+	private BlockingQueue<Object> alerts;
+	private long timestamp;
+	private boolean hot;
+
+	@Setup
+	public void setup() throws Exception {
+		system = ActorSystem.create("alert-benchmark");
+		ActorRef deviceManager = system.actorOf(DeviceManager.props(), "device-manager");
+		collector = system.actorOf(BurstCollector.props(), "collector");
+		device = BurstCollector.run(collector, new BurstCollector.Burst(deviceManager, 1,
+				i -> new DeviceManager.RequestTrackDevice("group", "device"),
+				DeviceManager.DeviceRegistered.class, true)).get(0);
+
+		// Only the threshold rule is ever met by the readings below: they alternate between 20 and 35 degrees a second apart.
+		AlertRule[] alertRules = {
+				AlertRule.above("hot", 30.0),
+				AlertRule.below("frozen", 0.0),
+				AlertRule.rateOfChange("jump", 100.0),
+				AlertRule.nOfM("overheating", 40.0, 3, 5)};
+		for(int i = 0; i < rules; i++) {
+			PatternsCS.ask(deviceManager, new DeviceManager.GroupEnvelope("group", new DeviceGroup.AddAlertRule(i, alertRules[i])), TIMEOUT)
+					.toCompletableFuture().get();
+		}
+		alerts = new LinkedBlockingQueue<>();
+		ActorRef subscriber = system.actorOf(Props.create(AlertQueue.class, alerts), "alerts");
+		deviceManager.tell(new DeviceManager.GroupEnvelope("group", new DeviceGroup.SubscribeAlerts()), subscriber);
+		alerts.poll(10, TimeUnit.SECONDS);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Await.ready(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(BURST_SIZE)
+	public Object recordTemperaturePipelined() throws Exception {
+		long start = timestamp;
+		timestamp += BURST_SIZE * 1000L;
+		return BurstCollector.run(collector, new BurstCollector.Burst(device, BURST_SIZE,
+				i -> new Device.RecordTemperature(i, 21.5, start + i * 1000L),
+				Device.TemperatureRecorded.class, false));
+	}
+
+	/**
+	 * Records a reading that raises or clears the threshold alert and waits for the alert at the subscriber.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public Object readingToAlert() throws Exception {
+		if(rules == 0) {
+			return null;
+		}
+		hot = !hot;
+		timestamp += 1000L;
+		device.tell(new Device.RecordTemperature(0L, hot ? 35.0 : 20.0, timestamp), ActorRef.noSender());
+		Object alert = alerts.poll(10, TimeUnit.SECONDS);
+		if(alert == null) {
+			throw new IllegalStateException("No alert for reading at " + timestamp);
+		}
+		return alert;
+	}
+
+	public static class AlertQueue extends AbstractActor {
+
+		private final BlockingQueue<Object> alerts;
+
+		public AlertQueue(BlockingQueue<Object> alerts) {
+			this.alerts = alerts;
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder()
+					.matchAny(alerts::add)
+					.build();
+		}
+	}
+}
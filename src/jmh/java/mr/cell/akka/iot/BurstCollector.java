@@ -0,0 +1,81 @@
+package mr.cell.akka.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+public class BurstCollector extends AbstractActor {
+
+	private int remaining;
+	private Class<?> replyClass;
+	private List<ActorRef> repliedBy;
+	private CompletableFuture<List<ActorRef>> done;
+
+	public static Props props() {
+		return Props.create(BurstCollector.class);
+	}
+
+	public static List<ActorRef> run(ActorRef collector, Burst burst) throws Exception {
+		collector.tell(burst, ActorRef.noSender());
+		return burst.getDone().get(5, TimeUnit.MINUTES);
+	}
+
+	private void onBurst(Burst burst) {
+		remaining = burst.count;
+		replyClass = burst.replyClass;
+		repliedBy = burst.recordRepliers ? new ArrayList<>(burst.count) : null;
+		done = burst.done;
+		for(int i = 0; i < burst.count; i++) {
+			burst.target.tell(burst.messages.apply(i), getSelf());
+		}
+	}
+
+	private void onReply(Object reply) {
+		if(done == null || !replyClass.isInstance(reply)) {
+			return;
+		}
+		if(repliedBy != null) {
+			repliedBy.add(getSender());
+		}
+		if(--remaining == 0) {
+			CompletableFuture<List<ActorRef>> completed = done;
+			done = null;
+			completed.complete(repliedBy);
+		}
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(Burst.class, this::onBurst)
+				.matchAny(this::onReply)
+				.build();
+	}
+
+	public static final class Burst {
+		private final ActorRef target;
+		private final int count;
+		private final IntFunction<Object> messages;
+		private final Class<?> replyClass;
+		private final boolean recordRepliers;
+		private final CompletableFuture<List<ActorRef>> done = new CompletableFuture<>();
+
+		public Burst(ActorRef target, int count, IntFunction<Object> messages, Class<?> replyClass, boolean recordRepliers) {
+			this.target = target;
+			this.count = count;
+			this.messages = messages;
+			this.replyClass = replyClass;
+			this.recordRepliers = recordRepliers;
+		}
+
+		public CompletableFuture<List<ActorRef>> getDone() {
+			return done;
+		}
+	}
+}
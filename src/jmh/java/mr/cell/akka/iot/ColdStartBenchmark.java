@@ -0,0 +1,90 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorSystem;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from starting a DeviceManager until it restored every device of a topology snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = 1)
+@Measurement(iterations = 5, batchSize = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ColdStartBenchmark {
+
+	private static final int GROUPS = 1000;
+
+	@Param({"100000", "1000000"})
+	public int devices;
+
+	/**
+	 * iot.group.passivate-after; with passivation on, restored devices get no actor until their first message.
+	 */
+	@Param({"0s", "10m"})
+	public String passivateAfter;
+
+	private Path file;
+	private ActorSystem system;
+
+	@Setup(Level.Trial)
+	public void writeSnapshot() throws Exception {
+		file = Files.createTempFile("topology", ".bin");
+		List<DeviceGroup.GroupTopology> groups = new ArrayList<>(GROUPS);
+		int perGroup = devices / GROUPS;
+		for(int g = 0; g < GROUPS; g++) {
+			List<String> deviceIds = new ArrayList<>(perGroup);
+			long[] timestamps = new long[perGroup];
+			double[] values = new double[perGroup];
+			for(int i = 0; i < perGroup; i++) {
+				deviceIds.add("device" + (g * perGroup + i));
+				timestamps[i] = 1_500_000_000_000L + i;
+				values[i] = 20.0 + i % 100 / 10.0;
+			}
+			groups.add(new DeviceGroup.GroupTopology("group" + g, deviceIds, timestamps, values));
+		}
+		TopologySnapshot.write(file, groups, true);
+	}
+
+	@TearDown(Level.Trial)
+	public void deleteSnapshot() throws Exception {
+		Files.deleteIfExists(file);
+	}
+
+	@Setup(Level.Invocation)
+	public void startSystem() {
+		system = ActorSystem.create("cold-start-benchmark", ConfigFactory.parseString(
+				"iot.topology.enabled = on\n" +
+				"iot.topology.file = \"" + file.toString().replace("\\", "\\\\") + "\"\n" +
+				"iot.topology.snapshot-interval = 1h\n" +
+				"iot.group.passivate-after = " + passivateAfter + "\n" +
+				"iot.metrics.jmx = off\n" +
+				"akka.loglevel = WARNING\n")
+				.withFallback(ConfigFactory.load()));
+	}
+
+	@TearDown(Level.Invocation)
+	public void stopSystem() throws Exception {
+		Await.ready(system.terminate(), Duration.create(5, TimeUnit.MINUTES));
+	}
+
+	@Benchmark
+	public long restoreTopology() throws Exception {
+		system.actorOf(DeviceManager.props(), "device-manager");
+		IoTMetrics metrics = IoTMetrics.get(system);
+		while(metrics.getRestoredDevices() < 0) {
+			Thread.sleep(1);
+		}
+		return metrics.getTimeToReadyMillis();
+	}
+}
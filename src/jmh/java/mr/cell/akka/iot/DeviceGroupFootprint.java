@@ -0,0 +1,80 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.PoisonPill;
+import akka.pattern.PatternsCS;
+import com.typesafe.config.ConfigFactory;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retained heap per tracked device of one {@link DeviceGroup} with the latest-reading cache, once with every device
+ * actor alive and once with every device passivated, where the group's bookkeeping is all that is left.
+ *
+ * <pre>DeviceGroupFootprint [devices]</pre>
+ */
+public final class DeviceGroupFootprint {
+
+	private static final FiniteDuration PASSIVATE_AFTER = new FiniteDuration(1, TimeUnit.SECONDS);
+
+	private DeviceGroupFootprint() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		int devices = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+		ActorSystem system = ActorSystem.create("device-group-footprint", ConfigFactory.parseString("akka.loglevel = WARNING")
+				.withFallback(ConfigFactory.load()));
+		try {
+			DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config())
+					.withLatestReadingCache(new FiniteDuration(1, TimeUnit.HOURS));
+			System.out.printf("%,d devices, live:        %,6d bytes per device%n", devices, measure(system, settings, devices, false));
+			System.out.printf("%,d devices, passivated:  %,6d bytes per device%n", devices,
+					measure(system, settings.withPassivation(PASSIVATE_AFTER), devices, true));
+		} finally {
+			Await.ready(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+		}
+	}
+
+	private static long measure(ActorSystem system, DeviceGroupSettings settings, int devices, boolean passivate) throws Exception {
+		long before = usedHeap();
+		ActorRef group = system.actorOf(DeviceGroup.props("group", settings));
+		ActorRef collector = system.actorOf(BurstCollector.props());
+		BurstCollector.run(collector, new BurstCollector.Burst(group, devices,
+				i -> new DeviceManager.RequestTrackDevice("group", "device-" + i), DeviceManager.DeviceRegistered.class, false));
+		List<DeviceManager.DeviceReading> readings = new ArrayList<>(devices);
+		for(int i = 0; i < devices; i++) {
+			readings.add(new DeviceManager.DeviceReading("group", "device-" + i, 20.0 + i % 10, System.currentTimeMillis()));
+		}
+		PatternsCS.ask(group, new DeviceManager.RecordTemperatureBatch(0L, readings), 60_000).toCompletableFuture().get();
+		readings = null;
+		collector.tell(PoisonPill.getInstance(), ActorRef.noSender());
+
+		// Wait for the readings to reach the cache and, when passivating, for the device actors to stop.
+		long used = usedHeap();
+		long previous;
+		do {
+			Thread.sleep(passivate ? 2 * PASSIVATE_AFTER.toMillis() : 500);
+			previous = used;
+			used = usedHeap();
+		} while(Math.abs(used - previous) > previous / 100);
+
+		long perDevice = (used - before) / devices;
+		PatternsCS.gracefulStop(group, new FiniteDuration(1, TimeUnit.MINUTES)).toCompletableFuture().get();
+		return perDevice;
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		for(int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(100);
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
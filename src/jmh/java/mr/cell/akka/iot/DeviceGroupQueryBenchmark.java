@@ -0,0 +1,86 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of one group query, and of {@value #CONCURRENT_READERS} readers querying the group at once: coalesced
+ * into one query with the default policy, or as separate queries with {@code quorum(1.0)}, which waits for every
+ * device just the same but is never coalesced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeviceGroupQueryBenchmark {
+
+	private static final Timeout TIMEOUT = Timeout.apply(10, TimeUnit.MINUTES);
+	private static final int CONCURRENT_READERS = 50;
+
+	@Param({"10", "1000", "10000", "100000"})
+	public int groupSize;
+
+	@Param({"false", "true"})
+	public boolean latestReadingCache;
+
+	private ActorSystem system;
+	private ActorRef group;
+	private ActorRef collector;
+	private long requestId;
+
+	@Setup
+	public void setup() throws Exception {
+		system = ActorSystem.create("query-benchmark");
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config());
+		if(latestReadingCache) {
+			settings = settings.withLatestReadingCache(settings.getStaleAfter());
+		}
+		group = system.actorOf(DeviceGroup.props("group", settings), "group");
+		collector = system.actorOf(BurstCollector.props(), "collector");
+
+		List<ActorRef> devices = BurstCollector.run(collector, new BurstCollector.Burst(group, groupSize,
+				i -> new DeviceManager.RequestTrackDevice("group", "device" + i),
+				DeviceManager.DeviceRegistered.class, true));
+		for(int i = 0; i < devices.size(); i++) {
+			int index = i;
+			BurstCollector.run(collector, new BurstCollector.Burst(devices.get(index), 1,
+					r -> new Device.RecordTemperature(r, index),
+					Device.TemperatureRecorded.class, false));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Await.ready(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+	}
+
+	@Benchmark
+	public Object requestAllTemperatures() throws Exception {
+		return PatternsCS.ask(group, new DeviceGroup.RequestAllTemperatures(requestId++), TIMEOUT)
+				.toCompletableFuture().get();
+	}
+
+	@Benchmark
+	public Object concurrentReadersCoalesced() throws Exception {
+		return BurstCollector.run(collector, new BurstCollector.Burst(group, CONCURRENT_READERS,
+				i -> new DeviceGroup.RequestAllTemperatures(i),
+				DeviceGroup.RespondAllTemperatures.class, false));
+	}
+
+	@Benchmark
+	public Object concurrentReadersSeparate() throws Exception {
+		return BurstCollector.run(collector, new BurstCollector.Burst(group, CONCURRENT_READERS,
+				i -> new DeviceGroup.RequestAllTemperatures(i, DeviceGroup.CompletionPolicy.quorum(1.0)),
+				DeviceGroup.RespondAllTemperatures.class, false));
+	}
+}
@@ -0,0 +1,113 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Address;
+import akka.cluster.Cluster;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardRegion;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+/**
+ * Ingest throughput and group query latency through the shard region of the first node, with groups spread
+ * over {@code nodes} cluster members running in this JVM.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceGroupShardingBenchmark {
+
+	private static final int GROUPS = 30;
+	private static final int DEVICES_PER_GROUP = 10;
+	private static final int READINGS_PER_DEVICE = 10;
+	private static final Timeout TIMEOUT = Timeout.apply(10, TimeUnit.SECONDS);
+
+	@Param({"1", "2", "3"})
+	public int nodes;
+
+	private List<ActorSystem> systems;
+	private ActorRef region;
+	private ActorRef collector;
+	private DeviceManager.RecordTemperatureBatch[] batches;
+	private long requestId;
+
+	@Setup
+	public void setup() throws Exception {
+		Config config = ConfigFactory.parseString(
+				"akka.actor.provider = cluster\n" +
+				"akka.actor.warn-about-java-serializer-usage = off\n" +
+				"akka.remote.netty.tcp.hostname = 127.0.0.1\n" +
+				"akka.remote.netty.tcp.port = 0\n" +
+				"akka.cluster.jmx.multi-mbeans-in-same-jvm = on\n")
+				.withFallback(ConfigFactory.load());
+		systems = new ArrayList<>();
+		for(int i = 0; i < nodes; i++) {
+			systems.add(ActorSystem.create("sharding-benchmark", config));
+		}
+		Address seed = Cluster.lookup().get(systems.get(0)).selfAddress();
+		systems.forEach(system -> Cluster.lookup().get(system).join(seed));
+		while(StreamSupport.stream(Cluster.lookup().get(systems.get(0)).state().getMembers().spliterator(), false)
+				.filter(member -> member.status() == MemberStatus.up()).count() < nodes) {
+			Thread.sleep(100);
+		}
+
+		List<ActorRef> regions = new ArrayList<>();
+		systems.forEach(system -> regions.add(DeviceGroupSharding.start(system)));
+		region = regions.get(0);
+		while(((ShardRegion.CurrentRegions) PatternsCS.ask(region, ShardRegion.getCurrentRegionsInstance(), TIMEOUT)
+				.toCompletableFuture().get()).getRegions().size() < nodes) {
+			Thread.sleep(100);
+		}
+
+		collector = systems.get(0).actorOf(BurstCollector.props(), "collector");
+		BurstCollector.run(collector, new BurstCollector.Burst(region, GROUPS * DEVICES_PER_GROUP,
+				i -> new DeviceManager.RequestTrackDevice("group" + (i % GROUPS), "device" + (i / GROUPS)),
+				DeviceManager.DeviceRegistered.class, false));
+
+		batches = new DeviceManager.RecordTemperatureBatch[GROUPS];
+		for(int group = 0; group < GROUPS; group++) {
+			List<DeviceManager.DeviceReading> readings = new ArrayList<>();
+			for(int i = 0; i < DEVICES_PER_GROUP * READINGS_PER_DEVICE; i++) {
+				readings.add(new DeviceManager.DeviceReading("group" + group, "device" + (i % DEVICES_PER_GROUP), 21.5, i));
+			}
+			batches[group] = new DeviceManager.RecordTemperatureBatch(group, readings);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		for(ActorSystem system : systems) {
+			Await.ready(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(GROUPS * DEVICES_PER_GROUP * READINGS_PER_DEVICE)
+	public Object recordTemperatureBatches() throws Exception {
+		return BurstCollector.run(collector, new BurstCollector.Burst(region, GROUPS,
+				i -> batches[i], DeviceManager.TemperatureBatchRecorded.class, false));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Object requestAllTemperatures() throws Exception {
+		long id = requestId++;
+		return PatternsCS.ask(region, new DeviceManager.GroupEnvelope("group" + (id % GROUPS), new DeviceGroup.RequestAllTemperatures(id)), TIMEOUT)
+				.toCompletableFuture().get();
+	}
+}
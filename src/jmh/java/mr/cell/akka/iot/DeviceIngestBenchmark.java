@@ -0,0 +1,79 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceIngestBenchmark {
+
+	private static final int BURST_SIZE = 1000;
+	private static final Timeout TIMEOUT = Timeout.apply(10, TimeUnit.SECONDS);
+
+	private ActorSystem system;
+	private ActorRef deviceManager;
+	private ActorRef device;
+	private ActorRef collector;
+	private DeviceManager.RecordTemperatureBatch batch;
+	private long requestId;
+
+	@Setup
+	public void setup() throws Exception {
+		system = ActorSystem.create("ingest-benchmark");
+		deviceManager = system.actorOf(DeviceManager.props(), "device-manager");
+		collector = system.actorOf(BurstCollector.props(), "collector");
+		device = BurstCollector.run(collector, new BurstCollector.Burst(deviceManager, 1,
+				i -> new DeviceManager.RequestTrackDevice("group", "device"),
+				DeviceManager.DeviceRegistered.class, true)).get(0);
+
+		List<DeviceManager.DeviceReading> readings = new ArrayList<>(BURST_SIZE);
+		for(int i = 0; i < BURST_SIZE; i++) {
+			readings.add(new DeviceManager.DeviceReading("group", "device", 21.5, i));
+		}
+		batch = new DeviceManager.RecordTemperatureBatch(0L, readings);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Await.ready(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+	}
+
+	@Benchmark
+	public Object trackDeviceRoundTrip() throws Exception {
+		return PatternsCS.ask(deviceManager, new DeviceManager.RequestTrackDevice("group", "device"), TIMEOUT)
+				.toCompletableFuture().get();
+	}
+
+	@Benchmark
+	public Object recordTemperatureDirectRoundTrip() throws Exception {
+		return PatternsCS.ask(device, new Device.RecordTemperature(requestId++, 21.5), TIMEOUT)
+				.toCompletableFuture().get();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST_SIZE)
+	public Object recordTemperatureDirectPipelined() throws Exception {
+		return BurstCollector.run(collector, new BurstCollector.Burst(device, BURST_SIZE,
+				i -> new Device.RecordTemperature(i, 21.5),
+				Device.TemperatureRecorded.class, false));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST_SIZE)
+	public Object recordTemperatureBatch() throws Exception {
+		return PatternsCS.ask(deviceManager, batch, TIMEOUT).toCompletableFuture().get();
+	}
+}
@@ -0,0 +1,78 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceRegistrationBenchmark {
+
+	private static final int BURST_SIZE = 1000;
+	private static final int GROUPS = 100;
+
+	@Param({"1", "4"})
+	public int shards;
+
+	/**
+	 * iot.group.passivate-after; with passivation on, new devices get no actor until their first message.
+	 */
+	@Param({"0s", "10m"})
+	public String passivateAfter;
+
+	private ActorSystem system;
+	private ActorRef deviceManager;
+	private ActorRef collector;
+	private int nextDevice;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		system = ActorSystem.create("registration-benchmark", ConfigFactory.parseString(
+				"iot.group.passivate-after = " + passivateAfter).withFallback(ConfigFactory.load()));
+		deviceManager = system.actorOf(DeviceManager.props(shards), "device-manager");
+		collector = system.actorOf(BurstCollector.props(), "collector");
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() throws Exception {
+		Await.ready(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BURST_SIZE)
+	public Object trackNewDevices() throws Exception {
+		int first = nextDevice;
+		nextDevice += BURST_SIZE;
+		return BurstCollector.run(collector, new BurstCollector.Burst(deviceManager, BURST_SIZE,
+				i -> new DeviceManager.RequestTrackDevice("group" + ((first + i) % GROUPS), "device" + (first + i)),
+				DeviceManager.DeviceRegistered.class, false));
+	}
+
+	/**
+	 * The same devices as {@link #trackNewDevices()}, registered with one RequestTrackDevices per group.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BURST_SIZE)
+	public Object trackNewDevicesBulk() throws Exception {
+		int first = nextDevice;
+		nextDevice += BURST_SIZE;
+		return BurstCollector.run(collector, new BurstCollector.Burst(deviceManager, GROUPS, g -> {
+			List<String> deviceIds = new ArrayList<>(BURST_SIZE / GROUPS);
+			for(int i = g; i < BURST_SIZE; i += GROUPS) {
+				deviceIds.add("device" + (first + i));
+			}
+			return new DeviceManager.RequestTrackDevices("group" + ((first + g) % GROUPS), deviceIds);
+		}, DeviceManager.DevicesRegistered.class, false));
+	}
+}
@@ -0,0 +1,90 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of reading every group of a DeviceManager: one fleet query, against a client asking the groups one
+ * after the other.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FleetQueryBenchmark {
+
+	private static final Timeout TIMEOUT = Timeout.apply(10, TimeUnit.MINUTES);
+	private static final FiniteDuration DEADLINE = new FiniteDuration(10, TimeUnit.SECONDS);
+	private static final int DEVICES_PER_GROUP = 100;
+
+	@Param({"10", "100"})
+	public int groups;
+
+	private ActorSystem system;
+	private ActorRef manager;
+	private List<String> groupIds;
+	private long requestId;
+
+	@Setup
+	public void setup() throws Exception {
+		system = ActorSystem.create("fleet-query-benchmark", ConfigFactory.parseString(
+				"iot.metrics.jmx = off\n" +
+				"akka.loglevel = WARNING\n")
+				.withFallback(ConfigFactory.load()));
+		manager = system.actorOf(DeviceManager.props(), "device-manager");
+		groupIds = new ArrayList<>(groups);
+		for(int g = 0; g < groups; g++) {
+			String groupId = "group" + g;
+			List<String> deviceIds = new ArrayList<>(DEVICES_PER_GROUP);
+			for(int i = 0; i < DEVICES_PER_GROUP; i++) {
+				deviceIds.add("device" + i);
+			}
+			PatternsCS.ask(manager, new DeviceManager.RequestTrackDevices(groupId, deviceIds), TIMEOUT).toCompletableFuture().get();
+			for(int i = 0; i < DEVICES_PER_GROUP; i++) {
+				PatternsCS.ask(manager, new DeviceManager.DeviceEnvelope(groupId, "device" + i, new Device.RecordTemperature(i, 20.0 + i % 10)),
+						TIMEOUT).toCompletableFuture().get();
+			}
+			groupIds.add(groupId);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Await.ready(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+	}
+
+	@Benchmark
+	public Object fleetAggregate() throws Exception {
+		return PatternsCS.ask(manager, new DeviceManager.RequestFleetTemperatures(requestId++,
+				DeviceManager.RequestFleetTemperatures.View.AGGREGATE, DEADLINE), TIMEOUT).toCompletableFuture().get();
+	}
+
+	@Benchmark
+	public Object fleetFull() throws Exception {
+		return PatternsCS.ask(manager, new DeviceManager.RequestFleetTemperatures(requestId++,
+				DeviceManager.RequestFleetTemperatures.View.FULL, DEADLINE), TIMEOUT).toCompletableFuture().get();
+	}
+
+	@Benchmark
+	public Object clientPerGroup() throws Exception {
+		List<Object> responses = new ArrayList<>(groupIds.size());
+		for(String groupId : groupIds) {
+			responses.add(PatternsCS.ask(manager, new DeviceManager.GroupEnvelope(groupId,
+					new DeviceGroup.RequestAllTemperatures(requestId++)), TIMEOUT).toCompletableFuture().get());
+		}
+		return responses;
+	}
+}
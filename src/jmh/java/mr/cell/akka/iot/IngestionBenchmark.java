@@ -0,0 +1,90 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of readings recorded through the back-pressured {@link TemperatureIngestion} flow, which batches
+ * them per group, compared with a producer that sends pre-built per-group batches of 10k readings without flow control.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestionBenchmark {
+
+	private static final int GROUPS = 10;
+	private static final int DEVICES_PER_GROUP = 10;
+	private static final int READINGS = 100_000;
+
+	@Param({"500", "5000"})
+	public int batchSize;
+
+	private ActorSystem system;
+	private Materializer materializer;
+	private ActorRef deviceManager;
+	private ActorRef collector;
+	private IngestionSettings settings;
+	private List<DeviceManager.DeviceReading> readings;
+	private DeviceManager.RecordTemperatureBatch[] batches;
+
+	@Setup
+	public void setup() throws Exception {
+		system = ActorSystem.create("ingestion-benchmark");
+		materializer = ActorMaterializer.create(system);
+		deviceManager = system.actorOf(DeviceManager.props(), "device-manager");
+		collector = system.actorOf(BurstCollector.props(), "collector");
+		BurstCollector.run(collector, new BurstCollector.Burst(deviceManager, GROUPS * DEVICES_PER_GROUP,
+				i -> new DeviceManager.RequestTrackDevice("group" + (i % GROUPS), "device" + (i / GROUPS)),
+				DeviceManager.DeviceRegistered.class, false));
+		settings = IngestionSettings.fromConfig(system.settings().config());
+		settings = settings.withBatching(batchSize, settings.getBatchInterval());
+
+		readings = new ArrayList<>(READINGS);
+		for(int i = 0; i < READINGS; i++) {
+			readings.add(new DeviceManager.DeviceReading("group" + (i % GROUPS), "device" + (i / GROUPS % DEVICES_PER_GROUP), 21.5, i));
+		}
+		batches = new DeviceManager.RecordTemperatureBatch[GROUPS];
+		for(int group = 0; group < GROUPS; group++) {
+			List<DeviceManager.DeviceReading> batch = new ArrayList<>();
+			for(int i = group; i < READINGS; i += GROUPS) {
+				batch.add(readings.get(i));
+			}
+			batches[group] = new DeviceManager.RecordTemperatureBatch(group, batch);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Await.ready(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READINGS)
+	public Object ingestThroughFlow() throws Exception {
+		return Source.from(readings)
+				.via(TemperatureIngestion.flow(deviceManager, settings))
+				.runWith(Sink.ignore(), materializer)
+				.toCompletableFuture().get();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(READINGS)
+	public Object prebuiltBatches() throws Exception {
+		return BurstCollector.run(collector, new BurstCollector.Burst(deviceManager, GROUPS,
+				i -> batches[i], DeviceManager.TemperatureBatchRecorded.class, false));
+	}
+}
@@ -0,0 +1,153 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+
+	private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final int COMMIT_BATCH_SIZE = 1000;
+	private static final int DEVICES = 10_000;
+	private static final int RECOVERY_EVENTS = 1_000_000;
+
+	@State(Scope.Benchmark)
+	public static class AppendState {
+		private Path directory;
+		private Journal journal;
+		private String[] deviceIds;
+
+		@Setup(Level.Iteration)
+		public void setup() throws IOException {
+			directory = Files.createTempDirectory("journal-append");
+			journal = Journal.open(directory, SEGMENT_SIZE, 1L);
+			deviceIds = deviceIds();
+		}
+
+		@TearDown(Level.Iteration)
+		public void tearDown() throws IOException {
+			journal.close();
+			delete(directory);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class IngestState {
+		private Path directory;
+		private ActorSystem system;
+		private ActorRef device;
+		private ActorRef collector;
+
+		@Setup
+		public void setup() throws Exception {
+			directory = Files.createTempDirectory("journal-ingest");
+			system = ActorSystem.create("journal-benchmark");
+			DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config());
+			settings = settings.withJournal(settings.getJournalSettings().withDirectory(directory).withSegmentSize(SEGMENT_SIZE));
+			ActorRef group = system.actorOf(DeviceGroup.props("group", settings), "group");
+			collector = system.actorOf(BurstCollector.props(), "collector");
+			device = BurstCollector.run(collector, new BurstCollector.Burst(group, 1,
+					i -> new DeviceManager.RequestTrackDevice("group", "device"),
+					DeviceManager.DeviceRegistered.class, true)).get(0);
+		}
+
+		@TearDown
+		public void tearDown() throws Exception {
+			Await.ready(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+			delete(directory);
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class RecoveryState {
+		private Path directory;
+
+		@Setup
+		public void setup() throws IOException {
+			directory = Files.createTempDirectory("journal-recovery");
+			String[] deviceIds = deviceIds();
+			try(Journal journal = Journal.open(directory, SEGMENT_SIZE, 1L)) {
+				for(int i = 0; i < RECOVERY_EVENTS; i++) {
+					journal.append(deviceIds[i % DEVICES], i, 20.0 + (i % 100) / 10.0);
+				}
+			}
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			delete(directory);
+		}
+	}
+
+	/**
+	 * Raw appends, forced to disk once per {@value #COMMIT_BATCH_SIZE} as a group commit would.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(COMMIT_BATCH_SIZE)
+	public long appendAndCommit(AppendState state) throws IOException {
+		long seqNr = 0;
+		for(int i = 0; i < COMMIT_BATCH_SIZE; i++) {
+			seqNr = state.journal.append(state.deviceIds[i % DEVICES], i, 21.5);
+		}
+		state.journal.flush();
+		return seqNr;
+	}
+
+	/**
+	 * Pipelined RecordTemperature bursts against a journaling group; every ack waits for its commit.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(COMMIT_BATCH_SIZE)
+	public Object recordTemperatureJournaled(IngestState state) throws Exception {
+		return BurstCollector.run(state.collector, new BurstCollector.Burst(state.device, COMMIT_BATCH_SIZE,
+				i -> new Device.RecordTemperature(i, 21.5),
+				Device.TemperatureRecorded.class, false));
+	}
+
+	/**
+	 * Replays a million readings of {@value #DEVICES} devices into per-device histories, as group recovery does.
+	 */
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 3, batchSize = 1)
+	@Measurement(iterations = 10, batchSize = 1)
+	public Map<String, TemperatureHistory> recoverMillionEvents(RecoveryState state) throws IOException {
+		Map<String, TemperatureHistory> recovered = new HashMap<>();
+		Journal.replay(state.directory, 1L, (seqNr, deviceId, timestamp, value) ->
+				recovered.computeIfAbsent(deviceId, id -> new TemperatureHistory(16)).record(timestamp, value));
+		return recovered;
+	}
+
+	private static String[] deviceIds() {
+		String[] deviceIds = new String[DEVICES];
+		for(int i = 0; i < DEVICES; i++) {
+			deviceIds[i] = "device" + i;
+		}
+		return deviceIds;
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try(Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+}
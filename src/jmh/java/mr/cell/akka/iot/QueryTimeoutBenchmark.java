@@ -0,0 +1,113 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.UnboundedMailbox;
+import akka.pattern.PatternsCS;
+import akka.util.Timeout;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.openjdk.jmh.annotations.*;
+import scala.Option;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of querying a group of {@value #DEVICES} devices one of which never answers: with the fixed default
+ * timeout, with the timeout the group learned from its earlier queries, and with a timeout given by the request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class QueryTimeoutBenchmark {
+
+	private static final Timeout TIMEOUT = Timeout.apply(1, TimeUnit.MINUTES);
+	private static final int DEVICES = 1000;
+	private static final int LEARNING_QUERIES = 10;
+
+	@Param({"false", "true"})
+	public boolean adaptive;
+
+	private ActorSystem system;
+	private ActorRef group;
+	private long requestId;
+
+	@Setup
+	public void setup() throws Exception {
+		system = ActorSystem.create("query-timeout-benchmark", ConfigFactory.parseString(
+				"akka.actor.deployment.\"/group/device-group-stalled\".mailbox = unresponsive-device-mailbox\n" +
+				"unresponsive-device-mailbox.mailbox-type = \"" + UnresponsiveDeviceMailbox.class.getName() + "\"\n" +
+				"iot.metrics.jmx = off\n" +
+				"akka.loglevel = WARNING\n")
+				.withFallback(ConfigFactory.load()));
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config());
+		settings = settings.withQueryTimeoutSettings(settings.getQueryTimeoutSettings()
+				.withAdaptive(adaptive)
+				.withMinSamples(LEARNING_QUERIES));
+		group = system.actorOf(DeviceGroup.props("group", settings), "group");
+
+		List<String> deviceIds = new ArrayList<>(DEVICES);
+		for(int i = 1; i < DEVICES; i++) {
+			deviceIds.add("device" + i);
+		}
+		deviceIds.add("stalled");
+		PatternsCS.ask(group, new DeviceManager.RequestTrackDevices("group", deviceIds), TIMEOUT).toCompletableFuture().get();
+		for(int i = 1; i < DEVICES; i++) {
+			PatternsCS.ask(group, new DeviceManager.DeviceEnvelope("group", "device" + i, new Device.RecordTemperature(i, 20.0)), TIMEOUT)
+					.toCompletableFuture().get();
+		}
+		// Each of these waits the default timeout for the stalled device, and teaches an adaptive group its timeout.
+		for(int i = 0; i < LEARNING_QUERIES; i++) {
+			requestAllTemperatures();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Await.ready(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+	}
+
+	@Benchmark
+	public Object requestAllTemperatures() throws Exception {
+		return PatternsCS.ask(group, new DeviceGroup.RequestAllTemperatures(requestId++), TIMEOUT)
+				.toCompletableFuture().get();
+	}
+
+	@Benchmark
+	public Object requestWithTimeout() throws Exception {
+		return PatternsCS.ask(group, new DeviceGroup.RequestAllTemperatures(requestId++, DeviceGroup.CompletionPolicy.all(),
+				new FiniteDuration(250, TimeUnit.MILLISECONDS)), TIMEOUT).toCompletableFuture().get();
+	}
+
+	/**
+	 * Drops every ReadTemperature, so the device deployed with it never answers a query.
+	 */
+	public static class UnresponsiveDeviceMailbox implements MailboxType {
+
+		public UnresponsiveDeviceMailbox(ActorSystem.Settings settings, Config config) {
+		}
+
+		@Override
+		public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+			return new UnboundedMailbox.MessageQueue() {
+				@Override
+				public void enqueue(ActorRef receiver, Envelope handle) {
+					if(!(handle.message() instanceof Device.ReadTemperature)) {
+						super.enqueue(receiver, handle);
+					}
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.JavaSerializer;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.SerializerWithStringManifest;
+import org.openjdk.jmh.annotations.*;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization and deserialization of typical protocol messages with {@link IoTMessageSerializer} and with Akka's
+ * Java serializer. The serialized size of every message is printed during setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	@Param({"RecordTemperature", "RecordTemperatureBatch", "RespondAllTemperatures", "RespondGroupStatistics"})
+	public String message;
+
+	@Param({"iot", "java"})
+	public String serializer;
+
+	private ActorSystem system;
+	private Serializer selected;
+	private Object value;
+	private String manifest;
+	private byte[] bytes;
+
+	@Setup
+	public void setup() {
+		system = ActorSystem.create("serialization-benchmark");
+		value = message(message);
+		selected = serializer.equals("java") ? new JavaSerializer((ExtendedActorSystem) system)
+				: SerializationExtension.lookup().get(system).findSerializerFor(value);
+		manifest = selected instanceof SerializerWithStringManifest ? ((SerializerWithStringManifest) selected).manifest(value) : null;
+		bytes = selected.toBinary(value);
+		System.out.printf("%n%s with %s: %,d bytes%n", message, serializer, bytes.length);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Await.ready(system.terminate(), Duration.create(10, TimeUnit.SECONDS));
+	}
+
+	@Benchmark
+	public byte[] serialize() {
+		return selected.toBinary(value);
+	}
+
+	@Benchmark
+	public Object deserialize() throws Exception {
+		if(manifest != null) {
+			return ((SerializerWithStringManifest) selected).fromBinary(bytes, manifest);
+		}
+		return selected.fromBinary(bytes, value.getClass());
+	}
+
+	private static Object message(String name) {
+		switch(name) {
+			case "RecordTemperature":
+				return new Device.RecordTemperature(12_345L, 21.5, 1_508_000_000_000L);
+			case "RecordTemperatureBatch":
+				List<DeviceManager.DeviceReading> readings = new ArrayList<>();
+				for(int i = 0; i < 100; i++) {
+					readings.add(new DeviceManager.DeviceReading("group-1", "device-" + i, 20.0 + i % 7, 1_508_000_000_000L + i));
+				}
+				return new DeviceManager.RecordTemperatureBatch(12_345L, readings);
+			case "RespondAllTemperatures":
+				Map<String, DeviceGroup.TemperatureReading> temperatures = new HashMap<>();
+				for(int i = 0; i < 100; i++) {
+					temperatures.put("device-" + i, i % 10 == 0 ? new DeviceGroup.DeviceTimeout() : new DeviceGroup.Temperature(20.0 + i % 7));
+				}
+				return new DeviceGroup.RespondAllTemperatures(12_345L, temperatures);
+			case "RespondGroupStatistics":
+				TemperatureStatistics statistics = new TemperatureStatistics();
+				for(int i = 0; i < 1000; i++) {
+					statistics.add(15.0 + i % 150 / 10.0);
+				}
+				return new DeviceGroup.RespondGroupStatistics(12_345L, statistics, 3);
+			default:
+				throw new IllegalArgumentException("Unknown message " + name);
+		}
+	}
+}
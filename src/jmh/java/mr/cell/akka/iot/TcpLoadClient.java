@@ -0,0 +1,95 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorSystem;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.Tcp;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import scala.concurrent.Await;
+import scala.concurrent.duration.Duration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local load generator for {@link TcpIngestionEndpoint}. Every connection tracks its own devices, then writes
+ * readings as fast as the endpoint accepts them and prints the readings per second of every connection each second.
+ *
+ * <pre>TcpLoadClient [host] [port] [connections] [devices per connection] [seconds]</pre>
+ */
+public final class TcpLoadClient {
+
+	private static final int READINGS_PER_CHUNK = 256;
+
+	private TcpLoadClient() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		String host = args.length > 0 ? args[0] : "127.0.0.1";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 7070;
+		int connections = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		int devices = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+		int seconds = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+
+		ActorSystem system = ActorSystem.create("iot-load-client");
+		try {
+			Materializer materializer = ActorMaterializer.create(system);
+			LongAdder[] sent = new LongAdder[connections];
+			List<CompletableFuture<?>> done = new ArrayList<>();
+			for(int connection = 0; connection < connections; connection++) {
+				LongAdder counter = sent[connection] = new LongAdder();
+				String groupId = "load-" + connection;
+				done.add(Source.single(trackDevices(groupId, devices))
+						.concat(Source.repeat(readings(groupId, devices)).map(chunk -> {
+							counter.add(READINGS_PER_CHUNK);
+							return chunk;
+						}))
+						.takeWithin(new FiniteDuration(seconds, TimeUnit.SECONDS))
+						.via(Tcp.lookup().get(system).outgoingConnection(host, port))
+						.runWith(Sink.ignore(), materializer)
+						.toCompletableFuture());
+			}
+
+			long[] previous = new long[connections];
+			for(int second = 1; second <= seconds; second++) {
+				Thread.sleep(1000);
+				StringBuilder line = new StringBuilder(String.format("%3ds", second));
+				long total = 0;
+				for(int connection = 0; connection < connections; connection++) {
+					long count = sent[connection].sum();
+					line.append(String.format("  conn %d: %,10d/s", connection, count - previous[connection]));
+					total += count - previous[connection];
+					previous[connection] = count;
+				}
+				System.out.println(line.append(String.format("  total: %,d/s", total)));
+			}
+			CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[0])).get(seconds + 10, TimeUnit.SECONDS);
+		} finally {
+			Await.ready(system.terminate(), Duration.create(30, TimeUnit.SECONDS));
+		}
+	}
+
+	private static ByteString trackDevices(String groupId, int devices) {
+		ByteStringBuilder builder = new ByteStringBuilder();
+		for(int device = 0; device < devices; device++) {
+			ReadingFrameCodec.writeTrackDevice(builder, groupId, "device-" + device);
+		}
+		return builder.result();
+	}
+
+	private static ByteString readings(String groupId, int devices) {
+		ByteStringBuilder builder = new ByteStringBuilder();
+		long now = System.currentTimeMillis();
+		for(int i = 0; i < READINGS_PER_CHUNK; i++) {
+			ReadingFrameCodec.writeReading(builder, groupId, "device-" + (i % devices), now + i, 20.0 + i % 10);
+		}
+		return builder.result();
+	}
+}
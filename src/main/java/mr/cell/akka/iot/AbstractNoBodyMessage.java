@@ -1,9 +1,12 @@
 package mr.cell.akka.iot;
 
+import java.io.Serializable;
+
 /**
  * Created by U517779 on 2017-09-08.
  */
-public abstract class AbstractNoBodyMessage {
+public abstract class AbstractNoBodyMessage implements Serializable {
+	private static final long serialVersionUID = 1L;
 
 	@Override
 	public boolean equals(Object o) {
@@ -0,0 +1,118 @@
+package mr.cell.akka.iot;
+
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timeout for the queries of one group, learned from how long its devices take to answer. Every query that ran under
+ * this timeout records the reply latency of each device that answered, and each device that timed out as a censored
+ * sample at the timeout, since all that is known is that it took at least that long. Once {@code min-samples} queries
+ * are recorded, queries time out at the configured quantile of those latencies plus the margin, and never later than
+ * the default timeout. So when more devices time out than the quantile leaves out, the quantile lands on the timeout
+ * and the next timeout is at least a margin longer. Latencies are counted in buckets a quarter of a power of two
+ * wide, and all counts are halved every {@value #WINDOW} queries, so the timeout follows a group that gets slower or
+ * faster.
+ */
+public final class AdaptiveQueryTimeout {
+
+	private static final int WINDOW = 1024;
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int BUCKETS = 40 << SUB_BUCKET_BITS;
+	private static final long STALE = -1L;
+
+	private final QueryTimeoutSettings settings;
+	private final long[] counts = new long[BUCKETS];
+	private long total;
+	private long queries;
+	private int windowQueries;
+	private long timeoutNanos = STALE;
+
+	public AdaptiveQueryTimeout(QueryTimeoutSettings settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * Reply latencies of one query, to be filled with {@link #count(int[], long)}.
+	 */
+	static int[] newHistogram() {
+		return new int[BUCKETS];
+	}
+
+	static void count(int[] histogram, long latencyNanos) {
+		histogram[bucket(TimeUnit.NANOSECONDS.toMicros(latencyNanos))]++;
+	}
+
+	/**
+	 * Records a query that ran under {@link #timeout()}, with the latencies of the devices that answered and the
+	 * number of devices that timed out after {@code timeoutNanos}. Devices that stopped are left out of both.
+	 */
+	public void record(int[] replyLatencies, int timedOut, long timeoutNanos) {
+		if(!settings.isAdaptive()) {
+			return;
+		}
+		for(int i = 0; i < BUCKETS; i++) {
+			counts[i] += replyLatencies[i];
+			total += replyLatencies[i];
+		}
+		counts[bucket(TimeUnit.NANOSECONDS.toMicros(timeoutNanos))] += timedOut;
+		total += timedOut;
+		queries++;
+		if(++windowQueries == WINDOW) {
+			windowQueries = 0;
+			total = 0;
+			for(int i = 0; i < BUCKETS; i++) {
+				counts[i] >>= 1;
+				total += counts[i];
+			}
+		}
+		this.timeoutNanos = STALE;
+	}
+
+	public FiniteDuration timeout() {
+		if(timeoutNanos == STALE) {
+			timeoutNanos = computeTimeoutNanos();
+		}
+		return new FiniteDuration(timeoutNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private long computeTimeoutNanos() {
+		long defaultNanos = settings.getDefaultTimeout().toNanos();
+		if(!settings.isAdaptive() || queries < settings.getMinSamples() || total == 0) {
+			return defaultNanos;
+		}
+		long rank = (long) Math.ceil(settings.getQuantile() * total) - 1;
+		long seen = 0;
+		int bucket = 0;
+		while(bucket < BUCKETS - 1) {
+			seen += counts[bucket];
+			if(seen > rank) {
+				break;
+			}
+			bucket++;
+		}
+		long quantileNanos = TimeUnit.MICROSECONDS.toNanos(upperBound(bucket));
+		return Math.min(defaultNanos, quantileNanos + settings.getMargin().toNanos());
+	}
+
+	private static int bucket(long micros) {
+		if(micros < 1L << SUB_BUCKET_BITS) {
+			return (int) Math.max(0L, micros);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);
+		int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+		return Math.min(BUCKETS - 1, (exponent << SUB_BUCKET_BITS) + subBucket);
+	}
+
+	/**
+	 * Smallest latency in microseconds above every latency counted in {@code bucket}.
+	 */
+	private static long upperBound(int bucket) {
+		if(bucket < 1 << SUB_BUCKET_BITS) {
+			return bucket + 1;
+		}
+		int exponent = bucket >> SUB_BUCKET_BITS;
+		int subBucket = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+		return ((1L << SUB_BUCKET_BITS) + subBucket + 1) << (exponent - SUB_BUCKET_BITS);
+	}
+}
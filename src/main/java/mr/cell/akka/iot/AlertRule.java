@@ -0,0 +1,117 @@
+package mr.cell.akka.iot;
+
+import java.io.Serializable;
+
+/**
+ * A condition on the readings of a device, registered with {@link DeviceGroup.AddAlertRule} for a whole group or
+ * a single device. Devices evaluate their rules on every reading they record and report every change of a rule
+ * between not met and met as a {@link DeviceGroup.Alert}.
+ * <ul>
+ * <li>above / below - the reading is above / below {@code threshold},</li>
+ * <li>rate of change - the reading changed by more than {@code threshold} degrees per second since the previous one,</li>
+ * <li>n of m - at least {@code n} of the last {@code m} readings, up to 64, were above {@code threshold}.</li>
+ * </ul>
+ */
+public final class AlertRule implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public enum Kind { ABOVE, BELOW, RATE_OF_CHANGE, N_OF_M }
+
+	public static final int MAX_WINDOW = 64;
+
+	private final String ruleId;
+	private final Kind kind;
+	private final double threshold;
+	private final int n;
+	private final int m;
+
+	private AlertRule(String ruleId, Kind kind, double threshold, int n, int m) {
+		if(Double.isNaN(threshold)) {
+			throw new IllegalArgumentException("Threshold of rule " + ruleId + " must be a number");
+		}
+		this.ruleId = ruleId;
+		this.kind = kind;
+		this.threshold = threshold;
+		this.n = n;
+		this.m = m;
+	}
+
+	public static AlertRule above(String ruleId, double threshold) {
+		return new AlertRule(ruleId, Kind.ABOVE, threshold, 1, 1);
+	}
+
+	public static AlertRule below(String ruleId, double threshold) {
+		return new AlertRule(ruleId, Kind.BELOW, threshold, 1, 1);
+	}
+
+	public static AlertRule rateOfChange(String ruleId, double degreesPerSecond) {
+		if(degreesPerSecond < 0.0) {
+			throw new IllegalArgumentException("Rate of rule " + ruleId + " must not be negative, was " + degreesPerSecond);
+		}
+		return new AlertRule(ruleId, Kind.RATE_OF_CHANGE, degreesPerSecond, 1, 1);
+	}
+
+	public static AlertRule nOfM(String ruleId, double threshold, int n, int m) {
+		if(m < 1 || m > MAX_WINDOW || n < 1 || n > m) {
+			throw new IllegalArgumentException("Rule " + ruleId + " needs 1 <= n <= m <= " + MAX_WINDOW + ", was " + n + " of " + m);
+		}
+		return new AlertRule(ruleId, Kind.N_OF_M, threshold, n, m);
+	}
+
+	/**
+	 * Rebuilds a rule from the state exposed to {@link IoTMessageSerializer}.
+	 */
+	static AlertRule of(String ruleId, Kind kind, double threshold, int n, int m) {
+		switch(kind) {
+			case ABOVE:
+				return above(ruleId, threshold);
+			case BELOW:
+				return below(ruleId, threshold);
+			case RATE_OF_CHANGE:
+				return rateOfChange(ruleId, threshold);
+			default:
+				return nOfM(ruleId, threshold, n, m);
+		}
+	}
+
+	public String getRuleId() {
+		return ruleId;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	public int getN() {
+		return n;
+	}
+
+	public int getM() {
+		return m;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		AlertRule that = (AlertRule) o;
+
+		return Double.compare(that.threshold, threshold) == 0 && n == that.n && m == that.m
+				&& ruleId.equals(that.ruleId) && kind == that.kind;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * ruleId.hashCode() + kind.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "AlertRule{" + ruleId + ", " + kind + ", threshold=" + threshold + (kind == Kind.N_OF_M ? ", " + n + " of " + m : "") + "}";
+	}
+}
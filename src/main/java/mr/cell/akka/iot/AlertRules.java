@@ -0,0 +1,141 @@
+package mr.cell.akka.iot;
+
+import java.util.List;
+
+/**
+ * The alert rules of one device compiled into flat arrays, so that evaluating a reading costs a constant amount of
+ * work per rule and allocates nothing. Rules are edge triggered: the listener hears of a rule when it starts being
+ * met and when it stops, not for every reading in between.
+ */
+final class AlertRules {
+
+	interface Listener {
+		void onTransition(String ruleId, boolean raised, double value, long timestamp);
+	}
+
+	private final String[] ruleIds;
+	private final AlertRule.Kind[] kinds;
+	private final double[] thresholds;
+	private final int[] counts;
+	private final long[] windowMasks;
+	// Last m outcomes of each n-of-m rule, newest in the lowest bit.
+	private final long[] windows;
+	private final boolean[] firing;
+	private boolean hasPrevious;
+	private double previousValue;
+	private long previousTimestamp;
+
+	AlertRules(List<AlertRule> rules) {
+		this(rules, null);
+	}
+
+	/**
+	 * Compiles the rules, keeping the state of those that are unchanged from {@code previous}, so re-sending the same
+	 * rules neither raises nor clears an alert.
+	 */
+	AlertRules(List<AlertRule> rules, AlertRules previous) {
+		int size = rules.size();
+		ruleIds = new String[size];
+		kinds = new AlertRule.Kind[size];
+		thresholds = new double[size];
+		counts = new int[size];
+		windowMasks = new long[size];
+		windows = new long[size];
+		firing = new boolean[size];
+		for(int i = 0; i < size; i++) {
+			AlertRule rule = rules.get(i);
+			ruleIds[i] = rule.getRuleId();
+			kinds[i] = rule.getKind();
+			thresholds[i] = rule.getThreshold();
+			counts[i] = rule.getN();
+			windowMasks[i] = windowMask(rule.getM());
+			int kept = previous != null
+				? previous.indexOf(rule.getRuleId(), rule.getKind(), rule.getThreshold(), rule.getN(), windowMask(rule.getM()))
+				: -1;
+			if(kept >= 0) {
+				windows[i] = previous.windows[kept];
+				firing[i] = previous.firing[kept];
+			}
+		}
+		if(previous != null) {
+			hasPrevious = previous.hasPrevious;
+			previousValue = previous.previousValue;
+			previousTimestamp = previous.previousTimestamp;
+		}
+	}
+
+	private static long windowMask(int m) {
+		return m == AlertRule.MAX_WINDOW ? -1L : (1L << m) - 1;
+	}
+
+	private int indexOf(String ruleId, AlertRule.Kind kind, double threshold, int count, long windowMask) {
+		for(int i = 0; i < ruleIds.length; i++) {
+			if(ruleIds[i].equals(ruleId) && kinds[i] == kind && Double.compare(thresholds[i], threshold) == 0
+					&& counts[i] == count && windowMasks[i] == windowMask) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Clears every rule that is met but does not keep its state in {@code next}, or every rule that is met if
+	 * {@code next} is null, at the latest reading. A rule replaced, removed or dropped with the device therefore
+	 * never leaves an alert raised that nothing will clear.
+	 */
+	void clearDropped(AlertRules next, Listener listener) {
+		for(int i = 0; i < ruleIds.length; i++) {
+			if(firing[i] && (next == null || next.indexOf(ruleIds[i], kinds[i], thresholds[i], counts[i], windowMasks[i]) < 0)) {
+				firing[i] = false;
+				listener.onTransition(ruleIds[i], false, previousValue, previousTimestamp);
+			}
+		}
+	}
+
+	int size() {
+		return ruleIds.length;
+	}
+
+	boolean isFiring(String ruleId) {
+		for(int i = 0; i < ruleIds.length; i++) {
+			if(ruleIds[i].equals(ruleId)) {
+				return firing[i];
+			}
+		}
+		return false;
+	}
+
+	void evaluate(double value, long timestamp, Listener listener) {
+		for(int i = 0; i < ruleIds.length; i++) {
+			boolean met;
+			switch(kinds[i]) {
+				case ABOVE:
+					met = value > thresholds[i];
+					break;
+				case BELOW:
+					met = value < thresholds[i];
+					break;
+				case RATE_OF_CHANGE:
+					// Readings without a later timestamp than the previous one give no rate, so they leave the rule as it is.
+					if(!hasPrevious || timestamp <= previousTimestamp) {
+						continue;
+					}
+					met = Math.abs(value - previousValue) * 1000.0 / (timestamp - previousTimestamp) > thresholds[i];
+					break;
+				default:
+					windows[i] = (windows[i] << 1 | (value > thresholds[i] ? 1L : 0L)) & windowMasks[i];
+					met = Long.bitCount(windows[i]) >= counts[i];
+					break;
+			}
+			if(met != firing[i]) {
+				firing[i] = met;
+				listener.onTransition(ruleIds[i], met, value, timestamp);
+			}
+		}
+		if(!hasPrevious || timestamp > previousTimestamp) {
+			hasPrevious = true;
+			previousValue = value;
+			previousTimestamp = timestamp;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.dispatch.BoundedMessageQueueSemantics;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.ProducesMessageQueue;
+import com.typesafe.config.Config;
+import scala.Option;
+import scala.concurrent.duration.Duration;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mailbox holding at most {@code mailbox-capacity} messages per actor, or any number with a capacity of 0. Senders
+ * never block: a message that finds the mailbox full goes to dead letters and is counted in {@link MailboxOverflow}
+ * under the id of the dispatcher or mailbox configuration it is set up in. Enqueueing into a local mailbox happens on
+ * the sending thread, so a sender can tell whether its message was dropped from {@link #droppedOnThisThread()}. With
+ * {@code report-depth = on} the depth of every mailbox is reported through {@link IoTMetrics}.
+ */
+public class CountingBoundedMailbox implements MailboxType, ProducesMessageQueue<CountingBoundedMailbox.BoundedQueue> {
+
+	private static final ThreadLocal<long[]> DROPPED = ThreadLocal.withInitial(() -> new long[1]);
+
+	private final String name;
+	private final int capacity;
+	private final boolean reportDepth;
+
+	public CountingBoundedMailbox(ActorSystem.Settings settings, Config config) {
+		this.name = config.getString("id");
+		this.capacity = config.getInt("mailbox-capacity");
+		this.reportDepth = config.hasPath("report-depth") && config.getBoolean("report-depth");
+		if(capacity < 0) {
+			throw new IllegalArgumentException("mailbox-capacity of " + name + " must not be negative");
+		}
+	}
+
+	/**
+	 * Messages the current thread has had dropped by full mailboxes so far. Compared before and after a tell to a
+	 * local actor, it shows whether that message was dropped.
+	 */
+	static long droppedOnThisThread() {
+		return DROPPED.get()[0];
+	}
+
+	@Override
+	public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+		if(system.isEmpty()) {
+			throw new IllegalStateException("CountingBoundedMailbox needs an actor system");
+		}
+		IoTMetrics metrics = reportDepth && owner.isDefined() ? IoTMetrics.get(system.get()) : null;
+		BoundedQueue queue = new BoundedQueue(capacity == 0 ? Integer.MAX_VALUE : capacity, MailboxOverflow.get(system.get()).counter(name),
+				system.get().deadLetters(), metrics);
+		if(metrics != null) {
+			metrics.registerMailbox(owner.get(), queue);
+		}
+		return queue;
+	}
+
+	public static final class BoundedQueue implements MessageQueue, BoundedMessageQueueSemantics {
+
+		private final Queue<Envelope> queue = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+		private final int capacity;
+		private final LongAdder overflow;
+		private final ActorRef deadLetters;
+		private final IoTMetrics metrics;
+
+		BoundedQueue(int capacity, LongAdder overflow, ActorRef deadLetters, IoTMetrics metrics) {
+			this.capacity = capacity;
+			this.overflow = overflow;
+			this.deadLetters = deadLetters;
+			this.metrics = metrics;
+		}
+
+		@Override
+		public void enqueue(ActorRef receiver, Envelope handle) {
+			if(size.incrementAndGet() > capacity) {
+				size.decrementAndGet();
+				overflow.increment();
+				DROPPED.get()[0]++;
+				deadLetters.tell(new DeadLetter(handle.message(), handle.sender(), receiver), handle.sender());
+				return;
+			}
+			queue.add(handle);
+		}
+
+		@Override
+		public Envelope dequeue() {
+			Envelope handle = queue.poll();
+			if(handle != null) {
+				size.decrementAndGet();
+			}
+			return handle;
+		}
+
+		@Override
+		public int numberOfMessages() {
+			return size.get();
+		}
+
+		@Override
+		public boolean hasMessages() {
+			return !queue.isEmpty();
+		}
+
+		@Override
+		public void cleanUp(ActorRef owner, MessageQueue deadLetters) {
+			if(metrics != null) {
+				metrics.unregisterMailbox(owner);
+			}
+			for(Envelope handle = dequeue(); handle != null; handle = dequeue()) {
+				deadLetters.enqueue(owner, handle);
+			}
+		}
+
+		@Override
+		public Duration pushTimeOut() {
+			return Duration.Zero();
+		}
+	}
+}
@@ -1,19 +1,69 @@
 package mr.cell.akka.iot;
 
 import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
+import akka.actor.Terminated;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 /**
+ * Pushes temperature changes to dashboards. The manager subscribes once to the changes of every group a dashboard
+ * is interested in, however many dashboards there are, and sends each subscriber {@link Frame}s that hold only the
+ * devices that changed since its previous frame. A subscriber gets at most one frame per its minimum frame interval
+ * and no new frame until it acknowledged the previous one with {@link FrameAck}; changes arriving meanwhile replace
+ * older changes of the same device, so a slow subscriber sees the latest values instead of a growing backlog.
+ * {@link DeviceGroup.Alert}s of the devices a subscriber is interested in are not batched into frames but forwarded
+ * to it as soon as they arrive.
+ *
  * Created by U517779 on 2017-09-05.
  */
 public class DashboardManager extends AbstractActor {
 
 	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
+	static final String DEVICE_MANAGER = "device-manager";
+
+	private final ActorRef deviceManager;
+	private final DashboardSettings settings;
+	private final Map<String, GroupFeed> feeds = new HashMap<>();
+	private final Map<ActorRef, GroupFeed> feedsByGroup = new HashMap<>();
+	private final Map<ActorRef, Subscriber> subscribers = new HashMap<>();
+	private final Map<Long, GroupFeed> pendingSeeds = new HashMap<>();
+	private long nextSeedRequestId;
+
+	public DashboardManager(ActorRef deviceManager) {
+		this(deviceManager, null);
+	}
+
+	public DashboardManager(ActorRef deviceManager, DashboardSettings settings) {
+		this.deviceManager = deviceManager;
+		this.settings = settings != null ? settings : DashboardSettings.fromConfig(getContext().getSystem().settings().config());
+	}
+
+	/**
+	 * Reaches the groups through the {@link DeviceManager} named {@value #DEVICE_MANAGER} next to this actor, as
+	 * {@link IoTSupervisor} creates it without cluster sharding.
+	 */
 	public static Props props() {
-		return Props.create(DashboardManager.class);
+		return props(null);
+	}
+
+	/**
+	 * @param deviceManager a {@link DeviceManager} or the device group shard region, used to reach the groups
+	 */
+	public static Props props(ActorRef deviceManager) {
+		return Props.create(DashboardManager.class, deviceManager);
+	}
+
+	public static Props props(ActorRef deviceManager, DashboardSettings settings) {
+		return Props.create(DashboardManager.class, deviceManager, settings);
 	}
 
 	@Override
@@ -23,12 +73,478 @@ public class DashboardManager extends AbstractActor {
 
 	@Override
 	public void postStop() throws Exception {
+		feeds.values().forEach(feed -> {
+			feed.cancelResubscribe();
+			if(feed.group != null) {
+				feed.group.tell(new DeviceGroup.UnsubscribeChanges(), getSelf());
+				feed.group.tell(new DeviceGroup.UnsubscribeAlerts(), getSelf());
+			}
+		});
+		subscribers.values().forEach(Subscriber::cancelFlush);
 		super.postStop();
 	}
 
+	private void onSubscribe(Subscribe subscribeMsg) {
+		ActorRef ref = getSender();
+		Subscriber subscriber = subscribers.get(ref);
+		if(subscriber == null) {
+			subscriber = new Subscriber(ref);
+			subscribers.put(ref, subscriber);
+			getContext().watch(ref);
+		}
+		FiniteDuration minFrameInterval = subscribeMsg.getMinFrameInterval();
+		subscriber.minFrameIntervalNanos = (minFrameInterval != null ? minFrameInterval : settings.getMinFrameInterval()).toNanos();
+
+		String groupId = subscribeMsg.getGroupId();
+		subscriber.deviceIds.put(groupId, subscribeMsg.getDeviceIds());
+		GroupFeed feed = feeds.get(groupId);
+		if(feed == null) {
+			feed = new GroupFeed(groupId);
+			feeds.put(groupId, feed);
+			subscribeToGroup(feed);
+		}
+		feed.subscribers.add(subscriber);
+		// A new subscriber starts with everything the feed knows, later frames only carry changes.
+		for(DeviceUpdate update : feed.latest.values()) {
+			subscriber.offer(update);
+		}
+		ref.tell(new Subscribed(subscribeMsg.getRequestId()), getSelf());
+		flush(subscriber);
+	}
+
+	private void onUnsubscribe(Unsubscribe unsubscribeMsg) {
+		Subscriber subscriber = subscribers.get(getSender());
+		if(subscriber != null) {
+			subscriber.deviceIds.remove(unsubscribeMsg.getGroupId());
+			subscriber.pending.remove(unsubscribeMsg.getGroupId());
+			leaveFeed(subscriber, unsubscribeMsg.getGroupId());
+			if(subscriber.deviceIds.isEmpty()) {
+				subscribers.remove(subscriber.ref);
+				subscriber.cancelFlush();
+				getContext().unwatch(subscriber.ref);
+			}
+		}
+		getSender().tell(new Unsubscribed(unsubscribeMsg.getRequestId()), getSelf());
+	}
+
+	private void subscribeToGroup(GroupFeed feed) {
+		DeviceManager.GroupEnvelope subscribe = new DeviceManager.GroupEnvelope(feed.groupId, new DeviceGroup.SubscribeChanges());
+		if(deviceManager != null) {
+			deviceManager.tell(subscribe, getSelf());
+		} else {
+			getContext().actorSelection("../" + DEVICE_MANAGER).tell(subscribe, getSelf());
+		}
+		// Unknown groups drop the subscription, so it is retried until the group answers.
+		feed.resubscribeTimer = getContext().getSystem().scheduler().scheduleOnce(settings.getResubscribeInterval(),
+				getSelf(), new Resubscribe(feed.groupId), getContext().dispatcher(), getSelf());
+	}
+
+	private void onResubscribe(Resubscribe resubscribeMsg) {
+		GroupFeed feed = feeds.get(resubscribeMsg.getGroupId());
+		if(feed != null && feed.group == null) {
+			subscribeToGroup(feed);
+		}
+	}
+
+	private void onChangesSubscribed(DeviceGroup.ChangesSubscribed subscribedMsg) {
+		GroupFeed feed = feeds.get(subscribedMsg.getGroupId());
+		if(feed == null) {
+			getSender().tell(new DeviceGroup.UnsubscribeChanges(), getSelf());
+			return;
+		}
+		if(feed.group != null) {
+			return;
+		}
+		feed.cancelResubscribe();
+		feed.group = getSender();
+		feedsByGroup.put(feed.group, feed);
+		getContext().watch(feed.group);
+		feed.group.tell(new DeviceGroup.SubscribeAlerts(), getSelf());
+
+		// Readings recorded before the subscription are fetched once per group, not once per subscriber.
+		long seedRequestId = nextSeedRequestId++;
+		pendingSeeds.put(seedRequestId, feed);
+		feed.group.tell(new DeviceGroup.RequestAllTemperatures(seedRequestId), getSelf());
+	}
+
+	private void onRespondAllTemperatures(DeviceGroup.RespondAllTemperatures response) {
+		GroupFeed feed = pendingSeeds.remove(response.getRequestId());
+		if(feed == null || feeds.get(feed.groupId) != feed) {
+			return;
+		}
+		response.getTemperatures().forEach((deviceId, reading) -> {
+			// A change that already arrived is newer than the snapshot. The group answers with values only, so the
+			// seeded updates carry no timestamp.
+			if(reading instanceof DeviceGroup.Temperature && !feed.latest.containsKey(deviceId)) {
+				publish(feed, new DeviceUpdate(feed.groupId, deviceId, ((DeviceGroup.Temperature) reading).getValue(), Optional.empty()));
+			}
+		});
+	}
+
+	private void onTemperatureChanged(DeviceGroup.TemperatureChanged changedMsg) {
+		GroupFeed feed = feedsByGroup.get(getSender());
+		if(feed != null) {
+			publish(feed, new DeviceUpdate(feed.groupId, changedMsg.getDeviceId(), changedMsg.getValue(), Optional.of(changedMsg.getTimestamp())));
+		}
+	}
+
+	private void onAlert(DeviceGroup.Alert alertMsg) {
+		GroupFeed feed = feeds.get(alertMsg.getGroupId());
+		if(feed == null) {
+			return;
+		}
+		for(Subscriber subscriber : feed.subscribers) {
+			if(subscriber.wants(alertMsg.getGroupId(), alertMsg.getDeviceId())) {
+				subscriber.ref.tell(alertMsg, getSelf());
+			}
+		}
+	}
+
+	private void publish(GroupFeed feed, DeviceUpdate update) {
+		feed.latest.put(update.getDeviceId(), update);
+		for(Subscriber subscriber : feed.subscribers) {
+			if(subscriber.offer(update)) {
+				flush(subscriber);
+			}
+		}
+	}
+
+	private void onFrameAck(FrameAck ackMsg) {
+		Subscriber subscriber = subscribers.get(getSender());
+		if(subscriber != null && subscriber.awaitingAck && ackMsg.getFrameNr() == subscriber.frameNr) {
+			subscriber.awaitingAck = false;
+			flush(subscriber);
+		}
+	}
+
+	private void onFlushSubscriber(FlushSubscriber flushMsg) {
+		Subscriber subscriber = subscribers.get(flushMsg.getSubscriber());
+		if(subscriber != null) {
+			subscriber.flushTimer = null;
+			flush(subscriber);
+		}
+	}
+
+	/**
+	 * Sends the subscriber its pending changes if it acknowledged its last frame and its minimum frame interval has
+	 * passed, or schedules the send for when the interval has passed.
+	 */
+	private void flush(Subscriber subscriber) {
+		if(subscriber.pending.isEmpty() || subscriber.awaitingAck || subscriber.flushTimer != null) {
+			return;
+		}
+		long wait = subscriber.lastFrameNanos + subscriber.minFrameIntervalNanos - System.nanoTime();
+		if(subscriber.frameNr > 0 && wait > 0) {
+			subscriber.flushTimer = getContext().getSystem().scheduler().scheduleOnce(new FiniteDuration(wait, TimeUnit.NANOSECONDS),
+					getSelf(), new FlushSubscriber(subscriber.ref), getContext().dispatcher(), getSelf());
+			return;
+		}
+		List<DeviceUpdate> updates = new ArrayList<>();
+		subscriber.pending.values().forEach(devices -> updates.addAll(devices.values()));
+		subscriber.pending.clear();
+		subscriber.frameNr++;
+		subscriber.awaitingAck = true;
+		subscriber.lastFrameNanos = System.nanoTime();
+		subscriber.ref.tell(new Frame(subscriber.frameNr, updates), getSelf());
+	}
+
+	private void onTerminated(Terminated terminatedMsg) {
+		ActorRef ref = terminatedMsg.getActor();
+		Subscriber subscriber = subscribers.remove(ref);
+		if(subscriber != null) {
+			subscriber.cancelFlush();
+			new ArrayList<>(subscriber.deviceIds.keySet()).forEach(groupId -> leaveFeed(subscriber, groupId));
+		}
+		GroupFeed feed = feedsByGroup.remove(ref);
+		if(feed != null) {
+			// The group stopped or moved to another node; its replacement only reports to those who subscribe again.
+			log.debug("Device group {} terminated, subscribing again.", feed.groupId);
+			feed.group = null;
+			subscribeToGroup(feed);
+		}
+	}
+
+	private void leaveFeed(Subscriber subscriber, String groupId) {
+		GroupFeed feed = feeds.get(groupId);
+		if(feed == null || !feed.subscribers.remove(subscriber) || !feed.subscribers.isEmpty()) {
+			return;
+		}
+		feeds.remove(groupId);
+		feed.cancelResubscribe();
+		if(feed.group != null) {
+			feedsByGroup.remove(feed.group);
+			getContext().unwatch(feed.group);
+			feed.group.tell(new DeviceGroup.UnsubscribeChanges(), getSelf());
+			feed.group.tell(new DeviceGroup.UnsubscribeAlerts(), getSelf());
+		}
+	}
+
 	@Override
 	public Receive createReceive() {
 		return receiveBuilder()
+				.match(Subscribe.class, this::onSubscribe)
+				.match(Unsubscribe.class, this::onUnsubscribe)
+				.match(FrameAck.class, this::onFrameAck)
+				.match(DeviceGroup.TemperatureChanged.class, this::onTemperatureChanged)
+				.match(DeviceGroup.ChangesSubscribed.class, this::onChangesSubscribed)
+				.match(DeviceGroup.Alert.class, this::onAlert)
+				.match(DeviceGroup.AlertsSubscribed.class, subscribedMsg -> { })
+				.match(DeviceGroup.RespondAllTemperatures.class, this::onRespondAllTemperatures)
+				.match(Resubscribe.class, this::onResubscribe)
+				.match(FlushSubscriber.class, this::onFlushSubscriber)
+				.match(Terminated.class, this::onTerminated)
 				.build();
 	}
+
+	private static final class GroupFeed {
+		private final String groupId;
+		private final Map<String, DeviceUpdate> latest = new HashMap<>();
+		private final Set<Subscriber> subscribers = new HashSet<>();
+		private ActorRef group;
+		private Cancellable resubscribeTimer;
+
+		private GroupFeed(String groupId) {
+			this.groupId = groupId;
+		}
+
+		private void cancelResubscribe() {
+			if(resubscribeTimer != null) {
+				resubscribeTimer.cancel();
+				resubscribeTimer = null;
+			}
+		}
+	}
+
+	private static final class Subscriber {
+		private final ActorRef ref;
+		// Devices of interest per group; an empty set means every device of the group.
+		private final Map<String, Set<String>> deviceIds = new HashMap<>();
+		// Latest unsent update per group and device.
+		private final Map<String, Map<String, DeviceUpdate>> pending = new LinkedHashMap<>();
+		private long minFrameIntervalNanos;
+		private long frameNr;
+		private boolean awaitingAck;
+		private long lastFrameNanos;
+		private Cancellable flushTimer;
+
+		private Subscriber(ActorRef ref) {
+			this.ref = ref;
+		}
+
+		/**
+		 * Queues the update if the subscriber wants it, replacing an unsent update of the same device.
+		 */
+		private boolean offer(DeviceUpdate update) {
+			if(!wants(update.getGroupId(), update.getDeviceId())) {
+				return false;
+			}
+			pending.computeIfAbsent(update.getGroupId(), groupId -> new LinkedHashMap<>()).put(update.getDeviceId(), update);
+			return true;
+		}
+
+		private boolean wants(String groupId, String deviceId) {
+			Set<String> wanted = deviceIds.get(groupId);
+			return wanted != null && (wanted.isEmpty() || wanted.contains(deviceId));
+		}
+
+		private void cancelFlush() {
+			if(flushTimer != null) {
+				flushTimer.cancel();
+				flushTimer = null;
+			}
+		}
+	}
+
+	private static final class Resubscribe {
+		private final String groupId;
+
+		private Resubscribe(String groupId) {
+			this.groupId = groupId;
+		}
+
+		private String getGroupId() {
+			return groupId;
+		}
+	}
+
+	private static final class FlushSubscriber {
+		private final ActorRef subscriber;
+
+		private FlushSubscriber(ActorRef subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		private ActorRef getSubscriber() {
+			return subscriber;
+		}
+	}
+
+	/**
+	 * Subscribes the sender to the changes of {@code deviceIds} in a group, or of every device in it if the set is
+	 * empty. Subscribing again to the same group replaces the device set. Answered with {@link Subscribed}.
+	 */
+	public static final class Subscribe implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final String groupId;
+		private final Set<String> deviceIds;
+		private final FiniteDuration minFrameInterval;
+
+		public Subscribe(long requestId, String groupId) {
+			this(requestId, groupId, Collections.emptySet(), null);
+		}
+
+		public Subscribe(long requestId, String groupId, Set<String> deviceIds) {
+			this(requestId, groupId, deviceIds, null);
+		}
+
+		/**
+		 * @param minFrameInterval shortest time between two frames to the sender, or null for the configured default
+		 */
+		public Subscribe(long requestId, String groupId, Set<String> deviceIds, FiniteDuration minFrameInterval) {
+			this.requestId = requestId;
+			this.groupId = groupId;
+			this.deviceIds = deviceIds;
+			this.minFrameInterval = minFrameInterval;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		public Set<String> getDeviceIds() {
+			return deviceIds;
+		}
+
+		public FiniteDuration getMinFrameInterval() {
+			return minFrameInterval;
+		}
+	}
+
+	public static final class Subscribed implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+
+		public Subscribed(long requestId) {
+			this.requestId = requestId;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+	}
+
+	public static final class Unsubscribe implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final String groupId;
+
+		public Unsubscribe(long requestId, String groupId) {
+			this.requestId = requestId;
+			this.groupId = groupId;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+	}
+
+	public static final class Unsubscribed implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+
+		public Unsubscribed(long requestId) {
+			this.requestId = requestId;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+	}
+
+	/**
+	 * The devices that changed since the previous frame, each with its latest reading.
+	 * Must be acknowledged with a {@link FrameAck} before the next frame is sent.
+	 */
+	public static final class Frame implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long frameNr;
+		private final List<DeviceUpdate> updates;
+
+		public Frame(long frameNr, List<DeviceUpdate> updates) {
+			this.frameNr = frameNr;
+			this.updates = updates;
+		}
+
+		public long getFrameNr() {
+			return frameNr;
+		}
+
+		public List<DeviceUpdate> getUpdates() {
+			return updates;
+		}
+	}
+
+	public static final class FrameAck implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long frameNr;
+
+		public FrameAck(long frameNr) {
+			this.frameNr = frameNr;
+		}
+
+		public long getFrameNr() {
+			return frameNr;
+		}
+	}
+
+	public static final class DeviceUpdate implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+		private final String deviceId;
+		private final double value;
+		// Optional is not Serializable, so the timestamp is kept as a nullable Long.
+		private final Long timestamp;
+
+		/**
+		 * @param timestamp time of the reading, empty if it was recorded before the subscription and only its value is known
+		 */
+		public DeviceUpdate(String groupId, String deviceId, double value, Optional<Long> timestamp) {
+			this.groupId = groupId;
+			this.deviceId = deviceId;
+			this.value = value;
+			this.timestamp = timestamp.orElse(null);
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		public String getDeviceId() {
+			return deviceId;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public Optional<Long> getTimestamp() {
+			return Optional.ofNullable(timestamp);
+		}
+	}
 }
@@ -0,0 +1,38 @@
+package mr.cell.akka.iot;
+
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+public final class DashboardSettings {
+
+	private final FiniteDuration minFrameInterval;
+	private final FiniteDuration resubscribeInterval;
+
+	public DashboardSettings(FiniteDuration minFrameInterval, FiniteDuration resubscribeInterval) {
+		this.minFrameInterval = minFrameInterval;
+		this.resubscribeInterval = resubscribeInterval;
+	}
+
+	public static DashboardSettings fromConfig(Config config) {
+		Config dashboard = config.getConfig("iot.dashboard");
+		return new DashboardSettings(
+				DeviceSettings.durationOf(dashboard, "min-frame-interval"),
+				DeviceSettings.durationOf(dashboard, "resubscribe-interval"));
+	}
+
+	public DashboardSettings withMinFrameInterval(FiniteDuration minFrameInterval) {
+		return new DashboardSettings(minFrameInterval, resubscribeInterval);
+	}
+
+	public DashboardSettings withResubscribeInterval(FiniteDuration resubscribeInterval) {
+		return new DashboardSettings(minFrameInterval, resubscribeInterval);
+	}
+
+	public FiniteDuration getMinFrameInterval() {
+		return minFrameInterval;
+	}
+
+	public FiniteDuration getResubscribeInterval() {
+		return resubscribeInterval;
+	}
+}
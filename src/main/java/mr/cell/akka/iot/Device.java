@@ -1,11 +1,21 @@
 package mr.cell.akka.iot;
 
 import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
+import akka.actor.ReceiveTimeout;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import scala.concurrent.duration.Duration;
 
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by U517779 on 2017-09-05.
@@ -16,24 +26,60 @@ public class Device extends AbstractActor {
 
 	private final String groupId;
 	private final String deviceId;
-	private Optional<Double> lastTemperatureReading = Optional.empty();
+	private final DeviceSettings settings;
+	private final TemperatureHistory history;
+	private final IoTMetrics.GroupMetrics groupMetrics;
+	private boolean reportChanges;
+	private long changeRefreshMillis;
+	private boolean changeReported;
+	private double reportedValue;
+	private long reportedTimestamp;
+	// Null while no rule applies or nobody subscribed to alerts.
+	private AlertRules alertRules;
+	private List<ActorRef> alertSubscribers = Collections.emptyList();
+	private final AlertRules.Listener alertListener = this::sendAlert;
+
+	private final Map<ActorRef, PendingAck> pendingAcks = new HashMap<>();
+	private Cancellable flushAcksTimer;
 
 	public Device(String groupId, String deviceId) {
+		this(groupId, deviceId, null);
+	}
+
+	public Device(String groupId, String deviceId, DeviceSettings settings) {
 		this.groupId = groupId;
 		this.deviceId = deviceId;
+		this.settings = settings != null ? settings : DeviceSettings.fromConfig(getContext().getSystem().settings().config());
+		this.history = new TemperatureHistory(this.settings.getHistorySize());
+		this.groupMetrics = IoTMetrics.get(getContext().getSystem()).group(groupId);
+		this.reportChanges = this.settings.isReportChanges();
+		this.changeRefreshMillis = this.settings.getChangeRefreshMillis();
 	}
 
 	public static Props props(String groupId, String deviceId) {
-		return Props.create(Device.class, groupId, deviceId);
+		return Props.create(Device.class, groupId, deviceId).withDispatcher(IoTDispatchers.DEVICE);
+	}
+
+	public static Props props(String groupId, String deviceId, DeviceSettings settings) {
+		return Props.create(Device.class, groupId, deviceId, settings).withDispatcher(IoTDispatchers.DEVICE);
 	}
 
 	@Override
 	public void preStart() throws Exception {
 		log.info("Device {}-{} started.", groupId, deviceId);
+		IoTMetrics.get(getContext().getSystem()).actorStarted(IoTMetrics.ActorKind.DEVICE);
+		if(settings.getIdleTimeoutMillis() > 0) {
+			getContext().setReceiveTimeout(Duration.create(settings.getIdleTimeoutMillis(), TimeUnit.MILLISECONDS));
+		}
 	}
 
 	@Override
 	public void postStop() throws Exception {
+		if(flushAcksTimer != null) {
+			flushAcksTimer.cancel();
+		}
+		flushAcks();
+		IoTMetrics.get(getContext().getSystem()).actorStopped(IoTMetrics.ActorKind.DEVICE);
 		log.info("Device {}-{} stopped.", groupId, deviceId);
 	}
 
@@ -48,25 +94,288 @@ public class Device extends AbstractActor {
 	}
 
 	private void onRecordTemperature(RecordTemperature recordMsg) {
-		log.info("Recorded temperature reading {} with {}.", recordMsg.getValue(), recordMsg.getRequestId());
-		lastTemperatureReading = Optional.of(recordMsg.getValue());
-		getSender().tell(new TemperatureRecorded(recordMsg.getRequestId()), getSelf());
+		if(log.isDebugEnabled()) {
+			log.debug("Recorded temperature reading {} with {}.", recordMsg.getValue(), recordMsg.getRequestId());
+		}
+		history.record(recordMsg.getTimestamp(), recordMsg.getValue());
+		groupMetrics.recordReading();
+		if(alertRules != null) {
+			alertRules.evaluate(recordMsg.getValue(), recordMsg.getTimestamp(), alertListener);
+		}
+		if(reportChanges) {
+			reportChange(recordMsg.getValue(), recordMsg.getTimestamp());
+		}
+		// Readings of a batch are sent without a sender and acknowledged by the group for the whole batch, so an
+		// acknowledgement per reading would only end up in dead letters.
+		Object ack = getSender() != getContext().getSystem().deadLetters() ? acknowledgement(recordMsg.getRequestId()) : null;
+		if(settings.isJournaled()) {
+			getContext().getParent().tell(new DeviceGroup.JournalReading(
+					deviceId, recordMsg.getValue(), recordMsg.getTimestamp(), ack, getSender()), getSelf());
+		} else if(ack != null) {
+			getSender().tell(ack, getSelf());
+		}
+	}
+
+	private void reportChange(double value, long timestamp) {
+		if(changeReported && Double.compare(value, reportedValue) == 0
+				&& timestamp - reportedTimestamp < changeRefreshMillis) {
+			return;
+		}
+		changeReported = true;
+		reportedValue = value;
+		reportedTimestamp = timestamp;
+		getContext().getParent().tell(new DeviceGroup.TemperatureChanged(deviceId, value, timestamp), getSelf());
+	}
+
+	private void onRecordJournaledTemperature(RecordJournaledTemperature recordMsg) {
+		history.record(recordMsg.getTimestamp(), recordMsg.getValue());
+		groupMetrics.recordReading();
+		if(alertRules != null) {
+			alertRules.evaluate(recordMsg.getValue(), recordMsg.getTimestamp(), alertListener);
+		}
+		if(reportChanges) {
+			reportChange(recordMsg.getValue(), recordMsg.getTimestamp());
+		}
+	}
+
+	private void sendAlert(String ruleId, boolean raised, double value, long timestamp) {
+		DeviceGroup.Alert alert = new DeviceGroup.Alert(groupId, deviceId, ruleId, raised, value, timestamp);
+		for(int i = 0; i < alertSubscribers.size(); i++) {
+			alertSubscribers.get(i).tell(alert, getSelf());
+		}
+	}
+
+	private void onSetAlertRules(SetAlertRules rulesMsg) {
+		alertSubscribers = rulesMsg.getSubscribers();
+		AlertRules rules = rulesMsg.getRules().isEmpty() || alertSubscribers.isEmpty()
+				? null : new AlertRules(rulesMsg.getRules(), alertRules);
+		if(alertRules != null) {
+			// The remaining subscribers saw these alerts raised; without subscribers the state just starts over.
+			alertRules.clearDropped(rules, alertListener);
+		}
+		alertRules = rules;
+	}
+
+	private void onReportChanges(ReportChanges reportMsg) {
+		if(reportMsg.isEnabled() && !reportChanges) {
+			// Whoever asked for changes has not seen any yet, so the next reading is reported even if unchanged.
+			changeReported = false;
+		}
+		reportChanges = reportMsg.isEnabled();
+		changeRefreshMillis = reportMsg.getRefreshMillis();
+	}
+
+	/**
+	 * Returns the acknowledgement to send to the sender of a reading right away, or null if there is none yet.
+	 */
+	private Object acknowledgement(long requestId) {
+		switch(settings.getAckMode()) {
+			case ALWAYS:
+				return new TemperatureRecorded(requestId);
+			case COALESCED:
+				PendingAck pending = pendingAcks.get(getSender());
+				if(pending != null && requestId != pending.upToRequestId + 1) {
+					// An acknowledgement covers a run of consecutive request ids, so a gap or a reordered id ends the run.
+					pendingAcks.remove(getSender());
+					sendAck(getSender(), new TemperaturesRecorded(pending.upToRequestId, pending.count));
+					pending = null;
+				}
+				if(pending == null) {
+					pending = new PendingAck();
+					pendingAcks.put(getSender(), pending);
+				}
+				pending.upToRequestId = requestId;
+				if(++pending.count >= settings.getAckCoalesceCount()) {
+					pendingAcks.remove(getSender());
+					return new TemperaturesRecorded(requestId, pending.count);
+				}
+				if(flushAcksTimer == null) {
+					flushAcksTimer = getContext().getSystem().scheduler().scheduleOnce(
+							settings.getAckCoalesceInterval(), getSelf(), new FlushAcks(), getContext().dispatcher(), getSelf());
+				}
+				return null;
+			default:
+				return null;
+		}
+	}
+
+	private void onFlushAcks(FlushAcks flushMsg) {
+		flushAcksTimer = null;
+		flushAcks();
+	}
+
+	private void flushAcks() {
+		pendingAcks.forEach((sender, pending) -> sendAck(sender, new TemperaturesRecorded(pending.upToRequestId, pending.count)));
+		pendingAcks.clear();
+	}
+
+	private void sendAck(ActorRef sender, TemperaturesRecorded ack) {
+		if(settings.isJournaled()) {
+			getContext().getParent().tell(new DeviceGroup.AckAfterCommit(ack, sender), getSelf());
+		} else {
+			sender.tell(ack, getSelf());
+		}
 	}
 
 	private void onReadTemperature(ReadTemperature readMsg) {
+		Optional<Double> lastTemperatureReading = history.isEmpty() ? Optional.empty() : Optional.of(history.latestValue());
 		getSender().tell(new RespondTemperature(readMsg.getRequestId(), lastTemperatureReading), getSelf());
 	}
 
+	private void onRestoreReadings(RestoreReadings restoreMsg) {
+		long[] timestamps = restoreMsg.getTimestamps();
+		double[] values = restoreMsg.getValues();
+		for(int i = 0; i < timestamps.length; i++) {
+			history.record(timestamps[i], values[i]);
+		}
+	}
+
+	private void onReceiveTimeout(ReceiveTimeout timeout) {
+		getContext().getParent().tell(new DeviceGroup.RequestPassivation(), getSelf());
+	}
+
+	private void onPassivate(Passivate passivateMsg) {
+		if(alertRules != null) {
+			// The rule state is not kept while passivated, so the alerts raised now are cleared rather than raised twice.
+			alertRules.clearDropped(null, alertListener);
+		}
+		getContext().getParent().tell(history.isEmpty()
+				? new DeviceGroup.Passivated(deviceId)
+				: new DeviceGroup.Passivated(deviceId, history.latestValue(), history.latestTimestamp()), getSelf());
+		getContext().stop(getSelf());
+	}
+
+	private void onReadTemperatureRange(ReadTemperatureRange readMsg) {
+		getSender().tell(history.range(readMsg.getRequestId(), readMsg.getFrom(), readMsg.getTo()), getSelf());
+	}
+
 	@Override
 	public Receive createReceive() {
 		return receiveBuilder()
 				.match(DeviceManager.RequestTrackDevice.class, this::onTrackDevice)
 				.match(RecordTemperature.class, this::onRecordTemperature)
+				.match(RecordJournaledTemperature.class, this::onRecordJournaledTemperature)
 				.match(ReadTemperature.class, this::onReadTemperature)
+				.match(ReadTemperatureRange.class, this::onReadTemperatureRange)
+				.match(FlushAcks.class, this::onFlushAcks)
+				.match(ReportChanges.class, this::onReportChanges)
+				.match(SetAlertRules.class, this::onSetAlertRules)
+				.match(RestoreReadings.class, this::onRestoreReadings)
+				.match(ReceiveTimeout.class, this::onReceiveTimeout)
+				.match(Passivate.class, this::onPassivate)
 				.build();
 	}
 
-	public static final class ReadTemperature {
+	private static final class PendingAck {
+		private long upToRequestId;
+		private int count;
+	}
+
+	private static final class FlushAcks { }
+
+	/**
+	 * Re-applies readings to the history without acknowledging or reporting them.
+	 */
+	public static final class RestoreReadings implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long[] timestamps;
+		private final double[] values;
+
+		public RestoreReadings(long[] timestamps, double[] values) {
+			this.timestamps = timestamps;
+			this.values = values;
+		}
+
+		public long[] getTimestamps() {
+			return timestamps;
+		}
+
+		public double[] getValues() {
+			return values;
+		}
+	}
+
+	/**
+	 * A reading its group already appended to the journal. It is recorded, counted, evaluated against the alert rules
+	 * and reported as a change like any other reading, but neither acknowledged nor journaled again.
+	 */
+	public static final class RecordJournaledTemperature implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final double value;
+		private final long timestamp;
+
+		public RecordJournaledTemperature(double value, long timestamp) {
+			this.value = value;
+			this.timestamp = timestamp;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+	}
+
+	/**
+	 * Replaces the alert rules of the device and the actors its {@link DeviceGroup.Alert}s go to. Rules that are
+	 * unchanged keep their state, so an alert that is raised stays raised; raised alerts of rules that are replaced
+	 * or removed are sent as cleared to the new subscribers.
+	 */
+	public static final class SetAlertRules implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final List<AlertRule> rules;
+		private final List<ActorRef> subscribers;
+
+		public SetAlertRules(List<AlertRule> rules, List<ActorRef> subscribers) {
+			this.rules = rules;
+			this.subscribers = subscribers;
+		}
+
+		public List<AlertRule> getRules() {
+			return rules;
+		}
+
+		public List<ActorRef> getSubscribers() {
+			return subscribers;
+		}
+	}
+
+	public static final class Passivate extends AbstractNoBodyMessage {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Turns reporting of changed readings to the parent on or off at runtime, overriding
+	 * {@link DeviceSettings#withChangeReporting(long)}.
+	 */
+	public static final class ReportChanges implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final boolean enabled;
+		private final long refreshMillis;
+
+		public ReportChanges(boolean enabled, long refreshMillis) {
+			this.enabled = enabled;
+			this.refreshMillis = refreshMillis;
+		}
+
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		public long getRefreshMillis() {
+			return refreshMillis;
+		}
+	}
+
+	public static final class ReadTemperature implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		private final long requestId;
 
 		public ReadTemperature(long requestId) {
@@ -78,32 +387,102 @@ public class Device extends AbstractActor {
 		}
 	}
 
-	public static final class RespondTemperature {
+	public static final class RespondTemperature implements Serializable {
+		private static final long serialVersionUID = 1L;
 
 		private final long requestId;
-		private final Optional<Double> value;
+		// Optional is not Serializable, so the reading is kept as a nullable Double.
+		private final Double value;
 
 		public RespondTemperature(long requestId, Optional<Double> value) {
 			this.requestId = requestId;
-			this.value = value;
+			this.value = value.orElse(null);
 		}
 
 		public Optional<Double> getValue() {
-			return value;
+			return Optional.ofNullable(value);
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+	}
+
+	public static final class ReadTemperatureRange implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final long from;
+		private final long to;
+
+		public ReadTemperatureRange(long requestId, long from, long to) {
+			this.requestId = requestId;
+			this.from = from;
+			this.to = to;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public long getFrom() {
+			return from;
+		}
+
+		public long getTo() {
+			return to;
+		}
+	}
+
+	public static final class RespondTemperatureRange implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final long[] timestamps;
+		private final double[] values;
+
+		public RespondTemperatureRange(long requestId, long[] timestamps, double[] values) {
+			this.requestId = requestId;
+			this.timestamps = timestamps;
+			this.values = values;
 		}
 
 		public long getRequestId() {
 			return requestId;
 		}
+
+		public int size() {
+			return timestamps.length;
+		}
+
+		public long[] getTimestamps() {
+			return timestamps;
+		}
+
+		public double[] getValues() {
+			return values;
+		}
 	}
 
-	public static final class RecordTemperature {
+	public static final class RecordTemperature implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		private final long requestId;
 		private final double value;
+		private final long timestamp;
 
+		/**
+		 * A reading taken now: its timestamp is the wall-clock time at which the message is created, not the time
+		 * the device records it. Use {@link #RecordTemperature(long, double, long)} for readings taken earlier.
+		 */
 		public RecordTemperature(long requestId, double value) {
+			this(requestId, value, System.currentTimeMillis());
+		}
+
+		public RecordTemperature(long requestId, double value, long timestamp) {
 			this.requestId = requestId;
 			this.value = value;
+			this.timestamp = timestamp;
 		}
 
 		public long getRequestId() {
@@ -113,9 +492,15 @@ public class Device extends AbstractActor {
 		public double getValue() {
 			return value;
 		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
 	}
 
-	public static final class TemperatureRecorded {
+	public static final class TemperatureRecorded implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		private final long requestId;
 
 		public TemperatureRecorded(long requestId) {
@@ -126,4 +511,33 @@ public class Device extends AbstractActor {
 			return requestId;
 		}
 	}
+
+	/**
+	 * Acknowledgement sent in coalesced ack mode for the {@code count} consecutive request ids ending at
+	 * {@code upToRequestId}, all of which the device recorded. A gap or a reordered id in the readings of a sender
+	 * starts a new acknowledgement, so one never covers a request id the device did not receive.
+	 */
+	public static final class TemperaturesRecorded implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long upToRequestId;
+		private final int count;
+
+		public TemperaturesRecorded(long upToRequestId, int count) {
+			this.upToRequestId = upToRequestId;
+			this.count = count;
+		}
+
+		public long getFromRequestId() {
+			return upToRequestId - count + 1;
+		}
+
+		public long getUpToRequestId() {
+			return upToRequestId;
+		}
+
+		public int getCount() {
+			return count;
+		}
+	}
 }
@@ -8,9 +8,16 @@ import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
 
+import static mr.cell.akka.iot.DeviceIdRegistry.UNKNOWN;
+
 /**
  * Created by U517779 on 2017-09-05.
  */
@@ -18,76 +25,926 @@ public class DeviceGroup extends AbstractActor {
 
 	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
+	private static final byte UNTRACKED = 0;
+	private static final byte LIVE = 1;
+	private static final byte PASSIVATED = 2;
+	private static final long NO_READING = Long.MIN_VALUE;
+	private static final long NO_QUERY = -1L;
+
 	private String groupId;
-	private final Map<String, ActorRef> deviceIdToActor;
-	private final Map<ActorRef, String> actorToDeviceId;
+	private final DeviceGroupSettings settings;
+	private final DeviceSettings deviceSettings;
+	// Per-device state lives in arrays indexed by the int each device id is interned to.
+	private final DeviceIdRegistry deviceIds;
+	private final ObjectIntMap<ActorRef> actorToDevice;
+	private byte[] states;
+	private ActorRef[] actors;
+	// Latest known reading, from change reports, the journal or passivation; NO_READING if there is none.
+	private double[] latestValues;
+	private long[] latestTimestamps;
+	private final Map<Integer, List<BufferedMessage>> passivating;
+	// Requesters waiting for the query in flight, which the group runs on their behalf under an internal request id.
+	private final List<QueryWaiter> queryWaiters;
+	private long inFlightQueryId = NO_QUERY;
+	private ActorRef inFlightQuery;
+	private long inFlightDeadlineNanos;
+	// Whether the query in flight runs under the adaptive or default timeout rather than one of a request.
+	private boolean inFlightOwnTimeout;
+	private long nextInternalRequestId;
+	private Map<String, TemperatureReading> reusableTemperatures;
+	private long reusableSinceNanos;
+	private final AdaptiveQueryTimeout queryTimeout;
+	private final Set<ActorRef> changeListeners;
+	// Alert rules of the whole group and of single devices, which override group rules of the same id.
+	private final Map<String, AlertRule> groupRules;
+	private final Map<String, Map<String, AlertRule>> deviceRules;
+	private final Set<ActorRef> alertSubscribers;
+	private final IoTMetrics.GroupMetrics groupMetrics;
+
+	// Null unless journaling is enabled.
+	private GroupJournal journal;
 
 	public static Props props(String groupId) {
-		return Props.create(DeviceGroup.class, groupId);
+		return Props.create(DeviceGroup.class, groupId).withDispatcher(IoTDispatchers.COORDINATION);
+	}
+
+	public static Props props(String groupId, DeviceGroupSettings settings) {
+		return Props.create(DeviceGroup.class, groupId, settings).withDispatcher(IoTDispatchers.COORDINATION);
+	}
+
+	/**
+	 * Props of a cluster sharding entity, which takes its group id from its actor name.
+	 */
+	public static Props entityProps() {
+		return Props.create(DeviceGroup.class).withDispatcher(IoTDispatchers.COORDINATION);
+	}
+
+	public DeviceGroup() {
+		this(null, null);
 	}
 
 	public DeviceGroup(String groupId) {
-		this.groupId = groupId;
-		deviceIdToActor = new HashMap<>();
-		actorToDeviceId = new HashMap<>();
+		this(groupId, null);
+	}
+
+	public DeviceGroup(String groupId, DeviceGroupSettings settings) {
+		this.groupId = groupId != null ? groupId : entityId();
+		this.settings = settings != null ? settings : DeviceGroupSettings.fromConfig(getContext().getSystem().settings().config());
+		DeviceSettings deviceSettings = this.settings.getDeviceSettings().withIdleTimeout(this.settings.getPassivateAfter().toMillis());
+		if(this.settings.isLatestReadingCache()) {
+			deviceSettings = deviceSettings.withChangeReporting(changeRefreshMillis());
+		}
+		if(this.settings.getJournalSettings().isEnabled()) {
+			deviceSettings = deviceSettings.withJournaling();
+		}
+		this.deviceSettings = deviceSettings;
+		deviceIds = new DeviceIdRegistry();
+		actorToDevice = new ObjectIntMap<>();
+		states = new byte[16];
+		actors = new ActorRef[16];
+		latestValues = new double[16];
+		latestTimestamps = new long[16];
+		Arrays.fill(latestTimestamps, NO_READING);
+		passivating = new HashMap<>();
+		queryWaiters = new ArrayList<>();
+		queryTimeout = new AdaptiveQueryTimeout(this.settings.getQueryTimeoutSettings());
+		changeListeners = new HashSet<>();
+		groupRules = new LinkedHashMap<>();
+		deviceRules = new HashMap<>();
+		alertSubscribers = new LinkedHashSet<>();
+		groupMetrics = IoTMetrics.get(getContext().getSystem()).group(this.groupId);
+	}
+
+	private long changeRefreshMillis() {
+		return settings.getStaleAfter().toMillis() / 2;
+	}
+
+	private String entityId() {
+		// Cluster sharding names entities after their URL-encoded entity id.
+		try {
+			return URLDecoder.decode(getSelf().path().name(), "UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
 	@Override
 	public void preStart() throws Exception {
 		log.info("DeviceGroup {} started.", groupId);
+		IoTMetrics.get(getContext().getSystem()).actorStarted(IoTMetrics.ActorKind.GROUP);
+		JournalSettings journalSettings = settings.getJournalSettings();
+		if(journalSettings.isEnabled()) {
+			try {
+				recover(journalSettings.groupDirectory(groupId));
+			} catch(IOException e) {
+				// Failing here would only be retried at once by supervision and fail the same way. The group is
+				// created again by the next message routed to it.
+				log.error(e, "Cannot recover the journal of group {}, stopping the group.", groupId);
+				journal = null;
+				getContext().stop(getSelf());
+			}
+		}
 	}
 
 	@Override
 	public void postStop() throws Exception {
+		if(journal != null) {
+			journal.close();
+		}
+		IoTMetrics metrics = IoTMetrics.get(getContext().getSystem());
+		metrics.removeGroup(groupId, groupMetrics);
+		metrics.actorStopped(IoTMetrics.ActorKind.GROUP);
 		log.info("DeviceGroup {} stopped.", groupId);
 	}
 
-	private void onTrackDevice(DeviceManager.RequestTrackDevice trackMsg) {
+	/**
+	 * Rebuilds the group from its newest snapshot and the journal records after it. Every group recovers
+	 * in its own preStart, so the groups of a DeviceManager recover in parallel.
+	 */
+	private void recover(Path directory) throws IOException {
+		long started = System.nanoTime();
+		Map<String, TemperatureHistory> recovered = new HashMap<>();
+		int historySize = deviceSettings.getHistorySize();
+		JournalSnapshot snapshot = JournalSnapshot.readLatest(directory);
+		long snapshotSeqNr = 0L;
+		if(snapshot != null) {
+			snapshot.forEach((deviceId, hasReading, timestamp, value) -> {
+				TemperatureHistory history = new TemperatureHistory(historySize);
+				if(hasReading) {
+					history.record(timestamp, value);
+				}
+				recovered.put(deviceId, history);
+			});
+			snapshotSeqNr = snapshot.getSeqNr();
+		}
+		long lastSeqNr = Journal.replay(directory, snapshotSeqNr + 1, new Journal.ReplayHandler() {
+			@Override
+			public void onReading(long seqNr, String deviceId, long timestamp, double value) {
+				recovered.computeIfAbsent(deviceId, id -> new TemperatureHistory(historySize)).record(timestamp, value);
+			}
+
+			@Override
+			public void onRegistration(long seqNr, String deviceId) {
+				recovered.computeIfAbsent(deviceId, id -> new TemperatureHistory(historySize));
+			}
+		});
+		recovered.forEach(this::restoreDevice);
+		journal = new GroupJournal(Journal.open(directory, settings.getJournalSettings().getSegmentSize(), lastSeqNr + 1),
+				snapshotSeqNr, settings.getJournalSettings(), groupId, getContext(), log);
+
+		if(!recovered.isEmpty()) {
+			log.info("Recovered {} devices of group {} from {} journal records in {} ms.", recovered.size(), groupId,
+					lastSeqNr - snapshotSeqNr, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+		}
+	}
+
+	private void restoreDevice(String deviceId, TemperatureHistory history) {
+		int id = track(deviceId);
+		if(!history.isEmpty()) {
+			updateLatestReading(id, history.latestValue(), history.latestTimestamp());
+		}
+		if(settings.getPassivateAfter().toMillis() > 0) {
+			// The device would only be passivated again, so it starts out that way.
+			states[id] = PASSIVATED;
+			return;
+		}
+		ActorRef device = createDevice(id);
+		if(!history.isEmpty()) {
+			Device.RespondTemperatureRange readings = history.range(0L, Long.MIN_VALUE, Long.MAX_VALUE);
+			device.tell(new Device.RestoreReadings(readings.getTimestamps(), readings.getValues()), getSelf());
+		}
+	}
+
+	private void onTrackDevice(DeviceManager.RequestTrackDevice trackMsg) throws IOException {
 		if(!groupId.equals(trackMsg.getGroupId())) {
 			log.warning("Ignoring TrackDevice request for {}. This actor is responsible for {}.",
 					trackMsg.getGroupId(), groupId);
 			return;
 		}
 
-		ActorRef device = deviceIdToActor.get(trackMsg.getDeviceId());
-		if(device == null) {
+		if(deliver(trackMsg.getDeviceId(), trackMsg, getSender()) == UNKNOWN) {
 			log.info("Creating device actor for {}.", trackMsg.getDeviceId());
-			device = getContext().actorOf(Device.props(groupId, trackMsg.getDeviceId()), "device-" + groupId + "-" + trackMsg.getDeviceId());
-			getContext().watch(device);
-			deviceIdToActor.put(trackMsg.getDeviceId(), device);
-			actorToDeviceId.put(device, trackMsg.getDeviceId());
+			createDevice(track(trackMsg.getDeviceId())).forward(trackMsg, getContext());
+			if(journal != null) {
+				journal.appendRegistration(trackMsg.getDeviceId());
+				journal.commitWhenDue();
+			}
+		}
+	}
+
+	/**
+	 * Tracks every device of the request in one pass and answers with a single summary. Unlike RequestTrackDevice
+	 * the message is not forwarded to the devices. With passivation enabled new devices start out passivated, like
+	 * recovered ones, so onboarding a fleet creates no actors until devices receive messages.
+	 */
+	private void onTrackDevices(DeviceManager.RequestTrackDevices trackMsg) throws IOException {
+		if(!groupId.equals(trackMsg.getGroupId())) {
+			log.warning("Ignoring TrackDevices request for {}. This actor is responsible for {}.",
+					trackMsg.getGroupId(), groupId);
+			return;
+		}
+
+		boolean passivated = settings.getPassivateAfter().toMillis() > 0;
+		int registered = 0;
+		for(String deviceId : trackMsg.getDeviceIds()) {
+			if(deviceIds.get(deviceId) != UNKNOWN) {
+				continue;
+			}
+			int id = track(deviceId);
+			if(passivated) {
+				states[id] = PASSIVATED;
+			} else {
+				createDevice(id);
+			}
+			if(journal != null) {
+				journal.appendRegistration(deviceId);
+			}
+			registered++;
+		}
+		log.info("Registered {} devices in group {}.", registered, groupId);
+		if(journal != null) {
+			journal.commitWhenDue();
+		}
+		getSender().tell(new DeviceManager.DevicesRegistered(groupId, registered, trackMsg.getDeviceIds().size() - registered), getSelf());
+	}
+
+	/**
+	 * Interns a new device id and makes room for its state.
+	 */
+	private int track(String deviceId) {
+		int id = deviceIds.intern(deviceId);
+		if(id >= states.length) {
+			int capacity = Math.max(states.length * 2, id + 1);
+			states = Arrays.copyOf(states, capacity);
+			actors = Arrays.copyOf(actors, capacity);
+			latestValues = Arrays.copyOf(latestValues, capacity);
+			int grown = latestTimestamps.length;
+			latestTimestamps = Arrays.copyOf(latestTimestamps, capacity);
+			Arrays.fill(latestTimestamps, grown, capacity, NO_READING);
+		}
+		groupMetrics.setDevices(deviceIds.size());
+		return id;
+	}
+
+	private void untrack(int id) {
+		states[id] = UNTRACKED;
+		latestTimestamps[id] = NO_READING;
+		deviceIds.release(id);
+		groupMetrics.setDevices(deviceIds.size());
+	}
+
+	private ActorRef createDevice(int id) {
+		String deviceId = deviceIds.deviceId(id);
+		ActorRef device = getContext().actorOf(Device.props(groupId, deviceId, deviceSettings), "device-" + groupId + "-" + deviceId);
+		getContext().watch(device);
+		states[id] = LIVE;
+		actors[id] = device;
+		actorToDevice.put(device, id);
+		if(!settings.isLatestReadingCache() && !changeListeners.isEmpty()) {
+			device.tell(new Device.ReportChanges(true, changeRefreshMillis()), getSelf());
+		}
+		if(!alertSubscribers.isEmpty() && hasAlertRules(deviceId)) {
+			device.tell(new Device.SetAlertRules(alertRules(deviceId), new ArrayList<>(alertSubscribers)), getSelf());
+		}
+		return device;
+	}
+
+	/**
+	 * Delivers a message to a tracked device, re-creating it if it was passivated.
+	 * Returns the int of the device, or {@link DeviceIdRegistry#UNKNOWN} if it is not tracked by this group.
+	 */
+	private int deliver(String deviceId, Object message, ActorRef sender) {
+		int id = deviceIds.get(deviceId);
+		if(id == UNKNOWN) {
+			return UNKNOWN;
+		}
+		if(states[id] == PASSIVATED) {
+			rehydrate(id).tell(message, sender);
+			return id;
+		}
+		List<BufferedMessage> buffer = passivating.isEmpty() ? null : passivating.get(id);
+		if(buffer != null) {
+			buffer.add(new BufferedMessage(message, sender));
+		} else {
+			actors[id].tell(message, sender);
+		}
+		return id;
+	}
+
+	private ActorRef rehydrate(int id) {
+		log.debug("Re-creating passivated device actor for {}.", deviceIds.deviceId(id));
+		ActorRef device = createDevice(id);
+		if(latestTimestamps[id] != NO_READING) {
+			device.tell(new Device.RestoreReadings(new long[] {latestTimestamps[id]}, new double[] {latestValues[id]}), getSelf());
+		}
+		return device;
+	}
+
+	private void onRecordTemperatureBatch(DeviceManager.RecordTemperatureBatch batchMsg) throws IOException {
+		int recorded = 0;
+		List<DeviceManager.DeviceReading> rejected = new ArrayList<>();
+		for(DeviceManager.DeviceReading reading : batchMsg.getReadings()) {
+			// A journaling group appends batch readings itself, so devices must not journal them again.
+			Object recordMsg = journal != null
+					? new Device.RecordJournaledTemperature(reading.getValue(), reading.getTimestamp())
+					: new Device.RecordTemperature(batchMsg.getRequestId(), reading.getValue(), reading.getTimestamp());
+			// A reading that overflows the device mailbox is rejected rather than counted, so the sender can retry it.
+			long dropped = CountingBoundedMailbox.droppedOnThisThread();
+			int id = groupId.equals(reading.getGroupId()) ? deliver(reading.getDeviceId(), recordMsg, ActorRef.noSender()) : UNKNOWN;
+			if(id != UNKNOWN && CountingBoundedMailbox.droppedOnThisThread() == dropped) {
+				if(journal != null) {
+					append(id, reading.getTimestamp(), reading.getValue());
+				}
+				recorded++;
+			} else {
+				rejected.add(reading);
+			}
+		}
+		DeviceManager.TemperatureBatchRecorded ack = new DeviceManager.TemperatureBatchRecorded(batchMsg.getRequestId(), recorded, rejected);
+		if(journal != null && recorded > 0) {
+			journal.ackWithNextCommit(ack, getSender(), getSelf());
+			journal.commitWhenDue();
+		} else {
+			getSender().tell(ack, getSelf());
 		}
+	}
 
-		device.forward(trackMsg, getContext());
+	private void onDeviceEnvelope(DeviceManager.DeviceEnvelope envelope) {
+		if(!groupId.equals(envelope.getGroupId()) || deliver(envelope.getDeviceId(), envelope.getMessage(), getSender()) == UNKNOWN) {
+			getContext().getSystem().deadLetters().tell(envelope, getSender());
+		}
 	}
 
 	private void onDeviceList(RequestDeviceList deviceListMsg) {
-		getSender().tell(new ReplyDeviceList(deviceListMsg.getRequestId(), deviceIdToActor.keySet()), getSelf());
+		Set<String> ids = new HashSet<>((int) (deviceIds.size() / 0.75f) + 1);
+		for(int id = 0; id < deviceIds.limit(); id++) {
+			if(states[id] != UNTRACKED) {
+				ids.add(deviceIds.deviceId(id));
+			}
+		}
+		getSender().tell(new ReplyDeviceList(deviceListMsg.getRequestId(), ids), getSelf());
+	}
+
+	private void onRequestPassivation(RequestPassivation passivationMsg) {
+		int id = actorToDevice.get(getSender(), UNKNOWN);
+		if(id == UNKNOWN || passivating.containsKey(id)) {
+			return;
+		}
+		passivating.put(id, new ArrayList<>());
+		getSender().tell(new Device.Passivate(), getSelf());
+	}
+
+	private void onPassivated(Passivated passivatedMsg) {
+		int id = deviceIds.get(passivatedMsg.getDeviceId());
+		if(id != UNKNOWN && passivating.containsKey(id) && passivatedMsg.hasReading()) {
+			updateLatestReading(id, passivatedMsg.getValue(), passivatedMsg.getTimestamp());
+		}
 	}
 
 	private void onTerminated(Terminated terminatedMsg) {
 		ActorRef deviceActor = terminatedMsg.getActor();
-		String deviceId = actorToDeviceId.get(deviceActor);
-		log.info("Device actor for {} has been terminated.", deviceId);
-		deviceIdToActor.remove(deviceId);
-		actorToDeviceId.remove(deviceActor);
+		if(deviceActor.equals(inFlightQuery)) {
+			onInFlightQueryTerminated();
+			return;
+		}
+		boolean subscriber = false;
+		if(changeListeners.contains(deviceActor)) {
+			removeChangeListener(deviceActor);
+			subscriber = true;
+		}
+		if(alertSubscribers.remove(deviceActor)) {
+			alertSubscribersChanged();
+			subscriber = true;
+		}
+		if(subscriber) {
+			return;
+		}
+		int id = actorToDevice.remove(deviceActor, UNKNOWN);
+		if(id == UNKNOWN) {
+			return;
+		}
+		actors[id] = null;
+
+		List<BufferedMessage> buffer = passivating.remove(id);
+		if(buffer == null) {
+			log.info("Device actor for {} has been terminated.", deviceIds.deviceId(id));
+			untrack(id);
+			return;
+		}
+
+		log.debug("Device actor for {} has been passivated.", deviceIds.deviceId(id));
+		states[id] = PASSIVATED;
+		if(!buffer.isEmpty()) {
+			ActorRef device = rehydrate(id);
+			buffer.forEach(buffered -> device.tell(buffered.message, buffered.sender));
+		}
+	}
+
+	private void onTemperatureChanged(TemperatureChanged changedMsg) {
+		int id = deviceIds.get(changedMsg.getDeviceId());
+		if(id != UNKNOWN && states[id] == LIVE) {
+			if(settings.isLatestReadingCache()) {
+				updateLatestReading(id, changedMsg.getValue(), changedMsg.getTimestamp());
+			}
+			publishChange(changedMsg);
+		}
+	}
+
+	private void publishChange(TemperatureChanged changedMsg) {
+		changeListeners.forEach(listener -> listener.tell(changedMsg, getSelf()));
+	}
+
+	private void onSubscribeChanges(SubscribeChanges subscribeMsg) {
+		if(changeListeners.add(getSender())) {
+			getContext().watch(getSender());
+			if(changeListeners.size() == 1 && !settings.isLatestReadingCache()) {
+				reportChanges(true);
+			}
+		}
+		getSender().tell(new ChangesSubscribed(groupId), getSelf());
+	}
+
+	private void onUnsubscribeChanges(UnsubscribeChanges unsubscribeMsg) {
+		if(changeListeners.contains(getSender())) {
+			if(!alertSubscribers.contains(getSender())) {
+				getContext().unwatch(getSender());
+			}
+			removeChangeListener(getSender());
+		}
+	}
+
+	private void removeChangeListener(ActorRef listener) {
+		changeListeners.remove(listener);
+		if(changeListeners.isEmpty() && !settings.isLatestReadingCache()) {
+			reportChanges(false);
+		}
+	}
+
+	/**
+	 * Devices only report changes while the cache or a listener needs them, so an unobserved group pays nothing for them.
+	 */
+	private void reportChanges(boolean enabled) {
+		Device.ReportChanges reportMsg = new Device.ReportChanges(enabled, changeRefreshMillis());
+		// A passivating device misses this, but createDevice tells it again if it is re-created.
+		for(int id = 0; id < deviceIds.limit(); id++) {
+			if(states[id] == LIVE) {
+				actors[id].tell(reportMsg, getSelf());
+			}
+		}
+	}
+
+	private void onAddAlertRule(AddAlertRule addMsg) {
+		AlertRule rule = addMsg.getRule();
+		Optional<String> deviceId = addMsg.getDeviceId();
+		AlertRule replaced;
+		if(deviceId.isPresent()) {
+			replaced = deviceRules.computeIfAbsent(deviceId.get(), id -> new LinkedHashMap<>()).put(rule.getRuleId(), rule);
+		} else {
+			replaced = groupRules.put(rule.getRuleId(), rule);
+		}
+		if(!rule.equals(replaced)) {
+			alertRulesChanged(deviceId, rule.getRuleId());
+		}
+		getSender().tell(new AlertRulesUpdated(addMsg.getRequestId()), getSelf());
+	}
+
+	private void onRemoveAlertRule(RemoveAlertRule removeMsg) {
+		Optional<String> deviceId = removeMsg.getDeviceId();
+		AlertRule removed = null;
+		if(deviceId.isPresent()) {
+			Map<String, AlertRule> rules = deviceRules.get(deviceId.get());
+			removed = rules != null ? rules.remove(removeMsg.getRuleId()) : null;
+			if(removed != null && rules.isEmpty()) {
+				deviceRules.remove(deviceId.get());
+			}
+		} else {
+			removed = groupRules.remove(removeMsg.getRuleId());
+		}
+		if(removed != null) {
+			alertRulesChanged(deviceId, removeMsg.getRuleId());
+		}
+		getSender().tell(new AlertRulesUpdated(removeMsg.getRequestId()), getSelf());
+	}
+
+	/**
+	 * Tells the live devices whose rules changed their new rules: the device of a device rule, and for a group rule
+	 * every device that does not override it with a device rule of the same id.
+	 */
+	private void alertRulesChanged(Optional<String> deviceId, String ruleId) {
+		if(alertSubscribers.isEmpty()) {
+			return;
+		}
+		List<ActorRef> subscribers = new ArrayList<>(alertSubscribers);
+		if(deviceId.isPresent()) {
+			int id = deviceIds.get(deviceId.get());
+			if(id != UNKNOWN && states[id] == LIVE) {
+				actors[id].tell(new Device.SetAlertRules(alertRules(deviceId.get()), subscribers), getSelf());
+			}
+			return;
+		}
+		List<AlertRule> rules = new ArrayList<>(groupRules.values());
+		// A passivating device misses this, but createDevice tells it again if it is re-created.
+		for(int id = 0; id < deviceIds.limit(); id++) {
+			if(states[id] == LIVE) {
+				Map<String, AlertRule> own = deviceRules.get(deviceIds.deviceId(id));
+				if(own == null) {
+					actors[id].tell(new Device.SetAlertRules(rules, subscribers), getSelf());
+				} else if(!own.containsKey(ruleId)) {
+					actors[id].tell(new Device.SetAlertRules(alertRules(deviceIds.deviceId(id)), subscribers), getSelf());
+				}
+			}
+		}
+	}
+
+	private void onSubscribeAlerts(SubscribeAlerts subscribeMsg) {
+		if(alertSubscribers.add(getSender())) {
+			getContext().watch(getSender());
+			alertSubscribersChanged();
+		}
+		getSender().tell(new AlertsSubscribed(groupId), getSelf());
+	}
+
+	private void onUnsubscribeAlerts(UnsubscribeAlerts unsubscribeMsg) {
+		if(alertSubscribers.remove(getSender())) {
+			if(!changeListeners.contains(getSender())) {
+				getContext().unwatch(getSender());
+			}
+			alertSubscribersChanged();
+		}
+	}
+
+	/**
+	 * Tells the live devices that have rules the current alert subscribers, since they send their alerts straight
+	 * to them. Devices have no rules while nobody subscribed, so an unobserved group pays nothing for them, and
+	 * devices without rules are left alone.
+	 */
+	private void alertSubscribersChanged() {
+		if(groupRules.isEmpty() && deviceRules.isEmpty()) {
+			return;
+		}
+		List<ActorRef> subscribers = new ArrayList<>(alertSubscribers);
+		List<AlertRule> rules = new ArrayList<>(groupRules.values());
+		// A passivating device misses this, but createDevice tells it again if it is re-created.
+		for(int id = 0; id < deviceIds.limit(); id++) {
+			if(states[id] == LIVE) {
+				String deviceId = deviceIds.deviceId(id);
+				if(deviceRules.containsKey(deviceId)) {
+					actors[id].tell(new Device.SetAlertRules(alertRules(deviceId), subscribers), getSelf());
+				} else if(!rules.isEmpty()) {
+					actors[id].tell(new Device.SetAlertRules(rules, subscribers), getSelf());
+				}
+			}
+		}
+	}
+
+	private boolean hasAlertRules(String deviceId) {
+		return !groupRules.isEmpty() || deviceRules.containsKey(deviceId);
+	}
+
+	private List<AlertRule> alertRules(String deviceId) {
+		Map<String, AlertRule> rules = deviceRules.get(deviceId);
+		if(rules == null) {
+			return new ArrayList<>(groupRules.values());
+		}
+		Map<String, AlertRule> merged = new LinkedHashMap<>(groupRules);
+		merged.putAll(rules);
+		return new ArrayList<>(merged.values());
+	}
+
+	private void updateLatestReading(int id, double value, long timestamp) {
+		latestValues[id] = value;
+		latestTimestamps[id] = timestamp;
+	}
+
+	private void onJournalReading(JournalReading readingMsg) throws IOException {
+		int id = deviceIds.get(readingMsg.getDeviceId());
+		if(journal == null || id == UNKNOWN || states[id] != LIVE) {
+			return;
+		}
+		append(id, readingMsg.getTimestamp(), readingMsg.getValue());
+		if(readingMsg.getAck() != null) {
+			journal.ackWithNextCommit(readingMsg.getAck(), readingMsg.getAckReceiver(), getSender());
+		}
+		journal.commitWhenDue();
+	}
+
+	private void append(int id, long timestamp, double value) throws IOException {
+		journal.append(deviceIds.deviceId(id), timestamp, value);
+		updateLatestReading(id, value, timestamp);
+	}
+
+	private void onAckAfterCommit(AckAfterCommit ackMsg) {
+		journal.ackWhenCommitted(ackMsg.getAck(), ackMsg.getAckReceiver(), getSender());
+	}
+
+	private void onTakeSnapshot(GroupJournal.TakeSnapshot snapshotMsg) {
+		JournalSnapshot snapshot = journal.startSnapshot();
+		if(snapshot == null) {
+			return;
+		}
+		for(int id = 0; id < deviceIds.limit(); id++) {
+			if(states[id] == UNTRACKED) {
+				continue;
+			}
+			if(latestTimestamps[id] == NO_READING) {
+				snapshot.add(deviceIds.deviceId(id));
+			} else {
+				snapshot.add(deviceIds.deviceId(id), latestTimestamps[id], latestValues[id]);
+			}
+		}
+		journal.writeSnapshot(snapshot);
+	}
+
+	private void onRequestTopology(RequestTopology topologyMsg) {
+		// Live devices report their readings to the group only with the latest-reading cache or the journal.
+		boolean liveReadings = settings.isLatestReadingCache() || journal != null;
+		List<String> ids = new ArrayList<>(deviceIds.size());
+		long[] timestamps = new long[deviceIds.size()];
+		double[] values = new double[deviceIds.size()];
+		for(int id = 0; id < deviceIds.limit(); id++) {
+			if(states[id] == UNTRACKED) {
+				continue;
+			}
+			int i = ids.size();
+			ids.add(deviceIds.deviceId(id));
+			timestamps[i] = liveReadings || states[id] == PASSIVATED ? latestTimestamps[id] : NO_READING;
+			values[i] = latestValues[id];
+		}
+		getSender().tell(new GroupTopology(groupId, ids, timestamps, values), getSelf());
+	}
+
+	/**
+	 * Restores the devices of a topology snapshot that the group does not track yet, for example because it
+	 * recovered them from its journal.
+	 */
+	private void onRestoreTopology(RestoreTopology restoreMsg) throws IOException {
+		GroupTopology topology = restoreMsg.getTopology();
+		if(!groupId.equals(topology.getGroupId())) {
+			log.warning("Ignoring topology of {}. This actor is responsible for {}.", topology.getGroupId(), groupId);
+			return;
+		}
+
+		boolean passivated = settings.getPassivateAfter().toMillis() > 0;
+		List<String> restoredIds = topology.getDeviceIds();
+		int restored = 0;
+		for(int i = 0; i < restoredIds.size(); i++) {
+			String deviceId = restoredIds.get(i);
+			if(deviceIds.get(deviceId) != UNKNOWN) {
+				continue;
+			}
+			int id = track(deviceId);
+			if(topology.getTimestamps()[i] != NO_READING) {
+				updateLatestReading(id, topology.getValues()[i], topology.getTimestamps()[i]);
+			}
+			if(passivated) {
+				states[id] = PASSIVATED;
+			} else {
+				rehydrate(id);
+			}
+			if(journal != null) {
+				journal.appendRegistration(deviceId);
+			}
+			restored++;
+		}
+		if(journal != null && restored > 0) {
+			journal.commitWhenDue();
+		}
+		getSender().tell(new TopologyRestored(groupId, restored), getSelf());
 	}
 
 	private void onRequestAllTemperatures(RequestAllTemperatures rat) {
-		getContext().actorOf(DeviceGroupQuery.props(actorToDeviceId, rat.getRequestId(), getSender(), new FiniteDuration(3, TimeUnit.SECONDS)));
+		if(settings.isLatestReadingCache()) {
+			getSender().tell(new RespondAllTemperatures(rat.getRequestId(), cachedTemperatures()), getSelf());
+			return;
+		}
+		if(rat.getCompletionPolicy().getKind() != CompletionPolicy.Kind.ALL) {
+			// The other policies send partial and corrected results tied to one requester, so they get a query of their own.
+			getContext().actorOf(queryProps(rat.getRequestId(), getSender(), rat.getCompletionPolicy(),
+					rat.getTimeout().orElseGet(queryTimeout::timeout)));
+			return;
+		}
+		joinQuery(new QueryWaiter(rat.getRequestId(), getSender(), false), rat.getTimeout());
+	}
+
+	private void onRequestGroupStatistics(RequestGroupStatistics statisticsMsg) {
+		if(settings.isLatestReadingCache()) {
+			getSender().tell(cachedStatistics(statisticsMsg.getRequestId()), getSelf());
+			return;
+		}
+		// The group summarizes the answer of the query, so only the summary leaves the group.
+		joinQuery(new QueryWaiter(statisticsMsg.getRequestId(), getSender(), true), statisticsMsg.getTimeout());
+	}
+
+	/**
+	 * Answers the waiter from the reusable result if there is one, and otherwise adds it to the query in flight,
+	 * starting one if none is. However many requesters wait, every live device is asked once per query. The query
+	 * answers all of its waiters at once, so it completes by the earliest of their deadlines.
+	 */
+	private void joinQuery(QueryWaiter waiter, Optional<FiniteDuration> requestTimeout) {
+		if(reusableTemperatures != null) {
+			if(System.nanoTime() - reusableSinceNanos < settings.getQueryReuseWindow().toNanos()) {
+				answer(Collections.singletonList(waiter), reusableTemperatures);
+				return;
+			}
+			reusableTemperatures = null;
+		}
+		queryWaiters.add(waiter);
+		FiniteDuration timeout = requestTimeout.orElseGet(queryTimeout::timeout);
+		long deadlineNanos = System.nanoTime() + timeout.toNanos();
+		if(inFlightQueryId == NO_QUERY) {
+			inFlightQueryId = nextInternalRequestId++;
+			inFlightDeadlineNanos = deadlineNanos;
+			inFlightOwnTimeout = !requestTimeout.isPresent();
+			inFlightQuery = getContext().actorOf(queryProps(inFlightQueryId, getSelf(), CompletionPolicy.all(), timeout));
+			getContext().watch(inFlightQuery);
+		} else if(deadlineNanos < inFlightDeadlineNanos) {
+			inFlightDeadlineNanos = deadlineNanos;
+			inFlightOwnTimeout = false;
+			inFlightQuery.tell(new DeviceGroupQuery.AdvanceDeadline(deadlineNanos), getSelf());
+		}
+	}
+
+	/**
+	 * A query of the live devices, with the readings of passivated devices known up front.
+	 */
+	private Props queryProps(long requestId, ActorRef requester, CompletionPolicy completionPolicy, FiniteDuration timeout) {
+		ActorRef[] queried = new ActorRef[actorToDevice.size()];
+		String[] queriedIds = new String[queried.length];
+		Map<String, TemperatureReading> passivatedTemperatures = Collections.emptyMap();
+		int live = 0;
+		for(int id = 0; id < deviceIds.limit(); id++) {
+			if(states[id] == LIVE) {
+				queried[live] = actors[id];
+				queriedIds[live++] = deviceIds.deviceId(id);
+			} else if(states[id] == PASSIVATED) {
+				if(passivatedTemperatures.isEmpty()) {
+					passivatedTemperatures = new HashMap<>((int) ((deviceIds.size() - queried.length) / 0.75f) + 1);
+				}
+				passivatedTemperatures.put(deviceIds.deviceId(id), latestTimestamps[id] == NO_READING
+						? new TemperatureNotAvailable()
+						: new Temperature(latestValues[id]));
+			}
+		}
+		return DeviceGroupQuery.props(queried, queriedIds, passivatedTemperatures, requestId, requester, timeout, completionPolicy);
+	}
+
+	private void onRespondAllTemperatures(RespondAllTemperatures response) {
+		if(response.getRequestId() != inFlightQueryId) {
+			return;
+		}
+		getContext().unwatch(inFlightQuery);
+		inFlightQueryId = NO_QUERY;
+		inFlightQuery = null;
+		// Every waiter gets the same map, so none of them may modify it.
+		Map<String, TemperatureReading> temperatures = Collections.unmodifiableMap(response.getTemperatures());
+		if(settings.getQueryReuseWindow().toNanos() > 0) {
+			reusableTemperatures = temperatures;
+			reusableSinceNanos = System.nanoTime();
+		}
+		answer(queryWaiters, temperatures);
+		queryWaiters.clear();
+	}
+
+	/**
+	 * The query in flight stopped without answering. Rather than leaving its waiters to their own timeouts, they are
+	 * answered as if every live device had timed out, and the next request starts a new query.
+	 */
+	private void onInFlightQueryTerminated() {
+		log.warning("Query {} of group {} stopped without answering {} waiters.", inFlightQueryId, groupId, queryWaiters.size());
+		inFlightQueryId = NO_QUERY;
+		inFlightQuery = null;
+		Map<String, TemperatureReading> temperatures = new HashMap<>((int) (deviceIds.size() / 0.75f) + 1);
+		for(int id = 0; id < deviceIds.limit(); id++) {
+			if(states[id] == LIVE) {
+				temperatures.put(deviceIds.deviceId(id), new DeviceTimeout());
+			} else if(states[id] == PASSIVATED) {
+				temperatures.put(deviceIds.deviceId(id), latestTimestamps[id] == NO_READING
+						? new TemperatureNotAvailable()
+						: new Temperature(latestValues[id]));
+			}
+		}
+		answer(queryWaiters, Collections.unmodifiableMap(temperatures));
+		queryWaiters.clear();
+	}
+
+	private void onQueryCompleted(DeviceGroupQuery.QueryCompleted completed) {
+		// Queries cut short by a request timeout say nothing about how long the devices take, so only the ones
+		// that ran under the group's own timeout are learned from.
+		if(inFlightOwnTimeout && getSender().equals(inFlightQuery)) {
+			queryTimeout.record(completed.getReplyLatencies(), completed.getTimedOut(), completed.getTimeoutNanos());
+		}
+	}
+
+	private void answer(List<QueryWaiter> waiters, Map<String, TemperatureReading> temperatures) {
+		TemperatureStatistics statistics = null;
+		int unavailable = 0;
+		for(QueryWaiter waiter : waiters) {
+			if(!waiter.statistics) {
+				waiter.requester.tell(new RespondAllTemperatures(waiter.requestId, temperatures), getSelf());
+				continue;
+			}
+			if(statistics == null) {
+				statistics = new TemperatureStatistics();
+				for(TemperatureReading reading : temperatures.values()) {
+					if(reading instanceof Temperature) {
+						statistics.add(((Temperature) reading).getValue());
+					} else {
+						unavailable++;
+					}
+				}
+			}
+			waiter.requester.tell(new RespondGroupStatistics(waiter.requestId, statistics, unavailable), getSelf());
+		}
+	}
+
+	private RespondGroupStatistics cachedStatistics(long requestId) {
+		long staleBefore = System.currentTimeMillis() - settings.getStaleAfter().toMillis();
+		TemperatureStatistics statistics = new TemperatureStatistics();
+		for(int id = 0; id < deviceIds.limit(); id++) {
+			if(states[id] != UNTRACKED && isFresh(id, staleBefore)) {
+				statistics.add(latestValues[id]);
+			}
+		}
+		return new RespondGroupStatistics(requestId, statistics, deviceIds.size() - (int) statistics.getCount());
+	}
+
+	private Map<String, TemperatureReading> cachedTemperatures() {
+		long staleBefore = System.currentTimeMillis() - settings.getStaleAfter().toMillis();
+		Map<String, TemperatureReading> temperatures = new HashMap<>((int) (deviceIds.size() / 0.75f) + 1);
+		for(int id = 0; id < deviceIds.limit(); id++) {
+			if(states[id] != UNTRACKED) {
+				temperatures.put(deviceIds.deviceId(id), isFresh(id, staleBefore)
+						? new Temperature(latestValues[id])
+						: new TemperatureNotAvailable());
+			}
+		}
+		return temperatures;
+	}
+
+	private boolean isFresh(int id, long staleBefore) {
+		// NO_READING is below any cut-off.
+		return latestTimestamps[id] >= staleBefore;
 	}
 
 	@Override
 	public Receive createReceive() {
 		return receiveBuilder()
 				.match(DeviceManager.RequestTrackDevice.class, this::onTrackDevice)
+				.match(DeviceManager.RequestTrackDevices.class, this::onTrackDevices)
+				.match(DeviceManager.RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
+				.match(DeviceManager.DeviceEnvelope.class, this::onDeviceEnvelope)
 				.match(RequestDeviceList.class, this::onDeviceList)
 				.match(RequestAllTemperatures.class, this::onRequestAllTemperatures)
+				.match(RequestGroupStatistics.class, this::onRequestGroupStatistics)
+				.match(RespondAllTemperatures.class, this::onRespondAllTemperatures)
+				.match(DeviceGroupQuery.QueryCompleted.class, this::onQueryCompleted)
+				.match(TemperatureChanged.class, this::onTemperatureChanged)
+				.match(SubscribeChanges.class, this::onSubscribeChanges)
+				.match(AddAlertRule.class, this::onAddAlertRule)
+				.match(RemoveAlertRule.class, this::onRemoveAlertRule)
+				.match(SubscribeAlerts.class, this::onSubscribeAlerts)
+				.match(UnsubscribeAlerts.class, this::onUnsubscribeAlerts)
+				.match(UnsubscribeChanges.class, this::onUnsubscribeChanges)
+				.match(JournalReading.class, this::onJournalReading)
+				.match(AckAfterCommit.class, this::onAckAfterCommit)
+				.match(GroupJournal.Commit.class, commitMsg -> journal.onCommit(commitMsg))
+				.match(GroupJournal.Committed.class, committedMsg -> journal.onCommitted(committedMsg))
+				.match(GroupJournal.TakeSnapshot.class, this::onTakeSnapshot)
+				.match(GroupJournal.SnapshotTaken.class, takenMsg -> journal.onSnapshotTaken(takenMsg))
+				.match(RequestTopology.class, this::onRequestTopology)
+				.match(RestoreTopology.class, this::onRestoreTopology)
+				.match(RequestPassivation.class, this::onRequestPassivation)
+				.match(Passivated.class, this::onPassivated)
 				.match(Terminated.class, this::onTerminated)
 				.build();
 	}
 
-	public static final class RequestDeviceList {
+	private static final class QueryWaiter {
+		private final long requestId;
+		private final ActorRef requester;
+		// Whether the requester asked for RespondGroupStatistics rather than RespondAllTemperatures.
+		private final boolean statistics;
+
+		private QueryWaiter(long requestId, ActorRef requester, boolean statistics) {
+			this.requestId = requestId;
+			this.requester = requester;
+			this.statistics = statistics;
+		}
+	}
+
+	private static final class BufferedMessage {
+		private final Object message;
+		private final ActorRef sender;
+
+		private BufferedMessage(Object message, ActorRef sender) {
+			this.message = message;
+			this.sender = sender;
+		}
+	}
+
+	public static final class RequestDeviceList implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		private final long requestId;
 
 		public RequestDeviceList(long requestId) {
@@ -99,7 +956,9 @@ public class DeviceGroup extends AbstractActor {
 		}
 	}
 
-	public static final class ReplyDeviceList {
+	public static final class ReplyDeviceList implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		private final long requestId;
 		private final Set<String> deviceIds;
 
@@ -117,19 +976,163 @@ public class DeviceGroup extends AbstractActor {
 		}
 	}
 
-	public static final class RequestAllTemperatures {
+	public static final class RequestAllTemperatures implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		private final long requestId;
+		private final CompletionPolicy completionPolicy;
+		private final FiniteDuration timeout;
 
 		public RequestAllTemperatures(long requestId) {
+			this(requestId, CompletionPolicy.all());
+		}
+
+		public RequestAllTemperatures(long requestId, CompletionPolicy completionPolicy) {
+			this(requestId, completionPolicy, null);
+		}
+
+		/**
+		 * @param timeout how long the requester waits for the answer, or null for the timeout of the group
+		 */
+		public RequestAllTemperatures(long requestId, CompletionPolicy completionPolicy, FiniteDuration timeout) {
+			this.requestId = requestId;
+			this.completionPolicy = completionPolicy;
+			this.timeout = checkTimeout(timeout);
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public CompletionPolicy getCompletionPolicy() {
+			return completionPolicy;
+		}
+
+		public Optional<FiniteDuration> getTimeout() {
+			return Optional.ofNullable(timeout);
+		}
+	}
+
+	/**
+	 * Decides when a group query replies. Every policy replies with one {@link RespondAllTemperatures};
+	 * devices that have not answered by then are reported as {@link DeviceTimeout}.
+	 * <ul>
+	 * <li>all - once every device answered or the query timed out,</li>
+	 * <li>quorum - once the given fraction of devices answered,</li>
+	 * <li>incremental - additionally streams {@link PartialTemperatures} chunks as replies arrive,</li>
+	 * <li>soft deadline - at the deadline if still incomplete. The query then goes on until every device answered
+	 * or it timed out, and ends with one {@link CorrectedTemperatures} with the devices that answered after the
+	 * deadline, or with no further message if none did.</li>
+	 * </ul>
+	 * A group with the latest-reading cache enabled always answers at once.
+	 */
+	public static final class CompletionPolicy implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public enum Kind { ALL, QUORUM, INCREMENTAL, SOFT_DEADLINE }
+
+		private static final CompletionPolicy ALL = new CompletionPolicy(Kind.ALL, 1.0, 0, null);
+
+		private final Kind kind;
+		private final double quorum;
+		private final int chunkSize;
+		private final FiniteDuration softDeadline;
+
+		private CompletionPolicy(Kind kind, double quorum, int chunkSize, FiniteDuration softDeadline) {
+			this.kind = kind;
+			this.quorum = quorum;
+			this.chunkSize = chunkSize;
+			this.softDeadline = softDeadline;
+		}
+
+		public static CompletionPolicy all() {
+			return ALL;
+		}
+
+		public static CompletionPolicy quorum(double fraction) {
+			if(fraction <= 0.0 || fraction > 1.0) {
+				throw new IllegalArgumentException("Quorum must be in (0, 1], was " + fraction);
+			}
+			return new CompletionPolicy(Kind.QUORUM, fraction, 0, null);
+		}
+
+		public static CompletionPolicy incremental(int chunkSize) {
+			if(chunkSize < 1) {
+				throw new IllegalArgumentException("Chunk size must be positive, was " + chunkSize);
+			}
+			return new CompletionPolicy(Kind.INCREMENTAL, 1.0, chunkSize, null);
+		}
+
+		public static CompletionPolicy softDeadline(FiniteDuration softDeadline) {
+			return new CompletionPolicy(Kind.SOFT_DEADLINE, 1.0, 0, softDeadline);
+		}
+
+		public Kind getKind() {
+			return kind;
+		}
+
+		public double getQuorum() {
+			return quorum;
+		}
+
+		public int getChunkSize() {
+			return chunkSize;
+		}
+
+		public FiniteDuration getSoftDeadline() {
+			return softDeadline;
+		}
+	}
+
+	public static final class PartialTemperatures implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final Map<String, TemperatureReading> temperatures;
+		private final int remaining;
+
+		public PartialTemperatures(long requestId, Map<String, TemperatureReading> temperatures, int remaining) {
 			this.requestId = requestId;
+			this.temperatures = temperatures;
+			this.remaining = remaining;
 		}
 
 		public long getRequestId() {
 			return requestId;
 		}
+
+		public Map<String, TemperatureReading> getTemperatures() {
+			return temperatures;
+		}
+
+		public int getRemaining() {
+			return remaining;
+		}
 	}
 
-	public static final class RespondAllTemperatures {
+	public static final class CorrectedTemperatures implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final Map<String, TemperatureReading> temperatures;
+
+		public CorrectedTemperatures(long requestId, Map<String, TemperatureReading> temperatures) {
+			this.requestId = requestId;
+			this.temperatures = temperatures;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public Map<String, TemperatureReading> getTemperatures() {
+			return temperatures;
+		}
+	}
+
+	public static final class RespondAllTemperatures implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		private final long requestId;
 		private final Map<String, TemperatureReading> temperatures;
 
@@ -147,9 +1150,476 @@ public class DeviceGroup extends AbstractActor {
 		}
 	}
 
-	public static interface TemperatureReading { }
+	public static final class RequestGroupStatistics implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final FiniteDuration timeout;
+
+		public RequestGroupStatistics(long requestId) {
+			this(requestId, null);
+		}
+
+		/**
+		 * @param timeout how long the requester waits for the answer, or null for the timeout of the group
+		 */
+		public RequestGroupStatistics(long requestId, FiniteDuration timeout) {
+			this.requestId = requestId;
+			this.timeout = checkTimeout(timeout);
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public Optional<FiniteDuration> getTimeout() {
+			return Optional.ofNullable(timeout);
+		}
+	}
+
+	private static FiniteDuration checkTimeout(FiniteDuration timeout) {
+		if(timeout != null && timeout.toNanos() <= 0) {
+			throw new IllegalArgumentException("Timeout must be positive, was " + timeout);
+		}
+		return timeout;
+	}
+
+	/**
+	 * Summary of the latest reading of every device. Devices without a current reading, including ones that
+	 * did not answer in time, are only counted as {@code unavailable}.
+	 */
+	public static final class RespondGroupStatistics implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final TemperatureStatistics statistics;
+		private final int unavailable;
+
+		public RespondGroupStatistics(long requestId, TemperatureStatistics statistics, int unavailable) {
+			this.requestId = requestId;
+			this.statistics = statistics;
+			this.unavailable = unavailable;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public TemperatureStatistics getStatistics() {
+			return statistics;
+		}
+
+		public int getUnavailable() {
+			return unavailable;
+		}
+	}
+
+	/**
+	 * Subscribes the sender to the {@link TemperatureChanged} events of the devices of this group, sent with the group
+	 * as sender. Answered with {@link ChangesSubscribed}; the subscription ends with {@link UnsubscribeChanges} or
+	 * when the subscriber stops.
+	 */
+	public static final class SubscribeChanges extends AbstractNoBodyMessage {
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static final class UnsubscribeChanges extends AbstractNoBodyMessage {
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static final class ChangesSubscribed implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+
+		public ChangesSubscribed(String groupId) {
+			this.groupId = groupId;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+	}
+
+	public static final class TemperatureChanged implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String deviceId;
+		private final double value;
+		private final long timestamp;
+
+		public TemperatureChanged(String deviceId, double value, long timestamp) {
+			this.deviceId = deviceId;
+			this.value = value;
+			this.timestamp = timestamp;
+		}
+
+		public String getDeviceId() {
+			return deviceId;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+	}
+
+	/**
+	 * Adds an alert rule to every device of the group, or to one device if a device id is given, replacing a rule of
+	 * the same id. A device rule overrides the group rule of the same id for that device, and may be added before the
+	 * device is tracked. Answered with {@link AlertRulesUpdated}.
+	 */
+	public static final class AddAlertRule implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final String deviceId;
+		private final AlertRule rule;
+
+		public AddAlertRule(long requestId, AlertRule rule) {
+			this(requestId, null, rule);
+		}
+
+		public AddAlertRule(long requestId, String deviceId, AlertRule rule) {
+			this.requestId = requestId;
+			this.deviceId = deviceId;
+			this.rule = rule;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public Optional<String> getDeviceId() {
+			return Optional.ofNullable(deviceId);
+		}
+
+		public AlertRule getRule() {
+			return rule;
+		}
+	}
+
+	/**
+	 * Removes the group rule, or the rule of one device if a device id is given, with the given id.
+	 * Answered with {@link AlertRulesUpdated}.
+	 */
+	public static final class RemoveAlertRule implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final String deviceId;
+		private final String ruleId;
+
+		public RemoveAlertRule(long requestId, String ruleId) {
+			this(requestId, null, ruleId);
+		}
+
+		public RemoveAlertRule(long requestId, String deviceId, String ruleId) {
+			this.requestId = requestId;
+			this.deviceId = deviceId;
+			this.ruleId = ruleId;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public Optional<String> getDeviceId() {
+			return Optional.ofNullable(deviceId);
+		}
+
+		public String getRuleId() {
+			return ruleId;
+		}
+	}
+
+	public static final class AlertRulesUpdated implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+
+		public AlertRulesUpdated(long requestId) {
+			this.requestId = requestId;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+	}
+
+	/**
+	 * Subscribes the sender to the {@link Alert}s of the devices of this group, which devices send straight to their
+	 * subscribers. Answered with {@link AlertsSubscribed}; the subscription ends with {@link UnsubscribeAlerts} or
+	 * when the subscriber stops.
+	 */
+	public static final class SubscribeAlerts extends AbstractNoBodyMessage {
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static final class UnsubscribeAlerts extends AbstractNoBodyMessage {
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static final class AlertsSubscribed implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+
+		public AlertsSubscribed(String groupId) {
+			this.groupId = groupId;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+	}
+
+	/**
+	 * Sent by a device, with itself as sender, when one of its alert rules starts ({@code raised}) or stops being met
+	 * by the reading of {@code value} taken at {@code timestamp}. A raised rule that is replaced, removed or passivated
+	 * with its device is cleared at the latest reading.
+	 */
+	public static final class Alert implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+		private final String deviceId;
+		private final String ruleId;
+		private final boolean raised;
+		private final double value;
+		private final long timestamp;
+
+		public Alert(String groupId, String deviceId, String ruleId, boolean raised, double value, long timestamp) {
+			this.groupId = groupId;
+			this.deviceId = deviceId;
+			this.ruleId = ruleId;
+			this.raised = raised;
+			this.value = value;
+			this.timestamp = timestamp;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		public String getDeviceId() {
+			return deviceId;
+		}
+
+		public String getRuleId() {
+			return ruleId;
+		}
+
+		public boolean isRaised() {
+			return raised;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+	}
+
+	/**
+	 * Sent by a journaled device for every reading it recorded. The group appends the reading to its journal and
+	 * sends {@code ack}, if any, to {@code ackReceiver} once the reading is committed.
+	 */
+	public static final class JournalReading {
+		private final String deviceId;
+		private final double value;
+		private final long timestamp;
+		private final Object ack;
+		private final ActorRef ackReceiver;
+
+		public JournalReading(String deviceId, double value, long timestamp, Object ack, ActorRef ackReceiver) {
+			this.deviceId = deviceId;
+			this.value = value;
+			this.timestamp = timestamp;
+			this.ack = ack;
+			this.ackReceiver = ackReceiver;
+		}
+
+		public String getDeviceId() {
+			return deviceId;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public Object getAck() {
+			return ack;
+		}
+
+		public ActorRef getAckReceiver() {
+			return ackReceiver;
+		}
+	}
+
+	/**
+	 * Sent by a journaled device for an acknowledgement that covers readings it already sent as {@link JournalReading}.
+	 */
+	public static final class AckAfterCommit {
+		private final Object ack;
+		private final ActorRef ackReceiver;
+
+		public AckAfterCommit(Object ack, ActorRef ackReceiver) {
+			this.ack = ack;
+			this.ackReceiver = ackReceiver;
+		}
+
+		public Object getAck() {
+			return ack;
+		}
+
+		public ActorRef getAckReceiver() {
+			return ackReceiver;
+		}
+	}
+
+	public static final class RequestPassivation extends AbstractNoBodyMessage {
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static final class RequestTopology extends AbstractNoBodyMessage {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Devices of a group and the latest readings the group knows, in answer to RequestTopology.
+	 */
+	public static final class GroupTopology implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Timestamp of the devices without a known reading.
+		 */
+		public static final long NO_READING = Long.MIN_VALUE;
+
+		private final String groupId;
+		private final List<String> deviceIds;
+		private final long[] timestamps;
+		private final double[] values;
+
+		public GroupTopology(String groupId, List<String> deviceIds, long[] timestamps, double[] values) {
+			this.groupId = groupId;
+			this.deviceIds = deviceIds;
+			this.timestamps = timestamps;
+			this.values = values;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		public List<String> getDeviceIds() {
+			return deviceIds;
+		}
+
+		public long[] getTimestamps() {
+			return timestamps;
+		}
+
+		public double[] getValues() {
+			return values;
+		}
+	}
+
+	/**
+	 * Restores the devices of a topology snapshot that the group does not track yet. Answered with TopologyRestored.
+	 */
+	public static final class RestoreTopology implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final GroupTopology topology;
+
+		public RestoreTopology(GroupTopology topology) {
+			this.topology = topology;
+		}
+
+		public GroupTopology getTopology() {
+			return topology;
+		}
+	}
+
+	public static final class TopologyRestored implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+		private final int restored;
+
+		public TopologyRestored(String groupId, int restored) {
+			this.groupId = groupId;
+			this.restored = restored;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		/**
+		 * Devices the group did not track before.
+		 */
+		public int getRestored() {
+			return restored;
+		}
+	}
+
+	public static final class Passivated implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String deviceId;
+		private final boolean hasReading;
+		private final double value;
+		private final long timestamp;
+
+		public Passivated(String deviceId) {
+			this(deviceId, false, 0.0, 0L);
+		}
+
+		public Passivated(String deviceId, double value, long timestamp) {
+			this(deviceId, true, value, timestamp);
+		}
+
+		private Passivated(String deviceId, boolean hasReading, double value, long timestamp) {
+			this.deviceId = deviceId;
+			this.hasReading = hasReading;
+			this.value = value;
+			this.timestamp = timestamp;
+		}
+
+		public String getDeviceId() {
+			return deviceId;
+		}
+
+		public boolean hasReading() {
+			return hasReading;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+	}
+
+	public static interface TemperatureReading extends Serializable { }
 
 	public static final class Temperature implements TemperatureReading {
+		private static final long serialVersionUID = 1L;
+
 		public final double value;
 
 		public Temperature(double value) {
@@ -177,9 +1647,15 @@ public class DeviceGroup extends AbstractActor {
 		}
 	}
 
-	public static final class TemperatureNotAvailable extends AbstractNoBodyMessage implements TemperatureReading { }
+	public static final class TemperatureNotAvailable extends AbstractNoBodyMessage implements TemperatureReading {
+		private static final long serialVersionUID = 1L;
+	}
 
-	public static final class DeviceNotAvailable extends AbstractNoBodyMessage implements TemperatureReading { 	}
+	public static final class DeviceNotAvailable extends AbstractNoBodyMessage implements TemperatureReading {
+		private static final long serialVersionUID = 1L;
+	}
 
-	public static final class DeviceTimeout extends AbstractNoBodyMessage implements TemperatureReading { }
+	public static final class DeviceTimeout extends AbstractNoBodyMessage implements TemperatureReading {
+		private static final long serialVersionUID = 1L;
+	}
 }
@@ -5,10 +5,10 @@ import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by U517779 on 2017-09-08.
@@ -16,92 +16,308 @@ import java.util.Set;
 public class DeviceGroupQuery extends AbstractActor {
 	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
-	private final Map<ActorRef, String> actorToDeviceId;
+	private static final int ANSWERED = -1;
+
+	private final ActorRef[] devices;
+	private final String[] deviceIds;
+	private final Map<String, DeviceGroup.TemperatureReading> knownReadings;
 	private final long requestId;
 	private final ActorRef requester;
+	private final DeviceGroup.CompletionPolicy completionPolicy;
+	private final long startNanos;
+	private long deadlineNanos;
+	// Reply latencies for the group that runs this query for itself, null for other requesters.
+	private final int[] replyLatencies;
+
+	// Query state is indexed by the position of a device in devices; replies stay null until answered.
+	private final ObjectIntMap<ActorRef> indexOf;
+	private final DeviceGroup.TemperatureReading[] replies;
+	private int stillWaiting;
+	private final int quorum;
+	private int[] chunk;
+	private int chunkSize;
+	private int[] corrections;
+	private int correctionCount;
 
 	private Cancellable queryTimeoutTimer;
+	private Cancellable livenessCheckTimer;
+	private boolean livenessChecked;
+	private Cancellable softDeadlineTimer;
 
 	public static Props props(Map<ActorRef, String> actorToDeviceId, long requestId, ActorRef requester, FiniteDuration timeout) {
-		return Props.create(DeviceGroupQuery.class, actorToDeviceId, requestId, requester, timeout);
+		return props(actorToDeviceId, requestId, requester, timeout, DeviceGroup.CompletionPolicy.all());
+	}
+
+	public static Props props(Map<ActorRef, String> actorToDeviceId, long requestId, ActorRef requester, FiniteDuration timeout,
+	                          DeviceGroup.CompletionPolicy completionPolicy) {
+		return props(actorToDeviceId, Collections.emptyMap(), requestId, requester, timeout, completionPolicy);
+	}
+
+	/**
+	 * @param knownReadings readings of devices that are not asked, such as passivated ones; they count as answered
+	 */
+	public static Props props(Map<ActorRef, String> actorToDeviceId, Map<String, DeviceGroup.TemperatureReading> knownReadings,
+	                          long requestId, ActorRef requester, FiniteDuration timeout, DeviceGroup.CompletionPolicy completionPolicy) {
+		ActorRef[] devices = new ActorRef[actorToDeviceId.size()];
+		String[] deviceIds = new String[devices.length];
+		int i = 0;
+		for(Map.Entry<ActorRef, String> entry : actorToDeviceId.entrySet()) {
+			devices[i] = entry.getKey();
+			deviceIds[i++] = entry.getValue();
+		}
+		return props(devices, deviceIds, knownReadings, requestId, requester, timeout, completionPolicy);
+	}
+
+	/**
+	 * Queries {@code devices[i]} for the reading of {@code deviceIds[i]}. The query keeps references to the arrays
+	 * and to {@code knownReadings}, so callers must not modify them afterwards.
+	 */
+	public static Props props(ActorRef[] devices, String[] deviceIds, Map<String, DeviceGroup.TemperatureReading> knownReadings,
+	                          long requestId, ActorRef requester, FiniteDuration timeout, DeviceGroup.CompletionPolicy completionPolicy) {
+		return Props.create(DeviceGroupQuery.class, devices, deviceIds, knownReadings, requestId, requester, timeout, completionPolicy)
+				.withDispatcher(IoTDispatchers.QUERY);
 	}
 
-	public DeviceGroupQuery(Map<ActorRef, String> actorToDeviceId, long requestId, ActorRef requester, FiniteDuration timeout) {
-		this.actorToDeviceId = actorToDeviceId;
+	public DeviceGroupQuery(ActorRef[] devices, String[] deviceIds, Map<String, DeviceGroup.TemperatureReading> knownReadings,
+	                        long requestId, ActorRef requester, FiniteDuration timeout, DeviceGroup.CompletionPolicy completionPolicy) {
+		this.devices = devices;
+		this.deviceIds = deviceIds;
+		this.knownReadings = knownReadings;
 		this.requestId = requestId;
 		this.requester = requester;
+		this.completionPolicy = completionPolicy;
+		this.startNanos = System.nanoTime();
+		this.deadlineNanos = startNanos + timeout.toNanos();
+		this.replyLatencies = requester.equals(getContext().getParent()) ? AdaptiveQueryTimeout.newHistogram() : null;
+		this.indexOf = new ObjectIntMap<>(devices.length);
+		this.replies = new DeviceGroup.TemperatureReading[devices.length];
+		this.quorum = (int) Math.ceil(completionPolicy.getQuorum() * (devices.length + knownReadings.size()));
+		if(completionPolicy.getKind() == DeviceGroup.CompletionPolicy.Kind.INCREMENTAL) {
+			chunk = new int[Math.min(completionPolicy.getChunkSize(), devices.length)];
+		}
+		if(completionPolicy.getKind() == DeviceGroup.CompletionPolicy.Kind.SOFT_DEADLINE) {
+			softDeadlineTimer = getContext().getSystem().scheduler().scheduleOnce(completionPolicy.getSoftDeadline(), getSelf(), new SoftDeadline(), getContext().dispatcher(), getSelf());
+		}
 
+		scheduleTimeouts(timeout);
+	}
+
+	private void scheduleTimeouts(FiniteDuration timeout) {
 		queryTimeoutTimer = getContext().getSystem().scheduler().scheduleOnce(timeout, getSelf(), new CollectionTimeout(), getContext().dispatcher(), getSelf());
+		// Devices that have not answered by then are watched, so the ones that stopped are reported as
+		// DeviceNotAvailable without paying for a watch on every device of the group.
+		if(!livenessChecked) {
+			livenessCheckTimer = getContext().getSystem().scheduler().scheduleOnce(timeout.div(2), getSelf(), new LivenessCheck(), getContext().dispatcher(), getSelf());
+		}
+	}
+
+	private static int capacityFor(int entries) {
+		return (int) (entries / 0.75f) + 1;
 	}
 
 	@Override
 	public void preStart() throws Exception {
-		log.info("DeviceGroupQuery actor started.");
-		actorToDeviceId.keySet().stream().forEach(device -> {
-			getContext().watch(device);
-			device.tell(new Device.ReadTemperature(0L), getSelf());
-		});
+		log.debug("DeviceGroupQuery actor started.");
+		IoTMetrics.get(getContext().getSystem()).actorStarted(IoTMetrics.ActorKind.QUERY);
+		Device.ReadTemperature readMsg = new Device.ReadTemperature(0L);
+		for(int i = 0; i < devices.length; i++) {
+			indexOf.put(devices[i], i);
+			devices[i].tell(readMsg, getSelf());
+		}
+		stillWaiting = devices.length;
+		if(chunk != null && !knownReadings.isEmpty()) {
+			requester.tell(new DeviceGroup.PartialTemperatures(requestId, new HashMap<>(knownReadings), stillWaiting), getSelf());
+		}
+		if(stillWaiting == 0 || answered() >= quorum) {
+			complete();
+		}
 	}
 
 	@Override
 	public void postStop() throws Exception {
 		queryTimeoutTimer.cancel();
-		log.info("DeviceGroupQuery actor stopped.");
+		livenessCheckTimer.cancel();
+		if(softDeadlineTimer != null) {
+			softDeadlineTimer.cancel();
+		}
+		IoTMetrics.get(getContext().getSystem()).actorStopped(IoTMetrics.ActorKind.QUERY);
+		log.debug("DeviceGroupQuery actor stopped.");
 	}
 
 	@Override
 	public Receive createReceive() {
-		return waitingForReplies(new HashMap<>(), actorToDeviceId.keySet());
-	}
-
-	private Receive waitingForReplies(Map<String, DeviceGroup.TemperatureReading> repliesSoFar, Set<ActorRef> stillWaiting) {
 		return receiveBuilder()
-				.match(Device.RespondTemperature.class, r -> this.onRespondTemperature(r, stillWaiting, repliesSoFar))
-				.match(Terminated.class, t -> onTerminated(t, stillWaiting, repliesSoFar))
-				.match(CollectionTimeout.class, t -> onCollectionTimeout(t, stillWaiting, repliesSoFar))
+				.match(Device.RespondTemperature.class, this::onRespondTemperature)
+				.match(Terminated.class, this::onTerminated)
+				.match(LivenessCheck.class, this::onLivenessCheck)
+				.match(SoftDeadline.class, this::onSoftDeadline)
+				.match(CollectionTimeout.class, this::onCollectionTimeout)
+				.match(AdvanceDeadline.class, this::onAdvanceDeadline)
 				.build();
 	}
 
-	private void onRespondTemperature(Device.RespondTemperature response, Set<ActorRef> stillWaiting, Map<String, DeviceGroup.TemperatureReading> repliesSoFar) {
-		ActorRef deviceActor = getSender();
+	private void onRespondTemperature(Device.RespondTemperature response) {
 		DeviceGroup.TemperatureReading reading = response.getValue()
 				.map(value -> (DeviceGroup.TemperatureReading) new DeviceGroup.Temperature(value))
 				.orElse(new DeviceGroup.TemperatureNotAvailable());
-		receivedResponse(deviceActor, reading, stillWaiting, repliesSoFar);
+		receivedResponse(getSender(), reading, true);
 	}
 
-	private void onTerminated(Terminated terminated, Set<ActorRef> stillWaiting, Map<String, DeviceGroup.TemperatureReading> repliesSoFar) {
-		receivedResponse(getSender(), new DeviceGroup.DeviceNotAvailable(), stillWaiting, repliesSoFar);
+	private void onTerminated(Terminated terminated) {
+		receivedResponse(terminated.getActor(), new DeviceGroup.DeviceNotAvailable(), false);
 	}
 
-	private void onCollectionTimeout(CollectionTimeout timeout, Set<ActorRef> stillWaiting, Map<String, DeviceGroup.TemperatureReading> repliesSoFar) {
-		Map<String, DeviceGroup.TemperatureReading> replies = new HashMap<>(repliesSoFar);
-		stillWaiting.stream().forEach(device -> {
-			String deviceId = actorToDeviceId.get(device);
-			replies.put(deviceId, new DeviceGroup.DeviceTimeout());
-		});
-		requester.tell(new DeviceGroup.RespondAllTemperatures(requestId, replies), getSelf());
-		getContext().stop(getSelf());
+	private void onLivenessCheck(LivenessCheck check) {
+		livenessChecked = true;
+		for(int i = 0; i < devices.length; i++) {
+			if(replies[i] == null) {
+				getContext().watch(devices[i]);
+			}
+		}
 	}
 
-	private void receivedResponse(ActorRef device, DeviceGroup.TemperatureReading reading, Set<ActorRef> stillWaiting, Map<String, DeviceGroup.TemperatureReading> repliesSoFar) {
-		getContext().unwatch(device);
-		String deviceId = actorToDeviceId.get(device);
+	private void onSoftDeadline(SoftDeadline deadline) {
+		requester.tell(new DeviceGroup.RespondAllTemperatures(requestId, allReplies()), getSelf());
+		corrections = new int[stillWaiting];
+	}
 
-		Set<ActorRef> newStillWaiting = new HashSet<>(stillWaiting);
-		Map<String, DeviceGroup.TemperatureReading> newRepliesSoFar = new HashMap<>(repliesSoFar);
+	private void onCollectionTimeout(CollectionTimeout timeout) {
+		complete();
+	}
 
-		newRepliesSoFar.put(deviceId, reading);
-		newStillWaiting.remove(device);
+	private void onAdvanceDeadline(AdvanceDeadline advance) {
+		if(advance.deadlineNanos >= deadlineNanos) {
+			return;
+		}
+		deadlineNanos = advance.deadlineNanos;
+		queryTimeoutTimer.cancel();
+		livenessCheckTimer.cancel();
+		scheduleTimeouts(new FiniteDuration(Math.max(0L, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS));
+	}
 
-		if(newStillWaiting.isEmpty()) {
-			requester.tell(new DeviceGroup.RespondAllTemperatures(requestId, newRepliesSoFar), getSelf());
-			getContext().stop(getSelf());
+	private void receivedResponse(ActorRef device, DeviceGroup.TemperatureReading reading, boolean replied) {
+		int index = indexOf.get(device, ANSWERED);
+		if(index == ANSWERED || replies[index] != null) {
 			return;
+		}
+		replies[index] = reading;
+		stillWaiting--;
+		if(replied && replyLatencies != null) {
+			AdaptiveQueryTimeout.count(replyLatencies, System.nanoTime() - startNanos);
+		}
+		if(corrections != null) {
+			corrections[correctionCount++] = index;
+		}
+		if(chunk != null) {
+			chunk[chunkSize++] = index;
+			if(chunkSize == chunk.length) {
+				sendChunk();
+			}
+		}
+
+		if(stillWaiting == 0 || answered() >= quorum) {
+			complete();
+		}
+	}
+
+	private int answered() {
+		return knownReadings.size() + devices.length - stillWaiting;
+	}
+
+	private void sendChunk() {
+		requester.tell(new DeviceGroup.PartialTemperatures(requestId, toMap(chunk, chunkSize), stillWaiting), getSelf());
+		chunkSize = 0;
+	}
+
+	private Map<String, DeviceGroup.TemperatureReading> toMap(int[] indexes, int count) {
+		Map<String, DeviceGroup.TemperatureReading> temperatures = new HashMap<>(capacityFor(count));
+		for(int i = 0; i < count; i++) {
+			temperatures.put(deviceIds[indexes[i]], replies[indexes[i]]);
+		}
+		return temperatures;
+	}
+
+	/**
+	 * Known readings and replies so far, with the devices still waited for as {@link DeviceGroup.DeviceTimeout}.
+	 */
+	private Map<String, DeviceGroup.TemperatureReading> allReplies() {
+		Map<String, DeviceGroup.TemperatureReading> temperatures = new HashMap<>(capacityFor(devices.length + knownReadings.size()));
+		temperatures.putAll(knownReadings);
+		DeviceGroup.TemperatureReading deviceTimeout = new DeviceGroup.DeviceTimeout();
+		for(int i = 0; i < devices.length; i++) {
+			temperatures.put(deviceIds[i], replies[i] != null ? replies[i] : deviceTimeout);
+		}
+		return temperatures;
+	}
+
+	private void complete() {
+		IoTMetrics.get(getContext().getSystem()).recordQuery(System.nanoTime() - startNanos,
+				devices.length + knownReadings.size(), stillWaiting);
+		if(replyLatencies != null) {
+			// The group runs this query for its own requesters and learns its timeout from it.
+			requester.tell(new QueryCompleted(replyLatencies, stillWaiting, deadlineNanos - startNanos), getSelf());
+		}
+		if(chunk != null && chunkSize > 0) {
+			sendChunk();
+		}
+		if(corrections != null) {
+			if(correctionCount > 0) {
+				requester.tell(new DeviceGroup.CorrectedTemperatures(requestId, toMap(corrections, correctionCount)), getSelf());
+			}
 		} else {
-			getContext().become(waitingForReplies(newRepliesSoFar, newStillWaiting));
+			requester.tell(new DeviceGroup.RespondAllTemperatures(requestId, allReplies()), getSelf());
 		}
+		getContext().stop(getSelf());
 	}
 
 	public static final class CollectionTimeout { }
+
+	public static final class SoftDeadline { }
+
+	public static final class LivenessCheck { }
+
+	/**
+	 * Makes the query complete by {@code deadlineNanos}, a System.nanoTime, if that is earlier than its own deadline.
+	 */
+	public static final class AdvanceDeadline {
+		private final long deadlineNanos;
+
+		public AdvanceDeadline(long deadlineNanos) {
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		public long getDeadlineNanos() {
+			return deadlineNanos;
+		}
+	}
+
+	/**
+	 * Sent to the group that runs a query for itself, before its answer.
+	 */
+	public static final class QueryCompleted {
+		private final int[] replyLatencies;
+		private final int timedOut;
+		private final long timeoutNanos;
+
+		public QueryCompleted(int[] replyLatencies, int timedOut, long timeoutNanos) {
+			this.replyLatencies = replyLatencies;
+			this.timedOut = timedOut;
+			this.timeoutNanos = timeoutNanos;
+		}
+
+		/**
+		 * Time from the start of the query until each device that answered did, bucketed by {@link AdaptiveQueryTimeout}.
+		 */
+		public int[] getReplyLatencies() {
+			return replyLatencies;
+		}
+
+		public int getTimedOut() {
+			return timedOut;
+		}
+
+		public long getTimeoutNanos() {
+			return timeoutNanos;
+		}
+	}
 }
@@ -0,0 +1,94 @@
+package mr.cell.akka.iot;
+
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+public final class DeviceGroupSettings {
+
+	private final boolean latestReadingCache;
+	private final FiniteDuration staleAfter;
+	private final FiniteDuration passivateAfter;
+	private final DeviceSettings deviceSettings;
+	private final JournalSettings journalSettings;
+	private final FiniteDuration queryReuseWindow;
+	private final QueryTimeoutSettings queryTimeoutSettings;
+
+	public DeviceGroupSettings(boolean latestReadingCache, FiniteDuration staleAfter, FiniteDuration passivateAfter,
+	                           DeviceSettings deviceSettings, JournalSettings journalSettings, FiniteDuration queryReuseWindow,
+	                           QueryTimeoutSettings queryTimeoutSettings) {
+		this.latestReadingCache = latestReadingCache;
+		this.staleAfter = staleAfter;
+		this.passivateAfter = passivateAfter;
+		this.deviceSettings = deviceSettings;
+		this.journalSettings = journalSettings;
+		this.queryReuseWindow = queryReuseWindow;
+		this.queryTimeoutSettings = queryTimeoutSettings;
+	}
+
+	public static DeviceGroupSettings fromConfig(Config config) {
+		Config group = config.getConfig("iot.group");
+		return new DeviceGroupSettings(
+				group.getBoolean("latest-reading-cache"),
+				DeviceSettings.durationOf(group, "stale-after"),
+				DeviceSettings.durationOf(group, "passivate-after"),
+				DeviceSettings.fromConfig(config),
+				JournalSettings.fromConfig(config),
+				DeviceSettings.durationOf(group, "query-reuse-window"),
+				QueryTimeoutSettings.fromConfig(config));
+	}
+
+	public DeviceGroupSettings withLatestReadingCache(FiniteDuration staleAfter) {
+		return new DeviceGroupSettings(true, staleAfter, passivateAfter, deviceSettings, journalSettings, queryReuseWindow, queryTimeoutSettings);
+	}
+
+	public DeviceGroupSettings withPassivation(FiniteDuration passivateAfter) {
+		return new DeviceGroupSettings(latestReadingCache, staleAfter, passivateAfter, deviceSettings, journalSettings, queryReuseWindow, queryTimeoutSettings);
+	}
+
+	public DeviceGroupSettings withDeviceSettings(DeviceSettings deviceSettings) {
+		return new DeviceGroupSettings(latestReadingCache, staleAfter, passivateAfter, deviceSettings, journalSettings, queryReuseWindow, queryTimeoutSettings);
+	}
+
+	public DeviceGroupSettings withJournal(JournalSettings journalSettings) {
+		return new DeviceGroupSettings(latestReadingCache, staleAfter, passivateAfter, deviceSettings, journalSettings, queryReuseWindow, queryTimeoutSettings);
+	}
+
+	public DeviceGroupSettings withQueryReuseWindow(FiniteDuration queryReuseWindow) {
+		return new DeviceGroupSettings(latestReadingCache, staleAfter, passivateAfter, deviceSettings, journalSettings, queryReuseWindow, queryTimeoutSettings);
+	}
+
+	public DeviceGroupSettings withQueryTimeoutSettings(QueryTimeoutSettings queryTimeoutSettings) {
+		return new DeviceGroupSettings(latestReadingCache, staleAfter, passivateAfter, deviceSettings, journalSettings, queryReuseWindow, queryTimeoutSettings);
+	}
+
+	public boolean isLatestReadingCache() {
+		return latestReadingCache;
+	}
+
+	public FiniteDuration getStaleAfter() {
+		return staleAfter;
+	}
+
+	public FiniteDuration getPassivateAfter() {
+		return passivateAfter;
+	}
+
+	public DeviceSettings getDeviceSettings() {
+		return deviceSettings;
+	}
+
+	public JournalSettings getJournalSettings() {
+		return journalSettings;
+	}
+
+	/**
+	 * How long the result of a group query answers further requests without querying the devices again; 0 for never.
+	 */
+	public FiniteDuration getQueryReuseWindow() {
+		return queryReuseWindow;
+	}
+
+	public QueryTimeoutSettings getQueryTimeoutSettings() {
+		return queryTimeoutSettings;
+	}
+}
@@ -0,0 +1,90 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
+import akka.cluster.sharding.ShardRegion;
+import com.typesafe.config.Config;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Runs device groups as cluster sharding entities keyed by group id, so they spread over the nodes of a cluster
+ * and move when nodes join or leave. The shard region accepts the same messages as {@link DeviceManager}:
+ * {@link DeviceManager.RequestTrackDevice}, {@link DeviceManager.DeviceEnvelope}, {@link DeviceManager.GroupEnvelope}
+ * and {@link DeviceManager.RecordTemperatureBatch}. A batch is routed by the group of its first reading, and the
+ * group rejects readings of other groups, so senders should batch per group.
+ */
+public final class DeviceGroupSharding {
+
+	public static final String TYPE_NAME = "DeviceGroup";
+
+	private DeviceGroupSharding() {
+	}
+
+	/**
+	 * Starts the shard region that hosts device groups on this node.
+	 */
+	public static ActorRef start(ActorSystem system) {
+		Config cluster = system.settings().config().getConfig("iot.cluster");
+		ClusterShardingSettings settings = ClusterShardingSettings.create(system);
+		String role = cluster.getString("role");
+		if(!role.isEmpty()) {
+			settings = settings.withRole(role);
+		}
+		return ClusterSharding.lookup().get(system).start(TYPE_NAME, DeviceGroup.entityProps(), settings,
+				new GroupIdExtractor(cluster.getInt("number-of-shards")));
+	}
+
+	/**
+	 * Starts a proxy to the device groups for a node that does not host any, such as one without the configured role.
+	 */
+	public static ActorRef startProxy(ActorSystem system) {
+		Config cluster = system.settings().config().getConfig("iot.cluster");
+		String role = cluster.getString("role");
+		return ClusterSharding.lookup().get(system).startProxy(TYPE_NAME, role.isEmpty() ? Optional.empty() : Optional.of(role),
+				new GroupIdExtractor(cluster.getInt("number-of-shards")));
+	}
+
+	static final class GroupIdExtractor implements ShardRegion.MessageExtractor {
+		private final int numberOfShards;
+
+		GroupIdExtractor(int numberOfShards) {
+			this.numberOfShards = numberOfShards;
+		}
+
+		@Override
+		public String entityId(Object message) {
+			if(message instanceof DeviceManager.RequestTrackDevice) {
+				return ((DeviceManager.RequestTrackDevice) message).getGroupId();
+			} else if(message instanceof DeviceManager.RequestTrackDevices) {
+				return ((DeviceManager.RequestTrackDevices) message).getGroupId();
+			} else if(message instanceof DeviceManager.DeviceEnvelope) {
+				return ((DeviceManager.DeviceEnvelope) message).getGroupId();
+			} else if(message instanceof DeviceManager.GroupEnvelope) {
+				return ((DeviceManager.GroupEnvelope) message).getGroupId();
+			} else if(message instanceof DeviceManager.RecordTemperatureBatch) {
+				List<DeviceManager.DeviceReading> readings = ((DeviceManager.RecordTemperatureBatch) message).getReadings();
+				return readings.isEmpty() ? null : readings.get(0).getGroupId();
+			}
+			return null;
+		}
+
+		@Override
+		public Object entityMessage(Object message) {
+			if(message instanceof DeviceManager.GroupEnvelope) {
+				return ((DeviceManager.GroupEnvelope) message).getMessage();
+			}
+			return message;
+		}
+
+		@Override
+		public String shardId(Object message) {
+			// Groups keep the shard they would have in a single-node DeviceManager with as many shards.
+			String groupId = entityId(message);
+			return groupId == null ? null : Integer.toString(DeviceManager.shardFor(groupId, numberOfShards));
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package mr.cell.akka.iot;
+
+import java.util.Arrays;
+
+/**
+ * Interns the device ids of a group to dense ints, so per-device state can live in arrays indexed by them.
+ * Released ints are handed out again, which keeps them below the number of devices ever tracked at once.
+ */
+public final class DeviceIdRegistry {
+
+	public static final int UNKNOWN = -1;
+
+	private final ObjectIntMap<String> ids = new ObjectIntMap<>();
+	private String[] deviceIds = new String[16];
+	private int[] released = new int[0];
+	private int releasedCount;
+	private int limit;
+
+	/**
+	 * Returns the int of {@code deviceId}, assigning one if it has none.
+	 */
+	public int intern(String deviceId) {
+		int id = ids.get(deviceId, UNKNOWN);
+		if(id != UNKNOWN) {
+			return id;
+		}
+		if(releasedCount > 0) {
+			id = released[--releasedCount];
+		} else {
+			id = limit++;
+			if(id == deviceIds.length) {
+				deviceIds = Arrays.copyOf(deviceIds, deviceIds.length * 2);
+			}
+		}
+		deviceIds[id] = deviceId;
+		ids.put(deviceId, id);
+		return id;
+	}
+
+	/**
+	 * Returns the int of {@code deviceId}, or {@link #UNKNOWN}.
+	 */
+	public int get(String deviceId) {
+		return ids.get(deviceId, UNKNOWN);
+	}
+
+	public String deviceId(int id) {
+		return deviceIds[id];
+	}
+
+	/**
+	 * Forgets the device of {@code id}; the int may be assigned to another device afterwards.
+	 */
+	public void release(int id) {
+		ids.remove(deviceIds[id], UNKNOWN);
+		deviceIds[id] = null;
+		if(releasedCount == released.length) {
+			released = Arrays.copyOf(released, Math.max(16, released.length * 2));
+		}
+		released[releasedCount++] = id;
+	}
+
+	public boolean contains(int id) {
+		return id >= 0 && id < limit && deviceIds[id] != null;
+	}
+
+	/**
+	 * Number of devices with an int.
+	 */
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * Every int assigned so far is below the limit, so arrays of this length can hold state for every device.
+	 */
+	public int limit() {
+		return limit;
+	}
+}
@@ -2,13 +2,20 @@ package mr.cell.akka.iot;
 
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.actor.Terminated;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by U517779 on 2017-09-05.
@@ -17,58 +24,267 @@ public class DeviceManager extends AbstractActor {
 
 	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
 
-	private final Map<String, ActorRef> groupIdsToActors;
-	private final Map<ActorRef, String> actorsToGroupIds;
+	private final ActorRef[] shards;
+	private FiniteDuration batchTimeout;
+	private TopologySettings topology;
+	private Cancellable topologyTimer;
+	private ActorRef topologySnapshotter;
+	private long restoreStarted;
+	private int restoringGroups;
+	private int pendingRestores;
+	private int restoredDevices;
+	private boolean topologyRead;
+	private boolean restoring;
+	private Cancellable restoreTimeout;
 
 	public static Props props() {
-		return Props.create(DeviceManager.class);
+		return Props.create(DeviceManager.class).withDispatcher(IoTDispatchers.COORDINATION);
+	}
+
+	public static Props props(int shardCount) {
+		return Props.create(DeviceManager.class, shardCount).withDispatcher(IoTDispatchers.COORDINATION);
 	}
 
 	public DeviceManager() {
-		groupIdsToActors = new HashMap<>();
-		actorsToGroupIds = new HashMap<>();
+		int shardCount = getContext().getSystem().settings().config().getInt("iot.manager.shards");
+		shards = new ActorRef[shardCount > 0 ? shardCount : Runtime.getRuntime().availableProcessors()];
+	}
+
+	public DeviceManager(int shardCount) {
+		if(shardCount < 1) {
+			throw new IllegalArgumentException("Shard count must be positive, was " + shardCount);
+		}
+		shards = new ActorRef[shardCount];
+	}
+
+	/**
+	 * Returns the index of the shard responsible for a group. Shard {@code i} is the child named {@code shard-i},
+	 * so senders that know the shard count can address it directly and skip this actor.
+	 */
+	public static int shardFor(String groupId, int shardCount) {
+		// FNV-1a spreads the id over 64 bits, jump consistent hash maps it to a shard so that changing
+		// the shard count only moves the groups that have to move.
+		long key = 0xcbf29ce484222325L;
+		for(int i = 0; i < groupId.length(); i++) {
+			key = (key ^ groupId.charAt(i)) * 0x100000001b3L;
+		}
+		long bucket = -1;
+		long next = 0;
+		while(next < shardCount) {
+			bucket = next;
+			key = key * 2862933555777941757L + 1;
+			next = (long) ((bucket + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+		}
+		return (int) bucket;
 	}
 
 	@Override
 	public void preStart() throws Exception {
-		log.info("DeviceManager started.");
+		log.info("DeviceManager started with {} shards.", shards.length);
+		for(int i = 0; i < shards.length; i++) {
+			shards[i] = getContext().actorOf(DeviceManagerShard.props(i, shards.length), "shard-" + i);
+		}
+		// The shards collect from their groups within batch-timeout, so their answers arrive before this one gives up.
+		batchTimeout = TemperatureBatchCollector.timeoutAbove(
+				IngestionSettings.fromConfig(getContext().getSystem().settings().config()).getBatchTimeout());
+		topology = TopologySettings.fromConfig(getContext().getSystem().settings().config());
+		if(topology.isEnabled()) {
+			restoreTopology();
+			FiniteDuration snapshotInterval = topology.getSnapshotInterval();
+			topologyTimer = getContext().getSystem().scheduler().schedule(snapshotInterval, snapshotInterval,
+					getSelf(), new TakeTopologySnapshot(), getContext().dispatcher(), getSelf());
+		}
 	}
 
 	@Override
 	public void postStop() throws Exception {
+		if(restoreTimeout != null) {
+			restoreTimeout.cancel();
+		}
+		if(topologyTimer != null) {
+			topologyTimer.cancel();
+		}
 		log.info("DeviceManager stopped.");
 	}
 
-	private void onTrackDevice(RequestTrackDevice trackMsg) {
-		String groupId = trackMsg.getGroupId();
+	/**
+	 * Reads the topology snapshot on the blocking-io dispatcher and hands every group to its shard, so the groups
+	 * restore in parallel. Messages that reach a group before its restore find only the devices registered since
+	 * the start; the restore adds the others and never undoes a registration.
+	 */
+	private void restoreTopology() {
+		restoreStarted = System.nanoTime();
+		restoring = true;
+		restoreTimeout = getContext().getSystem().scheduler().scheduleOnce(topology.getRestoreTimeout(), getSelf(),
+				new RestoreTimeout(), getContext().dispatcher(), getSelf());
+		Path file = topology.getFile();
+		ActorRef self = getSelf();
+		CompletableFuture.supplyAsync(() -> {
+			int[] groups = {0};
+			try {
+				if(!TopologySnapshot.read(file, groupTopology -> {
+					shardOf(groupTopology.getGroupId()).tell(new DeviceGroup.RestoreTopology(groupTopology), self);
+					groups[0]++;
+				})) {
+					return -1;
+				}
+			} catch(IOException e) {
+				throw new CompletionException(e);
+			}
+			return groups[0];
+		}, getContext().getSystem().dispatchers().lookup(IoTDispatchers.BLOCKING_IO))
+				.whenComplete((groups, failure) -> self.tell(new TopologyRead(groups, failure), ActorRef.noSender()));
+	}
 
-		ActorRef deviceGroup = groupIdsToActors.get(groupId);
-		if(deviceGroup == null) {
-			deviceGroup = getContext().actorOf(DeviceGroup.props(groupId), "group-" + groupId);
-			getContext().watch(deviceGroup);
-			groupIdsToActors.put(groupId, deviceGroup);
-			actorsToGroupIds.put(deviceGroup, groupId);
+	private void onTopologyRead(TopologyRead readMsg) {
+		topologyRead = true;
+		if(readMsg.failure != null) {
+			log.error(readMsg.failure, "Cannot read topology snapshot {}, starting without devices.", topology.getFile());
+		} else if(readMsg.groups < 0) {
+			log.info("No topology snapshot in {}, starting without devices.", topology.getFile());
+		} else {
+			restoringGroups = readMsg.groups;
+			// Groups that restored before the read finished have already been counted down.
+			pendingRestores += readMsg.groups;
+		}
+		if(restoring && pendingRestores == 0) {
+			reportRestored();
+		}
+	}
+
+	private void onTopologyRestored(DeviceGroup.TopologyRestored restoredMsg) {
+		if(!restoring) {
+			return;
+		}
+		restoredDevices += restoredMsg.getRestored();
+		if(--pendingRestores == 0 && topologyRead) {
+			reportRestored();
+		}
+	}
+
+	private void onRestoreTimeout(RestoreTimeout timeoutMsg) {
+		if(!restoring) {
+			return;
+		}
+		if(topologyRead) {
+			log.warning("{} of {} groups did not restore from topology snapshot {} within {}.",
+					pendingRestores, restoringGroups, topology.getFile(), topology.getRestoreTimeout());
+		} else {
+			log.warning("Topology snapshot {} was not read within {}.", topology.getFile(), topology.getRestoreTimeout());
+		}
+		reportRestored();
+	}
+
+	private void reportRestored() {
+		restoring = false;
+		restoreTimeout.cancel();
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - restoreStarted);
+		log.info("Restored {} devices of {} groups from topology snapshot {}, ready after {} ms.",
+				restoredDevices, restoringGroups, topology.getFile(), millis);
+		IoTMetrics.get(getContext().getSystem()).topologyRestored(restoredDevices, millis);
+	}
+
+	private void onTakeTopologySnapshot(TakeTopologySnapshot snapshotMsg) {
+		if(!topologyRead) {
+			// A snapshot now would replace the one being read with the groups restored so far.
+			log.warning("Skipping topology snapshot, the previous one is still being read.");
+			return;
+		}
+		if(topologySnapshotter != null) {
+			log.warning("Skipping topology snapshot, the previous one is still running.");
+			return;
 		}
-		deviceGroup.forward(trackMsg, getContext());
+		topologySnapshotter = getContext().actorOf(TopologySnapshotter.props(Arrays.asList(shards), topology));
+		getContext().watch(topologySnapshotter);
 	}
 
 	private void onTerminated(Terminated t) {
-		ActorRef group = t.getActor();
-		String groupId = actorsToGroupIds.get(group);
-		log.info("Device group actor for {} has been terminated", groupId);
-		groupIdsToActors.remove(groupId);
-		actorsToGroupIds.remove(group);
+		if(t.getActor().equals(topologySnapshotter)) {
+			topologySnapshotter = null;
+		}
+	}
+
+	private ActorRef shardOf(String groupId) {
+		return shards[shardFor(groupId, shards.length)];
+	}
+
+	private void onTrackDevice(RequestTrackDevice trackMsg) {
+		shardOf(trackMsg.getGroupId()).forward(trackMsg, getContext());
+	}
+
+	private void onTrackDevices(RequestTrackDevices trackMsg) {
+		shardOf(trackMsg.getGroupId()).forward(trackMsg, getContext());
+	}
+
+	private void onRecordTemperatureBatch(RecordTemperatureBatch batchMsg) {
+		Map<ActorRef, List<DeviceReading>> readingsPerShard = new HashMap<>();
+		for(DeviceReading reading : batchMsg.getReadings()) {
+			readingsPerShard.computeIfAbsent(shardOf(reading.getGroupId()), shard -> new ArrayList<>()).add(reading);
+		}
+
+		if(readingsPerShard.size() <= 1) {
+			ActorRef shard = readingsPerShard.isEmpty() ? shards[0] : readingsPerShard.keySet().iterator().next();
+			shard.forward(batchMsg, getContext());
+		} else {
+			getContext().actorOf(TemperatureBatchCollector.props(
+					readingsPerShard, Collections.emptyList(), batchMsg.getRequestId(), getSender(), batchTimeout));
+		}
+	}
+
+	private void onDeviceEnvelope(DeviceEnvelope envelope) {
+		shardOf(envelope.getGroupId()).forward(envelope, getContext());
+	}
+
+	private void onGroupEnvelope(GroupEnvelope envelope) {
+		shardOf(envelope.getGroupId()).forward(envelope, getContext());
+	}
+
+	private void onRequestFleetTemperatures(RequestFleetTemperatures fleetMsg) {
+		long deadlineNanos = System.nanoTime() + fleetMsg.getTimeout().toNanos();
+		getContext().actorOf(FleetQuery.shardProps(Arrays.asList(shards), fleetMsg.getRequestId(), fleetMsg.getView(),
+				deadlineNanos, getSender()));
+	}
+
+	private void onRequestShard(RequestShard shardMsg) {
+		getSender().tell(new ShardLocation(shardMsg.getGroupId(), shardOf(shardMsg.getGroupId())), getSelf());
 	}
 
 	@Override
 	public Receive createReceive() {
 		return receiveBuilder()
 				.match(RequestTrackDevice.class, this::onTrackDevice)
+				.match(RequestTrackDevices.class, this::onTrackDevices)
+				.match(RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
+				.match(DeviceEnvelope.class, this::onDeviceEnvelope)
+				.match(GroupEnvelope.class, this::onGroupEnvelope)
+				.match(RequestShard.class, this::onRequestShard)
+				.match(RequestFleetTemperatures.class, this::onRequestFleetTemperatures)
+				.match(TopologyRead.class, this::onTopologyRead)
+				.match(DeviceGroup.TopologyRestored.class, this::onTopologyRestored)
+				.match(RestoreTimeout.class, this::onRestoreTimeout)
+				.match(TakeTopologySnapshot.class, this::onTakeTopologySnapshot)
 				.match(Terminated.class, this::onTerminated)
 				.build();
 	}
 
-	public static final class RequestTrackDevice {
+	private static final class TakeTopologySnapshot { }
+
+	private static final class TopologyRead {
+		// Number of groups handed to the shards, or -1 without a snapshot.
+		private final int groups;
+		private final Throwable failure;
+
+		private TopologyRead(Integer groups, Throwable failure) {
+			this.groups = failure == null ? groups : 0;
+			this.failure = failure;
+		}
+	}
+
+	private static final class RestoreTimeout { }
+
+	public static final class RequestTrackDevice implements Serializable {
+		private static final long serialVersionUID = 1L;
+
 		private final String groupId;
 		private final String deviceId;
 
@@ -86,5 +302,402 @@ public class DeviceManager extends AbstractActor {
 		}
 	}
 
-	public static final class DeviceRegistered extends AbstractNoBodyMessage { }
+	public static final class DeviceRegistered extends AbstractNoBodyMessage {
+		private static final long serialVersionUID = 1L;
+	}
+
+	/**
+	 * Registers many devices of one group at once; the group answers with a single {@link DevicesRegistered}.
+	 */
+	public static final class RequestTrackDevices implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+		private final Collection<String> deviceIds;
+
+		public RequestTrackDevices(String groupId, Collection<String> deviceIds) {
+			this.groupId = groupId;
+			this.deviceIds = deviceIds;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		public Collection<String> getDeviceIds() {
+			return deviceIds;
+		}
+	}
+
+	public static final class DevicesRegistered implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+		private final int registered;
+		private final int alreadyRegistered;
+
+		public DevicesRegistered(String groupId, int registered, int alreadyRegistered) {
+			this.groupId = groupId;
+			this.registered = registered;
+			this.alreadyRegistered = alreadyRegistered;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		/**
+		 * Devices the request added to the group.
+		 */
+		public int getRegistered() {
+			return registered;
+		}
+
+		/**
+		 * Devices of the request the group already tracked, duplicates within the request included.
+		 */
+		public int getAlreadyRegistered() {
+			return alreadyRegistered;
+		}
+	}
+
+	public static final class DeviceReading implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+		private final String deviceId;
+		private final double value;
+		private final long timestamp;
+
+		public DeviceReading(String groupId, String deviceId, double value, long timestamp) {
+			this.groupId = groupId;
+			this.deviceId = deviceId;
+			this.value = value;
+			this.timestamp = timestamp;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		public String getDeviceId() {
+			return deviceId;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+	}
+
+	public static final class RecordTemperatureBatch implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final List<DeviceReading> readings;
+
+		public RecordTemperatureBatch(long requestId, List<DeviceReading> readings) {
+			this.requestId = requestId;
+			this.readings = readings;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public List<DeviceReading> getReadings() {
+			return readings;
+		}
+	}
+
+	public static final class TemperatureBatchRecorded implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final int recorded;
+		private final List<DeviceReading> rejected;
+		private final List<DeviceReading> unconfirmed;
+
+		public TemperatureBatchRecorded(long requestId, int recorded, List<DeviceReading> rejected) {
+			this(requestId, recorded, rejected, Collections.emptyList());
+		}
+
+		public TemperatureBatchRecorded(long requestId, int recorded, List<DeviceReading> rejected, List<DeviceReading> unconfirmed) {
+			this.requestId = requestId;
+			this.recorded = recorded;
+			this.rejected = rejected;
+			this.unconfirmed = unconfirmed;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public int getRecorded() {
+			return recorded;
+		}
+
+		/**
+		 * Readings addressed to groups or devices that are not tracked, or that found the mailbox of their device full.
+		 */
+		public List<DeviceReading> getRejected() {
+			return rejected;
+		}
+
+		/**
+		 * Readings sent to a group that did not answer in time. They may or may not have been recorded, so a sender
+		 * that retries them must tolerate duplicates.
+		 */
+		public List<DeviceReading> getUnconfirmed() {
+			return unconfirmed;
+		}
+	}
+
+	/**
+	 * Routes a message to a device by id. Unlike sending to the device's ActorRef, this reaches
+	 * devices that have been passivated since the ActorRef was obtained.
+	 */
+	public static final class DeviceEnvelope implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+		private final String deviceId;
+		private final Object message;
+
+		public DeviceEnvelope(String groupId, String deviceId, Object message) {
+			this.groupId = groupId;
+			this.deviceId = deviceId;
+			this.message = message;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		public String getDeviceId() {
+			return deviceId;
+		}
+
+		public Object getMessage() {
+			return message;
+		}
+	}
+
+	/**
+	 * Delivers {@code message}, such as {@link DeviceGroup.RequestAllTemperatures}, to the group {@code groupId}.
+	 * Messages for unknown groups go to dead letters.
+	 */
+	public static final class GroupEnvelope implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+		private final Object message;
+
+		public GroupEnvelope(String groupId, Object message) {
+			this.groupId = groupId;
+			this.message = message;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		public Object getMessage() {
+			return message;
+		}
+	}
+
+	public static final class RequestShard implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+
+		public RequestShard(String groupId) {
+			this.groupId = groupId;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+	}
+
+	public static final class ShardLocation implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final String groupId;
+		private final ActorRef shard;
+
+		public ShardLocation(String groupId, ActorRef shard) {
+			this.groupId = groupId;
+			this.shard = shard;
+		}
+
+		public String getGroupId() {
+			return groupId;
+		}
+
+		public ActorRef getShard() {
+			return shard;
+		}
+	}
+
+	/**
+	 * Asks every group of the DeviceManager for its temperatures at once. With the AGGREGATE view only the merged
+	 * statistics come back, with the FULL view also the readings of every device by group. The answer comes as soon
+	 * as every group answered and at the latest after {@code timeout}; groups that did not answer by then are listed
+	 * in {@link RespondFleetTemperatures#getTimedOutGroups()}.
+	 */
+	public static final class RequestFleetTemperatures implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public enum View { AGGREGATE, FULL }
+
+		private final long requestId;
+		private final View view;
+		private final FiniteDuration timeout;
+
+		public RequestFleetTemperatures(long requestId, View view, FiniteDuration timeout) {
+			if(timeout.toNanos() <= 0) {
+				throw new IllegalArgumentException("Timeout must be positive, was " + timeout);
+			}
+			this.requestId = requestId;
+			this.view = view;
+			this.timeout = timeout;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public View getView() {
+			return view;
+		}
+
+		public FiniteDuration getTimeout() {
+			return timeout;
+		}
+	}
+
+	/**
+	 * Sent by a fleet query to every DeviceManager shard, which queries its groups and answers with the merged
+	 * {@link RespondFleetTemperatures} within {@code timeout}. The query sends the time it has left rather than its
+	 * deadline, since a System.nanoTime means nothing to another JVM.
+	 */
+	public static final class CollectFleetTemperatures implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final RequestFleetTemperatures.View view;
+		private final FiniteDuration timeout;
+
+		public CollectFleetTemperatures(long requestId, RequestFleetTemperatures.View view, FiniteDuration timeout) {
+			this.requestId = requestId;
+			this.view = view;
+			this.timeout = timeout;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		public RequestFleetTemperatures.View getView() {
+			return view;
+		}
+
+		public FiniteDuration getTimeout() {
+			return timeout;
+		}
+	}
+
+	public static final class RespondFleetTemperatures implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final long requestId;
+		private final TemperatureStatistics statistics;
+		private final int unavailable;
+		private final int groups;
+		private final Map<String, Map<String, DeviceGroup.TemperatureReading>> temperatures;
+		private final Set<String> timedOutGroups;
+		private final boolean complete;
+
+		public RespondFleetTemperatures(long requestId, TemperatureStatistics statistics, int unavailable, int groups,
+		                                Map<String, Map<String, DeviceGroup.TemperatureReading>> temperatures,
+		                                Set<String> timedOutGroups, boolean complete) {
+			this.requestId = requestId;
+			this.statistics = statistics;
+			this.unavailable = unavailable;
+			this.groups = groups;
+			this.temperatures = temperatures;
+			this.timedOutGroups = timedOutGroups;
+			this.complete = complete;
+		}
+
+		public long getRequestId() {
+			return requestId;
+		}
+
+		/**
+		 * Statistics of the latest readings of the devices of every group that answered.
+		 */
+		public TemperatureStatistics getStatistics() {
+			return statistics;
+		}
+
+		/**
+		 * Devices of the answering groups without a current reading, including the ones that did not answer their group.
+		 */
+		public int getUnavailable() {
+			return unavailable;
+		}
+
+		/**
+		 * Number of groups that answered.
+		 */
+		public int getGroups() {
+			return groups;
+		}
+
+		/**
+		 * Readings by group and device id with the FULL view, empty with the AGGREGATE view.
+		 */
+		public Map<String, Map<String, DeviceGroup.TemperatureReading>> getTemperatures() {
+			return temperatures;
+		}
+
+		public Set<String> getTimedOutGroups() {
+			return timedOutGroups;
+		}
+
+		/**
+		 * False if a group or a whole shard did not answer before the deadline. A shard that did not answer is not
+		 * in {@link #getTimedOutGroups()}, as its groups are not known.
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+	}
+
+	/**
+	 * Asks a DeviceManager shard for its group actors.
+	 */
+	public static final class RequestGroupActors extends AbstractNoBodyMessage {
+		private static final long serialVersionUID = 1L;
+	}
+
+	public static final class GroupActors implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final Collection<ActorRef> groups;
+
+		public GroupActors(Collection<ActorRef> groups) {
+			this.groups = groups;
+		}
+
+		public Collection<ActorRef> getGroups() {
+			return groups;
+		}
+	}
 }
@@ -0,0 +1,151 @@
+package mr.cell.akka.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.*;
+
+public class DeviceManagerShard extends AbstractActor {
+
+	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+	private final int shard;
+	private final int shardCount;
+	private final Map<String, ActorRef> groupIdsToActors;
+	private final Map<ActorRef, String> actorsToGroupIds;
+	private final FiniteDuration batchTimeout;
+
+	public static Props props(int shard, int shardCount) {
+		return Props.create(DeviceManagerShard.class, shard, shardCount).withDispatcher(IoTDispatchers.COORDINATION);
+	}
+
+	public DeviceManagerShard(int shard, int shardCount) {
+		this.shard = shard;
+		this.shardCount = shardCount;
+		groupIdsToActors = new HashMap<>();
+		actorsToGroupIds = new HashMap<>();
+		batchTimeout = IngestionSettings.fromConfig(getContext().getSystem().settings().config()).getBatchTimeout();
+	}
+
+	@Override
+	public void preStart() throws Exception {
+		log.info("DeviceManager shard {} started.", shard);
+		JournalSettings journalSettings = JournalSettings.fromConfig(getContext().getSystem().settings().config());
+		if(journalSettings.isEnabled()) {
+			// Each group recovers from its journal in its own preStart, so starting them all here recovers them in parallel.
+			for(String groupId : journalSettings.journaledGroupIds()) {
+				if(DeviceManager.shardFor(groupId, shardCount) == shard) {
+					createGroup(groupId);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void postStop() throws Exception {
+		log.info("DeviceManager shard {} stopped.", shard);
+	}
+
+	private void onTrackDevice(DeviceManager.RequestTrackDevice trackMsg) {
+		groupOrCreate(trackMsg.getGroupId()).forward(trackMsg, getContext());
+	}
+
+	private void onTrackDevices(DeviceManager.RequestTrackDevices trackMsg) {
+		groupOrCreate(trackMsg.getGroupId()).forward(trackMsg, getContext());
+	}
+
+	private void onRestoreTopology(DeviceGroup.RestoreTopology restoreMsg) {
+		groupOrCreate(restoreMsg.getTopology().getGroupId()).forward(restoreMsg, getContext());
+	}
+
+	private void onRequestGroupActors(DeviceManager.RequestGroupActors groupsMsg) {
+		getSender().tell(new DeviceManager.GroupActors(new ArrayList<>(groupIdsToActors.values())), getSelf());
+	}
+
+	private void onCollectFleetTemperatures(DeviceManager.CollectFleetTemperatures collectMsg) {
+		long deadlineNanos = System.nanoTime() + collectMsg.getTimeout().toNanos();
+		getContext().actorOf(FleetQuery.groupProps(actorsToGroupIds, collectMsg.getRequestId(), collectMsg.getView(),
+				deadlineNanos, getSender()));
+	}
+
+	private ActorRef groupOrCreate(String groupId) {
+		ActorRef deviceGroup = groupIdsToActors.get(groupId);
+		return deviceGroup != null ? deviceGroup : createGroup(groupId);
+	}
+
+	private ActorRef createGroup(String groupId) {
+		ActorRef deviceGroup = getContext().actorOf(DeviceGroup.props(groupId), "group-" + groupId);
+		getContext().watch(deviceGroup);
+		groupIdsToActors.put(groupId, deviceGroup);
+		actorsToGroupIds.put(deviceGroup, groupId);
+		return deviceGroup;
+	}
+
+	private void onRecordTemperatureBatch(DeviceManager.RecordTemperatureBatch batchMsg) {
+		Map<ActorRef, List<DeviceManager.DeviceReading>> readingsPerGroup = new HashMap<>();
+		List<DeviceManager.DeviceReading> rejected = new ArrayList<>();
+		for(DeviceManager.DeviceReading reading : batchMsg.getReadings()) {
+			ActorRef deviceGroup = groupIdsToActors.get(reading.getGroupId());
+			if(deviceGroup == null) {
+				rejected.add(reading);
+			} else {
+				readingsPerGroup.computeIfAbsent(deviceGroup, group -> new ArrayList<>()).add(reading);
+			}
+		}
+
+		if(readingsPerGroup.isEmpty()) {
+			getSender().tell(new DeviceManager.TemperatureBatchRecorded(batchMsg.getRequestId(), 0, rejected), getSelf());
+		} else if(readingsPerGroup.size() == 1 && rejected.isEmpty()) {
+			readingsPerGroup.keySet().iterator().next().forward(batchMsg, getContext());
+		} else {
+			getContext().actorOf(TemperatureBatchCollector.props(
+					readingsPerGroup, rejected, batchMsg.getRequestId(), getSender(), batchTimeout));
+		}
+	}
+
+	private void onDeviceEnvelope(DeviceManager.DeviceEnvelope envelope) {
+		ActorRef deviceGroup = groupIdsToActors.get(envelope.getGroupId());
+		if(deviceGroup == null) {
+			getContext().getSystem().deadLetters().tell(envelope, getSender());
+		} else {
+			deviceGroup.forward(envelope, getContext());
+		}
+	}
+
+	private void onGroupEnvelope(DeviceManager.GroupEnvelope envelope) {
+		ActorRef deviceGroup = groupIdsToActors.get(envelope.getGroupId());
+		if(deviceGroup == null) {
+			getContext().getSystem().deadLetters().tell(envelope, getSender());
+		} else {
+			deviceGroup.forward(envelope.getMessage(), getContext());
+		}
+	}
+
+	private void onTerminated(Terminated t) {
+		ActorRef group = t.getActor();
+		String groupId = actorsToGroupIds.get(group);
+		log.info("Device group actor for {} has been terminated", groupId);
+		groupIdsToActors.remove(groupId);
+		actorsToGroupIds.remove(group);
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(DeviceManager.RequestTrackDevice.class, this::onTrackDevice)
+				.match(DeviceManager.RequestTrackDevices.class, this::onTrackDevices)
+				.match(DeviceGroup.RestoreTopology.class, this::onRestoreTopology)
+				.match(DeviceManager.RequestGroupActors.class, this::onRequestGroupActors)
+				.match(DeviceManager.CollectFleetTemperatures.class, this::onCollectFleetTemperatures)
+				.match(DeviceManager.RecordTemperatureBatch.class, this::onRecordTemperatureBatch)
+				.match(DeviceManager.DeviceEnvelope.class, this::onDeviceEnvelope)
+				.match(DeviceManager.GroupEnvelope.class, this::onGroupEnvelope)
+				.match(Terminated.class, this::onTerminated)
+				.build();
+	}
+}
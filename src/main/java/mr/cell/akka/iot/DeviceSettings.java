@@ -0,0 +1,122 @@
+package mr.cell.akka.iot;
+
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+public final class DeviceSettings {
+
+	public enum AckMode { ALWAYS, NONE, COALESCED }
+
+	private final AckMode ackMode;
+	private final int ackCoalesceCount;
+	private final FiniteDuration ackCoalesceInterval;
+	private final int historySize;
+	private final boolean reportChanges;
+	private final long changeRefreshMillis;
+	private final long idleTimeoutMillis;
+	private final boolean journaled;
+
+	public DeviceSettings(AckMode ackMode, int ackCoalesceCount, FiniteDuration ackCoalesceInterval, int historySize) {
+		this(ackMode, ackCoalesceCount, ackCoalesceInterval, historySize, false, 0L, 0L, false);
+	}
+
+	private DeviceSettings(AckMode ackMode, int ackCoalesceCount, FiniteDuration ackCoalesceInterval, int historySize,
+	                       boolean reportChanges, long changeRefreshMillis, long idleTimeoutMillis, boolean journaled) {
+		if(ackCoalesceCount < 1) {
+			throw new IllegalArgumentException("ack-coalesce-count must be positive, was " + ackCoalesceCount);
+		}
+		if(historySize < 1) {
+			throw new IllegalArgumentException("history-size must be positive, was " + historySize);
+		}
+		this.ackMode = ackMode;
+		this.ackCoalesceCount = ackCoalesceCount;
+		this.ackCoalesceInterval = ackCoalesceInterval;
+		this.historySize = historySize;
+		this.reportChanges = reportChanges;
+		this.changeRefreshMillis = changeRefreshMillis;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		this.journaled = journaled;
+	}
+
+	public static DeviceSettings fromConfig(Config config) {
+		Config device = config.getConfig("iot.device");
+		return new DeviceSettings(
+				AckMode.valueOf(device.getString("ack-mode").toUpperCase()),
+				device.getInt("ack-coalesce-count"),
+				durationOf(device, "ack-coalesce-interval"),
+				device.getInt("history-size"));
+	}
+
+	static FiniteDuration durationOf(Config config, String path) {
+		return new FiniteDuration(config.getDuration(path, TimeUnit.MILLISECONDS), TimeUnit.MILLISECONDS);
+	}
+
+	public DeviceSettings withAckMode(AckMode ackMode) {
+		return new DeviceSettings(ackMode, ackCoalesceCount, ackCoalesceInterval, historySize, reportChanges, changeRefreshMillis, idleTimeoutMillis, journaled);
+	}
+
+	public DeviceSettings withAckCoalescing(int ackCoalesceCount, FiniteDuration ackCoalesceInterval) {
+		return new DeviceSettings(ackMode, ackCoalesceCount, ackCoalesceInterval, historySize, reportChanges, changeRefreshMillis, idleTimeoutMillis, journaled);
+	}
+
+	public DeviceSettings withHistorySize(int historySize) {
+		return new DeviceSettings(ackMode, ackCoalesceCount, ackCoalesceInterval, historySize, reportChanges, changeRefreshMillis, idleTimeoutMillis, journaled);
+	}
+
+	/**
+	 * Makes the device report changed readings to its parent as {@link DeviceGroup.TemperatureChanged}.
+	 * An unchanged reading is reported again once the last report is {@code refreshMillis} old.
+	 */
+	public DeviceSettings withChangeReporting(long refreshMillis) {
+		return new DeviceSettings(ackMode, ackCoalesceCount, ackCoalesceInterval, historySize, true, refreshMillis, idleTimeoutMillis, journaled);
+	}
+
+	public AckMode getAckMode() {
+		return ackMode;
+	}
+
+	public int getAckCoalesceCount() {
+		return ackCoalesceCount;
+	}
+
+	public FiniteDuration getAckCoalesceInterval() {
+		return ackCoalesceInterval;
+	}
+
+	public int getHistorySize() {
+		return historySize;
+	}
+
+	/**
+	 * Makes the device ask its parent for passivation after {@code idleTimeoutMillis} without messages; 0 disables it.
+	 */
+	public DeviceSettings withIdleTimeout(long idleTimeoutMillis) {
+		return new DeviceSettings(ackMode, ackCoalesceCount, ackCoalesceInterval, historySize, reportChanges, changeRefreshMillis, idleTimeoutMillis, journaled);
+	}
+
+	public boolean isReportChanges() {
+		return reportChanges;
+	}
+
+	public long getChangeRefreshMillis() {
+		return changeRefreshMillis;
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * Makes the device send its readings to its parent as {@link DeviceGroup.JournalReading} and route its
+	 * acknowledgements through the parent, which releases them once the readings are on disk.
+	 */
+	public DeviceSettings withJournaling() {
+		return new DeviceSettings(ackMode, ackCoalesceCount, ackCoalesceInterval, historySize, reportChanges, changeRefreshMillis, idleTimeoutMillis, true);
+	}
+
+	public boolean isJournaled() {
+		return journaled;
+	}
+}
@@ -0,0 +1,185 @@
+package mr.cell.akka.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One level of a fleet-wide query. The DeviceManager runs one over its shards, and every shard one over its groups;
+ * each answers its requester with the merged {@link DeviceManager.RespondFleetTemperatures} as soon as all of its
+ * targets answered, and at the latest at the deadline shared by the whole query. Groups reduce their devices
+ * themselves, so only a summary per group, or with the full view the readings of the group, leaves a group.
+ */
+public class FleetQuery extends AbstractActor {
+
+	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+	// Each level hands its targets an earlier deadline, so their answers arrive before its own deadline.
+	private static final long MAX_LEVEL_MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final Map<ActorRef, String> pending;
+	private final boolean groupLevel;
+	private final long requestId;
+	private final DeviceManager.RequestFleetTemperatures.View view;
+	private final long deadlineNanos;
+	private final ActorRef requester;
+
+	private final TemperatureStatistics statistics = new TemperatureStatistics();
+	private final Map<String, Map<String, DeviceGroup.TemperatureReading>> temperatures = new HashMap<>();
+	private final Set<String> timedOutGroups = new HashSet<>();
+	private int unavailable;
+	private int groups;
+	private boolean complete = true;
+	private Cancellable deadlineTimer;
+
+	/**
+	 * Queries the DeviceManager shards, which query their groups.
+	 */
+	public static Props shardProps(Collection<ActorRef> shards, long requestId, DeviceManager.RequestFleetTemperatures.View view,
+	                               long deadlineNanos, ActorRef requester) {
+		Map<ActorRef, String> targets = new HashMap<>();
+		for(ActorRef shard : shards) {
+			targets.put(shard, shard.path().name());
+		}
+		return Props.create(FleetQuery.class, targets, false, requestId, view, deadlineNanos, requester)
+				.withDispatcher(IoTDispatchers.QUERY);
+	}
+
+	/**
+	 * Queries the groups of {@code groupIds} directly.
+	 */
+	public static Props groupProps(Map<ActorRef, String> groupIds, long requestId, DeviceManager.RequestFleetTemperatures.View view,
+	                               long deadlineNanos, ActorRef requester) {
+		return Props.create(FleetQuery.class, new HashMap<>(groupIds), true, requestId, view, deadlineNanos, requester)
+				.withDispatcher(IoTDispatchers.QUERY);
+	}
+
+	public FleetQuery(Map<ActorRef, String> targets, boolean groupLevel, long requestId, DeviceManager.RequestFleetTemperatures.View view,
+	                  long deadlineNanos, ActorRef requester) {
+		this.pending = targets;
+		this.groupLevel = groupLevel;
+		this.requestId = requestId;
+		this.view = view;
+		this.deadlineNanos = deadlineNanos;
+		this.requester = requester;
+	}
+
+	@Override
+	public void preStart() throws Exception {
+		long remaining = Math.max(0L, deadlineNanos - System.nanoTime());
+		long margin = Math.min(remaining / 10, MAX_LEVEL_MARGIN_NANOS);
+		// Shards take the rest of the deadline as the timeout of their own fleet query, groups as that of their device queries.
+		FiniteDuration targetTimeout = new FiniteDuration(Math.max(1L, remaining - margin), TimeUnit.NANOSECONDS);
+		Object request;
+		if(!groupLevel) {
+			request = new DeviceManager.CollectFleetTemperatures(requestId, view, targetTimeout);
+		} else if(view == DeviceManager.RequestFleetTemperatures.View.FULL) {
+			request = new DeviceGroup.RequestAllTemperatures(requestId, DeviceGroup.CompletionPolicy.all(), targetTimeout);
+		} else {
+			request = new DeviceGroup.RequestGroupStatistics(requestId, targetTimeout);
+		}
+		for(ActorRef target : pending.keySet()) {
+			target.tell(request, getSelf());
+		}
+		if(pending.isEmpty()) {
+			answer();
+			return;
+		}
+		deadlineTimer = getContext().getSystem().scheduler().scheduleOnce(new FiniteDuration(remaining, TimeUnit.NANOSECONDS),
+				getSelf(), new Deadline(), getContext().dispatcher(), getSelf());
+	}
+
+	@Override
+	public void postStop() throws Exception {
+		if(deadlineTimer != null) {
+			deadlineTimer.cancel();
+		}
+	}
+
+	private void onGroupStatistics(DeviceGroup.RespondGroupStatistics statisticsMsg) {
+		if(pending.remove(getSender()) == null) {
+			return;
+		}
+		statistics.merge(statisticsMsg.getStatistics());
+		unavailable += statisticsMsg.getUnavailable();
+		groups++;
+		answerWhenComplete();
+	}
+
+	private void onGroupTemperatures(DeviceGroup.RespondAllTemperatures temperaturesMsg) {
+		String groupId = pending.remove(getSender());
+		if(groupId == null) {
+			return;
+		}
+		for(DeviceGroup.TemperatureReading reading : temperaturesMsg.getTemperatures().values()) {
+			if(reading instanceof DeviceGroup.Temperature) {
+				statistics.add(((DeviceGroup.Temperature) reading).getValue());
+			} else {
+				unavailable++;
+			}
+		}
+		temperatures.put(groupId, temperaturesMsg.getTemperatures());
+		groups++;
+		answerWhenComplete();
+	}
+
+	private void onShardTemperatures(DeviceManager.RespondFleetTemperatures shardMsg) {
+		if(pending.remove(getSender()) == null) {
+			return;
+		}
+		statistics.merge(shardMsg.getStatistics());
+		unavailable += shardMsg.getUnavailable();
+		groups += shardMsg.getGroups();
+		temperatures.putAll(shardMsg.getTemperatures());
+		timedOutGroups.addAll(shardMsg.getTimedOutGroups());
+		complete &= shardMsg.isComplete();
+		answerWhenComplete();
+	}
+
+	private void onDeadline(Deadline deadlineMsg) {
+		log.debug("Fleet query {} reached its deadline with {} targets pending.", requestId, pending.size());
+		if(groupLevel) {
+			timedOutGroups.addAll(pending.values());
+		}
+		complete = false;
+		answer();
+	}
+
+	private void answerWhenComplete() {
+		if(pending.isEmpty()) {
+			answer();
+		}
+	}
+
+	private void answer() {
+		// Answers on behalf of the shard or manager that started the query, which is what the level above asked.
+		requester.tell(new DeviceManager.RespondFleetTemperatures(requestId, statistics, unavailable, groups,
+				view == DeviceManager.RequestFleetTemperatures.View.FULL ? temperatures : Collections.emptyMap(),
+				timedOutGroups, complete), getContext().getParent());
+		getContext().stop(getSelf());
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(DeviceGroup.RespondGroupStatistics.class, this::onGroupStatistics)
+				.match(DeviceGroup.RespondAllTemperatures.class, this::onGroupTemperatures)
+				.match(DeviceManager.RespondFleetTemperatures.class, this::onShardTemperatures)
+				.match(Deadline.class, this::onDeadline)
+				.build();
+	}
+
+	private static final class Deadline { }
+}
@@ -0,0 +1,244 @@
+package mr.cell.akka.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.event.LoggingAdapter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * The journal of one {@link DeviceGroup} with its group commit and snapshots. Appended readings are forced to disk
+ * together once {@code commit-batch-size} readings are appended or {@code commit-interval} has passed, and the acks
+ * waiting for them are released afterwards. Forcing and writing snapshots run on the blocking-io dispatcher, which
+ * reports back to the group with {@link Committed} and {@link SnapshotTaken}. Used only from the group actor, whose
+ * context schedules its timers.
+ */
+final class GroupJournal {
+
+	private final Journal journal;
+	private final JournalSettings settings;
+	private final Path directory;
+	private final String groupId;
+	private final AbstractActor.ActorContext context;
+	private final LoggingAdapter log;
+	private long snapshotSeqNr;
+	private int uncommitted;
+	private final List<PendingAck> pendingAcks = new ArrayList<>();
+	// Acks of the readings whose flush runs on the blocking-io dispatcher; null while no flush runs.
+	private List<PendingAck> flushingAcks;
+	private boolean commitRequested;
+	private boolean snapshotRunning;
+	private Cancellable commitTimer;
+	private final Cancellable snapshotTimer;
+
+	GroupJournal(Journal journal, long snapshotSeqNr, JournalSettings settings, String groupId,
+	             AbstractActor.ActorContext context, LoggingAdapter log) {
+		this.journal = journal;
+		this.snapshotSeqNr = snapshotSeqNr;
+		this.settings = settings;
+		this.directory = settings.groupDirectory(groupId);
+		this.groupId = groupId;
+		this.context = context;
+		this.log = log;
+		snapshotTimer = context.getSystem().scheduler().schedule(settings.getSnapshotInterval(), settings.getSnapshotInterval(),
+				context.self(), new TakeSnapshot(), context.dispatcher(), context.self());
+	}
+
+	void appendRegistration(String deviceId) throws IOException {
+		journal.appendRegistration(deviceId);
+		uncommitted++;
+	}
+
+	void append(String deviceId, long timestamp, double value) throws IOException {
+		journal.append(deviceId, timestamp, value);
+		uncommitted++;
+	}
+
+	/**
+	 * Sends {@code ack} to {@code receiver} once the next commit is on disk, as if from {@code device}.
+	 */
+	void ackWithNextCommit(Object ack, ActorRef receiver, ActorRef device) {
+		pendingAcks.add(new PendingAck(ack, receiver, device));
+	}
+
+	/**
+	 * Sends {@code ack} to {@code receiver} once everything appended so far is on disk, which may be at once.
+	 */
+	void ackWhenCommitted(Object ack, ActorRef receiver, ActorRef device) {
+		if(uncommitted == 0 && flushingAcks == null) {
+			receiver.tell(ack, device);
+		} else if(uncommitted == 0) {
+			flushingAcks.add(new PendingAck(ack, receiver, device));
+		} else {
+			pendingAcks.add(new PendingAck(ack, receiver, device));
+		}
+	}
+
+	void commitWhenDue() {
+		if(uncommitted >= settings.getCommitBatchSize()) {
+			commit();
+		} else if(commitTimer == null) {
+			commitTimer = context.getSystem().scheduler().scheduleOnce(settings.getCommitInterval(),
+					context.self(), new Commit(), context.dispatcher(), context.self());
+		}
+	}
+
+	void onCommit(Commit commitMsg) {
+		commitTimer = null;
+		commit();
+	}
+
+	/**
+	 * Forces every reading appended since the last commit to disk with one call, then releases their acks. The
+	 * call runs on the blocking-io dispatcher so that the group goes on appending meanwhile; a commit due while
+	 * the previous one still runs starts once it is done.
+	 */
+	private void commit() {
+		if(commitTimer != null) {
+			commitTimer.cancel();
+			commitTimer = null;
+		}
+		if(flushingAcks != null) {
+			commitRequested = true;
+			return;
+		}
+		Journal.Flush flush = journal.startFlush();
+		uncommitted = 0;
+		if(flush.isEmpty()) {
+			release(pendingAcks);
+			return;
+		}
+		flushingAcks = new ArrayList<>(pendingAcks);
+		pendingAcks.clear();
+		ActorRef self = context.self();
+		CompletableFuture.runAsync(() -> {
+			try {
+				flush.force();
+			} catch(IOException e) {
+				throw new CompletionException(e);
+			}
+		}, blockingIo()).whenComplete((done, failure) -> self.tell(new Committed(failure), ActorRef.noSender()));
+	}
+
+	void onCommitted(Committed committedMsg) {
+		List<PendingAck> acks = flushingAcks;
+		flushingAcks = null;
+		if(committedMsg.failure == null) {
+			release(acks);
+		} else {
+			// The readings may not be on disk, so their senders get no ack and send them again.
+			log.error(committedMsg.failure, "Cannot force the journal of group {} to disk, dropping {} acks.", groupId, acks.size());
+		}
+		if(commitRequested) {
+			commitRequested = false;
+			commit();
+		}
+	}
+
+	/**
+	 * Commits and returns an empty snapshot at the last appended record for the group to fill, or null when nothing
+	 * was appended since the last snapshot or the previous one is still being written.
+	 */
+	JournalSnapshot startSnapshot() {
+		if(journal.lastSeqNr() == snapshotSeqNr || snapshotRunning) {
+			return null;
+		}
+		commit();
+		return new JournalSnapshot(journal.lastSeqNr());
+	}
+
+	/**
+	 * Writes a snapshot from {@link #startSnapshot()} and deletes the segments it covers.
+	 */
+	void writeSnapshot(JournalSnapshot snapshot) {
+		// The snapshot is a copy, so writing it and deleting the segments it covers run on the blocking-io dispatcher.
+		snapshotRunning = true;
+		ActorRef self = context.self();
+		CompletableFuture.runAsync(() -> {
+			try {
+				snapshot.writeTo(directory);
+				journal.deleteUpTo(snapshot.getSeqNr());
+			} catch(IOException e) {
+				throw new CompletionException(e);
+			}
+		}, blockingIo()).whenComplete((done, failure) -> self.tell(new SnapshotTaken(snapshot.getSeqNr(), snapshot.size(), failure), ActorRef.noSender()));
+	}
+
+	void onSnapshotTaken(SnapshotTaken takenMsg) {
+		snapshotRunning = false;
+		if(takenMsg.failure != null) {
+			log.error(takenMsg.failure, "Cannot write the snapshot of group {} at {}.", groupId, takenMsg.seqNr);
+			return;
+		}
+		snapshotSeqNr = takenMsg.seqNr;
+		log.debug("Snapshot of group {} taken at {} with {} devices.", groupId, snapshotSeqNr, takenMsg.devices);
+	}
+
+	/**
+	 * Stops the timers and closes the journal. Acks still waiting are released, since their readings are appended
+	 * and closing forces them to disk.
+	 */
+	void close() throws IOException {
+		snapshotTimer.cancel();
+		if(commitTimer != null) {
+			commitTimer.cancel();
+		}
+		journal.close();
+		if(flushingAcks != null) {
+			release(flushingAcks);
+		}
+		release(pendingAcks);
+	}
+
+	private void release(List<PendingAck> acks) {
+		acks.forEach(pending -> pending.receiver.tell(pending.ack, pending.device));
+		acks.clear();
+	}
+
+	private Executor blockingIo() {
+		return context.getSystem().dispatchers().lookup(IoTDispatchers.BLOCKING_IO);
+	}
+
+	private static final class PendingAck {
+		private final Object ack;
+		private final ActorRef receiver;
+		private final ActorRef device;
+
+		private PendingAck(Object ack, ActorRef receiver, ActorRef device) {
+			this.ack = ack;
+			this.receiver = receiver;
+			this.device = device;
+		}
+	}
+
+	static final class Commit { }
+
+	static final class Committed {
+		private final Throwable failure;
+
+		private Committed(Throwable failure) {
+			this.failure = failure;
+		}
+	}
+
+	static final class TakeSnapshot { }
+
+	static final class SnapshotTaken {
+		private final long seqNr;
+		private final int devices;
+		private final Throwable failure;
+
+		private SnapshotTaken(long seqNr, int devices, Throwable failure) {
+			this.seqNr = seqNr;
+			this.devices = devices;
+			this.failure = failure;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package mr.cell.akka.iot;
+
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+public final class IngestionSettings {
+
+	private final int bufferSize;
+	private final int batchSize;
+	private final FiniteDuration batchInterval;
+	private final int maxBatchesInFlight;
+	private final FiniteDuration askTimeout;
+	private final FiniteDuration batchTimeout;
+
+	public IngestionSettings(int bufferSize, int batchSize, FiniteDuration batchInterval,
+	                         int maxBatchesInFlight, FiniteDuration askTimeout, FiniteDuration batchTimeout) {
+		if(bufferSize < 1 || batchSize < 1 || maxBatchesInFlight < 1) {
+			throw new IllegalArgumentException("Ingestion buffer size, batch size and batches in flight must be positive");
+		}
+		if(batchTimeout.toNanos() <= 0) {
+			throw new IllegalArgumentException("batch-timeout must be positive, was " + batchTimeout);
+		}
+		this.bufferSize = bufferSize;
+		this.batchSize = batchSize;
+		this.batchInterval = batchInterval;
+		this.maxBatchesInFlight = maxBatchesInFlight;
+		this.askTimeout = askTimeout;
+		this.batchTimeout = batchTimeout;
+	}
+
+	public static IngestionSettings fromConfig(Config config) {
+		Config ingestion = config.getConfig("iot.ingestion");
+		IngestionSettings settings = new IngestionSettings(
+				ingestion.getInt("buffer-size"),
+				ingestion.getInt("batch-size"),
+				DeviceSettings.durationOf(ingestion, "batch-interval"),
+				ingestion.getInt("max-batches-in-flight"),
+				DeviceSettings.durationOf(ingestion, "ask-timeout"),
+				DeviceSettings.durationOf(ingestion, "batch-timeout"));
+		// The DeviceManager waits a margin longer for its shards than they wait for their groups.
+		if(TemperatureBatchCollector.timeoutAbove(settings.batchTimeout).compareTo(settings.askTimeout) >= 0) {
+			throw new IllegalArgumentException("batch-timeout must be below ask-timeout, was " + settings.batchTimeout
+					+ " with ask-timeout " + settings.askTimeout);
+		}
+		return settings;
+	}
+
+	public IngestionSettings withBufferSize(int bufferSize) {
+		return new IngestionSettings(bufferSize, batchSize, batchInterval, maxBatchesInFlight, askTimeout, batchTimeout);
+	}
+
+	public IngestionSettings withBatching(int batchSize, FiniteDuration batchInterval) {
+		return new IngestionSettings(bufferSize, batchSize, batchInterval, maxBatchesInFlight, askTimeout, batchTimeout);
+	}
+
+	public IngestionSettings withMaxBatchesInFlight(int maxBatchesInFlight) {
+		return new IngestionSettings(bufferSize, batchSize, batchInterval, maxBatchesInFlight, askTimeout, batchTimeout);
+	}
+
+	public IngestionSettings withAskTimeout(FiniteDuration askTimeout) {
+		return new IngestionSettings(bufferSize, batchSize, batchInterval, maxBatchesInFlight, askTimeout, batchTimeout);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public FiniteDuration getBatchInterval() {
+		return batchInterval;
+	}
+
+	public int getMaxBatchesInFlight() {
+		return maxBatchesInFlight;
+	}
+
+	public FiniteDuration getAskTimeout() {
+		return askTimeout;
+	}
+
+	/**
+	 * How long a DeviceManager shard waits for the groups of a batch that spans several of them before it reports
+	 * the readings of the groups that have not answered as unconfirmed. The DeviceManager waits for its shards
+	 * {@link TemperatureBatchCollector#timeoutAbove longer}.
+	 */
+	public FiniteDuration getBatchTimeout() {
+		return batchTimeout;
+	}
+}
@@ -0,0 +1,39 @@
+package mr.cell.akka.iot;
+
+/**
+ * Ids of the dispatchers each actor tier runs on, configured under {@code iot.dispatchers} so that a flood of
+ * readings cannot take the threads that registration and queries need.
+ */
+public final class IoTDispatchers {
+
+	/**
+	 * Ingest tier: {@link Device}.
+	 */
+	public static final String DEVICE = "iot.dispatchers.device";
+
+	/**
+	 * Coordination tier: {@link DeviceManager}, {@link DeviceManagerShard}, {@link DeviceGroup} and
+	 * {@link TemperatureBatchCollector}.
+	 */
+	public static final String COORDINATION = "iot.dispatchers.coordination";
+
+	/**
+	 * Query tier: {@link DeviceGroupQuery}.
+	 */
+	public static final String QUERY = "iot.dispatchers.query";
+
+	/**
+	 * Unbounded mailbox without depth reporting for the short-lived actors of the coordination tier,
+	 * {@link TemperatureBatchCollector} and {@link TopologySnapshotter}, which would otherwise register and unregister
+	 * a mailbox with {@link IoTMetrics} for every batch or snapshot.
+	 */
+	public static final String SHORT_LIVED_MAILBOX = "iot.mailboxes.short-lived";
+
+	/**
+	 * Blocking file IO off the actor tiers: journal commits and snapshots of {@link DeviceGroup}.
+	 */
+	public static final String BLOCKING_IO = "iot.dispatchers.blocking-io";
+
+	private IoTDispatchers() {
+	}
+}
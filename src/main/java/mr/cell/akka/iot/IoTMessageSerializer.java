@@ -0,0 +1,961 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ExtendedActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.SerializerWithStringManifest;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.NotSerializableException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary serializer for the messages of the device, group, manager and dashboard protocols, bound in
+ * {@code reference.conf}. Every message starts with a format version byte; the manifest names the message type.
+ * Manifests and field order are part of the wire format: change them only together with {@link #VERSION}, keeping
+ * a reader for the old version. Integers are written as variable-length values, so small request ids and counts
+ * take one or two bytes, and series of timestamps are written as deltas. Messages wrapped in envelopes are
+ * serialized with whatever serializer is bound to them. Every read is bounds checked and no collection is sized
+ * beyond what the remaining bytes could hold, so truncated or corrupt bytes fail with a
+ * {@link NotSerializableException} instead of an arbitrary exception or a huge allocation.
+ */
+public final class IoTMessageSerializer extends SerializerWithStringManifest {
+
+	public static final int IDENTIFIER = 3170;
+
+	static final byte VERSION = 1;
+
+	private static final byte TEMPERATURE = 0;
+	private static final byte TEMPERATURE_NOT_AVAILABLE = 1;
+	private static final byte DEVICE_NOT_AVAILABLE = 2;
+	private static final byte DEVICE_TIMEOUT = 3;
+
+	private static final DeviceGroup.TemperatureNotAvailable TEMPERATURE_NOT_AVAILABLE_READING = new DeviceGroup.TemperatureNotAvailable();
+	private static final DeviceGroup.DeviceNotAvailable DEVICE_NOT_AVAILABLE_READING = new DeviceGroup.DeviceNotAvailable();
+	private static final DeviceGroup.DeviceTimeout DEVICE_TIMEOUT_READING = new DeviceGroup.DeviceTimeout();
+	private static final DeviceManager.RequestFleetTemperatures.View[] FLEET_VIEWS = DeviceManager.RequestFleetTemperatures.View.values();
+
+	private final ExtendedActorSystem system;
+	private final Map<Class<?>, Codec> codecsByClass = new HashMap<>();
+	private final Map<String, Codec> codecsByManifest = new HashMap<>();
+	// Looked up on first use, because serializers are created while the extension itself is initialized.
+	private volatile Serialization serialization;
+
+	public IoTMessageSerializer(ExtendedActorSystem system) {
+		this.system = system;
+
+		register(DeviceManager.RequestTrackDevice.class, "TD", (m, out) -> {
+			out.writeString(m.getGroupId());
+			out.writeString(m.getDeviceId());
+		}, in -> new DeviceManager.RequestTrackDevice(in.readString(), in.readString()));
+		register(DeviceManager.DeviceRegistered.class, "DR", (m, out) -> { }, in -> new DeviceManager.DeviceRegistered());
+		register(DeviceManager.RequestTrackDevices.class, "TDS", (m, out) -> {
+			out.writeString(m.getGroupId());
+			writeStrings(out, m.getDeviceIds());
+		}, in -> new DeviceManager.RequestTrackDevices(in.readString(), readStringList(in)));
+		register(DeviceManager.DevicesRegistered.class, "DRS", (m, out) -> {
+			out.writeString(m.getGroupId());
+			out.writeVarInt(m.getRegistered());
+			out.writeVarInt(m.getAlreadyRegistered());
+		}, in -> new DeviceManager.DevicesRegistered(in.readString(), in.readVarInt(), in.readVarInt()));
+		register(DeviceManager.DeviceReading.class, "R", (m, out) -> {
+			out.writeString(m.getGroupId());
+			writeReading(out, m);
+		}, in -> readReading(in, in.readString()));
+		register(DeviceManager.RecordTemperatureBatch.class, "RTB", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			writeReadings(out, m.getReadings());
+		}, in -> new DeviceManager.RecordTemperatureBatch(in.readVarLong(), readReadings(in)));
+		register(DeviceManager.TemperatureBatchRecorded.class, "TBR", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			out.writeVarInt(m.getRecorded());
+			writeReadings(out, m.getRejected());
+			writeReadings(out, m.getUnconfirmed());
+		}, in -> new DeviceManager.TemperatureBatchRecorded(in.readVarLong(), in.readVarInt(), readReadings(in), readReadings(in)));
+		register(DeviceManager.DeviceEnvelope.class, "DE", (m, out) -> {
+			out.writeString(m.getGroupId());
+			out.writeString(m.getDeviceId());
+			writePayload(out, m.getMessage());
+		}, in -> new DeviceManager.DeviceEnvelope(in.readString(), in.readString(), readPayload(in)));
+		register(DeviceManager.GroupEnvelope.class, "GE", (m, out) -> {
+			out.writeString(m.getGroupId());
+			writePayload(out, m.getMessage());
+		}, in -> new DeviceManager.GroupEnvelope(in.readString(), readPayload(in)));
+		register(DeviceManager.RequestShard.class, "RS", (m, out) -> out.writeString(m.getGroupId()),
+				in -> new DeviceManager.RequestShard(in.readString()));
+		register(DeviceManager.ShardLocation.class, "SL", (m, out) -> {
+			out.writeString(m.getGroupId());
+			writeActorRef(out, m.getShard());
+		}, in -> new DeviceManager.ShardLocation(in.readString(), readActorRef(in)));
+		register(DeviceManager.RequestFleetTemperatures.class, "RFT", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			out.writeByte((byte) m.getView().ordinal());
+			out.writeVarLong(m.getTimeout().toNanos());
+		}, in -> new DeviceManager.RequestFleetTemperatures(in.readVarLong(), FLEET_VIEWS[in.readByte()],
+				FiniteDuration.create(in.readVarLong(), TimeUnit.NANOSECONDS)));
+		register(DeviceManager.CollectFleetTemperatures.class, "CFT", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			out.writeByte((byte) m.getView().ordinal());
+			out.writeVarLong(m.getTimeout().toNanos());
+		}, in -> new DeviceManager.CollectFleetTemperatures(in.readVarLong(), FLEET_VIEWS[in.readByte()],
+				FiniteDuration.create(in.readVarLong(), TimeUnit.NANOSECONDS)));
+		register(DeviceManager.RespondFleetTemperatures.class, "FT", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			writeStatistics(out, m.getStatistics());
+			out.writeVarInt(m.getUnavailable());
+			out.writeVarInt(m.getGroups());
+			out.writeVarInt(m.getTemperatures().size());
+			for(Map.Entry<String, Map<String, DeviceGroup.TemperatureReading>> group : m.getTemperatures().entrySet()) {
+				out.writeString(group.getKey());
+				writeTemperatures(out, group.getValue());
+			}
+			writeStrings(out, m.getTimedOutGroups());
+			out.writeBoolean(m.isComplete());
+		}, in -> {
+			long requestId = in.readVarLong();
+			TemperatureStatistics statistics = readStatistics(in);
+			int unavailable = in.readVarInt();
+			int groups = in.readVarInt();
+			int size = in.readSize(2);
+			Map<String, Map<String, DeviceGroup.TemperatureReading>> temperatures = new HashMap<>(size * 4 / 3 + 1);
+			for(int i = 0; i < size; i++) {
+				temperatures.put(in.readString(), readTemperatures(in));
+			}
+			return new DeviceManager.RespondFleetTemperatures(requestId, statistics, unavailable, groups, temperatures,
+					readStrings(in), in.readBoolean());
+		});
+		register(DeviceManager.RequestGroupActors.class, "RGA", (m, out) -> { }, in -> new DeviceManager.RequestGroupActors());
+		register(DeviceManager.GroupActors.class, "GA", (m, out) -> {
+			out.writeVarInt(m.getGroups().size());
+			for(ActorRef group : m.getGroups()) {
+				writeActorRef(out, group);
+			}
+		}, in -> {
+			int size = in.readSize(1);
+			List<ActorRef> groups = new ArrayList<>(size);
+			for(int i = 0; i < size; i++) {
+				groups.add(readActorRef(in));
+			}
+			return new DeviceManager.GroupActors(groups);
+		});
+
+		register(Device.RestoreReadings.class, "RR", (m, out) -> writeSeries(out, m.getTimestamps(), m.getValues()), in -> {
+			long[] timestamps = readTimestamps(in);
+			return new Device.RestoreReadings(timestamps, readValues(in, timestamps.length));
+		});
+		register(Device.RecordJournaledTemperature.class, "RJT", (m, out) -> {
+			out.writeDouble(m.getValue());
+			out.writeLong(m.getTimestamp());
+		}, in -> new Device.RecordJournaledTemperature(in.readDouble(), in.readLong()));
+		register(Device.SetAlertRules.class, "SAR", (m, out) -> {
+			out.writeVarInt(m.getRules().size());
+			for(AlertRule rule : m.getRules()) {
+				writeAlertRule(out, rule);
+			}
+			out.writeVarInt(m.getSubscribers().size());
+			for(ActorRef subscriber : m.getSubscribers()) {
+				writeActorRef(out, subscriber);
+			}
+		}, in -> {
+			int size = in.readSize(12);
+			List<AlertRule> rules = new ArrayList<>(size);
+			for(int i = 0; i < size; i++) {
+				rules.add(readAlertRule(in));
+			}
+			size = in.readSize(1);
+			List<ActorRef> subscribers = new ArrayList<>(size);
+			for(int i = 0; i < size; i++) {
+				subscribers.add(readActorRef(in));
+			}
+			return new Device.SetAlertRules(rules, subscribers);
+		});
+		register(Device.Passivate.class, "P", (m, out) -> { }, in -> new Device.Passivate());
+		register(Device.ReportChanges.class, "RC", (m, out) -> {
+			out.writeBoolean(m.isEnabled());
+			out.writeVarLong(m.getRefreshMillis());
+		}, in -> new Device.ReportChanges(in.readBoolean(), in.readVarLong()));
+		register(Device.ReadTemperature.class, "RdT", (m, out) -> out.writeVarLong(m.getRequestId()),
+				in -> new Device.ReadTemperature(in.readVarLong()));
+		register(Device.RespondTemperature.class, "T", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			out.writeBoolean(m.getValue().isPresent());
+			if(m.getValue().isPresent()) {
+				out.writeDouble(m.getValue().get());
+			}
+		}, in -> new Device.RespondTemperature(in.readVarLong(), in.readBoolean() ? Optional.of(in.readDouble()) : Optional.empty()));
+		register(Device.ReadTemperatureRange.class, "RdTR", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			out.writeLong(m.getFrom());
+			out.writeLong(m.getTo());
+		}, in -> new Device.ReadTemperatureRange(in.readVarLong(), in.readLong(), in.readLong()));
+		register(Device.RespondTemperatureRange.class, "TR", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			writeSeries(out, m.getTimestamps(), m.getValues());
+		}, in -> {
+			long requestId = in.readVarLong();
+			long[] timestamps = readTimestamps(in);
+			return new Device.RespondTemperatureRange(requestId, timestamps, readValues(in, timestamps.length));
+		});
+		register(Device.RecordTemperature.class, "RT", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			out.writeDouble(m.getValue());
+			out.writeLong(m.getTimestamp());
+		}, in -> new Device.RecordTemperature(in.readVarLong(), in.readDouble(), in.readLong()));
+		register(Device.TemperatureRecorded.class, "Rd", (m, out) -> out.writeVarLong(m.getRequestId()),
+				in -> new Device.TemperatureRecorded(in.readVarLong()));
+		register(Device.TemperaturesRecorded.class, "RdN", (m, out) -> {
+			out.writeVarLong(m.getUpToRequestId());
+			out.writeVarInt(m.getCount());
+		}, in -> new Device.TemperaturesRecorded(in.readVarLong(), in.readVarInt()));
+
+		register(DeviceGroup.RequestDeviceList.class, "RDL", (m, out) -> out.writeVarLong(m.getRequestId()),
+				in -> new DeviceGroup.RequestDeviceList(in.readVarLong()));
+		register(DeviceGroup.ReplyDeviceList.class, "DL", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			writeStrings(out, m.getDeviceIds());
+		}, in -> new DeviceGroup.ReplyDeviceList(in.readVarLong(), readStrings(in)));
+		register(DeviceGroup.RequestAllTemperatures.class, "RAT", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			writeCompletionPolicy(out, m.getCompletionPolicy());
+			writeTimeout(out, m.getTimeout());
+		}, in -> new DeviceGroup.RequestAllTemperatures(in.readVarLong(), readCompletionPolicy(in), readTimeout(in)));
+		register(DeviceGroup.PartialTemperatures.class, "PAT", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			writeTemperatures(out, m.getTemperatures());
+			out.writeVarInt(m.getRemaining());
+		}, in -> new DeviceGroup.PartialTemperatures(in.readVarLong(), readTemperatures(in), in.readVarInt()));
+		register(DeviceGroup.CorrectedTemperatures.class, "CAT", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			writeTemperatures(out, m.getTemperatures());
+		}, in -> new DeviceGroup.CorrectedTemperatures(in.readVarLong(), readTemperatures(in)));
+		register(DeviceGroup.RespondAllTemperatures.class, "AT", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			writeTemperatures(out, m.getTemperatures());
+		}, in -> new DeviceGroup.RespondAllTemperatures(in.readVarLong(), readTemperatures(in)));
+		register(DeviceGroup.RequestGroupStatistics.class, "RGS", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			writeTimeout(out, m.getTimeout());
+		}, in -> new DeviceGroup.RequestGroupStatistics(in.readVarLong(), readTimeout(in)));
+		register(DeviceGroup.RespondGroupStatistics.class, "GS", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			writeStatistics(out, m.getStatistics());
+			out.writeVarInt(m.getUnavailable());
+		}, in -> new DeviceGroup.RespondGroupStatistics(in.readVarLong(), readStatistics(in), in.readVarInt()));
+		register(DeviceGroup.SubscribeChanges.class, "SC", (m, out) -> { }, in -> new DeviceGroup.SubscribeChanges());
+		register(DeviceGroup.UnsubscribeChanges.class, "USC", (m, out) -> { }, in -> new DeviceGroup.UnsubscribeChanges());
+		register(DeviceGroup.ChangesSubscribed.class, "SCd", (m, out) -> out.writeString(m.getGroupId()),
+				in -> new DeviceGroup.ChangesSubscribed(in.readString()));
+		register(DeviceGroup.TemperatureChanged.class, "TC", (m, out) -> {
+			out.writeString(m.getDeviceId());
+			out.writeDouble(m.getValue());
+			out.writeLong(m.getTimestamp());
+		}, in -> new DeviceGroup.TemperatureChanged(in.readString(), in.readDouble(), in.readLong()));
+		register(DeviceGroup.AddAlertRule.class, "AAR", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			out.writeString(m.getDeviceId().orElse(""));
+			writeAlertRule(out, m.getRule());
+		}, in -> new DeviceGroup.AddAlertRule(in.readVarLong(), emptyToNull(in.readString()), readAlertRule(in)));
+		register(DeviceGroup.RemoveAlertRule.class, "RAR", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			out.writeString(m.getDeviceId().orElse(""));
+			out.writeString(m.getRuleId());
+		}, in -> new DeviceGroup.RemoveAlertRule(in.readVarLong(), emptyToNull(in.readString()), in.readString()));
+		register(DeviceGroup.AlertRulesUpdated.class, "ARU", (m, out) -> out.writeVarLong(m.getRequestId()),
+				in -> new DeviceGroup.AlertRulesUpdated(in.readVarLong()));
+		register(DeviceGroup.SubscribeAlerts.class, "SA", (m, out) -> { }, in -> new DeviceGroup.SubscribeAlerts());
+		register(DeviceGroup.UnsubscribeAlerts.class, "USA", (m, out) -> { }, in -> new DeviceGroup.UnsubscribeAlerts());
+		register(DeviceGroup.AlertsSubscribed.class, "SAd", (m, out) -> out.writeString(m.getGroupId()),
+				in -> new DeviceGroup.AlertsSubscribed(in.readString()));
+		register(DeviceGroup.Alert.class, "A", (m, out) -> {
+			out.writeString(m.getGroupId());
+			out.writeString(m.getDeviceId());
+			out.writeString(m.getRuleId());
+			out.writeBoolean(m.isRaised());
+			out.writeDouble(m.getValue());
+			out.writeLong(m.getTimestamp());
+		}, in -> new DeviceGroup.Alert(in.readString(), in.readString(), in.readString(), in.readBoolean(), in.readDouble(), in.readLong()));
+		register(DeviceGroup.JournalReading.class, "JR", (m, out) -> {
+			out.writeString(m.getDeviceId());
+			out.writeDouble(m.getValue());
+			out.writeLong(m.getTimestamp());
+			writeOptionalPayload(out, m.getAck());
+			writeActorRef(out, m.getAckReceiver());
+		}, in -> new DeviceGroup.JournalReading(in.readString(), in.readDouble(), in.readLong(), readOptionalPayload(in), readActorRef(in)));
+		register(DeviceGroup.AckAfterCommit.class, "AAC", (m, out) -> {
+			writeOptionalPayload(out, m.getAck());
+			writeActorRef(out, m.getAckReceiver());
+		}, in -> new DeviceGroup.AckAfterCommit(readOptionalPayload(in), readActorRef(in)));
+		register(DeviceGroup.RequestPassivation.class, "RP", (m, out) -> { }, in -> new DeviceGroup.RequestPassivation());
+		register(DeviceGroup.Passivated.class, "Pd", (m, out) -> {
+			out.writeString(m.getDeviceId());
+			out.writeBoolean(m.hasReading());
+			if(m.hasReading()) {
+				out.writeDouble(m.getValue());
+				out.writeLong(m.getTimestamp());
+			}
+		}, in -> {
+			String deviceId = in.readString();
+			return in.readBoolean() ? new DeviceGroup.Passivated(deviceId, in.readDouble(), in.readLong()) : new DeviceGroup.Passivated(deviceId);
+		});
+		register(DeviceGroup.RequestTopology.class, "RTo", (m, out) -> { }, in -> new DeviceGroup.RequestTopology());
+		register(DeviceGroup.GroupTopology.class, "GT", IoTMessageSerializer::writeGroupTopology, IoTMessageSerializer::readGroupTopology);
+		register(DeviceGroup.RestoreTopology.class, "RsT", (m, out) -> writeGroupTopology(m.getTopology(), out),
+				in -> new DeviceGroup.RestoreTopology(readGroupTopology(in)));
+		register(DeviceGroup.TopologyRestored.class, "TRs", (m, out) -> {
+			out.writeString(m.getGroupId());
+			out.writeVarInt(m.getRestored());
+		}, in -> new DeviceGroup.TopologyRestored(in.readString(), in.readVarInt()));
+		register(DeviceGroup.Temperature.class, "Tv", (m, out) -> out.writeDouble(m.getValue()),
+				in -> new DeviceGroup.Temperature(in.readDouble()));
+		register(DeviceGroup.TemperatureNotAvailable.class, "TNA", (m, out) -> { }, in -> TEMPERATURE_NOT_AVAILABLE_READING);
+		register(DeviceGroup.DeviceNotAvailable.class, "DNA", (m, out) -> { }, in -> DEVICE_NOT_AVAILABLE_READING);
+		register(DeviceGroup.DeviceTimeout.class, "DT", (m, out) -> { }, in -> DEVICE_TIMEOUT_READING);
+
+		register(DashboardManager.Subscribe.class, "DS", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			out.writeString(m.getGroupId());
+			writeStrings(out, m.getDeviceIds());
+			out.writeBoolean(m.getMinFrameInterval() != null);
+			if(m.getMinFrameInterval() != null) {
+				out.writeVarLong(m.getMinFrameInterval().toNanos());
+			}
+		}, in -> new DashboardManager.Subscribe(in.readVarLong(), in.readString(), readStrings(in),
+				in.readBoolean() ? FiniteDuration.create(in.readVarLong(), TimeUnit.NANOSECONDS) : null));
+		register(DashboardManager.Subscribed.class, "DSd", (m, out) -> out.writeVarLong(m.getRequestId()),
+				in -> new DashboardManager.Subscribed(in.readVarLong()));
+		register(DashboardManager.Unsubscribe.class, "DU", (m, out) -> {
+			out.writeVarLong(m.getRequestId());
+			out.writeString(m.getGroupId());
+		}, in -> new DashboardManager.Unsubscribe(in.readVarLong(), in.readString()));
+		register(DashboardManager.Unsubscribed.class, "DUd", (m, out) -> out.writeVarLong(m.getRequestId()),
+				in -> new DashboardManager.Unsubscribed(in.readVarLong()));
+		register(DashboardManager.Frame.class, "DF", (m, out) -> {
+			out.writeVarLong(m.getFrameNr());
+			writeUpdates(out, m.getUpdates());
+		}, in -> new DashboardManager.Frame(in.readVarLong(), readUpdates(in)));
+		register(DashboardManager.FrameAck.class, "DFA", (m, out) -> out.writeVarLong(m.getFrameNr()),
+				in -> new DashboardManager.FrameAck(in.readVarLong()));
+		register(DashboardManager.DeviceUpdate.class, "DDU", (m, out) -> {
+			out.writeString(m.getGroupId());
+			writeUpdate(out, m);
+		}, in -> readUpdate(in, in.readString()));
+	}
+
+	@Override
+	public int identifier() {
+		return IDENTIFIER;
+	}
+
+	@Override
+	public String manifest(Object o) {
+		return codecFor(o).manifest;
+	}
+
+	@Override
+	public byte[] toBinary(Object o) {
+		Codec codec = codecFor(o);
+		Writer out = new Writer();
+		out.writeByte(VERSION);
+		codec.encoder.write(o, out);
+		return out.toByteArray();
+	}
+
+	@Override
+	public Object fromBinary(byte[] bytes, String manifest) throws NotSerializableException {
+		Codec codec = codecsByManifest.get(manifest);
+		if(codec == null) {
+			throw new NotSerializableException("Unknown manifest [" + manifest + "] for " + getClass().getName());
+		}
+		if(bytes.length == 0 || bytes[0] != VERSION) {
+			throw new NotSerializableException("Unsupported format version " + (bytes.length == 0 ? "(empty)" : bytes[0])
+					+ " of [" + manifest + "]");
+		}
+		Reader in = new Reader(bytes, 1);
+		try {
+			Object message = codec.decoder.read(in);
+			if(in.hasRemaining()) {
+				throw new IllegalArgumentException((bytes.length - in.position) + " trailing bytes");
+			}
+			return message;
+		} catch(Exception e) {
+			// Includes the exceptions of nested payloads, which Try.get rethrows unchecked.
+			NotSerializableException failure = new NotSerializableException("Malformed [" + manifest + "]: " + e);
+			failure.initCause(e);
+			throw failure;
+		}
+	}
+
+	private Codec codecFor(Object o) {
+		Codec codec = codecsByClass.get(o.getClass());
+		if(codec == null) {
+			throw new IllegalArgumentException("Cannot serialize " + o.getClass().getName() + " with " + getClass().getName());
+		}
+		return codec;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> void register(Class<T> type, String manifest, Encoder<T> encoder, Decoder decoder) {
+		Codec codec = new Codec(manifest, (Encoder<Object>) encoder, decoder);
+		if(codecsByClass.put(type, codec) != null || codecsByManifest.put(manifest, codec) != null) {
+			throw new IllegalStateException("Duplicate registration of " + type.getName() + " as [" + manifest + "]");
+		}
+	}
+
+	/**
+	 * Readings with their group id written only where it differs from the one before; a batch usually has one group.
+	 */
+	private static void writeReadings(Writer out, List<DeviceManager.DeviceReading> readings) {
+		out.writeVarInt(readings.size());
+		String previousGroupId = null;
+		for(DeviceManager.DeviceReading reading : readings) {
+			boolean newGroup = !reading.getGroupId().equals(previousGroupId);
+			out.writeBoolean(newGroup);
+			if(newGroup) {
+				out.writeString(reading.getGroupId());
+			}
+			writeReading(out, reading);
+			previousGroupId = reading.getGroupId();
+		}
+	}
+
+	private static void writeReading(Writer out, DeviceManager.DeviceReading reading) {
+		out.writeString(reading.getDeviceId());
+		out.writeDouble(reading.getValue());
+		out.writeLong(reading.getTimestamp());
+	}
+
+	private static List<DeviceManager.DeviceReading> readReadings(Reader in) {
+		int size = in.readSize(18);
+		List<DeviceManager.DeviceReading> readings = new ArrayList<>(size);
+		String groupId = null;
+		for(int i = 0; i < size; i++) {
+			if(in.readBoolean()) {
+				groupId = in.readString();
+			}
+			readings.add(readReading(in, groupId));
+		}
+		return readings;
+	}
+
+	private static DeviceManager.DeviceReading readReading(Reader in, String groupId) {
+		return new DeviceManager.DeviceReading(groupId, in.readString(), in.readDouble(), in.readLong());
+	}
+
+	private static void writeUpdates(Writer out, List<DashboardManager.DeviceUpdate> updates) {
+		out.writeVarInt(updates.size());
+		String previousGroupId = null;
+		for(DashboardManager.DeviceUpdate update : updates) {
+			boolean newGroup = !update.getGroupId().equals(previousGroupId);
+			out.writeBoolean(newGroup);
+			if(newGroup) {
+				out.writeString(update.getGroupId());
+			}
+			writeUpdate(out, update);
+			previousGroupId = update.getGroupId();
+		}
+	}
+
+	private static void writeUpdate(Writer out, DashboardManager.DeviceUpdate update) {
+		out.writeString(update.getDeviceId());
+		out.writeDouble(update.getValue());
+		Optional<Long> timestamp = update.getTimestamp();
+		out.writeBoolean(timestamp.isPresent());
+		if(timestamp.isPresent()) {
+			out.writeLong(timestamp.get());
+		}
+	}
+
+	private static List<DashboardManager.DeviceUpdate> readUpdates(Reader in) {
+		int size = in.readSize(11);
+		List<DashboardManager.DeviceUpdate> updates = new ArrayList<>(size);
+		String groupId = null;
+		for(int i = 0; i < size; i++) {
+			if(in.readBoolean()) {
+				groupId = in.readString();
+			}
+			updates.add(readUpdate(in, groupId));
+		}
+		return updates;
+	}
+
+	private static DashboardManager.DeviceUpdate readUpdate(Reader in, String groupId) {
+		return new DashboardManager.DeviceUpdate(groupId, in.readString(), in.readDouble(),
+				in.readBoolean() ? Optional.of(in.readLong()) : Optional.empty());
+	}
+
+	private static void writeGroupTopology(DeviceGroup.GroupTopology topology, Writer out) {
+		out.writeString(topology.getGroupId());
+		writeStrings(out, topology.getDeviceIds());
+		writeSeries(out, topology.getTimestamps(), topology.getValues());
+	}
+
+	private static DeviceGroup.GroupTopology readGroupTopology(Reader in) {
+		String groupId = in.readString();
+		List<String> deviceIds = readStringList(in);
+		long[] timestamps = readTimestamps(in);
+		return new DeviceGroup.GroupTopology(groupId, deviceIds, timestamps, readValues(in, timestamps.length));
+	}
+
+	private static void writeStrings(Writer out, Collection<String> strings) {
+		out.writeVarInt(strings.size());
+		for(String string : strings) {
+			out.writeString(string);
+		}
+	}
+
+	private static Set<String> readStrings(Reader in) {
+		int size = in.readSize(1);
+		Set<String> strings = new HashSet<>(size * 4 / 3 + 1);
+		for(int i = 0; i < size; i++) {
+			strings.add(in.readString());
+		}
+		return strings;
+	}
+
+	private static List<String> readStringList(Reader in) {
+		int size = in.readSize(1);
+		List<String> strings = new ArrayList<>(size);
+		for(int i = 0; i < size; i++) {
+			strings.add(in.readString());
+		}
+		return strings;
+	}
+
+	/**
+	 * Timestamps as deltas to the previous one, followed by the values.
+	 */
+	private static void writeSeries(Writer out, long[] timestamps, double[] values) {
+		out.writeVarInt(timestamps.length);
+		long previous = 0;
+		for(long timestamp : timestamps) {
+			out.writeZigZagLong(timestamp - previous);
+			previous = timestamp;
+		}
+		for(int i = 0; i < timestamps.length; i++) {
+			out.writeDouble(values[i]);
+		}
+	}
+
+	private static long[] readTimestamps(Reader in) {
+		long[] timestamps = new long[in.readSize(1)];
+		long previous = 0;
+		for(int i = 0; i < timestamps.length; i++) {
+			previous += in.readZigZagLong();
+			timestamps[i] = previous;
+		}
+		return timestamps;
+	}
+
+	private static double[] readValues(Reader in, int size) {
+		in.require(size * 8L);
+		double[] values = new double[size];
+		for(int i = 0; i < size; i++) {
+			values[i] = in.readDouble();
+		}
+		return values;
+	}
+
+	private static void writeTemperatures(Writer out, Map<String, DeviceGroup.TemperatureReading> temperatures) {
+		out.writeVarInt(temperatures.size());
+		for(Map.Entry<String, DeviceGroup.TemperatureReading> entry : temperatures.entrySet()) {
+			out.writeString(entry.getKey());
+			DeviceGroup.TemperatureReading reading = entry.getValue();
+			if(reading instanceof DeviceGroup.Temperature) {
+				out.writeByte(TEMPERATURE);
+				out.writeDouble(((DeviceGroup.Temperature) reading).getValue());
+			} else if(reading instanceof DeviceGroup.TemperatureNotAvailable) {
+				out.writeByte(TEMPERATURE_NOT_AVAILABLE);
+			} else if(reading instanceof DeviceGroup.DeviceNotAvailable) {
+				out.writeByte(DEVICE_NOT_AVAILABLE);
+			} else if(reading instanceof DeviceGroup.DeviceTimeout) {
+				out.writeByte(DEVICE_TIMEOUT);
+			} else {
+				throw new IllegalArgumentException("Unknown temperature reading " + reading.getClass().getName());
+			}
+		}
+	}
+
+	private static Map<String, DeviceGroup.TemperatureReading> readTemperatures(Reader in) {
+		int size = in.readSize(2);
+		Map<String, DeviceGroup.TemperatureReading> temperatures = new HashMap<>(size * 4 / 3 + 1);
+		for(int i = 0; i < size; i++) {
+			String deviceId = in.readString();
+			byte kind = in.readByte();
+			switch(kind) {
+				case TEMPERATURE:
+					temperatures.put(deviceId, new DeviceGroup.Temperature(in.readDouble()));
+					break;
+				case TEMPERATURE_NOT_AVAILABLE:
+					temperatures.put(deviceId, TEMPERATURE_NOT_AVAILABLE_READING);
+					break;
+				case DEVICE_NOT_AVAILABLE:
+					temperatures.put(deviceId, DEVICE_NOT_AVAILABLE_READING);
+					break;
+				case DEVICE_TIMEOUT:
+					temperatures.put(deviceId, DEVICE_TIMEOUT_READING);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown temperature reading kind " + kind);
+			}
+		}
+		return temperatures;
+	}
+
+	private static void writeCompletionPolicy(Writer out, DeviceGroup.CompletionPolicy policy) {
+		out.writeByte((byte) policy.getKind().ordinal());
+		switch(policy.getKind()) {
+			case QUORUM:
+				out.writeDouble(policy.getQuorum());
+				break;
+			case INCREMENTAL:
+				out.writeVarInt(policy.getChunkSize());
+				break;
+			case SOFT_DEADLINE:
+				out.writeVarLong(policy.getSoftDeadline().toNanos());
+				break;
+			default:
+				break;
+		}
+	}
+
+	private static void writeAlertRule(Writer out, AlertRule rule) {
+		out.writeString(rule.getRuleId());
+		out.writeByte((byte) rule.getKind().ordinal());
+		out.writeDouble(rule.getThreshold());
+		out.writeVarInt(rule.getN());
+		out.writeVarInt(rule.getM());
+	}
+
+	private static AlertRule readAlertRule(Reader in) {
+		String ruleId = in.readString();
+		byte kind = in.readByte();
+		if(kind < 0 || kind >= AlertRule.Kind.values().length) {
+			throw new IllegalArgumentException("Unknown alert rule kind " + kind);
+		}
+		return AlertRule.of(ruleId, AlertRule.Kind.values()[kind], in.readDouble(), in.readVarInt(), in.readVarInt());
+	}
+
+	private static String emptyToNull(String value) {
+		return value.isEmpty() ? null : value;
+	}
+
+	/**
+	 * Writes an optional timeout as its nanoseconds, 0 if there is none.
+	 */
+	private static void writeTimeout(Writer out, Optional<FiniteDuration> timeout) {
+		out.writeVarLong(timeout.map(FiniteDuration::toNanos).orElse(0L));
+	}
+
+	private static FiniteDuration readTimeout(Reader in) {
+		long nanos = in.readVarLong();
+		return nanos == 0L ? null : FiniteDuration.create(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	private static DeviceGroup.CompletionPolicy readCompletionPolicy(Reader in) {
+		byte kind = in.readByte();
+		switch(kind) {
+			case 0:
+				return DeviceGroup.CompletionPolicy.all();
+			case 1:
+				return DeviceGroup.CompletionPolicy.quorum(in.readDouble());
+			case 2:
+				return DeviceGroup.CompletionPolicy.incremental(in.readVarInt());
+			case 3:
+				return DeviceGroup.CompletionPolicy.softDeadline(FiniteDuration.create(in.readVarLong(), TimeUnit.NANOSECONDS));
+			default:
+				throw new IllegalArgumentException("Unknown completion policy kind " + kind);
+		}
+	}
+
+	private static void writeStatistics(Writer out, TemperatureStatistics statistics) {
+		out.writeDouble(statistics.getRelativeAccuracy());
+		out.writeVarLong(statistics.getCount());
+		out.writeDouble(statistics.getMin());
+		out.writeDouble(statistics.getMax());
+		out.writeDouble(statistics.isEmpty() ? 0.0 : statistics.getMean());
+		out.writeDouble(statistics.getSecondMoment());
+		out.writeVarLong(statistics.getZeroCount());
+		writeBuckets(out, statistics.getBucketOffset(true), statistics.getBucketCounts(true));
+		writeBuckets(out, statistics.getBucketOffset(false), statistics.getBucketCounts(false));
+	}
+
+	/**
+	 * Only the range between the first and last non-empty bucket, each count as a variable-length value.
+	 */
+	private static void writeBuckets(Writer out, int offset, long[] counts) {
+		int from = 0;
+		int to = counts.length;
+		while(from < to && counts[from] == 0) {
+			from++;
+		}
+		while(to > from && counts[to - 1] == 0) {
+			to--;
+		}
+		out.writeZigZagLong(offset + from);
+		out.writeVarInt(to - from);
+		for(int i = from; i < to; i++) {
+			out.writeVarLong(counts[i]);
+		}
+	}
+
+	private static TemperatureStatistics readStatistics(Reader in) {
+		double relativeAccuracy = in.readDouble();
+		long count = in.readVarLong();
+		double min = in.readDouble();
+		double max = in.readDouble();
+		double mean = in.readDouble();
+		double m2 = in.readDouble();
+		long zeroCount = in.readVarLong();
+		int positiveOffset = (int) in.readZigZagLong();
+		long[] positiveCounts = readBucketCounts(in);
+		int negativeOffset = (int) in.readZigZagLong();
+		long[] negativeCounts = readBucketCounts(in);
+		return TemperatureStatistics.restore(relativeAccuracy, count, min, max, mean, m2, zeroCount,
+				positiveOffset, positiveCounts, negativeOffset, negativeCounts);
+	}
+
+	private static long[] readBucketCounts(Reader in) {
+		long[] counts = new long[in.readSize(1)];
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = in.readVarLong();
+		}
+		return counts;
+	}
+
+	private void writeActorRef(Writer out, ActorRef ref) {
+		out.writeString(ref == null ? "" : Serialization.serializedActorPath(ref));
+	}
+
+	private ActorRef readActorRef(Reader in) {
+		String path = in.readString();
+		return path.isEmpty() ? null : system.provider().resolveActorRef(path);
+	}
+
+	private void writeOptionalPayload(Writer out, Object message) {
+		out.writeBoolean(message != null);
+		if(message != null) {
+			writePayload(out, message);
+		}
+	}
+
+	private Object readOptionalPayload(Reader in) {
+		return in.readBoolean() ? readPayload(in) : null;
+	}
+
+	/**
+	 * A message wrapped in another one, as serializer id, manifest and bytes of the serializer bound to it.
+	 */
+	private void writePayload(Writer out, Object message) {
+		Serializer serializer = serialization().findSerializerFor(message);
+		String manifest = "";
+		if(serializer instanceof SerializerWithStringManifest) {
+			manifest = ((SerializerWithStringManifest) serializer).manifest(message);
+		} else if(serializer.includeManifest()) {
+			manifest = message.getClass().getName();
+		}
+		out.writeVarInt(serializer.identifier());
+		out.writeString(manifest);
+		out.writeBytes(serializer.toBinary(message));
+	}
+
+	private Object readPayload(Reader in) {
+		int serializerId = in.readVarInt();
+		String manifest = in.readString();
+		return serialization().deserialize(in.readBytes(), serializerId, manifest).get();
+	}
+
+	private Serialization serialization() {
+		if(serialization == null) {
+			serialization = SerializationExtension.lookup().get(system);
+		}
+		return serialization;
+	}
+
+	private interface Encoder<T> {
+		void write(T message, Writer out);
+	}
+
+	private interface Decoder {
+		Object read(Reader in);
+	}
+
+	private static final class Codec {
+		private final String manifest;
+		private final Encoder<Object> encoder;
+		private final Decoder decoder;
+
+		private Codec(String manifest, Encoder<Object> encoder, Decoder decoder) {
+			this.manifest = manifest;
+			this.encoder = encoder;
+			this.decoder = decoder;
+		}
+	}
+
+	/**
+	 * Big-endian fixed-width values and unsigned LEB128 variable-length values into a growing array.
+	 */
+	private static final class Writer {
+		private byte[] bytes = new byte[64];
+		private int size;
+
+		private void ensure(int more) {
+			if(size + more > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + more));
+			}
+		}
+
+		private void writeByte(byte value) {
+			ensure(1);
+			bytes[size++] = value;
+		}
+
+		private void writeBoolean(boolean value) {
+			writeByte(value ? (byte) 1 : (byte) 0);
+		}
+
+		private void writeVarInt(int value) {
+			writeVarLong(value & 0xffffffffL);
+		}
+
+		private void writeVarLong(long value) {
+			ensure(10);
+			while((value & ~0x7fL) != 0) {
+				bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			bytes[size++] = (byte) value;
+		}
+
+		private void writeZigZagLong(long value) {
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+
+		private void writeLong(long value) {
+			ensure(8);
+			for(int shift = 56; shift >= 0; shift -= 8) {
+				bytes[size++] = (byte) (value >>> shift);
+			}
+		}
+
+		private void writeDouble(double value) {
+			writeLong(Double.doubleToRawLongBits(value));
+		}
+
+		private void writeString(String value) {
+			writeBytes(value.getBytes(StandardCharsets.UTF_8));
+		}
+
+		private void writeBytes(byte[] value) {
+			writeVarInt(value.length);
+			ensure(value.length);
+			System.arraycopy(value, 0, bytes, size, value.length);
+			size += value.length;
+		}
+
+		private byte[] toByteArray() {
+			return Arrays.copyOf(bytes, size);
+		}
+	}
+
+	private static final class Reader {
+		private final byte[] bytes;
+		private int position;
+
+		private Reader(byte[] bytes, int position) {
+			this.bytes = bytes;
+			this.position = position;
+		}
+
+		private boolean hasRemaining() {
+			return position < bytes.length;
+		}
+
+		private void require(long length) {
+			if(length < 0 || length > bytes.length - position) {
+				throw new IllegalArgumentException("Truncated: " + length + " bytes needed at " + position + " of " + bytes.length);
+			}
+		}
+
+		/**
+		 * Reads the size of a collection whose elements take at least {@code minBytes} each.
+		 */
+		private int readSize(int minBytes) {
+			long size = readVarLong();
+			if(size < 0 || size > (bytes.length - position) / minBytes) {
+				throw new IllegalArgumentException("Size " + size + " at " + position + " exceeds the remaining " + (bytes.length - position) + " bytes");
+			}
+			return (int) size;
+		}
+
+		private byte readByte() {
+			require(1);
+			return bytes[position++];
+		}
+
+		private boolean readBoolean() {
+			return readByte() != 0;
+		}
+
+		private int readVarInt() {
+			return (int) readVarLong();
+		}
+
+		private long readVarLong() {
+			long value = 0;
+			for(int shift = 0; ; shift += 7) {
+				if(shift > 63) {
+					throw new IllegalArgumentException("Variable-length value longer than 10 bytes at " + position);
+				}
+				byte b = readByte();
+				value |= (long) (b & 0x7f) << shift;
+				if(b >= 0) {
+					return value;
+				}
+			}
+		}
+
+		private long readZigZagLong() {
+			long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		private long readLong() {
+			require(8);
+			long value = 0;
+			for(int i = 0; i < 8; i++) {
+				value = value << 8 | (bytes[position++] & 0xff);
+			}
+			return value;
+		}
+
+		private double readDouble() {
+			return Double.longBitsToDouble(readLong());
+		}
+
+		private String readString() {
+			int length = readSize(1);
+			String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+
+		private byte[] readBytes() {
+			int length = readSize(1);
+			byte[] value = Arrays.copyOfRange(bytes, position, position + length);
+			position += length;
+			return value;
+		}
+	}
+}
@@ -0,0 +1,415 @@
+package mr.cell.akka.iot;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+import akka.dispatch.MessageQueue;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of the actor tree: devices and readings per group, {@link DeviceGroupQuery} latencies and timeouts,
+ * mailbox depths of the coordination tier and actor starts and stops. Actors record into counters and an HdrHistogram
+ * {@link Recorder}, none of which allocate once warmed up. Every {@code iot.metrics.snapshot-interval} the counters
+ * are rolled into a {@link MetricsSnapshot}, which is handed to the configured {@link MetricsReporter} and backs the
+ * rates of the {@link IoTMetricsMXBean}.
+ */
+public final class IoTMetrics implements Extension, IoTMetricsMXBean {
+
+	public static final Id ID = new Id();
+
+	public enum ActorKind { DEVICE, GROUP, QUERY }
+
+	private static final ActorKind[] ACTOR_KINDS = ActorKind.values();
+
+	private final ExtendedActorSystem system;
+	private final LoggingAdapter log;
+	private final MetricsSettings settings;
+	private final ConcurrentMap<String, GroupMetrics> groups = new ConcurrentHashMap<>();
+	private final ConcurrentMap<ActorRef, MessageQueue> mailboxes = new ConcurrentHashMap<>();
+	private final LongAdder[] started = adders(ACTOR_KINDS.length);
+	private final LongAdder[] stopped = adders(ACTOR_KINDS.length);
+	private final Recorder queryLatency;
+	private final long highestQueryLatencyMicros;
+	private final LongAdder queriedDevices = new LongAdder();
+	private final LongAdder timedOutDevices = new LongAdder();
+	private final LongAdder rejectedReadings = new LongAdder();
+	private final LongAdder unconfirmedReadings = new LongAdder();
+	private final MetricsReporter reporter;
+	private final Cancellable snapshotTimer;
+	private ObjectName objectName;
+
+	// Totals of the previous snapshot, guarded by this.
+	private Histogram intervalLatency;
+	private long lastSnapshotNanos;
+	private final long[] lastStarted = new long[ACTOR_KINDS.length];
+	private final long[] lastStopped = new long[ACTOR_KINDS.length];
+	private long lastQueried;
+	private long lastTimedOut;
+	private volatile MetricsSnapshot latest;
+	private volatile long restoredDevices = -1;
+	private volatile long timeToReadyMillis = -1;
+
+	private IoTMetrics(ExtendedActorSystem system) {
+		this.system = system;
+		this.log = Logging.getLogger(system, this);
+		this.settings = MetricsSettings.fromConfig(system.settings().config());
+		this.highestQueryLatencyMicros = Math.max(2, settings.getHighestQueryLatency().toMicros());
+		this.queryLatency = new Recorder(highestQueryLatencyMicros, 3);
+		this.lastSnapshotNanos = System.nanoTime();
+		this.latest = snapshot();
+		this.reporter = createReporter(settings.getReporter());
+		this.snapshotTimer = system.scheduler().schedule(settings.getSnapshotInterval(), settings.getSnapshotInterval(),
+				this::scheduledSnapshot, system.dispatcher());
+		if(settings.isJmx()) {
+			registerMBean();
+		}
+		system.registerOnTermination(this::close);
+	}
+
+	public static IoTMetrics get(ActorSystem system) {
+		return ID.get(system);
+	}
+
+	/**
+	 * Metrics of {@code groupId}, created on first use. Callers keep the returned instance, so recording a reading
+	 * is a counter increment without a lookup.
+	 */
+	public GroupMetrics group(String groupId) {
+		return groups.computeIfAbsent(groupId, id -> new GroupMetrics());
+	}
+
+	/**
+	 * Forgets the metrics of a stopped group, unless another group with its id registered since.
+	 */
+	public void removeGroup(String groupId, GroupMetrics metrics) {
+		groups.remove(groupId, metrics);
+	}
+
+	public void actorStarted(ActorKind kind) {
+		started[kind.ordinal()].increment();
+	}
+
+	public void actorStopped(ActorKind kind) {
+		stopped[kind.ordinal()].increment();
+	}
+
+	/**
+	 * Records a completed query of {@code queried} devices, {@code timedOut} of which were reported as DeviceTimeout.
+	 */
+	public void recordQuery(long latencyNanos, int queried, int timedOut) {
+		queryLatency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(latencyNanos), highestQueryLatencyMicros));
+		queriedDevices.add(queried);
+		timedOutDevices.add(timedOut);
+	}
+
+	/**
+	 * Records the readings of an ingestion batch that were rejected or left unconfirmed.
+	 */
+	public void recordIngestionFailures(int rejected, int unconfirmed) {
+		rejectedReadings.add(rejected);
+		unconfirmedReadings.add(unconfirmed);
+	}
+
+	/**
+	 * Records that a DeviceManager restored {@code devices} devices from its topology snapshot and was ready
+	 * {@code millis} after it started reading it.
+	 */
+	public void topologyRestored(long devices, long millis) {
+		restoredDevices = devices;
+		timeToReadyMillis = millis;
+	}
+
+	void registerMailbox(ActorRef owner, MessageQueue queue) {
+		mailboxes.put(owner, queue);
+	}
+
+	void unregisterMailbox(ActorRef owner) {
+		mailboxes.remove(owner);
+	}
+
+	public MetricsSnapshot getLatestSnapshot() {
+		return latest;
+	}
+
+	/**
+	 * Rolls everything recorded since the previous snapshot into a new one, which becomes the latest.
+	 */
+	public synchronized MetricsSnapshot snapshot() {
+		long now = System.nanoTime();
+		double seconds = Math.max(1, now - lastSnapshotNanos) / 1e9;
+		lastSnapshotNanos = now;
+
+		Map<String, MetricsSnapshot.Group> groupSnapshots = new TreeMap<>();
+		for(Map.Entry<String, GroupMetrics> entry : groups.entrySet()) {
+			GroupMetrics group = entry.getValue();
+			long readings = group.readings.sum();
+			groupSnapshots.put(entry.getKey(), new MetricsSnapshot.Group(group.devices, readings, (readings - group.lastReadings) / seconds));
+			group.lastReadings = readings;
+		}
+
+		intervalLatency = queryLatency.getIntervalHistogram(intervalLatency);
+		long[] latencies = {
+				intervalLatency.getValueAtPercentile(50), intervalLatency.getValueAtPercentile(90),
+				intervalLatency.getValueAtPercentile(99), intervalLatency.getValueAtPercentile(99.9),
+				intervalLatency.getMaxValue()
+		};
+		long queried = queriedDevices.sum();
+		long timedOut = timedOutDevices.sum();
+		double timeoutRatio = queried > lastQueried ? (double) (timedOut - lastTimedOut) / (queried - lastQueried) : 0.0;
+		lastQueried = queried;
+		lastTimedOut = timedOut;
+
+		Map<String, Long> startedTotals = new TreeMap<>();
+		Map<String, Long> stoppedTotals = new TreeMap<>();
+		Map<String, Double> startRates = new TreeMap<>();
+		Map<String, Double> stopRates = new TreeMap<>();
+		for(ActorKind kind : ACTOR_KINDS) {
+			int i = kind.ordinal();
+			long starts = started[i].sum();
+			long stops = stopped[i].sum();
+			startedTotals.put(name(kind), starts);
+			stoppedTotals.put(name(kind), stops);
+			startRates.put(name(kind), (starts - lastStarted[i]) / seconds);
+			stopRates.put(name(kind), (stops - lastStopped[i]) / seconds);
+			lastStarted[i] = starts;
+			lastStopped[i] = stops;
+		}
+
+		latest = new MetricsSnapshot(System.currentTimeMillis(), (long) (seconds * 1000), groupSnapshots,
+				intervalLatency.getTotalCount(), latencies, timeoutRatio, getMailboxDepths(), getMailboxOverflowCounts(),
+				startedTotals, stoppedTotals, startRates, stopRates);
+		return latest;
+	}
+
+	private void scheduledSnapshot() {
+		MetricsSnapshot snapshot = snapshot();
+		if(reporter != null) {
+			try {
+				reporter.report(snapshot);
+			} catch(RuntimeException e) {
+				log.error(e, "Metrics reporter {} failed", settings.getReporter());
+			}
+		}
+	}
+
+	@Override
+	public Map<String, Integer> getDevicesPerGroup() {
+		Map<String, Integer> devices = new TreeMap<>();
+		groups.forEach((groupId, group) -> devices.put(groupId, group.devices));
+		return devices;
+	}
+
+	@Override
+	public Map<String, Long> getReadingsPerGroup() {
+		Map<String, Long> readings = new TreeMap<>();
+		groups.forEach((groupId, group) -> readings.put(groupId, group.readings.sum()));
+		return readings;
+	}
+
+	@Override
+	public Map<String, Double> getReadingsPerSecondPerGroup() {
+		Map<String, Double> rates = new TreeMap<>();
+		latest.getGroups().forEach((groupId, group) -> rates.put(groupId, group.getReadingsPerSecond()));
+		return rates;
+	}
+
+	@Override
+	public long getQueries() {
+		return latest.getQueries();
+	}
+
+	@Override
+	public double getQueryLatencyP50Millis() {
+		return latest.getQueryLatencyP50Micros() / 1000.0;
+	}
+
+	@Override
+	public double getQueryLatencyP90Millis() {
+		return latest.getQueryLatencyP90Micros() / 1000.0;
+	}
+
+	@Override
+	public double getQueryLatencyP99Millis() {
+		return latest.getQueryLatencyP99Micros() / 1000.0;
+	}
+
+	@Override
+	public double getQueryLatencyP999Millis() {
+		return latest.getQueryLatencyP999Micros() / 1000.0;
+	}
+
+	@Override
+	public double getQueryLatencyMaxMillis() {
+		return latest.getQueryLatencyMaxMicros() / 1000.0;
+	}
+
+	@Override
+	public double getQueryTimeoutRatio() {
+		return latest.getTimeoutRatio();
+	}
+
+	@Override
+	public Map<String, Integer> getMailboxDepths() {
+		Map<String, Integer> depths = new TreeMap<>();
+		mailboxes.forEach((owner, queue) -> depths.put(owner.path().toStringWithoutAddress(), queue.numberOfMessages()));
+		return depths;
+	}
+
+	@Override
+	public Map<String, Long> getMailboxOverflowCounts() {
+		return MailboxOverflow.get(system).getOverflowCounts();
+	}
+
+	@Override
+	public Map<String, Long> getActorsStarted() {
+		return totals(started);
+	}
+
+	@Override
+	public Map<String, Long> getActorsStopped() {
+		return totals(stopped);
+	}
+
+	@Override
+	public Map<String, Double> getActorStartsPerSecond() {
+		return latest.getActorStartsPerSecond();
+	}
+
+	@Override
+	public Map<String, Double> getActorStopsPerSecond() {
+		return latest.getActorStopsPerSecond();
+	}
+
+	@Override
+	public long getRejectedReadings() {
+		return rejectedReadings.sum();
+	}
+
+	@Override
+	public long getUnconfirmedReadings() {
+		return unconfirmedReadings.sum();
+	}
+
+	@Override
+	public long getRestoredDevices() {
+		return restoredDevices;
+	}
+
+	@Override
+	public long getTimeToReadyMillis() {
+		return timeToReadyMillis;
+	}
+
+	private MetricsReporter createReporter(String className) {
+		if(className.isEmpty()) {
+			return null;
+		}
+		try {
+			return Class.forName(className, true, system.dynamicAccess().classLoader())
+					.asSubclass(MetricsReporter.class)
+					.getConstructor(ActorSystem.class)
+					.newInstance(system);
+		} catch(ReflectiveOperationException | ClassCastException e) {
+			throw new IllegalArgumentException("Cannot create metrics reporter " + className, e);
+		}
+	}
+
+	private void registerMBean() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName("mr.cell.akka.iot:type=IoTMetrics,system=" + system.name());
+			server.registerMBean(this, name);
+			objectName = name;
+		} catch(InstanceAlreadyExistsException e) {
+			log.warning("Not registering IoTMetrics MBean, another actor system named {} registered one", system.name());
+		} catch(JMException e) {
+			log.error(e, "Could not register IoTMetrics MBean");
+		}
+	}
+
+	private void close() {
+		snapshotTimer.cancel();
+		if(objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch(JMException e) {
+				log.warning("Could not unregister IoTMetrics MBean: {}", e.getMessage());
+			}
+		}
+	}
+
+	private static Map<String, Long> totals(LongAdder[] adders) {
+		Map<String, Long> totals = new TreeMap<>();
+		for(ActorKind kind : ACTOR_KINDS) {
+			totals.put(name(kind), adders[kind.ordinal()].sum());
+		}
+		return totals;
+	}
+
+	private static String name(ActorKind kind) {
+		return kind.name().toLowerCase(Locale.ROOT);
+	}
+
+	private static LongAdder[] adders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+		for(int i = 0; i < count; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	public static final class GroupMetrics {
+
+		private final LongAdder readings = new LongAdder();
+		private volatile int devices;
+		// Guarded by the IoTMetrics instance.
+		private long lastReadings;
+
+		GroupMetrics() {
+		}
+
+		public void recordReading() {
+			readings.increment();
+		}
+
+		public void setDevices(int devices) {
+			this.devices = devices;
+		}
+	}
+
+	public static final class Id extends AbstractExtensionId<IoTMetrics> implements ExtensionIdProvider {
+
+		private Id() {
+		}
+
+		@Override
+		public Id lookup() {
+			return ID;
+		}
+
+		@Override
+		public IoTMetrics createExtension(ExtendedActorSystem system) {
+			return new IoTMetrics(system);
+		}
+	}
+}
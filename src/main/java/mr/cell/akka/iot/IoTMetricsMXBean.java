@@ -0,0 +1,62 @@
+package mr.cell.akka.iot;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link IoTMetrics}, registered as {@code mr.cell.akka.iot:type=IoTMetrics,system=<actor system name>}.
+ * Rates, query latencies and the timeout ratio are those of the latest snapshot; the other values are current.
+ */
+public interface IoTMetricsMXBean {
+
+	Map<String, Integer> getDevicesPerGroup();
+
+	Map<String, Long> getReadingsPerGroup();
+
+	Map<String, Double> getReadingsPerSecondPerGroup();
+
+	long getQueries();
+
+	double getQueryLatencyP50Millis();
+
+	double getQueryLatencyP90Millis();
+
+	double getQueryLatencyP99Millis();
+
+	double getQueryLatencyP999Millis();
+
+	double getQueryLatencyMaxMillis();
+
+	double getQueryTimeoutRatio();
+
+	Map<String, Integer> getMailboxDepths();
+
+	Map<String, Long> getMailboxOverflowCounts();
+
+	Map<String, Long> getActorsStarted();
+
+	Map<String, Long> getActorsStopped();
+
+	Map<String, Double> getActorStartsPerSecond();
+
+	Map<String, Double> getActorStopsPerSecond();
+
+	/**
+	 * Readings received over TCP that were rejected, because their device was not tracked or its mailbox was full.
+	 */
+	long getRejectedReadings();
+
+	/**
+	 * Readings received over TCP whose group did not acknowledge them in time.
+	 */
+	long getUnconfirmedReadings();
+
+	/**
+	 * Devices restored from the topology snapshot at startup; -1 if there was none.
+	 */
+	long getRestoredDevices();
+
+	/**
+	 * Time from reading the topology snapshot until every group restored its devices; -1 if there was none.
+	 */
+	long getTimeToReadyMillis();
+}
@@ -4,10 +4,13 @@ import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.cluster.ClusterActorRefProvider;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.stream.javadsl.Tcp;
 
 import java.io.IOException;
+import java.util.concurrent.CompletionStage;
 
 /**
  * Created by U517779 on 2017-09-05.
@@ -18,6 +21,7 @@ public class IoTSupervisor extends AbstractActor {
 
 	private ActorRef deviceManager;
 	private ActorRef dashboardManager;
+	private CompletionStage<Tcp.ServerBinding> tcpBinding;
 
 	public static Props props() {
 		return Props.create(IoTSupervisor.class);
@@ -26,13 +30,34 @@ public class IoTSupervisor extends AbstractActor {
 	@Override
 	public void preStart() throws Exception {
 		log.info("IoT Application started");
+		// Created eagerly so the MXBean is registered before the first device or query records into it.
+		IoTMetrics.get(getContext().getSystem());
 
-		deviceManager = getContext().actorOf(Props.create(DeviceManager.class), "device-manager");
-		dashboardManager = getContext().actorOf(Props.create(DashboardManager.class), "dashboard-manager");
+		if(getContext().getSystem().settings().ProviderClass().equals(ClusterActorRefProvider.class.getName())) {
+			log.info("Running device groups with cluster sharding");
+			deviceManager = DeviceGroupSharding.start(getContext().getSystem());
+		} else {
+			deviceManager = getContext().actorOf(DeviceManager.props(), DashboardManager.DEVICE_MANAGER);
+		}
+		dashboardManager = getContext().actorOf(DashboardManager.props(deviceManager), "dashboard-manager");
+		if(getContext().getSystem().settings().config().getBoolean("iot.tcp.enabled")) {
+			tcpBinding = TcpIngestionEndpoint.bind(getContext().getSystem(), deviceManager);
+			tcpBinding.whenComplete((binding, failure) -> {
+				if(failure != null) {
+					log.error(failure, "TCP ingestion endpoint failed to bind");
+				} else {
+					log.info("TCP ingestion endpoint listening on {}", binding.localAddress());
+				}
+			});
+		}
 	}
 
 	@Override
 	public void postStop() throws Exception {
+		if(tcpBinding != null) {
+			// Also runs before a restart, which binds again.
+			tcpBinding.thenAccept(Tcp.ServerBinding::unbind);
+		}
 		log.info("IoT Application stopped");
 	}
 
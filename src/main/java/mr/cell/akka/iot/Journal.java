@@ -0,0 +1,324 @@
+package mr.cell.akka.iot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of temperature readings for one device group, stored in memory-mapped segment files
+ * named after the first sequence number they hold. A record is
+ * {@code [int length][int crc][long seqNr][short idLength][id bytes][long timestamp][double value]}, or the same
+ * without timestamp and value for a device registration, where {@code crc} is the CRC-32 of everything after it.
+ * The length is written last, so a zero length marks the end of the log even after a crash in the middle of an
+ * append. Replay stops at the first record of a segment whose length, id length or checksum does not hold, and
+ * appending after a restart overwrites the log from there.
+ */
+public final class Journal implements Closeable {
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final int REGISTRATION_BYTES = 4 + 8 + 2;
+	private static final int READING_BYTES = REGISTRATION_BYTES + 8 + 8;
+
+	private final Path directory;
+	private final int segmentSize;
+	private final Map<String, byte[]> encodedDeviceIds = new HashMap<>();
+
+	private final CRC32 crc = new CRC32();
+	// Segments filled since the last flush, forced to disk and closed by the next one.
+	private final List<Segment> rolled = new ArrayList<>();
+
+	private Segment segment;
+	private int recordStart;
+	private long nextSeqNr;
+	private boolean dirty;
+
+	public interface ReplayHandler {
+		void onReading(long seqNr, String deviceId, long timestamp, double value);
+
+		default void onRegistration(long seqNr, String deviceId) { }
+	}
+
+	private Journal(Path directory, int segmentSize, long nextSeqNr) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.nextSeqNr = nextSeqNr;
+	}
+
+	/**
+	 * Opens the journal for appending. Appends continue in the newest segment if it ends right before
+	 * {@code nextSeqNr}, and start a new segment at {@code nextSeqNr} otherwise.
+	 */
+	public static Journal open(Path directory, int segmentSize, long nextSeqNr) throws IOException {
+		Files.createDirectories(directory);
+		Journal journal = new Journal(directory, segmentSize, nextSeqNr);
+		if(!journal.reopenLastSegment()) {
+			journal.openSegment();
+		}
+		return journal;
+	}
+
+	public long append(String deviceId, long timestamp, double value) throws IOException {
+		appendHeader(deviceId, READING_BYTES);
+		segment.buffer.putLong(timestamp);
+		segment.buffer.putDouble(value);
+		return commitRecord();
+	}
+
+	public long appendRegistration(String deviceId) throws IOException {
+		appendHeader(deviceId, REGISTRATION_BYTES);
+		return commitRecord();
+	}
+
+	private void appendHeader(String deviceId, int fixedBytes) throws IOException {
+		byte[] id = encodedDeviceIds.computeIfAbsent(deviceId, key -> key.getBytes(StandardCharsets.UTF_8));
+		int length = fixedBytes + id.length;
+		// Keep room for the zero length that terminates the segment.
+		if(segment.buffer.remaining() < 4 + length + 4) {
+			if(4 + length + 4 > segmentSize) {
+				throw new IllegalArgumentException("Record for " + deviceId + " does not fit in a journal segment");
+			}
+			if(dirty) {
+				rolled.add(segment);
+			} else {
+				segment.close();
+			}
+			openSegment();
+		}
+
+		recordStart = segment.buffer.position();
+		segment.buffer.position(recordStart + 8);
+		segment.buffer.putLong(nextSeqNr);
+		segment.buffer.putShort((short) id.length);
+		segment.buffer.put(id);
+	}
+
+	private long commitRecord() {
+		MappedByteBuffer buffer = segment.buffer;
+		int end = buffer.position();
+		ByteBuffer body = buffer.duplicate();
+		body.position(recordStart + 8);
+		body.limit(end);
+		crc.reset();
+		crc.update(body);
+		buffer.putInt(recordStart + 4, (int) crc.getValue());
+		// A reopened segment may hold the rest of a torn record here, which must not pass for the next record.
+		buffer.putInt(end, 0);
+		buffer.putInt(recordStart, end - recordStart - 4);
+		dirty = true;
+		return nextSeqNr++;
+	}
+
+	/**
+	 * Forces appended records to disk on the calling thread.
+	 */
+	public void flush() throws IOException {
+		startFlush().force();
+	}
+
+	/**
+	 * Takes the segments with records appended since the previous flush. The returned {@link Flush} forces them
+	 * to disk and may run on another thread while appends go on, so a group commit does not block the appender.
+	 */
+	public Flush startFlush() {
+		List<Segment> segments = new ArrayList<>(rolled);
+		rolled.clear();
+		if(dirty) {
+			segments.add(segment);
+			dirty = false;
+		}
+		return new Flush(segments, segment);
+	}
+
+	public long lastSeqNr() {
+		return nextSeqNr - 1;
+	}
+
+	/**
+	 * Deletes segments whose records all have a sequence number of at most {@code seqNr}.
+	 */
+	public void deleteUpTo(long seqNr) throws IOException {
+		List<Long> firstSeqNrs = segmentFirstSeqNrs(directory);
+		for(int i = 0; i + 1 < firstSeqNrs.size(); i++) {
+			if(firstSeqNrs.get(i + 1) <= seqNr + 1) {
+				Files.deleteIfExists(segmentPath(directory, firstSeqNrs.get(i)));
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		segment.close();
+	}
+
+	/**
+	 * Replays every record with a sequence number of at least {@code fromSeqNr} and returns the highest
+	 * sequence number found, or {@code fromSeqNr - 1} if there is none.
+	 */
+	public static long replay(Path directory, long fromSeqNr, ReplayHandler handler) throws IOException {
+		long lastSeqNr = fromSeqNr - 1;
+		if(!Files.isDirectory(directory)) {
+			return lastSeqNr;
+		}
+		List<Long> firstSeqNrs = segmentFirstSeqNrs(directory);
+		for(int i = 0; i < firstSeqNrs.size(); i++) {
+			if(i + 1 < firstSeqNrs.size() && firstSeqNrs.get(i + 1) <= fromSeqNr) {
+				continue;
+			}
+			try(FileChannel channel = FileChannel.open(segmentPath(directory, firstSeqNrs.get(i)), StandardOpenOption.READ)) {
+				ByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				lastSeqNr = Math.max(lastSeqNr, replaySegment(records, fromSeqNr, handler, new CRC32()));
+			}
+		}
+		return lastSeqNr;
+	}
+
+	/**
+	 * Replays the valid records at the start of {@code records} and leaves it positioned after the last of them.
+	 */
+	private static long replaySegment(ByteBuffer records, long fromSeqNr, ReplayHandler handler, CRC32 crc) {
+		long lastSeqNr = Long.MIN_VALUE;
+		byte[] id = new byte[256];
+		while(records.remaining() >= 4 + REGISTRATION_BYTES) {
+			int start = records.position();
+			int length = records.getInt();
+			if(length < REGISTRATION_BYTES || length > records.remaining()) {
+				records.position(start);
+				break;
+			}
+			int checksum = records.getInt();
+			ByteBuffer body = records.duplicate();
+			body.limit(start + 4 + length);
+			crc.reset();
+			crc.update(body);
+			long seqNr = records.getLong();
+			int idLength = records.getShort() & 0xffff;
+			boolean registration = length == REGISTRATION_BYTES + idLength;
+			if((int) crc.getValue() != checksum || !registration && length != READING_BYTES + idLength) {
+				records.position(start);
+				break;
+			}
+			if(id.length < idLength) {
+				id = new byte[idLength];
+			}
+			records.get(id, 0, idLength);
+			if(registration) {
+				if(seqNr >= fromSeqNr) {
+					handler.onRegistration(seqNr, new String(id, 0, idLength, StandardCharsets.UTF_8));
+				}
+			} else {
+				long timestamp = records.getLong();
+				double value = records.getDouble();
+				if(seqNr >= fromSeqNr) {
+					handler.onReading(seqNr, new String(id, 0, idLength, StandardCharsets.UTF_8), timestamp, value);
+				}
+			}
+			lastSeqNr = seqNr;
+		}
+		return lastSeqNr;
+	}
+
+	/**
+	 * Continues appending in the newest segment, after its last valid record, if that record is the one right
+	 * before {@code nextSeqNr}, so that a restarting group does not leave a mostly empty segment behind.
+	 */
+	private boolean reopenLastSegment() throws IOException {
+		List<Long> firstSeqNrs = segmentFirstSeqNrs(directory);
+		if(firstSeqNrs.isEmpty()) {
+			return false;
+		}
+		long firstSeqNr = firstSeqNrs.get(firstSeqNrs.size() - 1);
+		Path path = segmentPath(directory, firstSeqNr);
+		if(Files.size(path) != segmentSize) {
+			return false;
+		}
+		Segment last = new Segment(FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE), segmentSize);
+		long lastSeqNr = replaySegment(last.buffer, Long.MAX_VALUE, (seqNr, deviceId, timestamp, value) -> { }, crc);
+		boolean continues = lastSeqNr == Long.MIN_VALUE ? firstSeqNr == nextSeqNr : lastSeqNr + 1 == nextSeqNr;
+		if(!continues || last.buffer.remaining() < 4) {
+			last.close();
+			return false;
+		}
+		last.buffer.putInt(last.buffer.position(), 0);
+		segment = last;
+		return true;
+	}
+
+	private void openSegment() throws IOException {
+		segment = new Segment(FileChannel.open(segmentPath(directory, nextSeqNr),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE), segmentSize);
+	}
+
+	private static Path segmentPath(Path directory, long firstSeqNr) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSeqNr, SEGMENT_SUFFIX));
+	}
+
+	private static List<Long> segmentFirstSeqNrs(Path directory) throws IOException {
+		List<Long> firstSeqNrs = new ArrayList<>();
+		try(DirectoryStream<Path> segments = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for(Path segment : segments) {
+				String name = segment.getFileName().toString();
+				firstSeqNrs.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+			}
+		}
+		Collections.sort(firstSeqNrs);
+		return firstSeqNrs;
+	}
+
+	/**
+	 * Segments to be forced to disk, taken by {@link #startFlush()}.
+	 */
+	public static final class Flush {
+		private final List<Segment> segments;
+		private final Segment current;
+
+		private Flush(List<Segment> segments, Segment current) {
+			this.segments = segments;
+			this.current = current;
+		}
+
+		public boolean isEmpty() {
+			return segments.isEmpty();
+		}
+
+		/**
+		 * Forces the segments to disk and closes those the journal has moved on from.
+		 */
+		public void force() throws IOException {
+			for(Segment segment : segments) {
+				segment.buffer.force();
+				if(segment != current) {
+					segment.close();
+				}
+			}
+		}
+	}
+
+	private static final class Segment {
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+
+		private Segment(FileChannel channel, int size) throws IOException {
+			this.channel = channel;
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		private void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package mr.cell.akka.iot;
+
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+public final class JournalSettings {
+
+	private final boolean enabled;
+	private final Path directory;
+	private final int segmentSize;
+	private final FiniteDuration commitInterval;
+	private final int commitBatchSize;
+	private final FiniteDuration snapshotInterval;
+
+	public JournalSettings(boolean enabled, Path directory, int segmentSize, FiniteDuration commitInterval, int commitBatchSize,
+	                       FiniteDuration snapshotInterval) {
+		if(commitBatchSize < 1) {
+			throw new IllegalArgumentException("commit-batch-size must be positive, was " + commitBatchSize);
+		}
+		this.enabled = enabled;
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.commitInterval = commitInterval;
+		this.commitBatchSize = commitBatchSize;
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	public static JournalSettings fromConfig(Config config) {
+		Config journal = config.getConfig("iot.journal");
+		long segmentSize = journal.getBytes("segment-size");
+		if(segmentSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("segment-size must be below 2 GiB, was " + segmentSize);
+		}
+		return new JournalSettings(
+				journal.getBoolean("enabled"),
+				Paths.get(journal.getString("directory")),
+				(int) segmentSize,
+				DeviceSettings.durationOf(journal, "commit-interval"),
+				journal.getInt("commit-batch-size"),
+				DeviceSettings.durationOf(journal, "snapshot-interval"));
+	}
+
+	/**
+	 * Enables journaling into {@code directory}.
+	 */
+	public JournalSettings withDirectory(Path directory) {
+		return new JournalSettings(true, directory, segmentSize, commitInterval, commitBatchSize, snapshotInterval);
+	}
+
+	public JournalSettings withSegmentSize(int segmentSize) {
+		return new JournalSettings(enabled, directory, segmentSize, commitInterval, commitBatchSize, snapshotInterval);
+	}
+
+	public JournalSettings withCommit(FiniteDuration commitInterval, int commitBatchSize) {
+		return new JournalSettings(enabled, directory, segmentSize, commitInterval, commitBatchSize, snapshotInterval);
+	}
+
+	public JournalSettings withSnapshotInterval(FiniteDuration snapshotInterval) {
+		return new JournalSettings(enabled, directory, segmentSize, commitInterval, commitBatchSize, snapshotInterval);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	public int getSegmentSize() {
+		return segmentSize;
+	}
+
+	public FiniteDuration getCommitInterval() {
+		return commitInterval;
+	}
+
+	public int getCommitBatchSize() {
+		return commitBatchSize;
+	}
+
+	public FiniteDuration getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	/**
+	 * Every group journals into its own sub-directory, named after the URL-encoded group id. URL encoding keeps
+	 * dots, so the dots of a group id such as {@code ..} are encoded as well to keep it inside the journal directory.
+	 */
+	public Path groupDirectory(String groupId) {
+		String name;
+		try {
+			name = URLEncoder.encode(groupId, "UTF-8");
+		} catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+		if(name.isEmpty()) {
+			throw new IllegalArgumentException("Group id must not be empty");
+		}
+		if(name.chars().allMatch(c -> c == '.')) {
+			name = name.replace(".", "%2E");
+		}
+		Path root = directory.toAbsolutePath().normalize();
+		Path groupDirectory = root.resolve(name).normalize();
+		if(!groupDirectory.getParent().equals(root)) {
+			throw new IllegalArgumentException("Group id " + groupId + " does not name a directory in " + directory);
+		}
+		return groupDirectory;
+	}
+
+	/**
+	 * Returns the ids of the groups that have a journal directory.
+	 */
+	public List<String> journaledGroupIds() throws IOException {
+		List<String> groupIds = new ArrayList<>();
+		if(!Files.isDirectory(directory)) {
+			return groupIds;
+		}
+		try(DirectoryStream<Path> groups = Files.newDirectoryStream(directory, Files::isDirectory)) {
+			for(Path group : groups) {
+				groupIds.add(URLDecoder.decode(group.getFileName().toString(), "UTF-8"));
+			}
+		}
+		return groupIds;
+	}
+}
@@ -0,0 +1,147 @@
+package mr.cell.akka.iot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Latest reading of every device of a group as of a journal sequence number. Recovery reads the newest snapshot
+ * and replays only the journal records after it.
+ */
+public final class JournalSnapshot {
+
+	private static final String SNAPSHOT_PREFIX = "snapshot-";
+	private static final String SNAPSHOT_SUFFIX = ".bin";
+	private static final int MAGIC = 0x494f5453;
+	private static final int VERSION = 1;
+
+	private final long seqNr;
+	private final List<Entry> entries;
+
+	public interface EntryHandler {
+		void onEntry(String deviceId, boolean hasReading, long timestamp, double value);
+	}
+
+	public JournalSnapshot(long seqNr) {
+		this(seqNr, new ArrayList<>());
+	}
+
+	private JournalSnapshot(long seqNr, List<Entry> entries) {
+		this.seqNr = seqNr;
+		this.entries = entries;
+	}
+
+	public void add(String deviceId) {
+		entries.add(new Entry(deviceId, false, 0L, 0.0));
+	}
+
+	public void add(String deviceId, long timestamp, double value) {
+		entries.add(new Entry(deviceId, true, timestamp, value));
+	}
+
+	public long getSeqNr() {
+		return seqNr;
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void forEach(EntryHandler handler) {
+		entries.forEach(entry -> handler.onEntry(entry.deviceId, entry.hasReading, entry.timestamp, entry.value));
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file, forces it to disk and then renames it, so a crash never leaves
+	 * a partial snapshot behind. Older snapshots are deleted afterwards.
+	 */
+	public void writeTo(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		Path target = directory.resolve(String.format("%s%020d%s", SNAPSHOT_PREFIX, seqNr, SNAPSHOT_SUFFIX));
+		Path temporary = directory.resolve(target.getFileName() + ".tmp");
+		try(FileOutputStream file = new FileOutputStream(temporary.toFile());
+		    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(seqNr);
+			out.writeInt(entries.size());
+			for(Entry entry : entries) {
+				out.writeUTF(entry.deviceId);
+				out.writeBoolean(entry.hasReading);
+				out.writeLong(entry.timestamp);
+				out.writeDouble(entry.value);
+			}
+			out.flush();
+			file.getFD().sync();
+		}
+		Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+
+		for(Path snapshot : snapshots(directory)) {
+			if(!snapshot.equals(target)) {
+				Files.deleteIfExists(snapshot);
+			}
+		}
+	}
+
+	/**
+	 * Returns the newest snapshot in {@code directory}, or null if there is none.
+	 */
+	public static JournalSnapshot readLatest(Path directory) throws IOException {
+		if(!Files.isDirectory(directory)) {
+			return null;
+		}
+		Path latest = null;
+		for(Path snapshot : snapshots(directory)) {
+			if(latest == null || snapshot.getFileName().toString().compareTo(latest.getFileName().toString()) > 0) {
+				latest = snapshot;
+			}
+		}
+		if(latest == null) {
+			return null;
+		}
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(latest)))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unsupported snapshot format in " + latest);
+			}
+			long seqNr = in.readLong();
+			int size = in.readInt();
+			List<Entry> entries = new ArrayList<>(size);
+			for(int i = 0; i < size; i++) {
+				entries.add(new Entry(in.readUTF(), in.readBoolean(), in.readLong(), in.readDouble()));
+			}
+			return new JournalSnapshot(seqNr, entries);
+		}
+	}
+
+	private static List<Path> snapshots(Path directory) throws IOException {
+		List<Path> snapshots = new ArrayList<>();
+		try(DirectoryStream<Path> files = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+			files.forEach(snapshots::add);
+		}
+		return snapshots;
+	}
+
+	private static final class Entry {
+		private final String deviceId;
+		private final boolean hasReading;
+		private final long timestamp;
+		private final double value;
+
+		private Entry(String deviceId, boolean hasReading, long timestamp, double value) {
+			this.deviceId = deviceId;
+			this.hasReading = hasReading;
+			this.timestamp = timestamp;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorSystem;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+
+import java.util.Map;
+
+/**
+ * Logs every snapshot at INFO: one line for the whole system and one per group.
+ */
+public class LoggingMetricsReporter implements MetricsReporter {
+
+	private final LoggingAdapter log;
+
+	public LoggingMetricsReporter(ActorSystem system) {
+		this.log = Logging.getLogger(system, this);
+	}
+
+	@Override
+	public void report(MetricsSnapshot snapshot) {
+		log.info(String.format("%d queries, latency p50 %.3f ms p99 %.3f ms max %.3f ms, timeout ratio %.4f, "
+						+ "max mailbox depth %d, actors started %s/s stopped %s/s, mailbox overflow %s",
+				snapshot.getQueries(), millis(snapshot.getQueryLatencyP50Micros()), millis(snapshot.getQueryLatencyP99Micros()),
+				millis(snapshot.getQueryLatencyMaxMicros()), snapshot.getTimeoutRatio(), snapshot.getMaxMailboxDepth(),
+				snapshot.getActorStartsPerSecond(), snapshot.getActorStopsPerSecond(), snapshot.getMailboxOverflowCounts()));
+		for(Map.Entry<String, MetricsSnapshot.Group> entry : snapshot.getGroups().entrySet()) {
+			log.info(String.format("Group %s: %d devices, %.1f readings/s", entry.getKey(), entry.getValue().getDevices(),
+					entry.getValue().getReadingsPerSecond()));
+		}
+	}
+
+	private static double millis(long micros) {
+		return micros / 1000.0;
+	}
+}
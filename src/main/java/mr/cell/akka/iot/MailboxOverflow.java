@@ -0,0 +1,68 @@
+package mr.cell.akka.iot;
+
+import akka.actor.AbstractExtensionId;
+import akka.actor.ActorSystem;
+import akka.actor.ExtendedActorSystem;
+import akka.actor.Extension;
+import akka.actor.ExtensionIdProvider;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Messages each {@link CountingBoundedMailbox} configuration of an actor system dropped because the receiving mailbox
+ * was full, keyed by the configuration id, for example {@link IoTDispatchers#DEVICE}.
+ */
+public final class MailboxOverflow implements Extension {
+
+	public static final Id ID = new Id();
+
+	private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	private MailboxOverflow() {
+	}
+
+	public static MailboxOverflow get(ActorSystem system) {
+		return ID.get(system);
+	}
+
+	LongAdder counter(String mailbox) {
+		return counters.computeIfAbsent(mailbox, name -> new LongAdder());
+	}
+
+	/**
+	 * Messages dropped so far by the mailboxes of {@code mailbox}; 0 if no actor has used it yet.
+	 */
+	public long getOverflowCount(String mailbox) {
+		LongAdder counter = counters.get(mailbox);
+		return counter != null ? counter.sum() : 0L;
+	}
+
+	/**
+	 * Messages dropped so far by every mailbox configuration actors have used, sorted by id.
+	 */
+	public Map<String, Long> getOverflowCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		counters.forEach((mailbox, counter) -> counts.put(mailbox, counter.sum()));
+		return counts;
+	}
+
+	public static final class Id extends AbstractExtensionId<MailboxOverflow> implements ExtensionIdProvider {
+
+		private Id() {
+		}
+
+		@Override
+		public Id lookup() {
+			return ID;
+		}
+
+		@Override
+		public MailboxOverflow createExtension(ExtendedActorSystem system) {
+			return new MailboxOverflow();
+		}
+	}
+}
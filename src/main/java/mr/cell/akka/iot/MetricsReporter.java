@@ -0,0 +1,10 @@
+package mr.cell.akka.iot;
+
+/**
+ * Receives every {@link MetricsSnapshot} {@link IoTMetrics} takes, on a dispatcher thread. Implementations are named
+ * by {@code iot.metrics.reporter} and need a public constructor taking the {@link akka.actor.ActorSystem}.
+ */
+public interface MetricsReporter {
+
+	void report(MetricsSnapshot snapshot);
+}
@@ -0,0 +1,63 @@
+package mr.cell.akka.iot;
+
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+public final class MetricsSettings {
+
+	private final boolean jmx;
+	private final FiniteDuration snapshotInterval;
+	private final String reporter;
+	private final FiniteDuration highestQueryLatency;
+
+	public MetricsSettings(boolean jmx, FiniteDuration snapshotInterval, String reporter, FiniteDuration highestQueryLatency) {
+		this.jmx = jmx;
+		this.snapshotInterval = snapshotInterval;
+		this.reporter = reporter;
+		this.highestQueryLatency = highestQueryLatency;
+	}
+
+	public static MetricsSettings fromConfig(Config config) {
+		Config metrics = config.getConfig("iot.metrics");
+		return new MetricsSettings(
+				metrics.getBoolean("jmx"),
+				DeviceSettings.durationOf(metrics, "snapshot-interval"),
+				metrics.getString("reporter"),
+				DeviceSettings.durationOf(metrics, "highest-query-latency"));
+	}
+
+	public MetricsSettings withJmx(boolean jmx) {
+		return new MetricsSettings(jmx, snapshotInterval, reporter, highestQueryLatency);
+	}
+
+	public MetricsSettings withSnapshotInterval(FiniteDuration snapshotInterval) {
+		return new MetricsSettings(jmx, snapshotInterval, reporter, highestQueryLatency);
+	}
+
+	public MetricsSettings withReporter(String reporter) {
+		return new MetricsSettings(jmx, snapshotInterval, reporter, highestQueryLatency);
+	}
+
+	public MetricsSettings withHighestQueryLatency(FiniteDuration highestQueryLatency) {
+		return new MetricsSettings(jmx, snapshotInterval, reporter, highestQueryLatency);
+	}
+
+	public boolean isJmx() {
+		return jmx;
+	}
+
+	public FiniteDuration getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	/**
+	 * Class name of the {@link MetricsReporter} snapshots are handed to; empty for none.
+	 */
+	public String getReporter() {
+		return reporter;
+	}
+
+	public FiniteDuration getHighestQueryLatency() {
+		return highestQueryLatency;
+	}
+}
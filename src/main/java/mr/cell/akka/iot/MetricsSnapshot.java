@@ -0,0 +1,164 @@
+package mr.cell.akka.iot;
+
+import java.util.Map;
+
+/**
+ * Metrics of one snapshot interval of {@link IoTMetrics}. Rates, query latencies and the timeout ratio cover the
+ * interval; device counts, reading totals and mailbox depths are the values at the end of it.
+ */
+public final class MetricsSnapshot {
+
+	private final long timestampMillis;
+	private final long intervalMillis;
+	private final Map<String, Group> groups;
+	private final long queries;
+	private final long queryLatencyP50Micros;
+	private final long queryLatencyP90Micros;
+	private final long queryLatencyP99Micros;
+	private final long queryLatencyP999Micros;
+	private final long queryLatencyMaxMicros;
+	private final double timeoutRatio;
+	private final Map<String, Integer> mailboxDepths;
+	private final Map<String, Long> mailboxOverflowCounts;
+	private final Map<String, Long> actorsStarted;
+	private final Map<String, Long> actorsStopped;
+	private final Map<String, Double> actorStartsPerSecond;
+	private final Map<String, Double> actorStopsPerSecond;
+
+	MetricsSnapshot(long timestampMillis, long intervalMillis, Map<String, Group> groups, long queries,
+	                long[] queryLatencyMicros, double timeoutRatio, Map<String, Integer> mailboxDepths,
+	                Map<String, Long> mailboxOverflowCounts, Map<String, Long> actorsStarted, Map<String, Long> actorsStopped,
+	                Map<String, Double> actorStartsPerSecond, Map<String, Double> actorStopsPerSecond) {
+		this.timestampMillis = timestampMillis;
+		this.intervalMillis = intervalMillis;
+		this.groups = groups;
+		this.queries = queries;
+		this.queryLatencyP50Micros = queryLatencyMicros[0];
+		this.queryLatencyP90Micros = queryLatencyMicros[1];
+		this.queryLatencyP99Micros = queryLatencyMicros[2];
+		this.queryLatencyP999Micros = queryLatencyMicros[3];
+		this.queryLatencyMaxMicros = queryLatencyMicros[4];
+		this.timeoutRatio = timeoutRatio;
+		this.mailboxDepths = mailboxDepths;
+		this.mailboxOverflowCounts = mailboxOverflowCounts;
+		this.actorsStarted = actorsStarted;
+		this.actorsStopped = actorsStopped;
+		this.actorStartsPerSecond = actorStartsPerSecond;
+		this.actorStopsPerSecond = actorStopsPerSecond;
+	}
+
+	public long getTimestampMillis() {
+		return timestampMillis;
+	}
+
+	public long getIntervalMillis() {
+		return intervalMillis;
+	}
+
+	public Map<String, Group> getGroups() {
+		return groups;
+	}
+
+	/**
+	 * Number of DeviceGroupQuery actors that completed in the interval.
+	 */
+	public long getQueries() {
+		return queries;
+	}
+
+	public long getQueryLatencyP50Micros() {
+		return queryLatencyP50Micros;
+	}
+
+	public long getQueryLatencyP90Micros() {
+		return queryLatencyP90Micros;
+	}
+
+	public long getQueryLatencyP99Micros() {
+		return queryLatencyP99Micros;
+	}
+
+	public long getQueryLatencyP999Micros() {
+		return queryLatencyP999Micros;
+	}
+
+	public long getQueryLatencyMaxMicros() {
+		return queryLatencyMaxMicros;
+	}
+
+	/**
+	 * Share of the devices queried in the interval that were reported as DeviceTimeout.
+	 */
+	public double getTimeoutRatio() {
+		return timeoutRatio;
+	}
+
+	/**
+	 * Messages waiting in the mailboxes of the coordination tier, by actor path.
+	 */
+	public Map<String, Integer> getMailboxDepths() {
+		return mailboxDepths;
+	}
+
+	public int getMaxMailboxDepth() {
+		int max = 0;
+		for(int depth : mailboxDepths.values()) {
+			max = Math.max(max, depth);
+		}
+		return max;
+	}
+
+	public Map<String, Long> getMailboxOverflowCounts() {
+		return mailboxOverflowCounts;
+	}
+
+	/**
+	 * Actors started since the actor system started, by lower-case {@link IoTMetrics.ActorKind}.
+	 */
+	public Map<String, Long> getActorsStarted() {
+		return actorsStarted;
+	}
+
+	public Map<String, Long> getActorsStopped() {
+		return actorsStopped;
+	}
+
+	public Map<String, Double> getActorStartsPerSecond() {
+		return actorStartsPerSecond;
+	}
+
+	public Map<String, Double> getActorStopsPerSecond() {
+		return actorStopsPerSecond;
+	}
+
+	public static final class Group {
+
+		private final int devices;
+		private final long readings;
+		private final double readingsPerSecond;
+
+		Group(int devices, long readings, double readingsPerSecond) {
+			this.devices = devices;
+			this.readings = readings;
+			this.readingsPerSecond = readingsPerSecond;
+		}
+
+		/**
+		 * Tracked devices, passivated ones included.
+		 */
+		public int getDevices() {
+			return devices;
+		}
+
+		/**
+		 * Readings recorded by the devices of the group since it started.
+		 */
+		public long getReadings() {
+			return readings;
+		}
+
+		public double getReadingsPerSecond() {
+			return readingsPerSecond;
+		}
+	}
+}
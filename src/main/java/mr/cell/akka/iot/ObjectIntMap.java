@@ -0,0 +1,136 @@
+package mr.cell.akka.iot;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from objects to primitive ints with linear probing, without boxed values or entry objects.
+ * Keys must not be null; lookups of absent keys return the {@code missing} value the caller passes in.
+ */
+public final class ObjectIntMap<K> {
+
+	private static final float MAX_LOAD = 0.75f;
+
+	private Object[] keys;
+	private int[] values;
+	private int mask;
+	private int shift;
+	private int size;
+
+	public ObjectIntMap() {
+		this(16);
+	}
+
+	public ObjectIntMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / MAX_LOAD)) - 1) << 1;
+		allocate(capacity);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int get(K key, int missing) {
+		for(int slot = slot(key); ; slot = (slot + 1) & mask) {
+			Object candidate = keys[slot];
+			if(candidate == null) {
+				return missing;
+			}
+			if(candidate.equals(key)) {
+				return values[slot];
+			}
+		}
+	}
+
+	public void put(K key, int value) {
+		int slot = slot(key);
+		while(keys[slot] != null) {
+			if(keys[slot].equals(key)) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if(++size > MAX_LOAD * keys.length) {
+			resize(keys.length * 2);
+		}
+	}
+
+	/**
+	 * Removes the key and returns its value, or {@code missing} if it was absent.
+	 */
+	public int remove(K key, int missing) {
+		int slot = slot(key);
+		while(keys[slot] != null) {
+			if(keys[slot].equals(key)) {
+				int value = values[slot];
+				deleteAt(slot);
+				size--;
+				return value;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return missing;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+
+	/**
+	 * Shifts the following entries of the probe sequence back, so lookups never stop early at the freed slot.
+	 */
+	private void deleteAt(int freed) {
+		int slot = freed;
+		while(true) {
+			slot = (slot + 1) & mask;
+			Object key = keys[slot];
+			if(key == null) {
+				break;
+			}
+			int home = slot(key);
+			// Move the entry if its home slot is not within (freed, slot] of the wrapped probe sequence.
+			boolean movable = freed <= slot ? home <= freed || home > slot : home <= freed && home > slot;
+			if(movable) {
+				keys[freed] = key;
+				values[freed] = values[slot];
+				freed = slot;
+			}
+		}
+		keys[freed] = null;
+	}
+
+	private void resize(int capacity) {
+		Object[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(capacity);
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != null) {
+				int slot = slot(oldKeys[i]);
+				while(keys[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new Object[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		shift = Integer.numberOfLeadingZeros(mask);
+	}
+
+	private int slot(Object key) {
+		// Fibonacci hashing spreads keys with similar hash codes, such as numbered device ids, over the top bits.
+		return key.hashCode() * 0x9E3779B9 >>> shift;
+	}
+}
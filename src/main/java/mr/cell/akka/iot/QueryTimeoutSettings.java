@@ -0,0 +1,72 @@
+package mr.cell.akka.iot;
+
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+public final class QueryTimeoutSettings {
+
+	private final FiniteDuration defaultTimeout;
+	private final boolean adaptive;
+	private final double quantile;
+	private final FiniteDuration margin;
+	private final int minSamples;
+
+	public QueryTimeoutSettings(FiniteDuration defaultTimeout, boolean adaptive, double quantile, FiniteDuration margin, int minSamples) {
+		if(defaultTimeout.toNanos() <= 0) {
+			throw new IllegalArgumentException("query-timeout.default must be positive, was " + defaultTimeout);
+		}
+		if(quantile <= 0.0 || quantile >= 1.0) {
+			throw new IllegalArgumentException("query-timeout.quantile must be in (0, 1), was " + quantile);
+		}
+		this.defaultTimeout = defaultTimeout;
+		this.adaptive = adaptive;
+		this.quantile = quantile;
+		this.margin = margin;
+		this.minSamples = minSamples;
+	}
+
+	public static QueryTimeoutSettings fromConfig(Config config) {
+		Config timeout = config.getConfig("iot.group.query-timeout");
+		return new QueryTimeoutSettings(
+				DeviceSettings.durationOf(timeout, "default"),
+				timeout.getBoolean("adaptive"),
+				timeout.getDouble("quantile"),
+				DeviceSettings.durationOf(timeout, "margin"),
+				timeout.getInt("min-samples"));
+	}
+
+	public QueryTimeoutSettings withDefaultTimeout(FiniteDuration defaultTimeout) {
+		return new QueryTimeoutSettings(defaultTimeout, adaptive, quantile, margin, minSamples);
+	}
+
+	public QueryTimeoutSettings withAdaptive(boolean adaptive) {
+		return new QueryTimeoutSettings(defaultTimeout, adaptive, quantile, margin, minSamples);
+	}
+
+	public QueryTimeoutSettings withMinSamples(int minSamples) {
+		return new QueryTimeoutSettings(defaultTimeout, adaptive, quantile, margin, minSamples);
+	}
+
+	/**
+	 * Timeout of queries whose request has none, and the most the adaptive timeout grows to.
+	 */
+	public FiniteDuration getDefaultTimeout() {
+		return defaultTimeout;
+	}
+
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	public double getQuantile() {
+		return quantile;
+	}
+
+	public FiniteDuration getMargin() {
+		return margin;
+	}
+
+	public int getMinSamples() {
+		return minSamples;
+	}
+}
@@ -0,0 +1,183 @@
+package mr.cell.akka.iot;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary frames of the TCP ingestion endpoint, big-endian:
+ * <pre>
+ * [u8 type][u8 group id length][group id, UTF-8][u8 device id length][device id, UTF-8]
+ * type 1, track device: nothing more
+ * type 2, reading:      [i64 timestamp][f64 value]
+ * </pre>
+ */
+public final class ReadingFrameCodec {
+
+	public static final byte TRACK_DEVICE = 1;
+	public static final byte READING = 2;
+
+	public static final int MAX_ID_LENGTH = 255;
+	public static final int MAX_FRAME_SIZE = 3 + 2 * MAX_ID_LENGTH + 16;
+
+	private static final ByteOrder ORDER = ByteOrder.BIG_ENDIAN;
+
+	private ReadingFrameCodec() {
+	}
+
+	public static void writeTrackDevice(ByteStringBuilder builder, String groupId, String deviceId) {
+		writeHeader(builder, TRACK_DEVICE, groupId, deviceId);
+	}
+
+	public static void writeReading(ByteStringBuilder builder, String groupId, String deviceId, long timestamp, double value) {
+		writeHeader(builder, READING, groupId, deviceId);
+		builder.putLong(timestamp, ORDER);
+		builder.putDouble(value, ORDER);
+	}
+
+	private static void writeHeader(ByteStringBuilder builder, byte type, String groupId, String deviceId) {
+		builder.putByte(type);
+		writeId(builder, groupId);
+		writeId(builder, deviceId);
+	}
+
+	private static void writeId(ByteStringBuilder builder, String id) {
+		byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+		if(bytes.length == 0 || bytes.length > MAX_ID_LENGTH) {
+			throw new IllegalArgumentException("Id must be 1 to " + MAX_ID_LENGTH + " bytes, was " + bytes.length + ": " + id);
+		}
+		builder.putByte((byte) bytes.length);
+		builder.putBytes(bytes);
+	}
+
+	/**
+	 * Decodes the frames of one connection into {@link DeviceManager.DeviceReading}s and
+	 * {@link DeviceManager.RequestTrackDevice}s. Frames are read in place from the received {@link ByteString}; only a
+	 * frame split over two chunks is copied. Ids are looked up in a cache by their bytes, so a known device costs no
+	 * new strings.
+	 */
+	public static final class Decoder {
+		private final IdCache ids;
+		private ByteString pending = ByteString.empty();
+
+		public Decoder(int idCacheSize) {
+			this.ids = new IdCache(idCacheSize);
+		}
+
+		public List<Object> decode(ByteString chunk) {
+			List<Object> messages = new ArrayList<>();
+			if(!pending.isEmpty()) {
+				// Complete the split frame from the head of the chunk, then read the rest in place.
+				ByteBuffer head = pending.concat(chunk.take(MAX_FRAME_SIZE)).compact().asByteBuffer();
+				if(!decodeFrame(head, messages)) {
+					pending = pending.concat(chunk).compact();
+					return messages;
+				}
+				chunk = chunk.drop(head.position() - pending.size());
+				pending = ByteString.empty();
+			}
+
+			// A ByteString's buffer view is big-endian like the frames.
+			ByteBuffer buffer = chunk.asByteBuffer();
+			while(decodeFrame(buffer, messages)) {
+				// Every complete frame in the chunk.
+			}
+			if(buffer.hasRemaining()) {
+				pending = chunk.drop(buffer.position()).compact();
+			}
+			return messages;
+		}
+
+		/**
+		 * Decodes the frame at the buffer position and moves past it, or returns false if the frame is incomplete.
+		 */
+		private boolean decodeFrame(ByteBuffer buffer, List<Object> messages) {
+			int start = buffer.position();
+			int limit = buffer.limit();
+			if(limit - start < 2) {
+				return false;
+			}
+			byte type = buffer.get(start);
+			if(type != TRACK_DEVICE && type != READING) {
+				throw new IllegalArgumentException("Unknown frame type " + type);
+			}
+			int groupIdLength = buffer.get(start + 1) & 0xff;
+			int deviceIdOffset = start + 2 + groupIdLength;
+			if(limit <= deviceIdOffset) {
+				return false;
+			}
+			int deviceIdLength = buffer.get(deviceIdOffset) & 0xff;
+			int bodyOffset = deviceIdOffset + 1 + deviceIdLength;
+			int end = type == READING ? bodyOffset + 16 : bodyOffset;
+			if(limit < end) {
+				return false;
+			}
+			if(groupIdLength == 0 || deviceIdLength == 0) {
+				throw new IllegalArgumentException("Empty id in frame at " + start);
+			}
+
+			String groupId = ids.get(buffer, start + 2, groupIdLength);
+			String deviceId = ids.get(buffer, deviceIdOffset + 1, deviceIdLength);
+			if(type == READING) {
+				messages.add(new DeviceManager.DeviceReading(groupId, deviceId, buffer.getDouble(bodyOffset + 8), buffer.getLong(bodyOffset)));
+			} else {
+				messages.add(new DeviceManager.RequestTrackDevice(groupId, deviceId));
+			}
+			buffer.position(end);
+			return true;
+		}
+	}
+
+	/**
+	 * Direct-mapped cache from id bytes to id strings; a colliding id replaces the cached one.
+	 */
+	private static final class IdCache {
+		private final byte[][] keys;
+		private final String[] values;
+		private final int mask;
+
+		private IdCache(int size) {
+			int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+			keys = new byte[capacity][];
+			values = new String[capacity];
+			mask = capacity - 1;
+		}
+
+		private String get(ByteBuffer buffer, int offset, int length) {
+			int hash = 1;
+			for(int i = 0; i < length; i++) {
+				hash = 31 * hash + buffer.get(offset + i);
+			}
+			int slot = (hash ^ hash >>> 16) & mask;
+			byte[] key = keys[slot];
+			if(key != null && matches(key, buffer, offset, length)) {
+				return values[slot];
+			}
+			key = new byte[length];
+			for(int i = 0; i < length; i++) {
+				key[i] = buffer.get(offset + i);
+			}
+			String id = new String(key, StandardCharsets.UTF_8);
+			keys[slot] = key;
+			values[slot] = id;
+			return id;
+		}
+
+		private static boolean matches(byte[] key, ByteBuffer buffer, int offset, int length) {
+			if(key.length != length) {
+				return false;
+			}
+			for(int i = 0; i < length; i++) {
+				if(key[i] != buffer.get(offset + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,110 @@
+package mr.cell.akka.iot;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import akka.japi.Pair;
+import akka.stream.ActorMaterializer;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.MergeHub;
+import akka.stream.javadsl.RestartSink;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.Tcp;
+import akka.util.ByteString;
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TCP listener that accepts {@link ReadingFrameCodec} frames and records them through a {@link DeviceManager} or the
+ * device group shard region. Track device frames are sent to the device manager as they arrive, readings go through
+ * one {@link TemperatureIngestion} hub shared by all connections, so a slow device tree stops reading from the
+ * sockets and TCP flow control slows the clients down. A malformed frame closes the connection.
+ * <p>
+ * Should the ingestion behind the hub fail, it is restarted with a backoff while the hub and the connections stay
+ * up. Rejected and unconfirmed readings are counted in {@link IoTMetrics}. Unbinding also stops the hub and closes
+ * the connections that are still open.
+ */
+public final class TcpIngestionEndpoint {
+
+	private static final FiniteDuration MIN_BACKOFF = new FiniteDuration(100, TimeUnit.MILLISECONDS);
+	private static final FiniteDuration MAX_BACKOFF = new FiniteDuration(10, TimeUnit.SECONDS);
+
+	private TcpIngestionEndpoint() {
+	}
+
+	/**
+	 * Binds to {@code iot.tcp.interface} and {@code iot.tcp.port}.
+	 */
+	public static CompletionStage<Tcp.ServerBinding> bind(ActorSystem system, ActorRef deviceManager) {
+		Config tcp = system.settings().config().getConfig("iot.tcp");
+		return bind(system, deviceManager, tcp.getString("interface"), tcp.getInt("port"), tcp.getInt("id-cache-size"),
+				IngestionSettings.fromConfig(system.settings().config()));
+	}
+
+	public static CompletionStage<Tcp.ServerBinding> bind(ActorSystem system, ActorRef deviceManager, String host, int port,
+	                                                     int idCacheSize, IngestionSettings settings) {
+		LoggingAdapter log = Logging.getLogger(system, TcpIngestionEndpoint.class);
+		IoTMetrics metrics = IoTMetrics.get(system);
+		ActorMaterializer materializer = ActorMaterializer.create(system);
+		Sink<DeviceManager.DeviceReading, NotUsed> readings = MergeHub.of(DeviceManager.DeviceReading.class, settings.getBufferSize())
+				.to(RestartSink.withBackoff(MIN_BACKOFF, MAX_BACKOFF, 0.2, () -> TemperatureIngestion.flow(deviceManager, settings)
+						.toMat(Sink.foreach(ack -> countFailures(ack, metrics, log)), Keep.right())
+						.mapMaterializedValue(done -> done.whenComplete((ok, failure) -> {
+							if(failure != null) {
+								log.error(failure, "TCP ingestion failed, restarting it");
+							}
+						}))))
+				.run(materializer);
+		Sink<Object, NotUsed> trackRequests = Flow.of(Object.class)
+				.filter(message -> message instanceof DeviceManager.RequestTrackDevice)
+				.to(Sink.foreach(trackMsg -> deviceManager.tell(trackMsg, ActorRef.noSender())));
+
+		Pair<CompletionStage<Tcp.ServerBinding>, CompletionStage<Done>> binding = Tcp.lookup().get(system).bind(host, port)
+				.toMat(Sink.foreach(connection -> {
+					log.debug("Accepted ingestion connection from {}.", connection.remoteAddress());
+					Sink<ByteString, NotUsed> incoming = decoder(idCacheSize)
+							.watchTermination((notUsed, done) -> {
+								done.whenComplete((ok, failure) -> {
+									if(failure != null) {
+										log.warning("Closed ingestion connection from {}: {}", connection.remoteAddress(), failure.getMessage());
+									}
+								});
+								return notUsed;
+							})
+							.alsoTo(trackRequests)
+							.filter(message -> message instanceof DeviceManager.DeviceReading)
+							.map(message -> (DeviceManager.DeviceReading) message)
+							.to(readings);
+					// Nothing is written back; the connection closes once the client finished sending and all was read.
+					connection.handleWith(Flow.fromSinkAndSourceCoupled(incoming, Source.maybe()), materializer);
+				}), Keep.both())
+				.run(materializer);
+		// The connection source completes once unbound, or fails when binding failed.
+		binding.second().whenComplete((done, failure) -> materializer.shutdown());
+		return binding.first();
+	}
+
+	private static void countFailures(DeviceManager.TemperatureBatchRecorded ack, IoTMetrics metrics, LoggingAdapter log) {
+		int rejected = ack.getRejected().size();
+		int unconfirmed = ack.getUnconfirmed().size();
+		if(rejected > 0 || unconfirmed > 0) {
+			metrics.recordIngestionFailures(rejected, unconfirmed);
+			log.debug("Batch {} received over TCP had {} rejected and {} unconfirmed readings.", ack.getRequestId(), rejected, unconfirmed);
+		}
+	}
+
+	/**
+	 * Decodes the bytes of one connection into {@link DeviceManager.DeviceReading}s and {@link DeviceManager.RequestTrackDevice}s.
+	 */
+	public static Flow<ByteString, Object, NotUsed> decoder(int idCacheSize) {
+		return Flow.of(ByteString.class).statefulMapConcat(() -> new ReadingFrameCodec.Decoder(idCacheSize)::decode);
+	}
+}
@@ -0,0 +1,141 @@
+package mr.cell.akka.iot;
+
+import akka.actor.*;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class TemperatureBatchCollector extends AbstractActor {
+	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+	// A collector waits this much longer than the collectors of its targets, so their answers arrive before its timeout.
+	private static final long MAX_LEVEL_MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	// Sub-batches still waited for, by the request id they were sent with.
+	private final Map<Long, SubBatch> pending;
+	private final List<DeviceManager.DeviceReading> rejected;
+	private final List<DeviceManager.DeviceReading> unconfirmed = new ArrayList<>();
+	private final long requestId;
+	private final ActorRef requester;
+	private int recorded;
+
+	private Cancellable collectionTimeoutTimer;
+
+	/**
+	 * Sends every target its readings as a {@link DeviceManager.RecordTemperatureBatch} and replies to the requester
+	 * with one {@link DeviceManager.TemperatureBatchRecorded} once all targets have answered.
+	 */
+	public static Props props(Map<ActorRef, List<DeviceManager.DeviceReading>> readingsPerTarget, List<DeviceManager.DeviceReading> rejected,
+	                          long requestId, ActorRef requester, FiniteDuration timeout) {
+		return Props.create(TemperatureBatchCollector.class, readingsPerTarget, rejected, requestId, requester, timeout)
+				.withDispatcher(IoTDispatchers.COORDINATION).withMailbox(IoTDispatchers.SHORT_LIVED_MAILBOX);
+	}
+
+	/**
+	 * Timeout of a collector whose targets collect from their own targets within {@code targetTimeout}: longer by a
+	 * tenth of it, at most 100 ms.
+	 */
+	public static FiniteDuration timeoutAbove(FiniteDuration targetTimeout) {
+		long nanos = targetTimeout.toNanos();
+		return new FiniteDuration(nanos + Math.min(nanos / 10, MAX_LEVEL_MARGIN_NANOS), TimeUnit.NANOSECONDS);
+	}
+
+	public TemperatureBatchCollector(Map<ActorRef, List<DeviceManager.DeviceReading>> readingsPerTarget, List<DeviceManager.DeviceReading> rejected,
+	                                 long requestId, ActorRef requester, FiniteDuration timeout) {
+		this.pending = new HashMap<>(readingsPerTarget.size() * 4 / 3 + 1);
+		long subBatchId = 0L;
+		for(Map.Entry<ActorRef, List<DeviceManager.DeviceReading>> entry : readingsPerTarget.entrySet()) {
+			pending.put(subBatchId++, new SubBatch(entry.getKey(), entry.getValue()));
+		}
+		this.rejected = new ArrayList<>(rejected);
+		this.requestId = requestId;
+		this.requester = requester;
+
+		collectionTimeoutTimer = getContext().getSystem().scheduler().scheduleOnce(timeout, getSelf(), new CollectionTimeout(), getContext().dispatcher(), getSelf());
+	}
+
+	@Override
+	public void preStart() throws Exception {
+		// Replies are matched by the request id of their sub-batch, not by sender, because a target such as a shard
+		// region delegates the sub-batch to the group that answers it.
+		for(Map.Entry<Long, SubBatch> entry : pending.entrySet()) {
+			SubBatch subBatch = entry.getValue();
+			getContext().watch(subBatch.target);
+			subBatch.target.tell(new DeviceManager.RecordTemperatureBatch(entry.getKey(), subBatch.readings), getSelf());
+		}
+		replyIfDone();
+	}
+
+	@Override
+	public void postStop() throws Exception {
+		collectionTimeoutTimer.cancel();
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(DeviceManager.TemperatureBatchRecorded.class, this::onTemperatureBatchRecorded)
+				.match(Terminated.class, this::onTerminated)
+				.match(CollectionTimeout.class, this::onCollectionTimeout)
+				.build();
+	}
+
+	private void onTemperatureBatchRecorded(DeviceManager.TemperatureBatchRecorded recordedMsg) {
+		if(pending.remove(recordedMsg.getRequestId()) == null) {
+			log.debug("Ignoring acknowledgement of unknown or already answered sub-batch {} of batch {}.", recordedMsg.getRequestId(), requestId);
+			return;
+		}
+		recorded += recordedMsg.getRecorded();
+		rejected.addAll(recordedMsg.getRejected());
+		unconfirmed.addAll(recordedMsg.getUnconfirmed());
+		replyIfDone();
+	}
+
+	private void onTerminated(Terminated terminated) {
+		Iterator<SubBatch> subBatches = pending.values().iterator();
+		while(subBatches.hasNext()) {
+			SubBatch subBatch = subBatches.next();
+			if(subBatch.target.equals(terminated.getActor())) {
+				rejected.addAll(subBatch.readings);
+				subBatches.remove();
+			}
+		}
+		replyIfDone();
+	}
+
+	private void onCollectionTimeout(CollectionTimeout timeout) {
+		log.warning("Batch {} timed out waiting for {} recipients.", requestId, pending.size());
+		// A recipient that is slow to answer may still record its readings, so they are not reported as rejected.
+		for(SubBatch subBatch : pending.values()) {
+			unconfirmed.addAll(subBatch.readings);
+		}
+		pending.clear();
+		replyIfDone();
+	}
+
+	private void replyIfDone() {
+		if(pending.isEmpty()) {
+			requester.tell(new DeviceManager.TemperatureBatchRecorded(requestId, recorded, rejected, unconfirmed), getSelf());
+			getContext().stop(getSelf());
+		}
+	}
+
+	public static final class CollectionTimeout { }
+
+	private static final class SubBatch {
+		private final ActorRef target;
+		private final List<DeviceManager.DeviceReading> readings;
+
+		private SubBatch(ActorRef target, List<DeviceManager.DeviceReading> readings) {
+			this.target = target;
+			this.readings = readings;
+		}
+	}
+}
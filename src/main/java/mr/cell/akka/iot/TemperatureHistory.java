@@ -0,0 +1,84 @@
+package mr.cell.akka.iot;
+
+public final class TemperatureHistory {
+
+	private static final long[] NO_TIMESTAMPS = new long[0];
+	private static final double[] NO_VALUES = new double[0];
+
+	private final int capacity;
+	private long[] timestamps = NO_TIMESTAMPS;
+	private double[] values = NO_VALUES;
+	private int next;
+	private int size;
+
+	public TemperatureHistory(int capacity) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("History capacity must be positive, was " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	public void record(long timestamp, double value) {
+		if(timestamps.length == 0) {
+			timestamps = new long[capacity];
+			values = new double[capacity];
+		}
+		timestamps[next] = timestamp;
+		values[next] = value;
+		next = next + 1 == capacity ? 0 : next + 1;
+		if(size < capacity) {
+			size++;
+		}
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public double latestValue() {
+		return values[latestIndex()];
+	}
+
+	public long latestTimestamp() {
+		return timestamps[latestIndex()];
+	}
+
+	private int latestIndex() {
+		if(size == 0) {
+			throw new IllegalStateException("History is empty");
+		}
+		return next == 0 ? capacity - 1 : next - 1;
+	}
+
+	/**
+	 * Returns the readings with {@code from <= timestamp <= to}, oldest recorded first.
+	 */
+	public Device.RespondTemperatureRange range(long requestId, long from, long to) {
+		int first = next - size < 0 ? next - size + capacity : next - size;
+		int matching = 0;
+		for(int i = 0, index = first; i < size; i++, index = index + 1 == capacity ? 0 : index + 1) {
+			if(timestamps[index] >= from && timestamps[index] <= to) {
+				matching++;
+			}
+		}
+
+		long[] rangeTimestamps = new long[matching];
+		double[] rangeValues = new double[matching];
+		for(int i = 0, index = first, j = 0; j < matching; i++, index = index + 1 == capacity ? 0 : index + 1) {
+			if(timestamps[index] >= from && timestamps[index] <= to) {
+				rangeTimestamps[j] = timestamps[index];
+				rangeValues[j] = values[index];
+				j++;
+			}
+		}
+		return new Device.RespondTemperatureRange(requestId, rangeTimestamps, rangeValues);
+	}
+}
@@ -0,0 +1,139 @@
+package mr.cell.akka.iot;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.event.Logging;
+import akka.japi.Pair;
+import akka.pattern.PatternsCS;
+import akka.stream.ActorAttributes;
+import akka.stream.Attributes;
+import akka.stream.Materializer;
+import akka.stream.OverflowStrategy;
+import akka.stream.Supervision;
+import akka.stream.javadsl.Flow;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.MergeHub;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import akka.util.Timeout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Back-pressured front end that records readings through a {@link DeviceManager} or the device group shard region.
+ * Readings are batched, split by group and sent as {@link DeviceManager.RecordTemperatureBatch}es. The stream pulls
+ * no more readings while its batches in flight are unacknowledged, so a slow device tree slows down the producers
+ * instead of filling mailboxes.
+ * <p>
+ * A group acknowledges a batch once it has handed the readings to the mailboxes of its devices (and, when
+ * journaling, committed them), not once the devices have processed them. Back pressure therefore bounds what waits
+ * in group mailboxes; device mailboxes are bounded by their own capacity, and readings that do not fit come back as
+ * rejected.
+ */
+public final class TemperatureIngestion {
+
+	private TemperatureIngestion() {
+	}
+
+	/**
+	 * Records the readings it receives and emits the acknowledgement of every batch. A batch that is not acknowledged
+	 * within the ask timeout is emitted as an acknowledgement with all its readings unconfirmed, and the stream goes on.
+	 */
+	public static Flow<DeviceManager.DeviceReading, DeviceManager.TemperatureBatchRecorded, NotUsed> flow(
+			ActorRef deviceManager, IngestionSettings settings) {
+		AtomicLong requestIds = new AtomicLong();
+		Timeout timeout = new Timeout(settings.getAskTimeout());
+		return Flow.<DeviceManager.DeviceReading>create()
+				.groupedWithin(settings.getBatchSize(), settings.getBatchInterval())
+				.mapConcat(TemperatureIngestion::batchesPerGroup)
+				.mapAsync(settings.getMaxBatchesInFlight(), readings -> record(deviceManager, requestIds.getAndIncrement(), readings, timeout))
+				.withAttributes(ActorAttributes.withSupervisionStrategy(Supervision.getResumingDecider()));
+	}
+
+	private static CompletionStage<DeviceManager.TemperatureBatchRecorded> record(
+			ActorRef deviceManager, long requestId, List<DeviceManager.DeviceReading> readings, Timeout timeout) {
+		return PatternsCS.ask(deviceManager, new DeviceManager.RecordTemperatureBatch(requestId, readings), timeout)
+				.handle((reply, failure) -> reply instanceof DeviceManager.TemperatureBatchRecorded
+						? (DeviceManager.TemperatureBatchRecorded) reply
+						: new DeviceManager.TemperatureBatchRecorded(requestId, 0, Collections.emptyList(), readings));
+	}
+
+	/**
+	 * Starts ingestion fed by a bounded queue, logging the readings that were rejected or unconfirmed. Returns the
+	 * queue and the completion of the stream.
+	 *
+	 * @see #queue(ActorRef, IngestionSettings, Sink, Materializer)
+	 */
+	public static Pair<SourceQueueWithComplete<DeviceManager.DeviceReading>, CompletionStage<Done>> queue(
+			ActorRef deviceManager, IngestionSettings settings, Materializer materializer) {
+		return queue(deviceManager, settings, logRejections(), materializer);
+	}
+
+	/**
+	 * Starts ingestion fed by a bounded queue and sends the acknowledgements to {@code acks}. An offer completes once
+	 * the reading is queued, so a producer that waits for each offer before making the next one is slowed down to the
+	 * pace of the device tree. The queue allows one waiting offer at a time; concurrent producers should use
+	 * {@link #hub} instead.
+	 */
+	public static <M> Pair<SourceQueueWithComplete<DeviceManager.DeviceReading>, M> queue(ActorRef deviceManager,
+			IngestionSettings settings, Sink<DeviceManager.TemperatureBatchRecorded, M> acks, Materializer materializer) {
+		return Source.<DeviceManager.DeviceReading>queue(settings.getBufferSize(), OverflowStrategy.backpressure())
+				.via(flow(deviceManager, settings))
+				.toMat(acks, Keep.both())
+				.run(materializer);
+	}
+
+	/**
+	 * Starts ingestion fed by a hub, logging the readings that were rejected or unconfirmed. Returns the hub and the
+	 * completion of the stream.
+	 *
+	 * @see #hub(ActorRef, IngestionSettings, Sink, Materializer)
+	 */
+	public static Pair<Sink<DeviceManager.DeviceReading, NotUsed>, CompletionStage<Done>> hub(
+			ActorRef deviceManager, IngestionSettings settings, Materializer materializer) {
+		return hub(deviceManager, settings, logRejections(), materializer);
+	}
+
+	/**
+	 * Starts ingestion, sending the acknowledgements to {@code acks}, and returns a sink that any number of producer
+	 * streams can be connected to, each one back-pressured on its own.
+	 */
+	public static <M> Pair<Sink<DeviceManager.DeviceReading, NotUsed>, M> hub(ActorRef deviceManager,
+			IngestionSettings settings, Sink<DeviceManager.TemperatureBatchRecorded, M> acks, Materializer materializer) {
+		return MergeHub.of(DeviceManager.DeviceReading.class, settings.getBufferSize())
+				.via(flow(deviceManager, settings))
+				.toMat(acks, Keep.both())
+				.run(materializer);
+	}
+
+	/**
+	 * Logs a warning for every acknowledgement with rejected or unconfirmed readings and completes with the stream.
+	 */
+	public static Sink<DeviceManager.TemperatureBatchRecorded, CompletionStage<Done>> logRejections() {
+		return Flow.<DeviceManager.TemperatureBatchRecorded>create()
+				.filter(ack -> !ack.getRejected().isEmpty() || !ack.getUnconfirmed().isEmpty())
+				.log("ingestion", ack -> "batch " + ack.getRequestId() + " recorded " + ack.getRecorded() + ", rejected "
+						+ ack.getRejected().size() + ", unconfirmed " + ack.getUnconfirmed().size())
+				.withAttributes(Attributes.createLogLevels(Logging.WarningLevel(), Logging.InfoLevel(), Logging.ErrorLevel()))
+				.toMat(Sink.ignore(), Keep.right());
+	}
+
+	/**
+	 * Splits a batch by group, because a device group shard region routes a batch by the group of its first reading.
+	 */
+	private static Iterable<List<DeviceManager.DeviceReading>> batchesPerGroup(List<DeviceManager.DeviceReading> readings) {
+		Map<String, List<DeviceManager.DeviceReading>> batches = new LinkedHashMap<>();
+		for(DeviceManager.DeviceReading reading : readings) {
+			batches.computeIfAbsent(reading.getGroupId(), groupId -> new ArrayList<>()).add(reading);
+		}
+		return batches.values();
+	}
+}
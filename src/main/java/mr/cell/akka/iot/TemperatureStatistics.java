@@ -0,0 +1,274 @@
+package mr.cell.akka.iot;
+
+import java.io.Serializable;
+
+/**
+ * Mergeable summary of temperature readings: exact count, min, max, mean and standard deviation, plus
+ * percentiles within a relative error of {@code relativeAccuracy}. Percentiles come from a DDSketch-style
+ * sketch that counts values in logarithmically sized buckets, so its size depends on the range of the values
+ * and not on how many there are. Positive and negative values keep at most {@value #MAX_BUCKETS} buckets each;
+ * beyond that the buckets of the values closest to zero are collapsed into one, which keeps the accuracy of
+ * the percentiles away from zero.
+ */
+public final class TemperatureStatistics implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+	// With the default accuracy this covers magnitudes from 1 to about 1e17, or any 17 decades.
+	static final int MAX_BUCKETS = 2048;
+
+	// Values closer to zero than this are counted as zero.
+	private static final double MIN_INDEXABLE_VALUE = 1e-9;
+
+	private final double relativeAccuracy;
+	private final double logGamma;
+
+	private long count;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+	private double mean;
+	private double m2;
+
+	private final Buckets positive = new Buckets();
+	private final Buckets negative = new Buckets();
+	private long zeroCount;
+
+	public TemperatureStatistics() {
+		this(DEFAULT_RELATIVE_ACCURACY);
+	}
+
+	public TemperatureStatistics(double relativeAccuracy) {
+		if(relativeAccuracy <= 0.0 || relativeAccuracy >= 1.0) {
+			throw new IllegalArgumentException("Relative accuracy must be in (0, 1), was " + relativeAccuracy);
+		}
+		this.relativeAccuracy = relativeAccuracy;
+		this.logGamma = Math.log((1 + relativeAccuracy) / (1 - relativeAccuracy));
+	}
+
+	public TemperatureStatistics add(double value) {
+		if(Double.isNaN(value)) {
+			throw new IllegalArgumentException("Cannot add NaN");
+		}
+		// Welford's update keeps the variance numerically stable.
+		count++;
+		double delta = value - mean;
+		mean += delta / count;
+		m2 += delta * (value - mean);
+		min = Math.min(min, value);
+		max = Math.max(max, value);
+
+		if(value >= MIN_INDEXABLE_VALUE) {
+			positive.increment(index(value), 1);
+		} else if(value <= -MIN_INDEXABLE_VALUE) {
+			negative.increment(index(-value), 1);
+		} else {
+			zeroCount++;
+		}
+		return this;
+	}
+
+	/**
+	 * Adds every value summarized by {@code other}, which must use the same relative accuracy.
+	 */
+	public TemperatureStatistics merge(TemperatureStatistics other) {
+		if(Double.compare(relativeAccuracy, other.relativeAccuracy) != 0) {
+			throw new IllegalArgumentException("Cannot merge statistics with relative accuracy " + other.relativeAccuracy
+					+ " into " + relativeAccuracy);
+		}
+		if(other.count == 0) {
+			return this;
+		}
+		long total = count + other.count;
+		double delta = other.mean - mean;
+		m2 += other.m2 + delta * delta * count * other.count / total;
+		mean += delta * other.count / total;
+		count = total;
+		min = Math.min(min, other.min);
+		max = Math.max(max, other.max);
+		positive.merge(other.positive);
+		negative.merge(other.negative);
+		zeroCount += other.zeroCount;
+		return this;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	public double getMin() {
+		return min;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? Double.NaN : mean;
+	}
+
+	public double getVariance() {
+		return count == 0 ? Double.NaN : m2 / count;
+	}
+
+	public double getStandardDeviation() {
+		return Math.sqrt(getVariance());
+	}
+
+	public double getRelativeAccuracy() {
+		return relativeAccuracy;
+	}
+
+	/**
+	 * Returns the value at {@code quantile} (0.5 for the median), within the relative accuracy of the exact value.
+	 */
+	public double getPercentile(double quantile) {
+		if(quantile < 0.0 || quantile > 1.0) {
+			throw new IllegalArgumentException("Quantile must be in [0, 1], was " + quantile);
+		}
+		if(count == 0) {
+			return Double.NaN;
+		}
+		if(quantile == 0.0) {
+			return min;
+		}
+		if(quantile == 1.0) {
+			return max;
+		}
+
+		long rank = (long) (quantile * (count - 1));
+		double value;
+		if(rank < negative.total) {
+			value = -value(negative.indexOfRank(negative.total - 1 - rank));
+		} else if(rank < negative.total + zeroCount) {
+			value = 0.0;
+		} else {
+			value = value(positive.indexOfRank(rank - negative.total - zeroCount));
+		}
+		return Math.max(min, Math.min(max, value));
+	}
+
+	/**
+	 * Rebuilds statistics from the state exposed to {@link IoTMessageSerializer}.
+	 */
+	static TemperatureStatistics restore(double relativeAccuracy, long count, double min, double max, double mean, double m2,
+	                                     long zeroCount, int positiveOffset, long[] positiveCounts, int negativeOffset,
+	                                     long[] negativeCounts) {
+		TemperatureStatistics statistics = new TemperatureStatistics(relativeAccuracy);
+		statistics.count = count;
+		statistics.min = min;
+		statistics.max = max;
+		statistics.mean = mean;
+		statistics.m2 = m2;
+		statistics.zeroCount = zeroCount;
+		statistics.positive.restore(positiveOffset, positiveCounts);
+		statistics.negative.restore(negativeOffset, negativeCounts);
+		return statistics;
+	}
+
+	double getSecondMoment() {
+		return m2;
+	}
+
+	long getZeroCount() {
+		return zeroCount;
+	}
+
+	int getBucketOffset(boolean positiveValues) {
+		return (positiveValues ? positive : negative).offset;
+	}
+
+	long[] getBucketCounts(boolean positiveValues) {
+		return (positiveValues ? positive : negative).counts;
+	}
+
+	private int index(double value) {
+		return (int) Math.ceil(Math.log(value) / logGamma);
+	}
+
+	private double value(int index) {
+		// Middle of the bucket (gamma^(index-1), gamma^index] in the relative sense.
+		return 2 * Math.exp(index * logGamma) / (1 + Math.exp(logGamma));
+	}
+
+	@Override
+	public String toString() {
+		return "TemperatureStatistics{count=" + count + ", min=" + min + ", max=" + max + ", mean=" + getMean()
+				+ ", stddev=" + getStandardDeviation() + ", p50=" + getPercentile(0.5) + ", p99=" + getPercentile(0.99) + "}";
+	}
+
+	/**
+	 * Dense bucket counts for indexes {@code offset .. offset + counts.length - 1}, grown on demand up to
+	 * {@link #MAX_BUCKETS}. Lower indexes than the range holds then are counted in its lowest bucket.
+	 */
+	private static final class Buckets implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private long[] counts = new long[0];
+		private int offset;
+		private long total;
+
+		private void increment(int index, long by) {
+			if(counts.length == 0) {
+				counts = new long[8];
+				offset = index - 4;
+			} else if(index < offset && counts.length < MAX_BUCKETS || index >= offset + counts.length) {
+				grow(index);
+			}
+			counts[Math.max(index, offset) - offset] += by;
+			total += by;
+		}
+
+		private void grow(int index) {
+			int low = Math.min(offset, index);
+			int high = Math.max(offset + counts.length - 1, index);
+			if(high - low >= MAX_BUCKETS) {
+				low = high - MAX_BUCKETS + 1;
+			}
+			int newLength = Math.min(MAX_BUCKETS, Math.max(high - low + 1, counts.length * 2));
+			// Spare room goes on the side that grew, where the next values are likely to land.
+			int newOffset = index < offset ? high - newLength + 1 : low;
+			long[] grown = new long[newLength];
+			for(int i = 0; i < counts.length; i++) {
+				grown[Math.max(offset + i, newOffset) - newOffset] += counts[i];
+			}
+			counts = grown;
+			offset = newOffset;
+		}
+
+		private void restore(int offset, long[] counts) {
+			this.counts = new long[0];
+			this.offset = 0;
+			total = 0;
+			for(int i = 0; i < counts.length; i++) {
+				if(counts[i] != 0) {
+					increment(offset + i, counts[i]);
+				}
+			}
+		}
+
+		private void merge(Buckets other) {
+			for(int i = 0; i < other.counts.length; i++) {
+				if(other.counts[i] != 0) {
+					increment(other.offset + i, other.counts[i]);
+				}
+			}
+		}
+
+		private int indexOfRank(long rank) {
+			long seen = 0;
+			for(int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if(seen > rank) {
+					return offset + i;
+				}
+			}
+			throw new IllegalStateException("Rank " + rank + " out of " + total);
+		}
+	}
+}
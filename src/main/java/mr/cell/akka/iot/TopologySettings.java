@@ -0,0 +1,80 @@
+package mr.cell.akka.iot;
+
+import com.typesafe.config.Config;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public final class TopologySettings {
+
+	private final boolean enabled;
+	private final Path file;
+	private final FiniteDuration snapshotInterval;
+	private final FiniteDuration snapshotTimeout;
+	private final FiniteDuration restoreTimeout;
+	private final boolean includeReadings;
+
+	public TopologySettings(boolean enabled, Path file, FiniteDuration snapshotInterval, FiniteDuration snapshotTimeout,
+	                        FiniteDuration restoreTimeout, boolean includeReadings) {
+		if(snapshotInterval.toMillis() <= 0) {
+			throw new IllegalArgumentException("snapshot-interval must be positive, was " + snapshotInterval);
+		}
+		this.enabled = enabled;
+		this.file = file;
+		this.snapshotInterval = snapshotInterval;
+		this.snapshotTimeout = snapshotTimeout;
+		this.restoreTimeout = restoreTimeout;
+		this.includeReadings = includeReadings;
+	}
+
+	public static TopologySettings fromConfig(Config config) {
+		Config topology = config.getConfig("iot.topology");
+		return new TopologySettings(
+				topology.getBoolean("enabled"),
+				Paths.get(topology.getString("file")),
+				DeviceSettings.durationOf(topology, "snapshot-interval"),
+				DeviceSettings.durationOf(topology, "snapshot-timeout"),
+				DeviceSettings.durationOf(topology, "restore-timeout"),
+				topology.getBoolean("include-readings"));
+	}
+
+	/**
+	 * Enables topology snapshots into {@code file}.
+	 */
+	public TopologySettings withFile(Path file) {
+		return new TopologySettings(true, file, snapshotInterval, snapshotTimeout, restoreTimeout, includeReadings);
+	}
+
+	public TopologySettings withSnapshotInterval(FiniteDuration snapshotInterval) {
+		return new TopologySettings(enabled, file, snapshotInterval, snapshotTimeout, restoreTimeout, includeReadings);
+	}
+
+	public TopologySettings withIncludeReadings(boolean includeReadings) {
+		return new TopologySettings(enabled, file, snapshotInterval, snapshotTimeout, restoreTimeout, includeReadings);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	public FiniteDuration getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	public FiniteDuration getSnapshotTimeout() {
+		return snapshotTimeout;
+	}
+
+	public FiniteDuration getRestoreTimeout() {
+		return restoreTimeout;
+	}
+
+	public boolean isIncludeReadings() {
+		return includeReadings;
+	}
+}
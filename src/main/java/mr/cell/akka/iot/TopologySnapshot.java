@@ -0,0 +1,128 @@
+package mr.cell.akka.iot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * File holding the devices of every group of a DeviceManager and, optionally, their latest readings. The counts in
+ * the file are checked against its size, and a file that does not read back whole yields no groups at all, so a
+ * damaged snapshot restores an empty topology rather than part of one.
+ */
+public final class TopologySnapshot {
+
+	private static final int MAGIC = 0x494f5454;
+	private static final int VERSION = 1;
+	// Smallest encoding of a group: an empty group id and the device count.
+	private static final int MIN_GROUP_BYTES = 2 + 4;
+	// Smallest encoding of a device: an empty device id, and the reading flag with readings included.
+	private static final int MIN_DEVICE_BYTES = 2;
+
+	private TopologySnapshot() {
+	}
+
+	/**
+	 * Writes the groups to a temporary file, forces it to disk and then renames it over {@code file}, so a crash
+	 * leaves either the previous or the new snapshot behind. Returns the number of devices written.
+	 */
+	public static int write(Path file, Collection<DeviceGroup.GroupTopology> groups, boolean includeReadings) throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		if(directory != null) {
+			Files.createDirectories(directory);
+		}
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		int devices = 0;
+		try(FileOutputStream stream = new FileOutputStream(temporary.toFile());
+		    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(includeReadings);
+			out.writeInt(groups.size());
+			for(DeviceGroup.GroupTopology group : groups) {
+				List<String> deviceIds = group.getDeviceIds();
+				out.writeUTF(group.getGroupId());
+				out.writeInt(deviceIds.size());
+				for(int i = 0; i < deviceIds.size(); i++) {
+					out.writeUTF(deviceIds.get(i));
+					if(includeReadings) {
+						boolean hasReading = group.getTimestamps()[i] != DeviceGroup.GroupTopology.NO_READING;
+						out.writeBoolean(hasReading);
+						if(hasReading) {
+							out.writeLong(group.getTimestamps()[i]);
+							out.writeDouble(group.getValues()[i]);
+						}
+					}
+				}
+				devices += deviceIds.size();
+			}
+			out.flush();
+			stream.getFD().sync();
+		}
+		Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		return devices;
+	}
+
+	/**
+	 * Reads the whole snapshot in {@code file} and then hands every group to {@code handler}. Returns false if
+	 * there is no snapshot, and throws before handing out any group if the file is damaged.
+	 */
+	public static boolean read(Path file, Consumer<DeviceGroup.GroupTopology> handler) throws IOException {
+		if(!Files.isRegularFile(file)) {
+			return false;
+		}
+		List<DeviceGroup.GroupTopology> topologies;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.toFile()), 1 << 16))) {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unsupported topology snapshot format in " + file);
+			}
+			boolean includeReadings = in.readBoolean();
+			int groups = readCount(in, MIN_GROUP_BYTES, file);
+			topologies = new ArrayList<>(groups);
+			for(int g = 0; g < groups; g++) {
+				String groupId = in.readUTF();
+				int size = readCount(in, MIN_DEVICE_BYTES + (includeReadings ? 1 : 0), file);
+				List<String> deviceIds = new ArrayList<>(size);
+				long[] timestamps = new long[size];
+				double[] values = new double[size];
+				Arrays.fill(timestamps, DeviceGroup.GroupTopology.NO_READING);
+				for(int i = 0; i < size; i++) {
+					deviceIds.add(in.readUTF());
+					if(includeReadings && in.readBoolean()) {
+						timestamps[i] = in.readLong();
+						values[i] = in.readDouble();
+					}
+				}
+				topologies.add(new DeviceGroup.GroupTopology(groupId, deviceIds, timestamps, values));
+			}
+			if(in.read() != -1) {
+				throw new IOException("Corrupt topology snapshot " + file + ", trailing bytes after " + groups + " groups");
+			}
+		}
+		topologies.forEach(handler);
+		return true;
+	}
+
+	/**
+	 * Reads a count and checks that the rest of the file can hold that many entries of at least {@code minBytes},
+	 * so a damaged count fails the read instead of allocating for it.
+	 */
+	private static int readCount(DataInputStream in, int minBytes, Path file) throws IOException {
+		int count = in.readInt();
+		if(count < 0 || (long) count * minBytes > in.available()) {
+			throw new IOException("Corrupt topology snapshot " + file + ", count " + count + " does not fit the rest of the file");
+		}
+		return count;
+	}
+}
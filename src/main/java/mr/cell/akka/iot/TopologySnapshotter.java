@@ -0,0 +1,148 @@
+package mr.cell.akka.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes one topology snapshot of a DeviceManager: asks its shards for their groups, asks every group for its
+ * topology and writes the answers with {@link TopologySnapshot} on the blocking-io dispatcher, then stops once the
+ * file is written. If the shards or groups do not all answer within the snapshot timeout, nothing is written and
+ * the previous snapshot stays in place.
+ */
+public class TopologySnapshotter extends AbstractActor {
+
+	private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+
+	private final Collection<ActorRef> shards;
+	private final TopologySettings settings;
+	private final List<DeviceGroup.GroupTopology> topologies = new ArrayList<>();
+	private final Set<ActorRef> pendingGroups = new HashSet<>();
+	private final long started = System.nanoTime();
+	private int pendingShards;
+	private boolean writing;
+	private Cancellable timeout;
+
+	public static Props props(Collection<ActorRef> shards, TopologySettings settings) {
+		return Props.create(TopologySnapshotter.class, shards, settings)
+				.withDispatcher(IoTDispatchers.COORDINATION).withMailbox(IoTDispatchers.SHORT_LIVED_MAILBOX);
+	}
+
+	public TopologySnapshotter(Collection<ActorRef> shards, TopologySettings settings) {
+		this.shards = shards;
+		this.settings = settings;
+	}
+
+	@Override
+	public void preStart() throws Exception {
+		pendingShards = shards.size();
+		for(ActorRef shard : shards) {
+			shard.tell(new DeviceManager.RequestGroupActors(), getSelf());
+		}
+		timeout = getContext().getSystem().scheduler().scheduleOnce(settings.getSnapshotTimeout(), getSelf(),
+				new SnapshotTimeout(), getContext().dispatcher(), getSelf());
+	}
+
+	@Override
+	public void postStop() throws Exception {
+		timeout.cancel();
+	}
+
+	private void onGroupActors(DeviceManager.GroupActors groupsMsg) {
+		pendingShards--;
+		for(ActorRef group : groupsMsg.getGroups()) {
+			pendingGroups.add(group);
+			getContext().watch(group);
+			group.tell(new DeviceGroup.RequestTopology(), getSelf());
+		}
+		writeWhenComplete();
+	}
+
+	private void onGroupTopology(DeviceGroup.GroupTopology topology) {
+		if(pendingGroups.remove(getSender())) {
+			getContext().unwatch(getSender());
+			topologies.add(topology);
+		}
+		writeWhenComplete();
+	}
+
+	private void onTerminated(Terminated t) {
+		// A stopped group has no devices left to snapshot.
+		pendingGroups.remove(t.getActor());
+		writeWhenComplete();
+	}
+
+	private void onSnapshotTimeout(SnapshotTimeout timeoutMsg) {
+		if(writing) {
+			return;
+		}
+		log.warning("Topology snapshot abandoned, {} shards and {} groups did not answer within {}. Keeping the previous snapshot.",
+				pendingShards, pendingGroups.size(), settings.getSnapshotTimeout());
+		getContext().stop(getSelf());
+	}
+
+	private void writeWhenComplete() {
+		if(pendingShards > 0 || !pendingGroups.isEmpty() || writing) {
+			return;
+		}
+		// The DeviceManager starts the next snapshot only after this actor stopped, so it stays until the file is written.
+		writing = true;
+		timeout.cancel();
+		ActorRef self = getSelf();
+		CompletableFuture.supplyAsync(() -> {
+			try {
+				return TopologySnapshot.write(settings.getFile(), topologies, settings.isIncludeReadings());
+			} catch(IOException e) {
+				throw new CompletionException(e);
+			}
+		}, getContext().getSystem().dispatchers().lookup(IoTDispatchers.BLOCKING_IO))
+				.whenComplete((devices, failure) -> self.tell(new SnapshotWritten(devices, failure), ActorRef.noSender()));
+	}
+
+	private void onSnapshotWritten(SnapshotWritten writtenMsg) {
+		if(writtenMsg.failure == null) {
+			log.info("Topology snapshot of {} devices in {} groups written to {} in {} ms.", writtenMsg.devices, topologies.size(),
+					settings.getFile(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+		} else {
+			log.error(writtenMsg.failure, "Cannot write topology snapshot to {}.", settings.getFile());
+		}
+		getContext().stop(getSelf());
+	}
+
+	@Override
+	public Receive createReceive() {
+		return receiveBuilder()
+				.match(DeviceManager.GroupActors.class, this::onGroupActors)
+				.match(DeviceGroup.GroupTopology.class, this::onGroupTopology)
+				.match(Terminated.class, this::onTerminated)
+				.match(SnapshotTimeout.class, this::onSnapshotTimeout)
+				.match(SnapshotWritten.class, this::onSnapshotWritten)
+				.build();
+	}
+
+	private static final class SnapshotTimeout { }
+
+	private static final class SnapshotWritten {
+		private final Integer devices;
+		private final Throwable failure;
+
+		private SnapshotWritten(Integer devices, Throwable failure) {
+			this.devices = devices;
+			this.failure = failure;
+		}
+	}
+}
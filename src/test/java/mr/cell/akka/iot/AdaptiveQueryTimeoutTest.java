@@ -0,0 +1,93 @@
+package mr.cell.akka.iot;
+
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveQueryTimeoutTest {
+
+	private static final long DEFAULT_NANOS = TimeUnit.SECONDS.toNanos(3);
+	private static final long MARGIN_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private static QueryTimeoutSettings settings(boolean adaptive) {
+		return new QueryTimeoutSettings(new FiniteDuration(3, TimeUnit.SECONDS), adaptive, 0.999,
+				new FiniteDuration(100, TimeUnit.MILLISECONDS), 10);
+	}
+
+	private static int[] replies(int devices, long latencyMicros) {
+		int[] histogram = AdaptiveQueryTimeout.newHistogram();
+		for(int i = 0; i < devices; i++) {
+			AdaptiveQueryTimeout.count(histogram, TimeUnit.MICROSECONDS.toNanos(latencyMicros));
+		}
+		return histogram;
+	}
+
+	@Test
+	public void testUseDefaultUntilEnoughSamples() {
+		AdaptiveQueryTimeout timeout = new AdaptiveQueryTimeout(settings(true));
+		for(int i = 0; i < 9; i++) {
+			timeout.record(replies(100, 5000), 0, DEFAULT_NANOS);
+		}
+		assertEquals(DEFAULT_NANOS, timeout.timeout().toNanos());
+
+		timeout.record(replies(100, 5000), 0, DEFAULT_NANOS);
+		long learned = timeout.timeout().toNanos();
+		assertTrue(learned >= TimeUnit.MILLISECONDS.toNanos(5) + MARGIN_NANOS);
+		// Buckets are a quarter of a power of two wide, so the quantile is overestimated by at most 25%.
+		assertTrue(learned <= TimeUnit.MICROSECONDS.toNanos(6250) + MARGIN_NANOS);
+	}
+
+	@Test
+	public void testFollowTheSlowestReplies() {
+		AdaptiveQueryTimeout timeout = new AdaptiveQueryTimeout(settings(true));
+		for(int i = 0; i < 10; i++) {
+			int[] histogram = replies(99, 2000);
+			AdaptiveQueryTimeout.count(histogram, TimeUnit.MILLISECONDS.toNanos(400));
+			timeout.record(histogram, 0, DEFAULT_NANOS);
+		}
+		long learned = timeout.timeout().toNanos();
+		assertTrue(learned >= TimeUnit.MILLISECONDS.toNanos(400) + MARGIN_NANOS);
+		assertTrue(learned < DEFAULT_NANOS);
+	}
+
+	@Test
+	public void testCountTimedOutDevicesAtTheTimeout() {
+		AdaptiveQueryTimeout timeout = new AdaptiveQueryTimeout(settings(true));
+		for(int i = 0; i < 10; i++) {
+			timeout.record(replies(100, 5000), 0, DEFAULT_NANOS);
+		}
+		long learned = timeout.timeout().toNanos();
+		assertTrue(learned < TimeUnit.MILLISECONDS.toNanos(200));
+
+		// One device of 100 timing out is more than the quantile leaves out, so once it outweighs the earlier
+		// queries the timeout grows by at least the margin per query until it is back at the default.
+		for(int i = 0; i < 100; i++) {
+			long current = timeout.timeout().toNanos();
+			timeout.record(replies(99, 5000), 1, current);
+			assertTrue(timeout.timeout().toNanos() >= current);
+		}
+		assertEquals(DEFAULT_NANOS, timeout.timeout().toNanos());
+	}
+
+	@Test
+	public void testTolerateTimeoutsTheQuantileLeavesOut() {
+		AdaptiveQueryTimeout timeout = new AdaptiveQueryTimeout(settings(true));
+		// One device of 2000 timing out in every query is within the 0.1% that the 0.999 quantile leaves out.
+		for(int i = 0; i < 20; i++) {
+			timeout.record(replies(1999, 5000), 1, timeout.timeout().toNanos());
+		}
+		assertTrue(timeout.timeout().toNanos() < TimeUnit.MILLISECONDS.toNanos(200));
+	}
+
+	@Test
+	public void testKeepDefaultWhenNotAdaptive() {
+		AdaptiveQueryTimeout timeout = new AdaptiveQueryTimeout(settings(false));
+		for(int i = 0; i < 100; i++) {
+			timeout.record(replies(100, 5000), 0, DEFAULT_NANOS);
+		}
+		assertEquals(DEFAULT_NANOS, timeout.timeout().toNanos());
+	}
+}
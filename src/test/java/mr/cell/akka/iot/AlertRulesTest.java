@@ -0,0 +1,105 @@
+package mr.cell.akka.iot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlertRulesTest {
+
+	private final List<String> transitions = new ArrayList<>();
+	private final AlertRules.Listener listener = (ruleId, raised, value, timestamp) ->
+			transitions.add(ruleId + (raised ? " raised at " : " cleared at ") + value);
+
+	@Test
+	public void testRaiseAndClearThresholdsOnce() {
+		AlertRules rules = new AlertRules(Arrays.asList(AlertRule.above("hot", 30.0), AlertRule.below("cold", 0.0)));
+
+		rules.evaluate(20.0, 1L, listener);
+		rules.evaluate(31.0, 2L, listener);
+		rules.evaluate(35.0, 3L, listener);
+		rules.evaluate(30.0, 4L, listener);
+		rules.evaluate(-1.0, 5L, listener);
+
+		assertEquals(Arrays.asList("hot raised at 31.0", "hot cleared at 30.0", "cold raised at -1.0"), transitions);
+		assertTrue(rules.isFiring("cold"));
+		assertFalse(rules.isFiring("hot"));
+	}
+
+	@Test
+	public void testRateOfChangePerSecond() {
+		AlertRules rules = new AlertRules(Collections.singletonList(AlertRule.rateOfChange("jump", 1.0)));
+
+		rules.evaluate(20.0, 1_000L, listener);
+		// 2 degrees in 4 seconds is 0.5 per second.
+		rules.evaluate(22.0, 5_000L, listener);
+		// A reading without a later timestamp gives no rate.
+		rules.evaluate(40.0, 5_000L, listener);
+		rules.evaluate(25.0, 6_000L, listener);
+		rules.evaluate(25.5, 7_000L, listener);
+
+		assertEquals(Arrays.asList("jump raised at 25.0", "jump cleared at 25.5"), transitions);
+	}
+
+	@Test
+	public void testNOfMOverSlidingWindow() {
+		AlertRules rules = new AlertRules(Collections.singletonList(AlertRule.nOfM("flaky", 25.0, 2, 3)));
+
+		double[] values = {26.0, 20.0, 20.0, 26.0, 20.0, 26.0, 20.0, 20.0};
+		for(int i = 0; i < values.length; i++) {
+			rules.evaluate(values[i], i, listener);
+		}
+
+		// Windows: 1, 10, 100, 001, 010, 101, 010, 100.
+		assertEquals(Arrays.asList("flaky raised at 26.0", "flaky cleared at 20.0"), transitions);
+	}
+
+	@Test
+	public void testWindowOfSixtyFourReadings() {
+		AlertRules rules = new AlertRules(Collections.singletonList(AlertRule.nOfM("flaky", 25.0, 64, 64)));
+
+		for(int i = 0; i < 63; i++) {
+			rules.evaluate(26.0, i, listener);
+		}
+		assertTrue(transitions.isEmpty());
+		rules.evaluate(26.0, 63L, listener);
+		assertEquals(Collections.singletonList("flaky raised at 26.0"), transitions);
+	}
+
+	@Test
+	public void testKeepStateOfUnchangedRules() {
+		AlertRules rules = new AlertRules(Collections.singletonList(AlertRule.above("hot", 30.0)));
+		rules.evaluate(31.0, 1L, listener);
+
+		AlertRules recompiled = new AlertRules(Arrays.asList(AlertRule.above("hot", 30.0), AlertRule.above("warm", 25.0)), rules);
+		recompiled.evaluate(32.0, 2L, listener);
+		AlertRules changed = new AlertRules(Collections.singletonList(AlertRule.above("hot", 35.0)), recompiled);
+		changed.evaluate(36.0, 3L, listener);
+
+		assertEquals(Arrays.asList("hot raised at 31.0", "warm raised at 32.0", "hot raised at 36.0"), transitions);
+	}
+
+	@Test
+	public void testClearRaisedRulesThatAreDropped() {
+		AlertRules rules = new AlertRules(Arrays.asList(AlertRule.above("hot", 30.0), AlertRule.above("warm", 25.0),
+				AlertRule.below("cold", 0.0)));
+		rules.evaluate(31.0, 1L, listener);
+
+		AlertRules changed = new AlertRules(Arrays.asList(AlertRule.above("hot", 30.0), AlertRule.above("warm", 28.0)), rules);
+		rules.clearDropped(changed, listener);
+		changed.clearDropped(null, listener);
+
+		assertEquals(Arrays.asList("hot raised at 31.0", "warm raised at 31.0", "warm cleared at 31.0", "hot cleared at 31.0"),
+				transitions);
+		assertFalse(changed.isFiring("hot"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectWindowLongerThanSixtyFour() {
+		AlertRule.nOfM("flaky", 25.0, 1, 65);
+	}
+}
@@ -0,0 +1,108 @@
+package mr.cell.akka.iot;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.DeadLetter;
+import akka.actor.Props;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CountingBoundedMailboxTest {
+
+	private static ActorSystem system;
+
+	@BeforeClass
+	public static void setupBeforeClass() {
+		system = ActorSystem.create("mailbox-test", ConfigFactory.parseString(
+				"small-mailbox {\n" +
+				"  mailbox-type = \"mr.cell.akka.iot.CountingBoundedMailbox\"\n" +
+				"  mailbox-capacity = 3\n" +
+				"}\n" +
+				"akka.loglevel = WARNING\n")
+				.withFallback(ConfigFactory.load()));
+	}
+
+	@AfterClass
+	public static void terminate() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	@Test
+	public void testMessagesBeyondCapacityAreCountedAndDeadLettered() throws Exception {
+		TestKit probe = new TestKit(system);
+		TestKit deadLetters = new TestKit(system);
+		system.eventStream().subscribe(deadLetters.getRef(), DeadLetter.class);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ActorRef actor = system.actorOf(Props.create(BlockingEcho.class, started, release).withMailbox("small-mailbox"));
+
+		actor.tell(0, probe.getRef());
+		assertTrue(started.await(3, TimeUnit.SECONDS));
+		for(int i = 1; i <= 10; i++) {
+			actor.tell(i, probe.getRef());
+		}
+		assertEquals(7L, MailboxOverflow.get(system).getOverflowCount("small-mailbox"));
+		assertEquals(4, deadLetters.expectMsgClass(DeadLetter.class).message());
+
+		release.countDown();
+		for(int i = 0; i <= 3; i++) {
+			probe.expectMsgEquals(i);
+		}
+		probe.expectNoMsg();
+		assertEquals(Long.valueOf(7L), MailboxOverflow.get(system).getOverflowCounts().get("small-mailbox"));
+	}
+
+	@Test
+	public void testTiersRunOnTheirDispatchers() {
+		assertEquals(IoTDispatchers.DEVICE, Device.props("group", "device").dispatcher());
+		assertEquals(IoTDispatchers.COORDINATION, DeviceManager.props().dispatcher());
+		assertEquals(IoTDispatchers.COORDINATION, DeviceGroup.props("group").dispatcher());
+		assertEquals(IoTDispatchers.COORDINATION, DeviceGroup.entityProps().dispatcher());
+		assertEquals(IoTDispatchers.QUERY, DeviceGroupQuery.props(new ActorRef[0], new String[0], new HashMap<>(), 0L,
+				ActorRef.noSender(), new FiniteDuration(1, TimeUnit.SECONDS), DeviceGroup.CompletionPolicy.all()).dispatcher());
+		assertTrue(system.dispatchers().hasDispatcher(IoTDispatchers.DEVICE));
+		assertTrue(system.dispatchers().hasDispatcher(IoTDispatchers.COORDINATION));
+		assertTrue(system.dispatchers().hasDispatcher(IoTDispatchers.QUERY));
+
+		TestKit probe = new TestKit(system);
+		ActorRef device = system.actorOf(Device.props("group", "device"));
+		device.tell(new Device.RecordTemperature(1L, 21.5), probe.getRef());
+		probe.expectMsgClass(Device.TemperatureRecorded.class);
+		assertEquals(0L, MailboxOverflow.get(system).getOverflowCount(IoTDispatchers.DEVICE));
+	}
+
+	public static class BlockingEcho extends AbstractActor {
+
+		private final CountDownLatch started;
+		private final CountDownLatch release;
+
+		public BlockingEcho(CountDownLatch started, CountDownLatch release) {
+			this.started = started;
+			this.release = release;
+		}
+
+		@Override
+		public Receive createReceive() {
+			return receiveBuilder()
+					.matchEquals(0, message -> {
+						started.countDown();
+						release.await(3, TimeUnit.SECONDS);
+						getSender().tell(message, getSelf());
+					})
+					.matchAny(message -> getSender().tell(message, getSelf()))
+					.build();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.testkit.javadsl.TestKit;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DashboardManagerTest extends AbstractIoTTest {
+
+	private static final FiniteDuration NO_INTERVAL = new FiniteDuration(0, TimeUnit.MILLISECONDS);
+
+	private ActorRef trackDevice(ActorRef managerActor, String groupId, String deviceId) {
+		managerActor.tell(new DeviceManager.RequestTrackDevice(groupId, deviceId), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		return probe.getLastSender();
+	}
+
+	private void record(ActorRef device, double value) {
+		device.tell(new Device.RecordTemperature(0L, value), probe.getRef());
+		probe.expectMsgClass(Device.TemperatureRecorded.class);
+	}
+
+	private static Map<String, Double> valuesOf(DashboardManager.Frame frame) {
+		Map<String, Double> values = new HashMap<>();
+		frame.getUpdates().forEach(update -> values.put(update.getGroupId() + "/" + update.getDeviceId(), update.getValue()));
+		assertEquals("one update per device", frame.getUpdates().size(), values.size());
+		return values;
+	}
+
+	@Test
+	public void testPushReadingsRecordedBeforeAndAfterSubscribing() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		ActorRef device1 = trackDevice(managerActor, "group", "device1");
+		ActorRef device2 = trackDevice(managerActor, "group", "device2");
+		record(device1, 1.0);
+		ActorRef dashboardManager = system.actorOf(DashboardManager.props(managerActor));
+
+		TestKit dashboard = new TestKit(system);
+		dashboardManager.tell(new DashboardManager.Subscribe(1L, "group", Collections.emptySet(), NO_INTERVAL), dashboard.getRef());
+		assertEquals(1L, dashboard.expectMsgClass(DashboardManager.Subscribed.class).getRequestId());
+		DashboardManager.Frame first = dashboard.expectMsgClass(DashboardManager.Frame.class);
+		assertEquals(Collections.singletonMap("group/device1", 1.0), valuesOf(first));
+		// Only the value of a reading recorded before the subscription is known.
+		assertEquals(Optional.empty(), first.getUpdates().get(0).getTimestamp());
+		dashboard.getLastSender().tell(new DashboardManager.FrameAck(first.getFrameNr()), dashboard.getRef());
+
+		long before = System.currentTimeMillis();
+		record(device2, 2.0);
+		DashboardManager.Frame second = dashboard.expectMsgClass(DashboardManager.Frame.class);
+		assertEquals(first.getFrameNr() + 1, second.getFrameNr());
+		assertEquals(Collections.singletonMap("group/device2", 2.0), valuesOf(second));
+		assertTrue(second.getUpdates().get(0).getTimestamp().get() >= before);
+	}
+
+	@Test
+	public void testConflateChangesWhileFrameIsUnacknowledged() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		ActorRef device1 = trackDevice(managerActor, "group", "device1");
+		ActorRef device2 = trackDevice(managerActor, "group", "device2");
+		record(device1, 0.0);
+		ActorRef dashboardManager = system.actorOf(DashboardManager.props(managerActor));
+
+		TestKit dashboard = new TestKit(system);
+		dashboardManager.tell(new DashboardManager.Subscribe(1L, "group", Collections.emptySet(), NO_INTERVAL), dashboard.getRef());
+		dashboard.expectMsgClass(DashboardManager.Subscribed.class);
+		DashboardManager.Frame first = dashboard.expectMsgClass(DashboardManager.Frame.class);
+
+		record(device1, 1.0);
+		record(device1, 2.0);
+		record(device2, 3.0);
+		record(device1, 4.0);
+		dashboard.expectNoMsg(new FiniteDuration(300, TimeUnit.MILLISECONDS));
+
+		dashboardManager.tell(new DashboardManager.FrameAck(first.getFrameNr()), dashboard.getRef());
+		Map<String, Double> expected = new HashMap<>();
+		expected.put("group/device1", 4.0);
+		expected.put("group/device2", 3.0);
+		assertEquals(expected, valuesOf(dashboard.expectMsgClass(DashboardManager.Frame.class)));
+	}
+
+	@Test
+	public void testRateLimitFramesPerSubscriber() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		ActorRef device = trackDevice(managerActor, "group", "device");
+		record(device, 1.0);
+		ActorRef dashboardManager = system.actorOf(DashboardManager.props(managerActor));
+
+		TestKit dashboard = new TestKit(system);
+		dashboardManager.tell(new DashboardManager.Subscribe(1L, "group", Collections.emptySet(),
+				new FiniteDuration(800, TimeUnit.MILLISECONDS)), dashboard.getRef());
+		dashboard.expectMsgClass(DashboardManager.Subscribed.class);
+		DashboardManager.Frame first = dashboard.expectMsgClass(DashboardManager.Frame.class);
+		long firstFrameAt = System.nanoTime();
+		dashboardManager.tell(new DashboardManager.FrameAck(first.getFrameNr()), dashboard.getRef());
+
+		record(device, 2.0);
+		DashboardManager.Frame second = dashboard.expectMsgClass(new FiniteDuration(3, TimeUnit.SECONDS), DashboardManager.Frame.class);
+		assertTrue(System.nanoTime() - firstFrameAt >= TimeUnit.MILLISECONDS.toNanos(800));
+		assertEquals(Collections.singletonMap("group/device", 2.0), valuesOf(second));
+	}
+
+	@Test
+	public void testFilterDevicesAndShareGroupSubscription() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		ActorRef device1 = trackDevice(managerActor, "group", "device1");
+		ActorRef device2 = trackDevice(managerActor, "group", "device2");
+		ActorRef dashboardManager = system.actorOf(DashboardManager.props(managerActor));
+
+		TestKit all = new TestKit(system);
+		TestKit filtered = new TestKit(system);
+		dashboardManager.tell(new DashboardManager.Subscribe(1L, "group", Collections.emptySet(), NO_INTERVAL), all.getRef());
+		all.expectMsgClass(DashboardManager.Subscribed.class);
+		dashboardManager.tell(new DashboardManager.Subscribe(2L, "group", Collections.singleton("device2"), NO_INTERVAL), filtered.getRef());
+		filtered.expectMsgClass(DashboardManager.Subscribed.class);
+
+		// Both subscribers are served by one group subscription, established before the first change arrives.
+		probe.awaitAssert(() -> {
+			record(device1, 1.0);
+			all.expectMsgClass(new FiniteDuration(200, TimeUnit.MILLISECONDS), DashboardManager.Frame.class);
+			return null;
+		});
+		record(device2, 2.0);
+		DashboardManager.Frame frame = filtered.expectMsgClass(DashboardManager.Frame.class);
+		assertEquals(Collections.singletonMap("group/device2", 2.0), valuesOf(frame));
+		filtered.expectNoMsg(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testSubscribeToGroupCreatedLater() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		ActorRef dashboardManager = system.actorOf(DashboardManager.props(managerActor,
+				DashboardSettings.fromConfig(system.settings().config())
+						.withResubscribeInterval(new FiniteDuration(100, TimeUnit.MILLISECONDS))));
+
+		TestKit dashboard = new TestKit(system);
+		dashboardManager.tell(new DashboardManager.Subscribe(1L, "later", Collections.emptySet(), NO_INTERVAL), dashboard.getRef());
+		dashboard.expectMsgClass(DashboardManager.Subscribed.class);
+
+		ActorRef device = trackDevice(managerActor, "later", "device");
+		record(device, 5.0);
+		DashboardManager.Frame frame = dashboard.expectMsgClass(new FiniteDuration(3, TimeUnit.SECONDS), DashboardManager.Frame.class);
+		assertEquals(Collections.singletonMap("later/device", 5.0), valuesOf(frame));
+	}
+
+	@Test
+	public void testReachGroupsThroughSiblingDeviceManager() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props(), DashboardManager.DEVICE_MANAGER);
+		record(trackDevice(managerActor, "group", "device"), 1.0);
+		ActorRef dashboardManager = system.actorOf(DashboardManager.props());
+
+		TestKit dashboard = new TestKit(system);
+		dashboardManager.tell(new DashboardManager.Subscribe(1L, "group", Collections.emptySet(), NO_INTERVAL), dashboard.getRef());
+		dashboard.expectMsgClass(DashboardManager.Subscribed.class);
+		assertEquals(Collections.singletonMap("group/device", 1.0), valuesOf(dashboard.expectMsgClass(DashboardManager.Frame.class)));
+	}
+
+	@Test
+	public void testForgetSubscriberThatLeftItsLastGroup() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		record(trackDevice(managerActor, "group", "device"), 1.0);
+		ActorRef dashboardManager = system.actorOf(DashboardManager.props(managerActor));
+
+		TestKit dashboard = new TestKit(system);
+		dashboardManager.tell(new DashboardManager.Subscribe(1L, "group", Collections.emptySet(), NO_INTERVAL), dashboard.getRef());
+		dashboard.expectMsgClass(DashboardManager.Subscribed.class);
+		assertEquals(1L, dashboard.expectMsgClass(DashboardManager.Frame.class).getFrameNr());
+		dashboardManager.tell(new DashboardManager.Unsubscribe(2L, "group"), dashboard.getRef());
+		dashboard.expectMsgClass(DashboardManager.Unsubscribed.class);
+
+		// Subscribing again starts over, so the unacknowledged frame of before holds nothing back.
+		dashboardManager.tell(new DashboardManager.Subscribe(3L, "group", Collections.emptySet(), NO_INTERVAL), dashboard.getRef());
+		dashboard.expectMsgClass(DashboardManager.Subscribed.class);
+		assertEquals(1L, dashboard.expectMsgClass(DashboardManager.Frame.class).getFrameNr());
+	}
+
+	@Test
+	public void testForwardAlertsOfWantedDevices() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		ActorRef device1 = trackDevice(managerActor, "group", "device1");
+		ActorRef device2 = trackDevice(managerActor, "group", "device2");
+		managerActor.tell(new DeviceManager.GroupEnvelope("group", new DeviceGroup.AddAlertRule(1L, AlertRule.above("hot", 30.0))), probe.getRef());
+		probe.expectMsgClass(DeviceGroup.AlertRulesUpdated.class);
+		ActorRef dashboardManager = system.actorOf(DashboardManager.props(managerActor));
+
+		TestKit dashboard = new TestKit(system);
+		dashboardManager.tell(new DashboardManager.Subscribe(1L, "group", Collections.singleton("device2"), NO_INTERVAL), dashboard.getRef());
+		dashboard.expectMsgClass(DashboardManager.Subscribed.class);
+
+		// Alerts pass the frames of unacknowledged changes.
+		probe.awaitAssert(() -> {
+			record(device2, 31.0);
+			record(device2, 20.0);
+			dashboard.fishForMessage(new FiniteDuration(200, TimeUnit.MILLISECONDS), "alert",
+					message -> message instanceof DeviceGroup.Alert && ((DeviceGroup.Alert) message).isRaised());
+			return null;
+		});
+		record(device1, 35.0);
+		record(device2, 36.0);
+		// Only the raised alert of device2 is left, device1 is not wanted.
+		DeviceGroup.Alert alert = (DeviceGroup.Alert) dashboard.fishForMessage(new FiniteDuration(3, TimeUnit.SECONDS), "alert",
+				message -> message instanceof DeviceGroup.Alert && ((DeviceGroup.Alert) message).isRaised());
+		assertEquals("device2", alert.getDeviceId());
+		assertEquals(36.0, alert.getValue(), 0.0);
+	}
+}
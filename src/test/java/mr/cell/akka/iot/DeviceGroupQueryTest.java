@@ -185,6 +185,198 @@ public class DeviceGroupQueryTest extends AbstractIoTTest {
 		assertEqualTemperatures(expectedTemperatures, response.getTemperatures());
 	}
 
+	@Test
+	public void testCompleteByAdvancedDeadline() {
+		TestKit device1 = new TestKit(system);
+		TestKit device2 = new TestKit(system);
+
+		Map<ActorRef, String> actorToDeviceId = new HashMap<>();
+		actorToDeviceId.put(device1.getRef(), "device1");
+		actorToDeviceId.put(device2.getRef(), "device2");
+
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+				actorToDeviceId,
+				1L,
+				probe.getRef(),
+				new FiniteDuration(10, TimeUnit.SECONDS)));
+
+		device1.expectMsgClass(Device.ReadTemperature.class);
+		device2.expectMsgClass(Device.ReadTemperature.class);
+		queryActor.tell(new Device.RespondTemperature(0L, Optional.of(1.0)), device1.getRef());
+
+		// A later deadline than its own leaves the query alone.
+		queryActor.tell(new DeviceGroupQuery.AdvanceDeadline(System.nanoTime() + TimeUnit.SECONDS.toNanos(20)), ActorRef.noSender());
+		queryActor.tell(new DeviceGroupQuery.AdvanceDeadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200)), ActorRef.noSender());
+
+		DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(
+				FiniteDuration.create(2, TimeUnit.SECONDS),
+				DeviceGroup.RespondAllTemperatures.class);
+		assertEquals(new DeviceGroup.Temperature(1.0), response.getTemperatures().get("device1"));
+		assertEquals(new DeviceGroup.DeviceTimeout(), response.getTemperatures().get("device2"));
+	}
+
+	@Test
+	public void testIgnoreDuplicateReplies() {
+		TestKit device1 = new TestKit(system);
+		TestKit device2 = new TestKit(system);
+
+		Map<ActorRef, String> actorToDeviceId = new HashMap<>();
+		actorToDeviceId.put(device1.getRef(), "device1");
+		actorToDeviceId.put(device2.getRef(), "device2");
+
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+				actorToDeviceId,
+				1L,
+				probe.getRef(),
+				new FiniteDuration(3, TimeUnit.SECONDS)));
+
+		queryActor.tell(new Device.RespondTemperature(0L, Optional.of(1.0)), device1.getRef());
+		queryActor.tell(new Device.RespondTemperature(0L, Optional.of(3.0)), device1.getRef());
+		queryActor.tell(new Device.RespondTemperature(0L, Optional.of(2.0)), device2.getRef());
+
+		DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+
+		Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+		expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+		expectedTemperatures.put("device2", new DeviceGroup.Temperature(2.0));
+
+		assertEqualTemperatures(expectedTemperatures, response.getTemperatures());
+	}
+
+	@Test
+	public void testReplyImmediatelyForEmptyGroup() {
+		system.actorOf(DeviceGroupQuery.props(new HashMap<>(), 1L, probe.getRef(), new FiniteDuration(3, TimeUnit.SECONDS)));
+
+		DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(
+				FiniteDuration.create(1, TimeUnit.SECONDS),
+				DeviceGroup.RespondAllTemperatures.class);
+		assertTrue(response.getTemperatures().isEmpty());
+	}
+
+	@Test
+	public void testReplyOnceQuorumHasAnswered() {
+		TestKit device1 = new TestKit(system);
+		TestKit device2 = new TestKit(system);
+		TestKit device3 = new TestKit(system);
+
+		Map<ActorRef, String> actorToDeviceId = new HashMap<>();
+		actorToDeviceId.put(device1.getRef(), "device1");
+		actorToDeviceId.put(device2.getRef(), "device2");
+		actorToDeviceId.put(device3.getRef(), "device3");
+
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+				actorToDeviceId,
+				1L,
+				probe.getRef(),
+				new FiniteDuration(3, TimeUnit.SECONDS),
+				DeviceGroup.CompletionPolicy.quorum(0.6)));
+
+		queryActor.tell(new Device.RespondTemperature(0L, Optional.of(1.0)), device1.getRef());
+		probe.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+		queryActor.tell(new Device.RespondTemperature(0L, Optional.of(2.0)), device2.getRef());
+
+		DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(
+				FiniteDuration.create(1, TimeUnit.SECONDS),
+				DeviceGroup.RespondAllTemperatures.class);
+
+		Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+		expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+		expectedTemperatures.put("device2", new DeviceGroup.Temperature(2.0));
+		expectedTemperatures.put("device3", new DeviceGroup.DeviceTimeout());
+
+		assertEqualTemperatures(expectedTemperatures, response.getTemperatures());
+	}
+
+	@Test
+	public void testStreamPartialTemperaturesAsRepliesArrive() {
+		TestKit device1 = new TestKit(system);
+		TestKit device2 = new TestKit(system);
+		TestKit device3 = new TestKit(system);
+
+		Map<ActorRef, String> actorToDeviceId = new HashMap<>();
+		actorToDeviceId.put(device1.getRef(), "device1");
+		actorToDeviceId.put(device2.getRef(), "device2");
+		actorToDeviceId.put(device3.getRef(), "device3");
+
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+				actorToDeviceId,
+				1L,
+				probe.getRef(),
+				new FiniteDuration(3, TimeUnit.SECONDS),
+				DeviceGroup.CompletionPolicy.incremental(2)));
+
+		queryActor.tell(new Device.RespondTemperature(0L, Optional.of(1.0)), device1.getRef());
+		queryActor.tell(new Device.RespondTemperature(0L, Optional.of(2.0)), device2.getRef());
+
+		DeviceGroup.PartialTemperatures first = probe.expectMsgClass(DeviceGroup.PartialTemperatures.class);
+		assertEquals(1L, first.getRequestId());
+		assertEquals(1, first.getRemaining());
+		assertEquals(2, first.getTemperatures().size());
+
+		queryActor.tell(new Device.RespondTemperature(0L, Optional.of(3.0)), device3.getRef());
+
+		DeviceGroup.PartialTemperatures second = probe.expectMsgClass(DeviceGroup.PartialTemperatures.class);
+		assertEquals(0, second.getRemaining());
+		assertEquals(new DeviceGroup.Temperature(3.0), second.getTemperatures().get("device3"));
+
+		DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+		assertEquals(3, response.getTemperatures().size());
+	}
+
+	@Test
+	public void testReplyAtSoftDeadlineAndCorrectLater() {
+		TestKit device1 = new TestKit(system);
+		TestKit device2 = new TestKit(system);
+
+		Map<ActorRef, String> actorToDeviceId = new HashMap<>();
+		actorToDeviceId.put(device1.getRef(), "device1");
+		actorToDeviceId.put(device2.getRef(), "device2");
+
+		ActorRef queryActor = system.actorOf(DeviceGroupQuery.props(
+				actorToDeviceId,
+				1L,
+				probe.getRef(),
+				new FiniteDuration(3, TimeUnit.SECONDS),
+				DeviceGroup.CompletionPolicy.softDeadline(new FiniteDuration(100, TimeUnit.MILLISECONDS))));
+
+		queryActor.tell(new Device.RespondTemperature(0L, Optional.of(1.0)), device1.getRef());
+
+		DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(
+				FiniteDuration.create(1, TimeUnit.SECONDS),
+				DeviceGroup.RespondAllTemperatures.class);
+		Map<String, DeviceGroup.TemperatureReading> expectedTemperatures = new HashMap<>();
+		expectedTemperatures.put("device1", new DeviceGroup.Temperature(1.0));
+		expectedTemperatures.put("device2", new DeviceGroup.DeviceTimeout());
+		assertEqualTemperatures(expectedTemperatures, response.getTemperatures());
+
+		queryActor.tell(new Device.RespondTemperature(0L, Optional.of(2.0)), device2.getRef());
+
+		DeviceGroup.CorrectedTemperatures correction = probe.expectMsgClass(DeviceGroup.CorrectedTemperatures.class);
+		assertEquals(1L, correction.getRequestId());
+		assertEquals(1, correction.getTemperatures().size());
+		assertEquals(new DeviceGroup.Temperature(2.0), correction.getTemperatures().get("device2"));
+	}
+
+	@Test
+	public void testNoCorrectionWhenNoDeviceAnswersAfterSoftDeadline() {
+		TestKit device1 = new TestKit(system);
+		TestKit device2 = new TestKit(system);
+
+		Map<ActorRef, String> actorToDeviceId = new HashMap<>();
+		actorToDeviceId.put(device1.getRef(), "device1");
+		actorToDeviceId.put(device2.getRef(), "device2");
+
+		system.actorOf(DeviceGroupQuery.props(
+				actorToDeviceId,
+				1L,
+				probe.getRef(),
+				new FiniteDuration(300, TimeUnit.MILLISECONDS),
+				DeviceGroup.CompletionPolicy.softDeadline(new FiniteDuration(100, TimeUnit.MILLISECONDS))));
+
+		probe.expectMsgClass(FiniteDuration.create(1, TimeUnit.SECONDS), DeviceGroup.RespondAllTemperatures.class);
+		probe.expectNoMsg(FiniteDuration.create(500, TimeUnit.MILLISECONDS));
+	}
+
 	@Test
 	public void testCollectTemperaturesFromAllActiveDevices() {
 		ActorRef deviceGroup = system.actorOf(DeviceGroup.props("group"), "group");
@@ -0,0 +1,127 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Address;
+import akka.cluster.Cluster;
+import akka.cluster.Member;
+import akka.cluster.MemberStatus;
+import akka.cluster.sharding.ShardRegion;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DeviceGroupShardingTest {
+
+	private static final int GROUPS = 10;
+	private static final FiniteDuration CLUSTER_TIMEOUT = new FiniteDuration(20, TimeUnit.SECONDS);
+
+	private ActorSystem node1;
+	private ActorSystem node2;
+	private ActorRef region1;
+	private ActorRef region2;
+
+	@Before
+	public void setup() {
+		Config config = ConfigFactory.parseString(
+				"akka.actor.provider = cluster\n" +
+				"akka.actor.warn-about-java-serializer-usage = off\n" +
+				"akka.remote.netty.tcp.hostname = 127.0.0.1\n" +
+				"akka.remote.netty.tcp.port = 0\n" +
+				"akka.cluster.jmx.multi-mbeans-in-same-jvm = on\n" +
+				"akka.cluster.sharding.retry-interval = 200ms\n" +
+				"akka.loglevel = WARNING\n")
+				.withFallback(ConfigFactory.load());
+		node1 = ActorSystem.create("iot-cluster", config);
+		node2 = ActorSystem.create("iot-cluster", config);
+		Address seed = Cluster.lookup().get(node1).selfAddress();
+		Cluster.lookup().get(node1).join(seed);
+		Cluster.lookup().get(node2).join(seed);
+
+		TestKit probe = new TestKit(node1);
+		probe.awaitCond(CLUSTER_TIMEOUT, () -> membersUp(node1) == 2 && membersUp(node2) == 2);
+
+		region1 = DeviceGroupSharding.start(node1);
+		region2 = DeviceGroupSharding.start(node2);
+		probe.awaitCond(CLUSTER_TIMEOUT, () -> {
+			region1.tell(ShardRegion.getCurrentRegionsInstance(), probe.getRef());
+			return probe.expectMsgClass(ShardRegion.CurrentRegions.class).getRegions().size() == 2;
+		});
+	}
+
+	@After
+	public void tearDown() {
+		TestKit.shutdownActorSystem(node2);
+		TestKit.shutdownActorSystem(node1);
+	}
+
+	private static int membersUp(ActorSystem node) {
+		int up = 0;
+		for(Member member : Cluster.lookup().get(node).state().getMembers()) {
+			if(member.status() == MemberStatus.up()) {
+				up++;
+			}
+		}
+		return up;
+	}
+
+	@Test
+	public void testSpreadGroupsOverNodesAndQueryFromAnyNode() {
+		TestKit probe = new TestKit(node2);
+		Set<Address> hosts = new HashSet<>();
+		for(int i = 0; i < GROUPS; i++) {
+			region2.tell(new DeviceManager.RequestTrackDevice("group" + i, "device"), probe.getRef());
+			probe.expectMsgClass(CLUSTER_TIMEOUT, DeviceManager.DeviceRegistered.class);
+			hosts.add(probe.getLastSender().path().address());
+			region2.tell(new DeviceManager.DeviceEnvelope("group" + i, "device", new Device.RecordTemperature(i, i)), probe.getRef());
+			probe.expectMsgClass(Device.TemperatureRecorded.class);
+		}
+		assertEquals(2, hosts.size());
+
+		TestKit client = new TestKit(node1);
+		for(int i = 0; i < GROUPS; i++) {
+			region1.tell(new DeviceManager.GroupEnvelope("group" + i, new DeviceGroup.RequestAllTemperatures(i)), client.getRef());
+			Map<String, DeviceGroup.TemperatureReading> temperatures =
+					client.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).getTemperatures();
+			assertEquals(new DeviceGroup.Temperature(i), temperatures.get("device"));
+		}
+	}
+
+	@Test
+	public void testMoveGroupsWhenNodeLeaves() {
+		TestKit probe = new TestKit(node1);
+		for(int i = 0; i < GROUPS; i++) {
+			region1.tell(new DeviceManager.RequestTrackDevice("group" + i, "device"), probe.getRef());
+			probe.expectMsgClass(CLUSTER_TIMEOUT, DeviceManager.DeviceRegistered.class);
+		}
+
+		Cluster.lookup().get(node2).leave(Cluster.lookup().get(node2).selfAddress());
+		probe.awaitCond(CLUSTER_TIMEOUT, () -> sizeOf(Cluster.lookup().get(node1).state().getMembers()) == 1);
+
+		for(int i = 0; i < GROUPS; i++) {
+			region1.tell(new DeviceManager.GroupEnvelope("group" + i, new DeviceGroup.RequestDeviceList(i)), probe.getRef());
+			assertEquals(i, probe.expectMsgClass(CLUSTER_TIMEOUT, DeviceGroup.ReplyDeviceList.class).getRequestId());
+			// Every group, including the ones node2 hosted, now runs on node1.
+			assertFalse(probe.getLastSender().path().address().hasGlobalScope());
+		}
+	}
+
+	private static int sizeOf(Iterable<Member> members) {
+		int size = 0;
+		for(Member ignored : members) {
+			size++;
+		}
+		return size;
+	}
+}
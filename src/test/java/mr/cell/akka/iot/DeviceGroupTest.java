@@ -1,10 +1,25 @@
 package mr.cell.akka.iot;
 
 import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
 import akka.actor.PoisonPill;
+import akka.actor.Terminated;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -15,6 +30,9 @@ import static org.junit.Assert.*;
  */
 public class DeviceGroupTest extends AbstractIoTTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void testRegisterDeviceActor() {
 		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
@@ -34,6 +52,28 @@ public class DeviceGroupTest extends AbstractIoTTest {
 		assertEquals(1L, probe.expectMsgClass(Device.TemperatureRecorded.class).getRequestId());
 	}
 
+	@Test
+	public void testRecordTemperatureBatchWithSingleAck() {
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor1 = probe.getLastSender();
+
+		DeviceManager.DeviceReading unknown = new DeviceManager.DeviceReading("group", "device2", 2.0, 2L);
+		groupActor.tell(new DeviceManager.RecordTemperatureBatch(7L, Arrays.asList(
+				new DeviceManager.DeviceReading("group", "device1", 1.0, 1L),
+				unknown)), probe.getRef());
+
+		DeviceManager.TemperatureBatchRecorded ack = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+		assertEquals(7L, ack.getRequestId());
+		assertEquals(1, ack.getRecorded());
+		assertEquals(Arrays.asList(unknown), ack.getRejected());
+
+		deviceActor1.tell(new Device.ReadTemperature(1L), probe.getRef());
+		assertEquals(Optional.of(1.0), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+	}
+
 	@Test
 	public void testIgnoreRequestsForWrongGroupId() {
 		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
@@ -58,6 +98,35 @@ public class DeviceGroupTest extends AbstractIoTTest {
 		assertEquals(deviceIds, reply.getDeviceIds());
 	}
 
+	@Test
+	public void testRegisterDevicesInBulk() {
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef device1 = probe.getLastSender();
+
+		groupActor.tell(new DeviceManager.RequestTrackDevices("group",
+				Arrays.asList("device1", "device2", "device3", "device2")), probe.getRef());
+		DeviceManager.DevicesRegistered registered = probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+		assertEquals("group", registered.getGroupId());
+		assertEquals(2, registered.getRegistered());
+		assertEquals(2, registered.getAlreadyRegistered());
+
+		groupActor.tell(new DeviceGroup.RequestDeviceList(0L), probe.getRef());
+		assertEquals(Stream.of("device1", "device2", "device3").collect(Collectors.toSet()),
+				probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).getDeviceIds());
+
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		assertEquals(device1, probe.getLastSender());
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device3"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+		groupActor.tell(new DeviceManager.RequestTrackDevices("wrongGroup", Arrays.asList("device4")), probe.getRef());
+		probe.expectNoMsg(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+	}
+
 	@Test
 	public void testListActiveDevicesAfterOneShutsDown() {
 		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
@@ -89,4 +158,621 @@ public class DeviceGroupTest extends AbstractIoTTest {
 			return null;
 		});
 	}
+
+	@Test
+	public void testAnswerAllTemperaturesFromLatestReadingCache() {
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config())
+				.withLatestReadingCache(new FiniteDuration(1, TimeUnit.MINUTES));
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group", settings));
+
+		Stream.of("device1", "device2", "device3").forEach(deviceId -> {
+			groupActor.tell(new DeviceManager.RequestTrackDevice("group", deviceId), probe.getRef());
+			probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		});
+
+		long now = System.currentTimeMillis();
+		groupActor.tell(new DeviceManager.RecordTemperatureBatch(1L, Arrays.asList(
+				new DeviceManager.DeviceReading("group", "device1", 1.0, now),
+				new DeviceManager.DeviceReading("group", "device2", 2.0, now - TimeUnit.MINUTES.toMillis(2)))), probe.getRef());
+		probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+
+		probe.awaitAssert(() -> {
+			groupActor.tell(new DeviceGroup.RequestAllTemperatures(2L), probe.getRef());
+			DeviceGroup.RespondAllTemperatures response = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+			assertEquals(2L, response.getRequestId());
+			Map<String, DeviceGroup.TemperatureReading> temperatures = response.getTemperatures();
+			assertEquals(3, temperatures.size());
+			assertEquals(new DeviceGroup.Temperature(1.0), temperatures.get("device1"));
+			assertEquals(new DeviceGroup.TemperatureNotAvailable(), temperatures.get("device2"));
+			assertEquals(new DeviceGroup.TemperatureNotAvailable(), temperatures.get("device3"));
+			return null;
+		});
+	}
+
+	@Test
+	public void testPassivateIdleDevicesAndRehydrateOnNextMessage() {
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config())
+				.withPassivation(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group", settings));
+
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor1 = probe.getLastSender();
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor2 = probe.getLastSender();
+
+		deviceActor1.tell(new Device.RecordTemperature(1L, 21.0, 100L), probe.getRef());
+		probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+		// Both devices go idle within a scheduler tick of each other; the query below must find both passivated.
+		probe.watch(deviceActor1);
+		probe.watch(deviceActor2);
+		assertEquals(Stream.of(deviceActor1, deviceActor2).collect(Collectors.toSet()),
+				probe.receiveN(2).stream().map(terminated -> ((Terminated) terminated).getActor()).collect(Collectors.toSet()));
+
+		groupActor.tell(new DeviceGroup.RequestDeviceList(2L), probe.getRef());
+		assertEquals(Stream.of("device1", "device2").collect(Collectors.toSet()),
+				probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).getDeviceIds());
+
+		groupActor.tell(new DeviceGroup.RequestAllTemperatures(3L), probe.getRef());
+		Map<String, DeviceGroup.TemperatureReading> temperatures =
+				probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).getTemperatures();
+		assertEquals(new DeviceGroup.Temperature(21.0), temperatures.get("device1"));
+		assertEquals(new DeviceGroup.TemperatureNotAvailable(), temperatures.get("device2"));
+
+		groupActor.tell(new DeviceManager.DeviceEnvelope("group", "device1", new Device.ReadTemperatureRange(4L, 0L, 1000L)), probe.getRef());
+		Device.RespondTemperatureRange range = probe.expectMsgClass(Device.RespondTemperatureRange.class);
+		assertEquals(4L, range.getRequestId());
+		assertEquals(1, range.size());
+		assertEquals(21.0, range.getValues()[0], 0.0);
+		assertNotEquals(deviceActor1, probe.getLastSender());
+	}
+
+	@Test
+	public void testAcknowledgeJournaledReadingsAfterCommitAndRecover() {
+		JournalSettings journal = JournalSettings.fromConfig(system.settings().config())
+				.withDirectory(folder.getRoot().toPath())
+				.withCommit(new FiniteDuration(50, TimeUnit.MILLISECONDS), 1000);
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config()).withJournal(journal);
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group", settings));
+
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor1 = probe.getLastSender();
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+		deviceActor1.tell(new Device.RecordTemperature(1L, 21.0, 100L), probe.getRef());
+		probe.expectNoMsg(new FiniteDuration(20, TimeUnit.MILLISECONDS));
+		assertEquals(1L, probe.expectMsgClass(Device.TemperatureRecorded.class).getRequestId());
+		assertEquals(deviceActor1, probe.getLastSender());
+
+		groupActor.tell(new DeviceManager.RecordTemperatureBatch(2L, Arrays.asList(
+				new DeviceManager.DeviceReading("group", "device1", 22.0, 200L))), probe.getRef());
+		assertEquals(1, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).getRecorded());
+
+		probe.watch(groupActor);
+		groupActor.tell(PoisonPill.getInstance(), ActorRef.noSender());
+		probe.expectTerminated(groupActor);
+
+		ActorRef recoveredGroup = system.actorOf(DeviceGroup.props("group", settings));
+		recoveredGroup.tell(new DeviceGroup.RequestDeviceList(3L), probe.getRef());
+		assertEquals(Stream.of("device1", "device2").collect(Collectors.toSet()),
+				probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).getDeviceIds());
+
+		recoveredGroup.tell(new DeviceManager.DeviceEnvelope("group", "device1", new Device.ReadTemperatureRange(4L, 0L, 1000L)), probe.getRef());
+		Device.RespondTemperatureRange range = probe.expectMsgClass(Device.RespondTemperatureRange.class);
+		assertArrayEquals(new long[] {100L, 200L}, range.getTimestamps());
+		assertArrayEquals(new double[] {21.0, 22.0}, range.getValues(), 0.0);
+	}
+
+	@Test
+	public void testStopGroupWhoseJournalCannotBeRecovered() throws Exception {
+		JournalSettings journal = JournalSettings.fromConfig(system.settings().config())
+				.withDirectory(folder.getRoot().toPath());
+		// A file where the journal directory of the group belongs.
+		Files.createFile(journal.groupDirectory("broken"));
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config()).withJournal(journal);
+
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("broken", settings));
+		probe.watch(groupActor);
+		probe.expectTerminated(groupActor);
+	}
+
+	@Test
+	public void testRecoverFromSnapshotAndJournalTail() {
+		Path directory = folder.getRoot().toPath();
+		JournalSettings journal = JournalSettings.fromConfig(system.settings().config())
+				.withDirectory(directory)
+				// Long enough that the second reading stays in the journal tail instead of a second snapshot, which
+				// would only keep the latest reading.
+				.withSnapshotInterval(new FiniteDuration(1, TimeUnit.SECONDS));
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config()).withJournal(journal);
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("snapshotted", settings));
+
+		groupActor.tell(new DeviceManager.RequestTrackDevice("snapshotted", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor1 = probe.getLastSender();
+		deviceActor1.tell(new Device.RecordTemperature(1L, 21.0, 100L), probe.getRef());
+		probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+		Path groupDirectory = journal.groupDirectory("snapshotted");
+		probe.awaitCond(() -> {
+			try {
+				return Files.list(groupDirectory).anyMatch(file -> file.getFileName().toString().endsWith(".bin"));
+			} catch(Exception e) {
+				return false;
+			}
+		});
+		deviceActor1.tell(new Device.RecordTemperature(2L, 22.0, 200L), probe.getRef());
+		probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+		probe.watch(groupActor);
+		groupActor.tell(PoisonPill.getInstance(), ActorRef.noSender());
+		probe.expectTerminated(groupActor);
+
+		ActorRef recoveredGroup = system.actorOf(DeviceGroup.props("snapshotted", settings));
+		recoveredGroup.tell(new DeviceManager.DeviceEnvelope("snapshotted", "device1", new Device.ReadTemperatureRange(3L, 0L, 1000L)), probe.getRef());
+		Device.RespondTemperatureRange range = probe.expectMsgClass(Device.RespondTemperatureRange.class);
+		assertArrayEquals(new double[] {21.0, 22.0}, range.getValues(), 0.0);
+	}
+
+	@Test
+	public void testAnswerGroupStatistics() {
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		for(int i = 1; i <= 4; i++) {
+			groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device" + i), probe.getRef());
+			probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+			if(i < 4) {
+				probe.getLastSender().tell(new Device.RecordTemperature(i, i * 10.0), probe.getRef());
+				probe.expectMsgClass(Device.TemperatureRecorded.class);
+			}
+		}
+
+		groupActor.tell(new DeviceGroup.RequestGroupStatistics(5L), probe.getRef());
+		DeviceGroup.RespondGroupStatistics response = probe.expectMsgClass(DeviceGroup.RespondGroupStatistics.class);
+		assertEquals(5L, response.getRequestId());
+		assertEquals(1, response.getUnavailable());
+		TemperatureStatistics statistics = response.getStatistics();
+		assertEquals(3, statistics.getCount());
+		assertEquals(10.0, statistics.getMin(), 0.0);
+		assertEquals(30.0, statistics.getMax(), 0.0);
+		assertEquals(20.0, statistics.getMean(), 1e-9);
+		assertEquals(20.0, statistics.getPercentile(0.5), 0.2);
+	}
+
+	@Test
+	public void testAnswerGroupStatisticsFromLatestReadingCache() {
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config())
+				.withLatestReadingCache(new FiniteDuration(1, TimeUnit.MINUTES));
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group", settings));
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		probe.getLastSender().tell(new Device.RecordTemperature(1L, -5.0), probe.getRef());
+		probe.expectMsgClass(Device.TemperatureRecorded.class);
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+		groupActor.tell(new DeviceGroup.RequestGroupStatistics(2L), probe.getRef());
+		DeviceGroup.RespondGroupStatistics response = probe.expectMsgClass(DeviceGroup.RespondGroupStatistics.class);
+		assertEquals(1, response.getUnavailable());
+		assertEquals(1, response.getStatistics().getCount());
+		assertEquals(-5.0, response.getStatistics().getMean(), 0.0);
+	}
+
+	@Test
+	public void testCoalesceConcurrentQueriesIntoOne() {
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		for(int i = 1; i <= 2; i++) {
+			groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device" + i), probe.getRef());
+			probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+			probe.getLastSender().tell(new Device.RecordTemperature(i, i * 10.0), probe.getRef());
+			probe.expectMsgClass(Device.TemperatureRecorded.class);
+		}
+		long queriesBefore = startedQueries();
+
+		TestKit dashboard = new TestKit(system);
+		groupActor.tell(new DeviceGroup.RequestAllTemperatures(1L), probe.getRef());
+		groupActor.tell(new DeviceGroup.RequestAllTemperatures(2L), dashboard.getRef());
+		groupActor.tell(new DeviceGroup.RequestGroupStatistics(3L), probe.getRef());
+
+		DeviceGroup.RespondAllTemperatures first = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+		assertEquals(1L, first.getRequestId());
+		assertEquals(new DeviceGroup.Temperature(20.0), first.getTemperatures().get("device2"));
+		DeviceGroup.RespondGroupStatistics statistics = probe.expectMsgClass(DeviceGroup.RespondGroupStatistics.class);
+		assertEquals(3L, statistics.getRequestId());
+		assertEquals(15.0, statistics.getStatistics().getMean(), 1e-9);
+		DeviceGroup.RespondAllTemperatures second = dashboard.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+		assertEquals(2L, second.getRequestId());
+		assertEquals(first.getTemperatures(), second.getTemperatures());
+		assertEquals(1L, startedQueries() - queriesBefore);
+
+		// A request after the query completed starts the next one.
+		groupActor.tell(new DeviceGroup.RequestAllTemperatures(4L), probe.getRef());
+		assertEquals(4L, probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).getRequestId());
+		assertEquals(2L, startedQueries() - queriesBefore);
+	}
+
+	@Test
+	public void testReuseQueryResultWithinWindow() {
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config())
+				.withQueryReuseWindow(new FiniteDuration(1, TimeUnit.MINUTES));
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group", settings));
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor = probe.getLastSender();
+		deviceActor.tell(new Device.RecordTemperature(1L, 21.0), probe.getRef());
+		probe.expectMsgClass(Device.TemperatureRecorded.class);
+		long queriesBefore = startedQueries();
+
+		groupActor.tell(new DeviceGroup.RequestAllTemperatures(1L), probe.getRef());
+		assertEquals(new DeviceGroup.Temperature(21.0),
+				probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).getTemperatures().get("device1"));
+		deviceActor.tell(new Device.RecordTemperature(2L, 22.0), probe.getRef());
+		probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+		groupActor.tell(new DeviceGroup.RequestAllTemperatures(2L), probe.getRef());
+		DeviceGroup.RespondAllTemperatures reused = probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+		assertEquals(2L, reused.getRequestId());
+		assertEquals(new DeviceGroup.Temperature(21.0), reused.getTemperatures().get("device1"));
+		groupActor.tell(new DeviceGroup.RequestGroupStatistics(3L), probe.getRef());
+		assertEquals(21.0, probe.expectMsgClass(DeviceGroup.RespondGroupStatistics.class).getStatistics().getMean(), 0.0);
+		assertEquals(1L, startedQueries() - queriesBefore);
+
+		// Policies other than all always query the devices.
+		groupActor.tell(new DeviceGroup.RequestAllTemperatures(4L, DeviceGroup.CompletionPolicy.quorum(1.0)), probe.getRef());
+		assertEquals(new DeviceGroup.Temperature(22.0),
+				probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).getTemperatures().get("device1"));
+	}
+
+	private static long startedQueries() {
+		return IoTMetrics.get(system).getActorsStarted().get("query");
+	}
+
+	@Test
+	public void testAnswerByRequestTimeoutDespiteUnresponsiveDevice() {
+		ActorSystem stalledSystem = startSystemWithUnresponsiveDevice();
+		try {
+			TestKit requester = new TestKit(stalledSystem);
+			ActorRef groupActor = stalledSystem.actorOf(DeviceGroup.props("stalled"), "stalled");
+			groupActor.tell(new DeviceManager.RequestTrackDevices("stalled", Arrays.asList("device1", "device2")), requester.getRef());
+			requester.expectMsgClass(DeviceManager.DevicesRegistered.class);
+
+			FiniteDuration timeout = new FiniteDuration(300, TimeUnit.MILLISECONDS);
+			long started = System.nanoTime();
+			groupActor.tell(new DeviceGroup.RequestAllTemperatures(1L, DeviceGroup.CompletionPolicy.all(), timeout), requester.getRef());
+			DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+			assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1));
+			assertEquals(new DeviceGroup.TemperatureNotAvailable(), response.getTemperatures().get("device1"));
+			assertEquals(new DeviceGroup.DeviceTimeout(), response.getTemperatures().get("device2"));
+
+			// A waiter with an earlier deadline makes the query in flight complete by that deadline.
+			started = System.nanoTime();
+			groupActor.tell(new DeviceGroup.RequestGroupStatistics(2L), requester.getRef());
+			groupActor.tell(new DeviceGroup.RequestGroupStatistics(3L, timeout), requester.getRef());
+			assertEquals(2L, requester.expectMsgClass(DeviceGroup.RespondGroupStatistics.class).getRequestId());
+			assertEquals(3L, requester.expectMsgClass(DeviceGroup.RespondGroupStatistics.class).getRequestId());
+			assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(1));
+		} finally {
+			TestKit.shutdownActorSystem(stalledSystem);
+		}
+	}
+
+	@Test
+	public void testAnswerWaitersWhenTheQueryInFlightStops() {
+		ActorSystem stalledSystem = startSystemWithUnresponsiveDevice();
+		try {
+			TestKit requester = new TestKit(stalledSystem);
+			ActorRef groupActor = stalledSystem.actorOf(DeviceGroup.props("stalled"), "stalled");
+			groupActor.tell(new DeviceManager.RequestTrackDevices("stalled", Arrays.asList("device1", "device2")), requester.getRef());
+			requester.expectMsgClass(DeviceManager.DevicesRegistered.class);
+			groupActor.tell(new DeviceGroup.RequestAllTemperatures(1L, DeviceGroup.CompletionPolicy.all(),
+					new FiniteDuration(30, TimeUnit.SECONDS)), requester.getRef());
+			requester.expectNoMsg(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+
+			// The query waits for device2; its name is generated, unlike those of the devices.
+			stalledSystem.actorSelection("/user/stalled/$*").tell(PoisonPill.getInstance(), ActorRef.noSender());
+			DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+			assertEquals(1L, response.getRequestId());
+			assertEquals(new DeviceGroup.DeviceTimeout(), response.getTemperatures().get("device2"));
+
+			// The group starts a new query for the next request.
+			groupActor.tell(new DeviceGroup.RequestAllTemperatures(2L, DeviceGroup.CompletionPolicy.all(),
+					new FiniteDuration(200, TimeUnit.MILLISECONDS)), requester.getRef());
+			assertEquals(2L, requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).getRequestId());
+		} finally {
+			TestKit.shutdownActorSystem(stalledSystem);
+		}
+	}
+
+	@Test
+	public void testLearnQueryTimeoutFromReplyLatencies() {
+		ActorSystem stalledSystem = startSystemWithUnresponsiveDevice();
+		try {
+			TestKit requester = new TestKit(stalledSystem);
+			ActorRef groupActor = stalledSystem.actorOf(DeviceGroup.props("stalled", adaptiveSettings(stalledSystem)), "stalled");
+			groupActor.tell(new DeviceManager.RequestTrackDevice("stalled", "device1"), requester.getRef());
+			requester.expectMsgClass(DeviceManager.DeviceRegistered.class);
+			for(long requestId = 1L; requestId <= 3L; requestId++) {
+				groupActor.tell(new DeviceGroup.RequestAllTemperatures(requestId), requester.getRef());
+				requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+			}
+
+			// device1 always answers at once, so the learned timeout is little more than the margin.
+			groupActor.tell(new DeviceManager.RequestTrackDevice("stalled", "device2"), requester.getRef());
+			requester.expectMsgClass(DeviceManager.DeviceRegistered.class);
+			long started = System.nanoTime();
+			groupActor.tell(new DeviceGroup.RequestAllTemperatures(4L), requester.getRef());
+			DeviceGroup.RespondAllTemperatures response = requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+			assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(400));
+			assertEquals(new DeviceGroup.DeviceTimeout(), response.getTemperatures().get("device2"));
+
+			// The unresponsive device counts at the timeout, and as half of the devices it grows the timeout back to the default.
+			long slowest = 0L;
+			for(long requestId = 5L; requestId <= 15L && slowest < TimeUnit.MILLISECONDS.toNanos(500); requestId++) {
+				started = System.nanoTime();
+				groupActor.tell(new DeviceGroup.RequestAllTemperatures(requestId), requester.getRef());
+				requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+				slowest = Math.max(slowest, System.nanoTime() - started);
+			}
+			assertTrue(slowest >= TimeUnit.MILLISECONDS.toNanos(500));
+		} finally {
+			TestKit.shutdownActorSystem(stalledSystem);
+		}
+	}
+
+	@Test
+	public void testLearnQueryTimeoutOnlyFromQueriesUnderItsOwnTimeout() {
+		ActorSystem stalledSystem = startSystemWithUnresponsiveDevice();
+		try {
+			TestKit requester = new TestKit(stalledSystem);
+			ActorRef groupActor = stalledSystem.actorOf(DeviceGroup.props("stalled", adaptiveSettings(stalledSystem)), "stalled");
+			groupActor.tell(new DeviceManager.RequestTrackDevice("stalled", "device1"), requester.getRef());
+			requester.expectMsgClass(DeviceManager.DeviceRegistered.class);
+			for(long requestId = 1L; requestId <= 3L; requestId++) {
+				groupActor.tell(new DeviceGroup.RequestAllTemperatures(requestId, DeviceGroup.CompletionPolicy.all(),
+						new FiniteDuration(1, TimeUnit.SECONDS)), requester.getRef());
+				requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+			}
+
+			// Nothing was learned, so the group still waits the default timeout for the unresponsive device.
+			groupActor.tell(new DeviceManager.RequestTrackDevice("stalled", "device2"), requester.getRef());
+			requester.expectMsgClass(DeviceManager.DeviceRegistered.class);
+			long started = System.nanoTime();
+			groupActor.tell(new DeviceGroup.RequestAllTemperatures(4L), requester.getRef());
+			requester.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+			assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(500));
+		} finally {
+			TestKit.shutdownActorSystem(stalledSystem);
+		}
+	}
+
+	private static DeviceGroupSettings adaptiveSettings(ActorSystem system) {
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config());
+		return settings.withQueryTimeoutSettings(settings.getQueryTimeoutSettings()
+				.withDefaultTimeout(new FiniteDuration(500, TimeUnit.MILLISECONDS))
+				.withAdaptive(true)
+				.withMinSamples(3));
+	}
+
+	@Test
+	public void testRejectBatchReadingsThatOverflowTheDeviceMailbox() {
+		ActorSystem smallSystem = ActorSystem.create("overflow-test", ConfigFactory.parseString(
+				"akka.actor.deployment.\"/overflow/device-overflow-device\".mailbox = small-device-mailbox\n" +
+				"small-device-mailbox.mailbox-type = \"mr.cell.akka.iot.CountingBoundedMailbox\"\n" +
+				"small-device-mailbox.mailbox-capacity = 3\n" +
+				"akka.loglevel = WARNING\n")
+				.withFallback(ConfigFactory.load()));
+		try {
+			TestKit requester = new TestKit(smallSystem);
+			ActorRef groupActor = smallSystem.actorOf(DeviceGroup.props("overflow"), "overflow");
+			groupActor.tell(new DeviceManager.RequestTrackDevice("overflow", "device"), requester.getRef());
+			requester.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+			List<DeviceManager.DeviceReading> readings = new ArrayList<>();
+			for(int i = 0; i < 1000; i++) {
+				readings.add(new DeviceManager.DeviceReading("overflow", "device", i, i));
+			}
+			groupActor.tell(new DeviceManager.RecordTemperatureBatch(1L, readings), requester.getRef());
+			DeviceManager.TemperatureBatchRecorded ack = requester.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+
+			assertFalse(ack.getRejected().isEmpty());
+			assertEquals(1000, ack.getRecorded() + ack.getRejected().size());
+			assertEquals(ack.getRejected().size(), MailboxOverflow.get(smallSystem).getOverflowCount("small-device-mailbox"));
+		} finally {
+			TestKit.shutdownActorSystem(smallSystem);
+		}
+	}
+
+	/**
+	 * Device device2 of a group named stalled receives no ReadTemperature in this system.
+	 */
+	private static ActorSystem startSystemWithUnresponsiveDevice() {
+		return ActorSystem.create("stalled-device-test", ConfigFactory.parseString(
+				"akka.actor.deployment.\"/stalled/device-stalled-device2\".mailbox = unresponsive-device-mailbox\n" +
+				"unresponsive-device-mailbox.mailbox-type = \"mr.cell.akka.iot.UnresponsiveDeviceMailbox\"\n")
+				.withFallback(ConfigFactory.load()));
+	}
+
+	@Test
+	public void testForwardChangesToSubscribersOnlyWhileSubscribed() {
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor = probe.getLastSender();
+
+		TestKit listener = new TestKit(system);
+		groupActor.tell(new DeviceGroup.SubscribeChanges(), listener.getRef());
+		assertEquals("group", listener.expectMsgClass(DeviceGroup.ChangesSubscribed.class).getGroupId());
+
+		deviceActor.tell(new Device.RecordTemperature(1L, 21.0), probe.getRef());
+		probe.expectMsgClass(Device.TemperatureRecorded.class);
+		DeviceGroup.TemperatureChanged changed = listener.expectMsgClass(DeviceGroup.TemperatureChanged.class);
+		assertEquals("device", changed.getDeviceId());
+		assertEquals(21.0, changed.getValue(), 0.0);
+		assertEquals(groupActor, listener.getLastSender());
+
+		groupActor.tell(new DeviceGroup.UnsubscribeChanges(), listener.getRef());
+		deviceActor.tell(new Device.RecordTemperature(2L, 22.0), probe.getRef());
+		probe.expectMsgClass(Device.TemperatureRecorded.class);
+		listener.expectNoMsg(new FiniteDuration(200, TimeUnit.MILLISECONDS));
+	}
+
+	private void recordVia(ActorRef groupActor, String deviceId, double value, long timestamp) {
+		groupActor.tell(new DeviceManager.DeviceEnvelope("group", deviceId, new Device.RecordTemperature(0L, value, timestamp)), probe.getRef());
+		probe.expectMsgClass(Device.TemperatureRecorded.class);
+	}
+
+	@Test
+	public void testSendAlertsOfGroupAndDeviceRulesToSubscribers() {
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group"));
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor1 = probe.getLastSender();
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device2"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+		groupActor.tell(new DeviceGroup.AddAlertRule(1L, AlertRule.above("hot", 30.0)), probe.getRef());
+		assertEquals(1L, probe.expectMsgClass(DeviceGroup.AlertRulesUpdated.class).getRequestId());
+		groupActor.tell(new DeviceGroup.AddAlertRule(2L, "device2", AlertRule.above("hot", 40.0)), probe.getRef());
+		probe.expectMsgClass(DeviceGroup.AlertRulesUpdated.class);
+
+		TestKit subscriber = new TestKit(system);
+		groupActor.tell(new DeviceGroup.SubscribeAlerts(), subscriber.getRef());
+		assertEquals("group", subscriber.expectMsgClass(DeviceGroup.AlertsSubscribed.class).getGroupId());
+
+		recordVia(groupActor, "device1", 31.0, 100L);
+		DeviceGroup.Alert alert = subscriber.expectMsgClass(DeviceGroup.Alert.class);
+		// Devices send alerts straight to subscribers, without going through the group.
+		assertEquals(deviceActor1, subscriber.getLastSender());
+		assertEquals("device1", alert.getDeviceId());
+		assertEquals("hot", alert.getRuleId());
+		assertTrue(alert.isRaised());
+		assertEquals(31.0, alert.getValue(), 0.0);
+		assertEquals(100L, alert.getTimestamp());
+
+		// The device rule overrides the group rule of the same id.
+		recordVia(groupActor, "device2", 35.0, 100L);
+		subscriber.expectNoMsg(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+		recordVia(groupActor, "device2", 41.0, 200L);
+		assertEquals("device2", subscriber.expectMsgClass(DeviceGroup.Alert.class).getDeviceId());
+
+		recordVia(groupActor, "device1", 32.0, 200L);
+		recordVia(groupActor, "device1", 20.0, 300L);
+		alert = subscriber.expectMsgClass(DeviceGroup.Alert.class);
+		assertEquals("device1", alert.getDeviceId());
+		assertFalse(alert.isRaised());
+
+		groupActor.tell(new DeviceGroup.RemoveAlertRule(3L, "hot"), probe.getRef());
+		probe.expectMsgClass(DeviceGroup.AlertRulesUpdated.class);
+		recordVia(groupActor, "device1", 50.0, 400L);
+		subscriber.expectNoMsg(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+
+		groupActor.tell(new DeviceGroup.UnsubscribeAlerts(), subscriber.getRef());
+		recordVia(groupActor, "device2", 20.0, 300L);
+		subscriber.expectNoMsg(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testClearRaisedAlertsOfReplacedRemovedAndPassivatedRules() {
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config())
+				.withPassivation(new FiniteDuration(500, TimeUnit.MILLISECONDS));
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group", settings));
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		TestKit subscriber = new TestKit(system);
+		groupActor.tell(new DeviceGroup.SubscribeAlerts(), subscriber.getRef());
+		subscriber.expectMsgClass(DeviceGroup.AlertsSubscribed.class);
+		groupActor.tell(new DeviceGroup.AddAlertRule(1L, AlertRule.above("hot", 30.0)), probe.getRef());
+		probe.expectMsgClass(DeviceGroup.AlertRulesUpdated.class);
+
+		recordVia(groupActor, "device1", 31.0, 100L);
+		assertTrue(subscriber.expectMsgClass(DeviceGroup.Alert.class).isRaised());
+
+		// A replaced rule starts over, so its raised alert is cleared at the latest reading.
+		groupActor.tell(new DeviceGroup.AddAlertRule(2L, AlertRule.above("hot", 35.0)), probe.getRef());
+		probe.expectMsgClass(DeviceGroup.AlertRulesUpdated.class);
+		DeviceGroup.Alert alert = subscriber.expectMsgClass(DeviceGroup.Alert.class);
+		assertFalse(alert.isRaised());
+		assertEquals(31.0, alert.getValue(), 0.0);
+		assertEquals(100L, alert.getTimestamp());
+
+		recordVia(groupActor, "device1", 36.0, 200L);
+		assertTrue(subscriber.expectMsgClass(DeviceGroup.Alert.class).isRaised());
+		groupActor.tell(new DeviceGroup.RemoveAlertRule(3L, "hot"), probe.getRef());
+		probe.expectMsgClass(DeviceGroup.AlertRulesUpdated.class);
+		assertFalse(subscriber.expectMsgClass(DeviceGroup.Alert.class).isRaised());
+
+		// A passivated device keeps no rule state, so it clears its alerts when it passivates.
+		groupActor.tell(new DeviceGroup.AddAlertRule(4L, AlertRule.above("hot", 30.0)), probe.getRef());
+		probe.expectMsgClass(DeviceGroup.AlertRulesUpdated.class);
+		recordVia(groupActor, "device1", 37.0, 300L);
+		assertTrue(subscriber.expectMsgClass(DeviceGroup.Alert.class).isRaised());
+		alert = subscriber.expectMsgClass(DeviceGroup.Alert.class);
+		assertFalse(alert.isRaised());
+		assertEquals(300L, alert.getTimestamp());
+
+		// Without subscribers the rule state starts over, and nobody is told.
+		recordVia(groupActor, "device1", 38.0, 400L);
+		assertTrue(subscriber.expectMsgClass(DeviceGroup.Alert.class).isRaised());
+		groupActor.tell(new DeviceGroup.UnsubscribeAlerts(), subscriber.getRef());
+		groupActor.tell(new DeviceGroup.SubscribeAlerts(), subscriber.getRef());
+		subscriber.expectMsgClass(DeviceGroup.AlertsSubscribed.class);
+		recordVia(groupActor, "device1", 39.0, 500L);
+		assertTrue(subscriber.expectMsgClass(DeviceGroup.Alert.class).isRaised());
+	}
+
+	@Test
+	public void testEvaluateRulesOfJournaledBatchReadings() {
+		JournalSettings journal = JournalSettings.fromConfig(system.settings().config())
+				.withDirectory(folder.getRoot().toPath())
+				.withCommit(new FiniteDuration(50, TimeUnit.MILLISECONDS), 1000);
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config()).withJournal(journal);
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("group", settings));
+		groupActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+
+		TestKit subscriber = new TestKit(system);
+		groupActor.tell(new DeviceGroup.SubscribeAlerts(), subscriber.getRef());
+		subscriber.expectMsgClass(DeviceGroup.AlertsSubscribed.class);
+		groupActor.tell(new DeviceGroup.AddAlertRule(1L, AlertRule.nOfM("flaky", 25.0, 2, 3)), probe.getRef());
+		probe.expectMsgClass(DeviceGroup.AlertRulesUpdated.class);
+
+		groupActor.tell(new DeviceManager.RecordTemperatureBatch(2L, Arrays.asList(
+				new DeviceManager.DeviceReading("group", "device1", 26.0, 100L),
+				new DeviceManager.DeviceReading("group", "device1", 20.0, 200L),
+				new DeviceManager.DeviceReading("group", "device1", 27.0, 300L))), probe.getRef());
+		assertEquals(3, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).getRecorded());
+
+		DeviceGroup.Alert alert = subscriber.expectMsgClass(DeviceGroup.Alert.class);
+		assertEquals("flaky", alert.getRuleId());
+		assertEquals(300L, alert.getTimestamp());
+	}
+
+	@Test
+	public void testReportJournaledBatchReadingsThroughTheChangeDedup() {
+		JournalSettings journal = JournalSettings.fromConfig(system.settings().config())
+				.withDirectory(folder.getRoot().toPath())
+				.withCommit(new FiniteDuration(50, TimeUnit.MILLISECONDS), 1000);
+		DeviceGroupSettings settings = DeviceGroupSettings.fromConfig(system.settings().config()).withJournal(journal);
+		ActorRef groupActor = system.actorOf(DeviceGroup.props("journaled-changes", settings));
+		groupActor.tell(new DeviceManager.RequestTrackDevice("journaled-changes", "device"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		TestKit listener = new TestKit(system);
+		groupActor.tell(new DeviceGroup.SubscribeChanges(), listener.getRef());
+		listener.expectMsgClass(DeviceGroup.ChangesSubscribed.class);
+
+		groupActor.tell(new DeviceManager.RecordTemperatureBatch(1L, Arrays.asList(
+				new DeviceManager.DeviceReading("journaled-changes", "device", 21.0, 100L),
+				new DeviceManager.DeviceReading("journaled-changes", "device", 21.0, 200L),
+				new DeviceManager.DeviceReading("journaled-changes", "device", 22.0, 300L))), probe.getRef());
+		assertEquals(3, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).getRecorded());
+
+		// The unchanged reading at 200 is not reported again.
+		assertEquals(100L, listener.expectMsgClass(DeviceGroup.TemperatureChanged.class).getTimestamp());
+		assertEquals(300L, listener.expectMsgClass(DeviceGroup.TemperatureChanged.class).getTimestamp());
+		listener.expectNoMsg(new FiniteDuration(100, TimeUnit.MILLISECONDS));
+		assertEquals(Long.valueOf(3L), IoTMetrics.get(system).getReadingsPerGroup().get("journaled-changes"));
+	}
 }
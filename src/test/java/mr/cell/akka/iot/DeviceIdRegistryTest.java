@@ -0,0 +1,44 @@
+package mr.cell.akka.iot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceIdRegistryTest {
+
+	@Test
+	public void testInternsToDenseInts() {
+		DeviceIdRegistry registry = new DeviceIdRegistry();
+		for(int i = 0; i < 1000; i++) {
+			assertEquals(i, registry.intern("device" + i));
+		}
+
+		assertEquals(1000, registry.size());
+		assertEquals(1000, registry.limit());
+		assertEquals(500, registry.intern("device500"));
+		assertEquals(500, registry.get("device500"));
+		assertEquals("device500", registry.deviceId(500));
+		assertEquals(DeviceIdRegistry.UNKNOWN, registry.get("device1000"));
+	}
+
+	@Test
+	public void testReusesReleasedInts() {
+		DeviceIdRegistry registry = new DeviceIdRegistry();
+		registry.intern("device1");
+		int released = registry.intern("device2");
+		registry.intern("device3");
+
+		registry.release(released);
+
+		assertFalse(registry.contains(released));
+		assertNull(registry.deviceId(released));
+		assertEquals(DeviceIdRegistry.UNKNOWN, registry.get("device2"));
+		assertEquals(2, registry.size());
+		assertEquals(released, registry.intern("device4"));
+		assertTrue(registry.contains(released));
+		assertEquals(3, registry.limit());
+	}
+}
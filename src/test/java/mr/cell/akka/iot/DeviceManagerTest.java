@@ -1,21 +1,38 @@
 package mr.cell.akka.iot;
 
 import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
 import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Created by U517779 on 2017-09-06.
  */
 public class DeviceManagerTest extends AbstractIoTTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
 	@Test
 	public void testRegisterDeviceGroupAndDeviceActor() {
 		ActorRef managerActor = system.actorOf(DeviceManager.props());
@@ -52,4 +69,179 @@ public class DeviceManagerTest extends AbstractIoTTest {
 		toShutDown.tell(PoisonPill.getInstance(), ActorRef.noSender());
 		probe.expectTerminated(toShutDown);
 	}
+
+	@Test
+	public void testRecordTemperatureBatchAcrossGroups() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+
+		managerActor.tell(new DeviceManager.RequestTrackDevice("group1", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor1 = probe.getLastSender();
+
+		managerActor.tell(new DeviceManager.RequestTrackDevice("group2", "device2"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor2 = probe.getLastSender();
+
+		DeviceManager.DeviceReading unknownDevice = new DeviceManager.DeviceReading("group1", "device3", 3.0, 3L);
+		DeviceManager.DeviceReading unknownGroup = new DeviceManager.DeviceReading("group3", "device1", 4.0, 4L);
+		managerActor.tell(new DeviceManager.RecordTemperatureBatch(42L, Arrays.asList(
+				new DeviceManager.DeviceReading("group1", "device1", 1.0, 1L),
+				new DeviceManager.DeviceReading("group2", "device2", 2.0, 2L),
+				unknownDevice,
+				unknownGroup)), probe.getRef());
+
+		DeviceManager.TemperatureBatchRecorded ack = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+		assertEquals(42L, ack.getRequestId());
+		assertEquals(2, ack.getRecorded());
+		assertEquals(2, ack.getRejected().size());
+		assertTrue(ack.getRejected().containsAll(Arrays.asList(unknownDevice, unknownGroup)));
+
+		deviceActor1.tell(new Device.ReadTemperature(1L), probe.getRef());
+		assertEquals(Optional.of(1.0), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+		deviceActor2.tell(new Device.ReadTemperature(2L), probe.getRef());
+		assertEquals(Optional.of(2.0), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+		probe.expectNoMsg();
+	}
+
+	@Test
+	public void testShardForIsDeterministicAndConsistent() {
+		for(int i = 0; i < 1000; i++) {
+			String groupId = "group" + i;
+			int shard = DeviceManager.shardFor(groupId, 8);
+			assertTrue(shard >= 0 && shard < 8);
+			assertEquals(shard, DeviceManager.shardFor(groupId, 8));
+
+			int grown = DeviceManager.shardFor(groupId, 9);
+			assertTrue(grown == shard || grown == 8);
+		}
+	}
+
+	@Test
+	public void testRegisterDeviceDirectlyWithShard() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props(4));
+
+		managerActor.tell(new DeviceManager.RequestShard("group"), probe.getRef());
+		DeviceManager.ShardLocation location = probe.expectMsgClass(DeviceManager.ShardLocation.class);
+		assertEquals("group", location.getGroupId());
+		assertEquals("shard-" + DeviceManager.shardFor("group", 4), location.getShard().path().name());
+
+		location.getShard().tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor = probe.getLastSender();
+
+		managerActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		assertEquals(deviceActor, probe.getLastSender());
+	}
+
+	@Test
+	public void testRecordTemperatureBatchAcrossShards() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props(4));
+
+		List<DeviceManager.DeviceReading> readings = new ArrayList<>();
+		for(int i = 0; i < 20; i++) {
+			managerActor.tell(new DeviceManager.RequestTrackDevice("group" + i, "device"), probe.getRef());
+			probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+			readings.add(new DeviceManager.DeviceReading("group" + i, "device", i, i));
+		}
+		readings.add(new DeviceManager.DeviceReading("unknown", "device", 0.0, 0L));
+
+		managerActor.tell(new DeviceManager.RecordTemperatureBatch(1L, readings), probe.getRef());
+		DeviceManager.TemperatureBatchRecorded ack = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+		assertEquals(1L, ack.getRequestId());
+		assertEquals(20, ack.getRecorded());
+		assertEquals(1, ack.getRejected().size());
+	}
+
+	@Test
+	public void testRouteDeviceEnvelopeToDevice() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props(2));
+
+		managerActor.tell(new DeviceManager.RequestTrackDevice("group", "device1"), probe.getRef());
+		probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		ActorRef deviceActor = probe.getLastSender();
+
+		managerActor.tell(new DeviceManager.DeviceEnvelope("group", "device1", new Device.RecordTemperature(1L, 5.0)), probe.getRef());
+		assertEquals(1L, probe.expectMsgClass(Device.TemperatureRecorded.class).getRequestId());
+		assertEquals(deviceActor, probe.getLastSender());
+
+		managerActor.tell(new DeviceManager.DeviceEnvelope("unknown", "device1", new Device.ReadTemperature(2L)), probe.getRef());
+		probe.expectNoMsg();
+	}
+
+	@Test
+	public void testFleetTemperaturesAcrossShards() {
+		ActorRef managerActor = system.actorOf(DeviceManager.props(4));
+		for(int g = 1; g <= 3; g++) {
+			managerActor.tell(new DeviceManager.RequestTrackDevices("fleet" + g, Arrays.asList("device1", "device2")), probe.getRef());
+			probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+			for(int d = 1; d <= 2; d++) {
+				if(g == 3 && d == 2) {
+					continue;
+				}
+				managerActor.tell(new DeviceManager.DeviceEnvelope("fleet" + g, "device" + d,
+						new Device.RecordTemperature(d, g * 10.0 + d)), probe.getRef());
+				probe.expectMsgClass(Device.TemperatureRecorded.class);
+			}
+		}
+
+		FiniteDuration timeout = new FiniteDuration(3, TimeUnit.SECONDS);
+		managerActor.tell(new DeviceManager.RequestFleetTemperatures(1L, DeviceManager.RequestFleetTemperatures.View.AGGREGATE, timeout), probe.getRef());
+		DeviceManager.RespondFleetTemperatures aggregate = probe.expectMsgClass(DeviceManager.RespondFleetTemperatures.class);
+		assertEquals(1L, aggregate.getRequestId());
+		assertTrue(aggregate.isComplete());
+		assertEquals(3, aggregate.getGroups());
+		assertEquals(5L, aggregate.getStatistics().getCount());
+		assertEquals(11.0, aggregate.getStatistics().getMin(), 0.0);
+		assertEquals(31.0, aggregate.getStatistics().getMax(), 0.0);
+		assertEquals(1, aggregate.getUnavailable());
+		assertTrue(aggregate.getTemperatures().isEmpty());
+
+		managerActor.tell(new DeviceManager.RequestFleetTemperatures(2L, DeviceManager.RequestFleetTemperatures.View.FULL, timeout), probe.getRef());
+		DeviceManager.RespondFleetTemperatures full = probe.expectMsgClass(DeviceManager.RespondFleetTemperatures.class);
+		assertTrue(full.isComplete());
+		assertEquals(5L, full.getStatistics().getCount());
+		assertEquals(3, full.getTemperatures().size());
+		assertEquals(new DeviceGroup.Temperature(22.0), full.getTemperatures().get("fleet2").get("device2"));
+		assertEquals(new DeviceGroup.TemperatureNotAvailable(), full.getTemperatures().get("fleet3").get("device2"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectNonPositiveFleetTimeout() {
+		new DeviceManager.RequestFleetTemperatures(1L, DeviceManager.RequestFleetTemperatures.View.AGGREGATE,
+				FiniteDuration.Zero());
+	}
+
+	@Test
+	public void testRecoverJournaledGroupsOnStart() {
+		Config config = ConfigFactory.parseMap(Collections.singletonMap("iot.journal.enabled", true))
+				.withFallback(ConfigFactory.parseMap(Collections.singletonMap("iot.journal.directory", folder.getRoot().getAbsolutePath())))
+				.withFallback(ConfigFactory.load());
+
+		ActorSystem journaled = ActorSystem.create("journaled", config);
+		try {
+			TestKit client = new TestKit(journaled);
+			ActorRef managerActor = journaled.actorOf(DeviceManager.props(3));
+			for(int i = 0; i < 6; i++) {
+				managerActor.tell(new DeviceManager.RequestTrackDevice("group" + i, "device"), client.getRef());
+				client.expectMsgClass(DeviceManager.DeviceRegistered.class);
+				client.getLastSender().tell(new Device.RecordTemperature(i, i, 100L + i), client.getRef());
+				client.expectMsgClass(Device.TemperatureRecorded.class);
+			}
+		} finally {
+			TestKit.shutdownActorSystem(journaled);
+		}
+
+		ActorSystem restarted = ActorSystem.create("journaled", config);
+		try {
+			TestKit client = new TestKit(restarted);
+			ActorRef managerActor = restarted.actorOf(DeviceManager.props(3));
+			for(int i = 0; i < 6; i++) {
+				managerActor.tell(new DeviceManager.DeviceEnvelope("group" + i, "device", new Device.ReadTemperature(i)), client.getRef());
+				assertEquals(Optional.of((double) i), client.expectMsgClass(Device.RespondTemperature.class).getValue());
+			}
+		} finally {
+			TestKit.shutdownActorSystem(restarted);
+		}
+	}
 }
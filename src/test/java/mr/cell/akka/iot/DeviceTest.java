@@ -3,8 +3,12 @@ package mr.cell.akka.iot;
 import akka.actor.ActorRef;
 import org.junit.Test;
 
+import scala.concurrent.duration.FiniteDuration;
+
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -42,6 +46,88 @@ public class DeviceTest extends AbstractIoTTest {
 		assertEquals(Optional.of(55.0), response2.getValue());
 	}
 
+	@Test
+	public void testReplyWithReadingsInRequestedRange() {
+		DeviceSettings settings = DeviceSettings.fromConfig(system.settings().config()).withHistorySize(3);
+		ActorRef device = system.actorOf(Device.props("group", "device", settings));
+
+		for(int i = 1; i <= 4; i++) {
+			device.tell(new Device.RecordTemperature(i, 20.0 + i, 100L * i), probe.getRef());
+			probe.expectMsgClass(Device.TemperatureRecorded.class);
+		}
+
+		device.tell(new Device.ReadTemperatureRange(5L, 0L, 300L), probe.getRef());
+		Device.RespondTemperatureRange response = probe.expectMsgClass(Device.RespondTemperatureRange.class);
+		assertEquals(5L, response.getRequestId());
+		assertArrayEquals(new long[] {200L, 300L}, response.getTimestamps());
+		assertArrayEquals(new double[] {22.0, 23.0}, response.getValues(), 0.0);
+	}
+
+	@Test
+	public void testDoNotAcknowledgeInFireAndForgetMode() {
+		DeviceSettings settings = DeviceSettings.fromConfig(system.settings().config()).withAckMode(DeviceSettings.AckMode.NONE);
+		ActorRef device = system.actorOf(Device.props("group", "device", settings));
+
+		device.tell(new Device.RecordTemperature(1L, 24.0), probe.getRef());
+		device.tell(new Device.ReadTemperature(2L), probe.getRef());
+		Device.RespondTemperature response = probe.expectMsgClass(Device.RespondTemperature.class);
+		assertEquals(Optional.of(24.0), response.getValue());
+	}
+
+	@Test
+	public void testCoalesceAcknowledgementsByCount() {
+		DeviceSettings settings = DeviceSettings.fromConfig(system.settings().config())
+				.withAckMode(DeviceSettings.AckMode.COALESCED)
+				.withAckCoalescing(3, new FiniteDuration(1, TimeUnit.MINUTES));
+		ActorRef device = system.actorOf(Device.props("group", "device", settings));
+
+		device.tell(new Device.RecordTemperature(1L, 24.0), probe.getRef());
+		device.tell(new Device.RecordTemperature(2L, 25.0), probe.getRef());
+		probe.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+		device.tell(new Device.RecordTemperature(3L, 26.0), probe.getRef());
+
+		Device.TemperaturesRecorded ack = probe.expectMsgClass(Device.TemperaturesRecorded.class);
+		assertEquals(3L, ack.getUpToRequestId());
+		assertEquals(3, ack.getCount());
+	}
+
+	@Test
+	public void testCoalesceAcknowledgementsByInterval() {
+		DeviceSettings settings = DeviceSettings.fromConfig(system.settings().config())
+				.withAckMode(DeviceSettings.AckMode.COALESCED)
+				.withAckCoalescing(100, new FiniteDuration(100, TimeUnit.MILLISECONDS));
+		ActorRef device = system.actorOf(Device.props("group", "device", settings));
+
+		device.tell(new Device.RecordTemperature(1L, 24.0), probe.getRef());
+		device.tell(new Device.RecordTemperature(2L, 25.0), probe.getRef());
+
+		Device.TemperaturesRecorded ack = probe.expectMsgClass(Device.TemperaturesRecorded.class);
+		assertEquals(2L, ack.getUpToRequestId());
+		assertEquals(2, ack.getCount());
+	}
+
+	@Test
+	public void testAcknowledgeOnlyConsecutiveRequestIds() {
+		DeviceSettings settings = DeviceSettings.fromConfig(system.settings().config())
+				.withAckMode(DeviceSettings.AckMode.COALESCED)
+				.withAckCoalescing(100, new FiniteDuration(100, TimeUnit.MILLISECONDS));
+		ActorRef device = system.actorOf(Device.props("group", "device", settings));
+
+		device.tell(new Device.RecordTemperature(1L, 24.0), probe.getRef());
+		device.tell(new Device.RecordTemperature(2L, 25.0), probe.getRef());
+		device.tell(new Device.RecordTemperature(4L, 26.0), probe.getRef());
+		device.tell(new Device.RecordTemperature(5L, 27.0), probe.getRef());
+
+		// Request 3 never arrived, so it is not acknowledged with 4 and 5.
+		Device.TemperaturesRecorded first = probe.expectMsgClass(Device.TemperaturesRecorded.class);
+		assertEquals(1L, first.getFromRequestId());
+		assertEquals(2L, first.getUpToRequestId());
+		Device.TemperaturesRecorded second = probe.expectMsgClass(Device.TemperaturesRecorded.class);
+		assertEquals(4L, second.getFromRequestId());
+		assertEquals(5L, second.getUpToRequestId());
+		assertEquals(2, second.getCount());
+	}
+
 	@Test
 	public void testReplyToRegistractionRequests() {
 		ActorRef device = system.actorOf(Device.props("group", "device"));
@@ -0,0 +1,88 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.testkit.javadsl.TestKit;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FleetQueryTest extends AbstractIoTTest {
+
+	@Test
+	public void testMergeGroupStatistics() {
+		TestKit group1 = new TestKit(system);
+		TestKit group2 = new TestKit(system);
+		Map<ActorRef, String> groups = new HashMap<>();
+		groups.put(group1.getRef(), "group1");
+		groups.put(group2.getRef(), "group2");
+
+		system.actorOf(FleetQuery.groupProps(groups, 1L, DeviceManager.RequestFleetTemperatures.View.AGGREGATE,
+				System.nanoTime() + TimeUnit.SECONDS.toNanos(3), probe.getRef()));
+
+		DeviceGroup.RequestGroupStatistics request = group1.expectMsgClass(DeviceGroup.RequestGroupStatistics.class);
+		assertEquals(1L, request.getRequestId());
+		// Groups get what is left of the deadline as the timeout of their device queries.
+		assertTrue(request.getTimeout().get().toNanos() <= TimeUnit.SECONDS.toNanos(3));
+		group1.reply(new DeviceGroup.RespondGroupStatistics(1L, new TemperatureStatistics().add(20.0).add(22.0), 1));
+		group2.expectMsgClass(DeviceGroup.RequestGroupStatistics.class);
+		group2.reply(new DeviceGroup.RespondGroupStatistics(1L, new TemperatureStatistics().add(24.0), 0));
+
+		DeviceManager.RespondFleetTemperatures response = probe.expectMsgClass(DeviceManager.RespondFleetTemperatures.class);
+		assertTrue(response.isComplete());
+		assertEquals(2, response.getGroups());
+		assertEquals(3L, response.getStatistics().getCount());
+		assertEquals(22.0, response.getStatistics().getMean(), 0.0);
+		assertEquals(1, response.getUnavailable());
+		assertTrue(response.getTimedOutGroups().isEmpty());
+	}
+
+	@Test
+	public void testAnswerPartialResultAtDeadline() {
+		TestKit group1 = new TestKit(system);
+		TestKit group2 = new TestKit(system);
+		Map<ActorRef, String> groups = new HashMap<>();
+		groups.put(group1.getRef(), "group1");
+		groups.put(group2.getRef(), "group2");
+
+		long started = System.nanoTime();
+		system.actorOf(FleetQuery.groupProps(groups, 1L, DeviceManager.RequestFleetTemperatures.View.FULL,
+				started + TimeUnit.MILLISECONDS.toNanos(300), probe.getRef()));
+
+		group1.expectMsgClass(DeviceGroup.RequestAllTemperatures.class);
+		group1.reply(new DeviceGroup.RespondAllTemperatures(1L,
+				Collections.singletonMap("device1", new DeviceGroup.Temperature(21.0))));
+		group2.expectMsgClass(DeviceGroup.RequestAllTemperatures.class);
+
+		DeviceManager.RespondFleetTemperatures response = probe.expectMsgClass(DeviceManager.RespondFleetTemperatures.class);
+		assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(300));
+		assertFalse(response.isComplete());
+		assertEquals(1, response.getGroups());
+		assertEquals(Collections.singleton("group2"), response.getTimedOutGroups());
+		assertEquals(Collections.singleton("group1"), response.getTemperatures().keySet());
+	}
+
+	@Test
+	public void testHandShardsTheRemainingTime() {
+		TestKit shard = new TestKit(system);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(3);
+
+		system.actorOf(FleetQuery.shardProps(Collections.singletonList(shard.getRef()), 1L,
+				DeviceManager.RequestFleetTemperatures.View.AGGREGATE, deadline, probe.getRef()));
+
+		DeviceManager.CollectFleetTemperatures collect = shard.expectMsgClass(DeviceManager.CollectFleetTemperatures.class);
+		assertTrue(collect.getTimeout().toNanos() > 0);
+		assertTrue(collect.getTimeout().toNanos() < TimeUnit.SECONDS.toNanos(3));
+		shard.reply(new DeviceManager.RespondFleetTemperatures(1L, new TemperatureStatistics().add(20.0), 0, 1,
+				Collections.emptyMap(), Collections.singleton("group9"), false));
+
+		DeviceManager.RespondFleetTemperatures response = probe.expectMsgClass(DeviceManager.RespondFleetTemperatures.class);
+		assertFalse(response.isComplete());
+		assertEquals(1L, response.getStatistics().getCount());
+		assertEquals(Collections.singleton("group9"), response.getTimedOutGroups());
+	}
+}
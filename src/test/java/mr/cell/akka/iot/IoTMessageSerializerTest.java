@@ -0,0 +1,279 @@
+package mr.cell.akka.iot;
+
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializer;
+import akka.serialization.SerializerWithStringManifest;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.io.NotSerializableException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IoTMessageSerializerTest extends AbstractIoTTest {
+
+	@Test
+	public void testEveryProtocolMessageIsBoundAndRoundTrips() {
+		List<Object> messages = Arrays.asList(
+				new DeviceManager.RequestTrackDevice("group", "device"),
+				new DeviceManager.DeviceRegistered(),
+				new DeviceManager.RequestTrackDevices("group", Arrays.asList("device1", "device2", "device1")),
+				new DeviceManager.DevicesRegistered("group", 2, 1),
+				new DeviceManager.DeviceReading("group", "device", 21.5, 1_500_000_000_000L),
+				new DeviceManager.RecordTemperatureBatch(7L, Collections.singletonList(new DeviceManager.DeviceReading("group", "device", 21.5, 1L))),
+				new DeviceManager.TemperatureBatchRecorded(7L, 3, Collections.emptyList(),
+						Collections.singletonList(new DeviceManager.DeviceReading("group", "device", 21.5, 1L))),
+				new DeviceManager.DeviceEnvelope("group", "device", new Device.ReadTemperature(1L)),
+				new DeviceManager.GroupEnvelope("group", new DeviceGroup.RequestDeviceList(1L)),
+				new DeviceManager.RequestShard("group"),
+				new DeviceManager.ShardLocation("group", probe.getRef()),
+				new DeviceManager.RequestFleetTemperatures(1L, DeviceManager.RequestFleetTemperatures.View.FULL,
+						FiniteDuration.create(2, TimeUnit.SECONDS)),
+				new DeviceManager.CollectFleetTemperatures(1L, DeviceManager.RequestFleetTemperatures.View.AGGREGATE,
+						FiniteDuration.create(1500, TimeUnit.MILLISECONDS)),
+				new DeviceManager.RespondFleetTemperatures(1L, new TemperatureStatistics().add(20.0), 1, 2,
+						Collections.singletonMap("group", Collections.singletonMap("device", new DeviceGroup.Temperature(20.0))),
+						Collections.singleton("slow-group"), false),
+				new DeviceManager.RequestGroupActors(),
+				new DeviceManager.GroupActors(Collections.singletonList(probe.getRef())),
+				new Device.RestoreReadings(new long[] {10L, 20L}, new double[] {1.0, 2.0}),
+				new Device.RecordJournaledTemperature(21.5, 100L),
+				new Device.SetAlertRules(Arrays.asList(AlertRule.above("hot", 30.0), AlertRule.rateOfChange("jump", 0.5),
+						AlertRule.nOfM("flaky", 25.0, 3, 64)), Collections.singletonList(probe.getRef())),
+				new Device.Passivate(),
+				new Device.ReportChanges(true, 500L),
+				new Device.ReadTemperature(1L),
+				new Device.RespondTemperature(1L, Optional.of(22.0)),
+				new Device.ReadTemperatureRange(1L, 100L, 200L),
+				new Device.RespondTemperatureRange(1L, new long[] {150L}, new double[] {3.0}),
+				new Device.RecordTemperature(1L, 21.5, 100L),
+				new Device.TemperatureRecorded(1L),
+				new Device.TemperaturesRecorded(9L, 5),
+				new DeviceGroup.RequestDeviceList(1L),
+				new DeviceGroup.ReplyDeviceList(1L, Collections.singleton("device")),
+				new DeviceGroup.RequestAllTemperatures(1L),
+				new DeviceGroup.PartialTemperatures(1L, Collections.singletonMap("device", new DeviceGroup.Temperature(1.0)), 2),
+				new DeviceGroup.CorrectedTemperatures(1L, Collections.singletonMap("device", new DeviceGroup.DeviceTimeout())),
+				new DeviceGroup.RespondAllTemperatures(1L, Collections.singletonMap("device", new DeviceGroup.TemperatureNotAvailable())),
+				new DeviceGroup.RequestGroupStatistics(1L),
+				new DeviceGroup.RespondGroupStatistics(1L, new TemperatureStatistics().add(20.0), 1),
+				new DeviceGroup.SubscribeChanges(),
+				new DeviceGroup.UnsubscribeChanges(),
+				new DeviceGroup.ChangesSubscribed("group"),
+				new DeviceGroup.TemperatureChanged("device", 21.5, 100L),
+				new DeviceGroup.AddAlertRule(1L, AlertRule.below("cold", -5.0)),
+				new DeviceGroup.AddAlertRule(1L, "device", AlertRule.nOfM("flaky", 25.0, 2, 5)),
+				new DeviceGroup.RemoveAlertRule(1L, "device", "flaky"),
+				new DeviceGroup.AlertRulesUpdated(1L),
+				new DeviceGroup.SubscribeAlerts(),
+				new DeviceGroup.UnsubscribeAlerts(),
+				new DeviceGroup.AlertsSubscribed("group"),
+				new DeviceGroup.Alert("group", "device", "hot", true, 31.0, 100L),
+				new DeviceGroup.JournalReading("device", 21.5, 100L, new Device.TemperatureRecorded(1L), probe.getRef()),
+				new DeviceGroup.AckAfterCommit(null, null),
+				new DeviceGroup.RequestPassivation(),
+				new DeviceGroup.Passivated("device", 21.5, 100L),
+				new DeviceGroup.RequestTopology(),
+				new DeviceGroup.GroupTopology("group", Arrays.asList("device1", "device2"),
+						new long[] {100L, DeviceGroup.GroupTopology.NO_READING}, new double[] {21.5, 0.0}),
+				new DeviceGroup.RestoreTopology(new DeviceGroup.GroupTopology("group", Arrays.asList("device1"),
+						new long[] {DeviceGroup.GroupTopology.NO_READING}, new double[] {0.0})),
+				new DeviceGroup.TopologyRestored("group", 2),
+				new DeviceGroup.Temperature(21.5),
+				new DeviceGroup.TemperatureNotAvailable(),
+				new DeviceGroup.DeviceNotAvailable(),
+				new DeviceGroup.DeviceTimeout(),
+				new DashboardManager.Subscribe(1L, "group"),
+				new DashboardManager.Subscribed(1L),
+				new DashboardManager.Unsubscribe(1L, "group"),
+				new DashboardManager.Unsubscribed(1L),
+				new DashboardManager.Frame(1L, Collections.singletonList(new DashboardManager.DeviceUpdate("group", "device", 21.5, Optional.empty()))),
+				new DashboardManager.FrameAck(1L),
+				new DashboardManager.DeviceUpdate("group", "device", 21.5, Optional.of(100L)));
+
+		Serialization serialization = SerializationExtension.lookup().get(system);
+		for(Object message : messages) {
+			Serializer serializer = serialization.findSerializerFor(message);
+			assertTrue(message.getClass().getName(), serializer instanceof IoTMessageSerializer);
+			byte[] bytes = serializer.toBinary(message);
+			Object copy = roundTrip(message);
+			assertSame(message.getClass(), copy.getClass());
+			// Encoding the copy gives the same bytes only if every field survived.
+			assertArrayEquals(message.getClass().getName(), bytes, serializer.toBinary(copy));
+		}
+	}
+
+	@Test
+	public void testReadingsOfSeveralGroups() {
+		DeviceManager.RecordTemperatureBatch batch = roundTrip(new DeviceManager.RecordTemperatureBatch(42L, Arrays.asList(
+				new DeviceManager.DeviceReading("group1", "device1", 1.0, 10L),
+				new DeviceManager.DeviceReading("group1", "device2", -2.0, 11L),
+				new DeviceManager.DeviceReading("gr\u00f6up2", "device1", 3.5, 12L),
+				new DeviceManager.DeviceReading("group1", "device3", Double.NaN, Long.MIN_VALUE))));
+
+		assertEquals(42L, batch.getRequestId());
+		assertEquals(4, batch.getReadings().size());
+		DeviceManager.DeviceReading third = batch.getReadings().get(2);
+		assertEquals("gr\u00f6up2", third.getGroupId());
+		assertEquals("device1", third.getDeviceId());
+		assertEquals(3.5, third.getValue(), 0.0);
+		assertEquals(12L, third.getTimestamp());
+		DeviceManager.DeviceReading fourth = batch.getReadings().get(3);
+		assertEquals("group1", fourth.getGroupId());
+		assertTrue(Double.isNaN(fourth.getValue()));
+		assertEquals(Long.MIN_VALUE, fourth.getTimestamp());
+	}
+
+	@Test
+	public void testGroupRepliesAndPolicies() {
+		Map<String, DeviceGroup.TemperatureReading> temperatures = new HashMap<>();
+		temperatures.put("device1", new DeviceGroup.Temperature(1.0));
+		temperatures.put("device2", new DeviceGroup.TemperatureNotAvailable());
+		temperatures.put("device3", new DeviceGroup.DeviceNotAvailable());
+		temperatures.put("device4", new DeviceGroup.DeviceTimeout());
+		assertEquals(temperatures, this.<DeviceGroup.RespondAllTemperatures>roundTrip(new DeviceGroup.RespondAllTemperatures(1L, temperatures)).getTemperatures());
+
+		DeviceGroup.ReplyDeviceList devices = roundTrip(new DeviceGroup.ReplyDeviceList(3L, new HashSet<>(Arrays.asList("a", "b", "c"))));
+		assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), new HashSet<>(devices.getDeviceIds()));
+
+		DeviceGroup.CompletionPolicy quorum = this.<DeviceGroup.RequestAllTemperatures>roundTrip(
+				new DeviceGroup.RequestAllTemperatures(1L, DeviceGroup.CompletionPolicy.quorum(0.75))).getCompletionPolicy();
+		assertEquals(DeviceGroup.CompletionPolicy.Kind.QUORUM, quorum.getKind());
+		assertEquals(0.75, quorum.getQuorum(), 0.0);
+		DeviceGroup.CompletionPolicy incremental = this.<DeviceGroup.RequestAllTemperatures>roundTrip(
+				new DeviceGroup.RequestAllTemperatures(1L, DeviceGroup.CompletionPolicy.incremental(16))).getCompletionPolicy();
+		assertEquals(16, incremental.getChunkSize());
+		DeviceGroup.CompletionPolicy softDeadline = this.<DeviceGroup.RequestAllTemperatures>roundTrip(
+				new DeviceGroup.RequestAllTemperatures(1L, DeviceGroup.CompletionPolicy.softDeadline(FiniteDuration.create(150, TimeUnit.MILLISECONDS)))).getCompletionPolicy();
+		assertEquals(FiniteDuration.create(150, TimeUnit.MILLISECONDS), softDeadline.getSoftDeadline());
+		assertSame(DeviceGroup.CompletionPolicy.all(),
+				this.<DeviceGroup.RequestAllTemperatures>roundTrip(new DeviceGroup.RequestAllTemperatures(1L)).getCompletionPolicy());
+		assertFalse(this.<DeviceGroup.RequestAllTemperatures>roundTrip(new DeviceGroup.RequestAllTemperatures(1L)).getTimeout().isPresent());
+		assertEquals(Optional.of(FiniteDuration.create(250, TimeUnit.MILLISECONDS)), this.<DeviceGroup.RequestAllTemperatures>roundTrip(
+				new DeviceGroup.RequestAllTemperatures(1L, DeviceGroup.CompletionPolicy.all(), FiniteDuration.create(250, TimeUnit.MILLISECONDS))).getTimeout());
+		assertEquals(Optional.of(FiniteDuration.create(2, TimeUnit.SECONDS)), this.<DeviceGroup.RequestGroupStatistics>roundTrip(
+				new DeviceGroup.RequestGroupStatistics(1L, FiniteDuration.create(2, TimeUnit.SECONDS))).getTimeout());
+
+		assertFalse(this.<Device.RespondTemperature>roundTrip(new Device.RespondTemperature(1L, Optional.empty())).getValue().isPresent());
+		assertFalse(this.<DeviceGroup.Passivated>roundTrip(new DeviceGroup.Passivated("device")).hasReading());
+		assertNull(this.<DashboardManager.Subscribe>roundTrip(new DashboardManager.Subscribe(1L, "group")).getMinFrameInterval());
+	}
+
+	@Test
+	public void testStatisticsKeepTheirSketch() {
+		TemperatureStatistics statistics = new TemperatureStatistics();
+		for(int i = -500; i <= 1500; i++) {
+			statistics.add(i / 10.0);
+		}
+		TemperatureStatistics copy = this.<DeviceGroup.RespondGroupStatistics>roundTrip(
+				new DeviceGroup.RespondGroupStatistics(1L, statistics, 0)).getStatistics();
+
+		assertEquals(statistics.getCount(), copy.getCount());
+		assertEquals(statistics.getMean(), copy.getMean(), 0.0);
+		assertEquals(statistics.getStandardDeviation(), copy.getStandardDeviation(), 0.0);
+		for(double quantile : new double[] {0.0, 0.01, 0.25, 0.5, 0.9, 0.99, 1.0}) {
+			assertEquals(statistics.getPercentile(quantile), copy.getPercentile(quantile), 0.0);
+		}
+		// The copy keeps merging like the original.
+		copy.merge(new TemperatureStatistics().add(200.0));
+		assertEquals(200.0, copy.getMax(), 0.0);
+		assertEquals(statistics.getCount() + 1, copy.getCount());
+	}
+
+	@Test
+	public void testEnvelopesCarryAnySerializableMessage() {
+		DeviceManager.GroupEnvelope envelope = roundTrip(new DeviceManager.GroupEnvelope("group",
+				new DeviceGroup.RequestAllTemperatures(5L, DeviceGroup.CompletionPolicy.incremental(2))));
+		assertEquals("group", envelope.getGroupId());
+		assertEquals(5L, ((DeviceGroup.RequestAllTemperatures) envelope.getMessage()).getRequestId());
+
+		DeviceManager.DeviceEnvelope foreign = roundTrip(new DeviceManager.DeviceEnvelope("group", "device", "not a protocol message"));
+		assertEquals("not a protocol message", foreign.getMessage());
+
+		DeviceManager.ShardLocation location = roundTrip(new DeviceManager.ShardLocation("group", probe.getRef()));
+		assertEquals(probe.getRef(), location.getShard());
+	}
+
+	@Test(expected = NotSerializableException.class)
+	public void testRejectsUnknownVersion() throws Exception {
+		IoTMessageSerializer serializer = (IoTMessageSerializer) SerializationExtension.lookup().get(system).serializerFor(Device.ReadTemperature.class);
+		byte[] bytes = serializer.toBinary(new Device.ReadTemperature(1L));
+		bytes[0] = IoTMessageSerializer.VERSION + 1;
+		serializer.fromBinary(bytes, serializer.manifest(new Device.ReadTemperature(1L)));
+	}
+
+	@Test
+	public void testRejectsTruncatedMessages() {
+		TemperatureStatistics statistics = new TemperatureStatistics();
+		statistics.add(21.5);
+		Map<String, DeviceGroup.TemperatureReading> temperatures = new HashMap<>();
+		temperatures.put("device", new DeviceGroup.Temperature(1.0));
+		List<Object> messages = Arrays.asList(
+				new DeviceManager.RequestTrackDevices("group", Arrays.asList("device1", "device2")),
+				new DeviceManager.RecordTemperatureBatch(7L, Collections.singletonList(new DeviceManager.DeviceReading("group", "device", 21.5, 1L))),
+				new DeviceManager.TemperatureBatchRecorded(7L, 1, Collections.emptyList(),
+						Collections.singletonList(new DeviceManager.DeviceReading("group", "device", 21.5, 1L))),
+				new DeviceManager.GroupEnvelope("group", new DeviceGroup.RequestDeviceList(1L)),
+				new Device.RestoreReadings(new long[] {1L, 2L}, new double[] {1.0, 2.0}),
+				new Device.SetAlertRules(Collections.singletonList(AlertRule.nOfM("hot", 30.0, 2, 3)), Collections.singletonList(probe.getRef())),
+				new DeviceGroup.RespondGroupStatistics(1L, statistics, 0),
+				new DeviceGroup.RespondAllTemperatures(1L, temperatures));
+		for(Object message : messages) {
+			IoTMessageSerializer serializer = serializerFor(message);
+			byte[] bytes = serializer.toBinary(message);
+			for(int length = 1; length < bytes.length; length++) {
+				try {
+					serializer.fromBinary(Arrays.copyOf(bytes, length), serializer.manifest(message));
+					throw new AssertionError(message + " truncated to " + length + " of " + bytes.length + " bytes was accepted");
+				} catch(NotSerializableException expected) {
+					// Every truncation must fail the same way.
+				}
+			}
+		}
+	}
+
+	@Test(expected = NotSerializableException.class)
+	public void testRejectsSizesBeyondTheMessage() throws Exception {
+		DeviceManager.RequestTrackDevices message = new DeviceManager.RequestTrackDevices("g", Collections.emptyList());
+		IoTMessageSerializer serializer = serializerFor(message);
+		byte[] bytes = serializer.toBinary(message);
+		// Replaces the empty list size with Integer.MAX_VALUE.
+		byte[] corrupt = Arrays.copyOf(bytes, bytes.length + 4);
+		System.arraycopy(new byte[] {(byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07}, 0, corrupt, bytes.length - 1, 5);
+		serializer.fromBinary(corrupt, serializer.manifest(message));
+	}
+
+	@Test(expected = NotSerializableException.class)
+	public void testRejectsTrailingBytes() throws Exception {
+		Device.ReadTemperature message = new Device.ReadTemperature(1L);
+		IoTMessageSerializer serializer = serializerFor(message);
+		byte[] bytes = serializer.toBinary(message);
+		serializer.fromBinary(Arrays.copyOf(bytes, bytes.length + 1), serializer.manifest(message));
+	}
+
+	private IoTMessageSerializer serializerFor(Object message) {
+		return (IoTMessageSerializer) SerializationExtension.lookup().get(system).findSerializerFor(message);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T roundTrip(Object message) {
+		Serialization serialization = SerializationExtension.lookup().get(system);
+		SerializerWithStringManifest serializer = (SerializerWithStringManifest) serialization.findSerializerFor(message);
+		byte[] bytes = serializer.toBinary(message);
+		return (T) serialization.deserialize(bytes, serializer.identifier(), serializer.manifest(message)).get();
+	}
+}
@@ -0,0 +1,157 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IoTMetricsTest {
+
+	private static ActorSystem system;
+
+	@BeforeClass
+	public static void setupBeforeClass() {
+		// Snapshots are only taken by the tests, so each covers exactly what the test recorded since the previous one.
+		system = ActorSystem.create("metrics-test", ConfigFactory.parseString(
+				"iot.metrics.snapshot-interval = 1h\n" +
+				"akka.loglevel = WARNING\n")
+				.withFallback(ConfigFactory.load()));
+	}
+
+	@AfterClass
+	public static void terminate() {
+		TestKit.shutdownActorSystem(system);
+		system = null;
+	}
+
+	@Test
+	public void testCountsDevicesReadingsAndActorsPerGroup() {
+		TestKit probe = new TestKit(system);
+		IoTMetrics metrics = IoTMetrics.get(system);
+		metrics.snapshot();
+
+		ActorRef group = system.actorOf(DeviceGroup.props("metrics-group"));
+		ActorRef[] devices = new ActorRef[3];
+		for(int i = 0; i < devices.length; i++) {
+			group.tell(new DeviceManager.RequestTrackDevice("metrics-group", "device" + i), probe.getRef());
+			probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+			devices[i] = probe.getLastSender();
+		}
+		for(int i = 0; i < 5; i++) {
+			devices[i % devices.length].tell(new Device.RecordTemperature(i, 20.0 + i), probe.getRef());
+			probe.expectMsgClass(Device.TemperatureRecorded.class);
+		}
+
+		MetricsSnapshot snapshot = metrics.snapshot();
+		MetricsSnapshot.Group groupSnapshot = snapshot.getGroups().get("metrics-group");
+		assertEquals(3, groupSnapshot.getDevices());
+		assertEquals(5L, groupSnapshot.getReadings());
+		assertTrue(groupSnapshot.getReadingsPerSecond() > 0.0);
+		assertEquals(Long.valueOf(3L), snapshot.getActorsStarted().get("device"));
+		assertEquals(Long.valueOf(1L), snapshot.getActorsStarted().get("group"));
+		assertTrue(snapshot.getActorStartsPerSecond().get("device") > 0.0);
+		assertTrue(snapshot.getMailboxDepths().containsKey(group.path().toStringWithoutAddress()));
+		assertEquals(Integer.valueOf(3), metrics.getDevicesPerGroup().get("metrics-group"));
+
+		probe.watch(group);
+		system.stop(group);
+		probe.expectTerminated(group);
+		probe.awaitAssert(() -> {
+			assertFalse(metrics.getDevicesPerGroup().containsKey("metrics-group"));
+			assertEquals(Long.valueOf(3L), metrics.getActorsStopped().get("device"));
+			assertEquals(Long.valueOf(1L), metrics.getActorsStopped().get("group"));
+			assertFalse(metrics.getMailboxDepths().containsKey(group.path().toStringWithoutAddress()));
+			return null;
+		});
+	}
+
+	@Test
+	public void testSkipsMailboxesOfShortLivedActors() {
+		IoTMetrics metrics = IoTMetrics.get(system);
+		TestKit probe = new TestKit(system);
+		TestKit group = new TestKit(system);
+		ActorRef collector = system.actorOf(TemperatureBatchCollector.props(
+				Collections.singletonMap(group.getRef(), Collections.singletonList(new DeviceManager.DeviceReading("group", "device", 1.0, 1L))),
+				Collections.emptyList(), 1L, probe.getRef(), new FiniteDuration(3, TimeUnit.SECONDS)));
+		group.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+
+		assertFalse(metrics.getMailboxDepths().containsKey(collector.path().toStringWithoutAddress()));
+		system.stop(collector);
+	}
+
+	@Test
+	public void testRecordsQueryLatencyAndTimeoutRatio() throws Exception {
+		TestKit probe = new TestKit(system);
+		TestKit device1 = new TestKit(system);
+		TestKit device2 = new TestKit(system);
+		IoTMetrics metrics = IoTMetrics.get(system);
+		metrics.snapshot();
+
+		Map<ActorRef, String> actorToDeviceId = new HashMap<>();
+		actorToDeviceId.put(device1.getRef(), "device1");
+		actorToDeviceId.put(device2.getRef(), "device2");
+		ActorRef query = system.actorOf(DeviceGroupQuery.props(actorToDeviceId, 1L, probe.getRef(),
+				new FiniteDuration(200, TimeUnit.MILLISECONDS)));
+		device1.expectMsgClass(Device.ReadTemperature.class);
+		query.tell(new Device.RespondTemperature(0L, Optional.of(21.0)), device1.getRef());
+		probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class);
+
+		MetricsSnapshot snapshot = metrics.snapshot();
+		assertEquals(1L, snapshot.getQueries());
+		assertEquals(0.5, snapshot.getTimeoutRatio(), 0.0);
+		assertTrue(snapshot.getQueryLatencyP50Micros() >= 200_000);
+		assertEquals(snapshot.getQueryLatencyP99Micros(), snapshot.getQueryLatencyMaxMicros());
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("mr.cell.akka.iot:type=IoTMetrics,system=metrics-test");
+		assertEquals(0.5, (Double) server.getAttribute(name, "QueryTimeoutRatio"), 0.0);
+		assertEquals(1L, server.getAttribute(name, "Queries"));
+	}
+
+	@Test
+	public void testHandsSnapshotsToTheConfiguredReporter() throws Exception {
+		ActorSystem reporting = ActorSystem.create("metrics-reporter-test", ConfigFactory.parseString(
+				"iot.metrics.snapshot-interval = 100ms\n" +
+				"iot.metrics.jmx = off\n" +
+				"iot.metrics.reporter = \"mr.cell.akka.iot.IoTMetricsTest$RecordingReporter\"\n")
+				.withFallback(ConfigFactory.load()));
+		try {
+			IoTMetrics.get(reporting).group("reported-group").recordReading();
+			MetricsSnapshot snapshot = RecordingReporter.snapshots.poll(3, TimeUnit.SECONDS);
+			assertNotNull(snapshot);
+			assertEquals(1L, snapshot.getGroups().get("reported-group").getReadings());
+		} finally {
+			TestKit.shutdownActorSystem(reporting);
+		}
+	}
+
+	public static class RecordingReporter implements MetricsReporter {
+
+		static final BlockingQueue<MetricsSnapshot> snapshots = new LinkedBlockingQueue<>();
+
+		public RecordingReporter(ActorSystem system) {
+		}
+
+		@Override
+		public void report(MetricsSnapshot snapshot) {
+			snapshots.add(snapshot);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package mr.cell.akka.iot;
+
+import com.typesafe.config.ConfigFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testReplayReadingsAcrossSegments() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try(Journal journal = Journal.open(directory, 256, 1L)) {
+			for(int i = 1; i <= 20; i++) {
+				assertEquals(i, journal.append("device" + (i % 3), i * 10L, i));
+			}
+			journal.flush();
+		}
+		assertTrue(segments(directory) > 1);
+
+		List<String> replayed = new ArrayList<>();
+		long lastSeqNr = Journal.replay(directory, 15L, (seqNr, deviceId, timestamp, value) ->
+				replayed.add(seqNr + ":" + deviceId + ":" + timestamp + ":" + value));
+		assertEquals(20L, lastSeqNr);
+		assertEquals(6, replayed.size());
+		assertEquals("15:device0:150:15.0", replayed.get(0));
+		assertEquals("20:device2:200:20.0", replayed.get(5));
+	}
+
+	@Test
+	public void testContinueAfterReopening() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try(Journal journal = Journal.open(directory, 4096, 1L)) {
+			journal.append("device1", 10L, 1.0);
+			journal.append("device1", 20L, 2.0);
+		}
+		long lastSeqNr = Journal.replay(directory, 1L, (seqNr, deviceId, timestamp, value) -> { });
+		try(Journal journal = Journal.open(directory, 4096, lastSeqNr + 1)) {
+			assertEquals(3L, journal.append("device2", 30L, 3.0));
+		}
+
+		List<Double> values = new ArrayList<>();
+		assertEquals(3L, Journal.replay(directory, 1L, (seqNr, deviceId, timestamp, value) -> values.add(value)));
+		assertEquals(3, values.size());
+	}
+
+	@Test
+	public void testReplayEmptyDirectory() throws Exception {
+		Path directory = folder.getRoot().toPath().resolve("missing");
+		assertEquals(0L, Journal.replay(directory, 1L, (seqNr, deviceId, timestamp, value) -> fail()));
+	}
+
+	@Test
+	public void testDeleteSegmentsCoveredBySnapshot() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try(Journal journal = Journal.open(directory, 256, 1L)) {
+			for(int i = 1; i <= 20; i++) {
+				journal.append("device", i, i);
+			}
+			int before = segments(directory);
+
+			JournalSnapshot snapshot = new JournalSnapshot(journal.lastSeqNr());
+			snapshot.add("device", 20L, 20.0);
+			snapshot.add("idle");
+			snapshot.writeTo(directory);
+			journal.deleteUpTo(snapshot.getSeqNr());
+
+			assertTrue(segments(directory) < before);
+			assertEquals(20L, Journal.replay(directory, 21L, (seqNr, deviceId, timestamp, value) -> fail()));
+		}
+
+		JournalSnapshot restored = JournalSnapshot.readLatest(directory);
+		assertEquals(20L, restored.getSeqNr());
+		List<String> entries = new ArrayList<>();
+		restored.forEach((deviceId, hasReading, timestamp, value) -> entries.add(deviceId + ":" + hasReading + ":" + value));
+		assertEquals("device:true:20.0", entries.get(0));
+		assertEquals("idle:false:0.0", entries.get(1));
+	}
+
+	@Test
+	public void testContinueInLastSegmentAfterReopening() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try(Journal journal = Journal.open(directory, 4096, 1L)) {
+			journal.append("device1", 10L, 1.0);
+		}
+		try(Journal journal = Journal.open(directory, 4096, 2L)) {
+			assertEquals(2L, journal.append("device1", 20L, 2.0));
+		}
+		assertEquals(1, segments(directory));
+		assertEquals(2L, Journal.replay(directory, 1L, (seqNr, deviceId, timestamp, value) -> { }));
+	}
+
+	@Test
+	public void testStopReplayAtCorruptRecordAndOverwriteIt() throws Exception {
+		Path directory = folder.getRoot().toPath();
+		try(Journal journal = Journal.open(directory, 4096, 1L)) {
+			journal.append("device1", 10L, 1.0);
+			journal.append("device1", 20L, 2.0);
+			journal.append("device1", 30L, 3.0);
+		}
+		// Flip a bit in the value of the second record, as a torn write would leave it.
+		Path segment = directory.resolve(String.format("segment-%020d.log", 1L));
+		try(FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			int recordSize = 4 + 4 + 8 + 2 + "device1".length() + 8 + 8;
+			ByteBuffer lastByte = ByteBuffer.allocate(1);
+			channel.read(lastByte, 2 * recordSize - 1);
+			lastByte.put(0, (byte) (lastByte.get(0) ^ 1));
+			lastByte.rewind();
+			channel.write(lastByte, 2 * recordSize - 1);
+		}
+
+		List<Double> values = new ArrayList<>();
+		long lastSeqNr = Journal.replay(directory, 1L, (seqNr, deviceId, timestamp, value) -> values.add(value));
+		assertEquals(1L, lastSeqNr);
+		assertEquals(Collections.singletonList(1.0), values);
+
+		try(Journal journal = Journal.open(directory, 4096, lastSeqNr + 1)) {
+			assertEquals(2L, journal.append("device2", 40L, 4.0));
+		}
+		values.clear();
+		assertEquals(2L, Journal.replay(directory, 1L, (seqNr, deviceId, timestamp, value) -> values.add(value)));
+		assertEquals(Arrays.asList(1.0, 4.0), values);
+	}
+
+	@Test
+	public void testKeepGroupDirectoriesInsideJournalDirectory() throws Exception {
+		Path directory = folder.getRoot().toPath().toAbsolutePath().normalize();
+		JournalSettings settings = JournalSettings.fromConfig(ConfigFactory.load()).withDirectory(directory);
+		for(String groupId : Arrays.asList(".", "..", "../other", "a/../..", "group")) {
+			assertEquals(directory, settings.groupDirectory(groupId).getParent());
+			Files.createDirectories(settings.groupDirectory(groupId));
+		}
+		assertEquals(new HashSet<>(Arrays.asList(".", "..", "../other", "a/../..", "group")),
+				new HashSet<>(settings.journaledGroupIds()));
+	}
+
+	private static int segments(Path directory) {
+		File[] segments = directory.toFile().listFiles((dir, name) -> name.startsWith("segment-"));
+		return segments == null ? 0 : segments.length;
+	}
+}
@@ -0,0 +1,64 @@
+package mr.cell.akka.iot;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ObjectIntMapTest {
+
+	@Test
+	public void testPutGetRemove() {
+		ObjectIntMap<String> map = new ObjectIntMap<>();
+		map.put("a", 1);
+		map.put("b", 2);
+		map.put("a", 3);
+
+		assertEquals(2, map.size());
+		assertEquals(3, map.get("a", -1));
+		assertEquals(2, map.get("b", -1));
+		assertEquals(-1, map.get("c", -1));
+		assertEquals(3, map.remove("a", -1));
+		assertEquals(-1, map.remove("a", -1));
+		assertEquals(-1, map.get("a", -1));
+		assertEquals(1, map.size());
+	}
+
+	@Test
+	public void testMatchesHashMapUnderRandomOperations() {
+		ObjectIntMap<Integer> map = new ObjectIntMap<>(4);
+		Map<Integer, Integer> expected = new HashMap<>();
+		Random random = new Random(42);
+		for(int i = 0; i < 200_000; i++) {
+			// A small key range makes removals hit present keys and collide in probe sequences.
+			int key = random.nextInt(5_000);
+			if(random.nextInt(3) == 0) {
+				assertEquals((int) expected.getOrDefault(key, -1), map.remove(key, -1));
+				expected.remove(key);
+			} else {
+				map.put(key, i);
+				expected.put(key, i);
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for(int key = 0; key < 5_000; key++) {
+			assertEquals((int) expected.getOrDefault(key, -1), map.get(key, -1));
+		}
+	}
+
+	@Test
+	public void testClear() {
+		ObjectIntMap<String> map = new ObjectIntMap<>();
+		for(int i = 0; i < 100; i++) {
+			map.put("device" + i, i);
+		}
+		map.clear();
+
+		assertTrue(map.isEmpty());
+		assertEquals(-1, map.get("device1", -1));
+	}
+}
@@ -0,0 +1,89 @@
+package mr.cell.akka.iot;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ReadingFrameCodecTest {
+
+	private static ByteString frames() {
+		ByteStringBuilder builder = new ByteStringBuilder();
+		ReadingFrameCodec.writeTrackDevice(builder, "group", "device1");
+		ReadingFrameCodec.writeReading(builder, "group", "device1", 1000L, 21.5);
+		ReadingFrameCodec.writeReading(builder, "gr\u00f6up", "device2", -1L, -3.25);
+		return builder.result();
+	}
+
+	private static void assertFrames(List<Object> messages) {
+		assertEquals(3, messages.size());
+		DeviceManager.RequestTrackDevice track = (DeviceManager.RequestTrackDevice) messages.get(0);
+		assertEquals("group", track.getGroupId());
+		assertEquals("device1", track.getDeviceId());
+		DeviceManager.DeviceReading first = (DeviceManager.DeviceReading) messages.get(1);
+		assertEquals("group", first.getGroupId());
+		assertEquals("device1", first.getDeviceId());
+		assertEquals(1000L, first.getTimestamp());
+		assertEquals(21.5, first.getValue(), 0.0);
+		DeviceManager.DeviceReading second = (DeviceManager.DeviceReading) messages.get(2);
+		assertEquals("gr\u00f6up", second.getGroupId());
+		assertEquals(-1L, second.getTimestamp());
+		assertEquals(-3.25, second.getValue(), 0.0);
+	}
+
+	@Test
+	public void testDecodeFramesInOneChunk() {
+		assertFrames(new ReadingFrameCodec.Decoder(16).decode(frames()));
+	}
+
+	@Test
+	public void testDecodeFramesSplitAtEveryPosition() {
+		ByteString frames = frames();
+		for(int split = 0; split <= frames.size(); split++) {
+			ReadingFrameCodec.Decoder decoder = new ReadingFrameCodec.Decoder(16);
+			List<Object> messages = new ArrayList<>(decoder.decode(frames.take(split)));
+			messages.addAll(decoder.decode(frames.drop(split)));
+			assertFrames(messages);
+		}
+	}
+
+	@Test
+	public void testDecodeFramesOneByteAtATime() {
+		ByteString frames = frames();
+		ReadingFrameCodec.Decoder decoder = new ReadingFrameCodec.Decoder(16);
+		List<Object> messages = new ArrayList<>();
+		for(int i = 0; i < frames.size(); i++) {
+			messages.addAll(decoder.decode(frames.slice(i, i + 1)));
+		}
+		assertFrames(messages);
+	}
+
+	@Test
+	public void testReuseIdStrings() {
+		ReadingFrameCodec.Decoder decoder = new ReadingFrameCodec.Decoder(16);
+		List<Object> messages = decoder.decode(frames());
+		messages.addAll(decoder.decode(frames()));
+		DeviceManager.DeviceReading first = (DeviceManager.DeviceReading) messages.get(1);
+		DeviceManager.DeviceReading again = (DeviceManager.DeviceReading) messages.get(4);
+		assertSame(first.getGroupId(), again.getGroupId());
+		assertSame(first.getDeviceId(), again.getDeviceId());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectUnknownFrameType() {
+		new ReadingFrameCodec.Decoder(16).decode(ByteString.fromArray(new byte[] {9, 1, 'g', 1, 'd'}));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectTooLongIds() {
+		StringBuilder id = new StringBuilder();
+		for(int i = 0; i < 256; i++) {
+			id.append('x');
+		}
+		ReadingFrameCodec.writeTrackDevice(new ByteStringBuilder(), "group", id.toString());
+	}
+}
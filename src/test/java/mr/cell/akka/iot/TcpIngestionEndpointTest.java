@@ -0,0 +1,86 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.Tcp;
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class TcpIngestionEndpointTest extends AbstractIoTTest {
+
+	@Test
+	public void testRecordReadingsSentOverTcp() throws Exception {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		Tcp.ServerBinding binding = TcpIngestionEndpoint.bind(system, managerActor, "127.0.0.1", 0, 16,
+				IngestionSettings.fromConfig(system.settings().config()))
+				.toCompletableFuture().get(5, TimeUnit.SECONDS);
+		try {
+			ByteStringBuilder tracks = new ByteStringBuilder();
+			ByteStringBuilder readings = new ByteStringBuilder();
+			for(int device = 0; device < 10; device++) {
+				ReadingFrameCodec.writeTrackDevice(tracks, "tcp", "device" + device);
+				for(int i = 0; i < 100; i++) {
+					ReadingFrameCodec.writeReading(readings, "tcp", "device" + device, i, device * 100 + i);
+				}
+			}
+			// Chunks of odd sizes split frames anywhere.
+			ByteString bytes = readings.result();
+			Materializer materializer = ActorMaterializer.create(system);
+			InetSocketAddress address = binding.localAddress();
+			Source.single(tracks.result())
+					.concat(Source.range(0, bytes.size() / 97).map(i -> bytes.slice(i * 97, i * 97 + 97)))
+					.via(Tcp.lookup().get(system).outgoingConnection(address.getHostString(), address.getPort()))
+					.runWith(Sink.ignore(), materializer)
+					.toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+			probe.awaitAssert(new FiniteDuration(10, TimeUnit.SECONDS), () -> {
+				managerActor.tell(new DeviceManager.GroupEnvelope("tcp", new DeviceGroup.RequestAllTemperatures(0L)), probe.getRef());
+				Map<String, DeviceGroup.TemperatureReading> temperatures =
+						probe.expectMsgClass(new FiniteDuration(500, TimeUnit.MILLISECONDS), DeviceGroup.RespondAllTemperatures.class).getTemperatures();
+				assertEquals(10, temperatures.size());
+				for(int device = 0; device < 10; device++) {
+					assertEquals(new DeviceGroup.Temperature(device * 100 + 99), temperatures.get("device" + device));
+				}
+				return null;
+			});
+		} finally {
+			binding.unbind().toCompletableFuture().get(5, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test
+	public void testCountRejectedReadings() throws Exception {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		IoTMetrics metrics = IoTMetrics.get(system);
+		long rejectedBefore = metrics.getRejectedReadings();
+		Tcp.ServerBinding binding = TcpIngestionEndpoint.bind(system, managerActor, "127.0.0.1", 0, 16,
+				IngestionSettings.fromConfig(system.settings().config()))
+				.toCompletableFuture().get(5, TimeUnit.SECONDS);
+		try {
+			ByteStringBuilder readings = new ByteStringBuilder();
+			for(int i = 0; i < 3; i++) {
+				ReadingFrameCodec.writeReading(readings, "untracked", "device", i, i);
+			}
+			InetSocketAddress address = binding.localAddress();
+			Source.single(readings.result())
+					.via(Tcp.lookup().get(system).outgoingConnection(address.getHostString(), address.getPort()))
+					.runWith(Sink.ignore(), ActorMaterializer.create(system))
+					.toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+			probe.awaitCond(() -> metrics.getRejectedReadings() - rejectedBefore == 3L);
+		} finally {
+			binding.unbind().toCompletableFuture().get(5, TimeUnit.SECONDS);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.PoisonPill;
+import akka.testkit.javadsl.TestKit;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TemperatureBatchCollectorTest extends AbstractIoTTest {
+
+	private final DeviceManager.DeviceReading reading1 = new DeviceManager.DeviceReading("group1", "device1", 1.0, 1L);
+	private final DeviceManager.DeviceReading reading2 = new DeviceManager.DeviceReading("group2", "device2", 2.0, 2L);
+	private final DeviceManager.DeviceReading rejected = new DeviceManager.DeviceReading("group3", "device3", 3.0, 3L);
+
+	private ActorRef startCollector(TestKit group1, TestKit group2, FiniteDuration timeout) {
+		Map<ActorRef, List<DeviceManager.DeviceReading>> readingsPerGroup = new HashMap<>();
+		readingsPerGroup.put(group1.getRef(), Collections.singletonList(reading1));
+		readingsPerGroup.put(group2.getRef(), Collections.singletonList(reading2));
+		return system.actorOf(TemperatureBatchCollector.props(
+				readingsPerGroup, Collections.singletonList(rejected), 1L, probe.getRef(), timeout));
+	}
+
+	private void acknowledge(ActorRef collector, TestKit group) {
+		DeviceManager.RecordTemperatureBatch batch = group.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+		assertEquals(1, batch.getReadings().size());
+		collector.tell(new DeviceManager.TemperatureBatchRecorded(batch.getRequestId(), 1, Collections.emptyList()), group.getRef());
+	}
+
+	@Test
+	public void testAggregateGroupAcknowledgements() {
+		TestKit group1 = new TestKit(system);
+		TestKit group2 = new TestKit(system);
+		ActorRef collector = startCollector(group1, group2, new FiniteDuration(3, TimeUnit.SECONDS));
+
+		acknowledge(collector, group1);
+		acknowledge(collector, group2);
+
+		DeviceManager.TemperatureBatchRecorded ack = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+		assertEquals(1L, ack.getRequestId());
+		assertEquals(2, ack.getRecorded());
+		assertEquals(Collections.singletonList(rejected), ack.getRejected());
+	}
+
+	@Test
+	public void testIgnoreRepeatedAndUnknownAcknowledgements() {
+		TestKit group1 = new TestKit(system);
+		TestKit group2 = new TestKit(system);
+		ActorRef collector = startCollector(group1, group2, new FiniteDuration(3, TimeUnit.SECONDS));
+
+		DeviceManager.RecordTemperatureBatch batch1 = group1.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+		DeviceManager.RecordTemperatureBatch batch2 = group2.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+		assertNotEquals(batch1.getRequestId(), batch2.getRequestId());
+
+		collector.tell(new DeviceManager.TemperatureBatchRecorded(batch1.getRequestId(), 1, Collections.emptyList()), group1.getRef());
+		collector.tell(new DeviceManager.TemperatureBatchRecorded(batch1.getRequestId(), 1, Collections.emptyList()), group1.getRef());
+		collector.tell(new DeviceManager.TemperatureBatchRecorded(42L, 1, Collections.emptyList()), group1.getRef());
+		probe.expectNoMsg(FiniteDuration.create(200, TimeUnit.MILLISECONDS));
+
+		collector.tell(new DeviceManager.TemperatureBatchRecorded(batch2.getRequestId(), 1, Collections.emptyList()), group2.getRef());
+		assertEquals(2, probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class).getRecorded());
+	}
+
+	@Test
+	public void testRejectReadingsOfTerminatedGroup() {
+		TestKit group1 = new TestKit(system);
+		TestKit group2 = new TestKit(system);
+		ActorRef collector = startCollector(group1, group2, new FiniteDuration(3, TimeUnit.SECONDS));
+
+		acknowledge(collector, group1);
+		group2.getRef().tell(PoisonPill.getInstance(), ActorRef.noSender());
+
+		DeviceManager.TemperatureBatchRecorded ack = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+		assertEquals(1, ack.getRecorded());
+		assertTrue(ack.getRejected().containsAll(Arrays.asList(rejected, reading2)));
+	}
+
+	@Test
+	public void testReportReadingsOfGroupsThatDoNotAnswerInTimeAsUnconfirmed() {
+		TestKit group1 = new TestKit(system);
+		TestKit group2 = new TestKit(system);
+		ActorRef collector = startCollector(group1, group2, new FiniteDuration(100, TimeUnit.MILLISECONDS));
+
+		acknowledge(collector, group1);
+
+		DeviceManager.TemperatureBatchRecorded ack = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+		assertEquals(1, ack.getRecorded());
+		assertEquals(Collections.singletonList(rejected), ack.getRejected());
+		assertEquals(Collections.singletonList(reading2), ack.getUnconfirmed());
+	}
+
+	@Test
+	public void testPassOnUnconfirmedReadingsOfTargets() {
+		TestKit shard1 = new TestKit(system);
+		TestKit shard2 = new TestKit(system);
+		ActorRef collector = startCollector(shard1, shard2, TemperatureBatchCollector.timeoutAbove(new FiniteDuration(3, TimeUnit.SECONDS)));
+
+		acknowledge(collector, shard1);
+		DeviceManager.RecordTemperatureBatch batch = shard2.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+		collector.tell(new DeviceManager.TemperatureBatchRecorded(batch.getRequestId(), 0, Collections.emptyList(), batch.getReadings()), shard2.getRef());
+
+		DeviceManager.TemperatureBatchRecorded ack = probe.expectMsgClass(DeviceManager.TemperatureBatchRecorded.class);
+		assertEquals(1, ack.getRecorded());
+		assertEquals(Collections.singletonList(rejected), ack.getRejected());
+		assertEquals(Collections.singletonList(reading2), ack.getUnconfirmed());
+	}
+
+	@Test
+	public void testWaitLongerThanTheCollectorsOfTargets() {
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(3100),
+				TemperatureBatchCollector.timeoutAbove(new FiniteDuration(3, TimeUnit.SECONDS)).toNanos());
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(220),
+				TemperatureBatchCollector.timeoutAbove(new FiniteDuration(200, TimeUnit.MILLISECONDS)).toNanos());
+	}
+}
@@ -0,0 +1,49 @@
+package mr.cell.akka.iot;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TemperatureHistoryTest {
+
+	@Test
+	public void testStartEmpty() {
+		TemperatureHistory history = new TemperatureHistory(3);
+		assertTrue(history.isEmpty());
+		assertEquals(0, history.range(1L, Long.MIN_VALUE, Long.MAX_VALUE).size());
+	}
+
+	@Test
+	public void testKeepOnlyMostRecentReadings() {
+		TemperatureHistory history = new TemperatureHistory(3);
+		for(int i = 1; i <= 5; i++) {
+			history.record(i * 10L, i);
+		}
+
+		assertEquals(3, history.size());
+		assertEquals(50L, history.latestTimestamp());
+		assertEquals(5.0, history.latestValue(), 0.0);
+
+		Device.RespondTemperatureRange range = history.range(1L, Long.MIN_VALUE, Long.MAX_VALUE);
+		assertArrayEquals(new long[] {30L, 40L, 50L}, range.getTimestamps());
+		assertArrayEquals(new double[] {3.0, 4.0, 5.0}, range.getValues(), 0.0);
+	}
+
+	@Test
+	public void testReturnReadingsWithinInclusiveRange() {
+		TemperatureHistory history = new TemperatureHistory(8);
+		for(int i = 1; i <= 5; i++) {
+			history.record(i * 10L, i);
+		}
+
+		Device.RespondTemperatureRange range = history.range(7L, 20L, 40L);
+		assertEquals(7L, range.getRequestId());
+		assertArrayEquals(new long[] {20L, 30L, 40L}, range.getTimestamps());
+		assertArrayEquals(new double[] {2.0, 3.0, 4.0}, range.getValues(), 0.0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectNonPositiveCapacity() {
+		new TemperatureHistory(0);
+	}
+}
@@ -0,0 +1,185 @@
+package mr.cell.akka.iot;
+
+import akka.Done;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.japi.Pair;
+import akka.stream.ActorMaterializer;
+import akka.stream.Materializer;
+import akka.stream.QueueOfferResult;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.SourceQueueWithComplete;
+import akka.testkit.javadsl.TestKit;
+import org.junit.Before;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TemperatureIngestionTest extends AbstractIoTTest {
+
+	private Materializer materializer;
+	private IngestionSettings settings;
+
+	@Before
+	public void setupMaterializer() {
+		materializer = ActorMaterializer.create(system);
+		settings = IngestionSettings.fromConfig(system.settings().config());
+	}
+
+	@Test
+	public void testRecordReadingsThroughFlow() throws Exception {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		List<DeviceManager.DeviceReading> readings = new ArrayList<>();
+		for(int group = 0; group < 4; group++) {
+			for(int device = 0; device < 5; device++) {
+				managerActor.tell(new DeviceManager.RequestTrackDevice("group" + group, "device" + device), probe.getRef());
+				probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+			}
+		}
+		for(int i = 0; i < 1000; i++) {
+			readings.add(new DeviceManager.DeviceReading("group" + (i % 4), "device" + (i % 5), i, i));
+		}
+
+		List<DeviceManager.TemperatureBatchRecorded> acks = Source.from(readings)
+				.via(TemperatureIngestion.flow(managerActor, settings))
+				.runWith(Sink.seq(), materializer)
+				.toCompletableFuture().get(10, TimeUnit.SECONDS);
+		assertEquals(1000, acks.stream().mapToInt(DeviceManager.TemperatureBatchRecorded::getRecorded).sum());
+		assertTrue(acks.stream().allMatch(ack -> ack.getRejected().isEmpty()));
+
+		managerActor.tell(new DeviceManager.GroupEnvelope("group3", new DeviceGroup.RequestAllTemperatures(0L)), probe.getRef());
+		Map<String, DeviceGroup.TemperatureReading> temperatures =
+				probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).getTemperatures();
+		// Readings of one device keep their order, so every device ends with its last reading.
+		assertEquals(new DeviceGroup.Temperature(999.0), temperatures.get("device4"));
+		assertEquals(new DeviceGroup.Temperature(987.0), temperatures.get("device2"));
+	}
+
+	@Test
+	public void testSendOneBatchPerGroup() {
+		TestKit deviceManager = new TestKit(system);
+		SourceQueueWithComplete<DeviceManager.DeviceReading> queue = TemperatureIngestion.queue(deviceManager.getRef(),
+				settings.withBatching(100, new FiniteDuration(50, TimeUnit.MILLISECONDS)), materializer).first();
+		for(int i = 0; i < 10; i++) {
+			queue.offer(new DeviceManager.DeviceReading(i % 2 == 0 ? "even" : "odd", "device", i, i));
+		}
+
+		Set<String> groups = new HashSet<>();
+		for(int i = 0; i < 2; i++) {
+			DeviceManager.RecordTemperatureBatch batch = deviceManager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+			Set<String> batchGroups = batch.getReadings().stream()
+					.map(DeviceManager.DeviceReading::getGroupId).collect(Collectors.toSet());
+			assertEquals(1, batchGroups.size());
+			assertEquals(5, batch.getReadings().size());
+			groups.addAll(batchGroups);
+		}
+		assertEquals(2, groups.size());
+		queue.complete();
+	}
+
+	@Test
+	public void testBackpressureProducerUntilBatchesAreAcknowledged() throws Exception {
+		TestKit deviceManager = new TestKit(system);
+		SourceQueueWithComplete<DeviceManager.DeviceReading> queue = TemperatureIngestion.queue(deviceManager.getRef(),
+				settings.withBufferSize(4).withMaxBatchesInFlight(1)
+						.withBatching(1, new FiniteDuration(10, TimeUnit.MILLISECONDS)), materializer).first();
+
+		CompletableFuture<QueueOfferResult> blocked = null;
+		int accepted = 0;
+		while(blocked == null && accepted < 1000) {
+			CompletableFuture<QueueOfferResult> offer =
+					queue.offer(new DeviceManager.DeviceReading("group", "device", accepted, accepted)).toCompletableFuture();
+			try {
+				offer.get(200, TimeUnit.MILLISECONDS);
+				accepted++;
+			} catch(TimeoutException e) {
+				blocked = offer;
+			}
+		}
+		assertNotNull("producer was never slowed down", blocked);
+		assertTrue(accepted < 100);
+
+		// Acknowledging the batch in flight lets the stream pull again and the waiting offer through.
+		DeviceManager.RecordTemperatureBatch batch = deviceManager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+		deviceManager.reply(new DeviceManager.TemperatureBatchRecorded(batch.getRequestId(), 1, new ArrayList<>()));
+		blocked.get(3, TimeUnit.SECONDS);
+		queue.complete();
+	}
+
+	@Test
+	public void testAcceptReadingsFromSeveralProducers() throws Exception {
+		ActorRef managerActor = system.actorOf(DeviceManager.props());
+		for(int producer = 0; producer < 3; producer++) {
+			managerActor.tell(new DeviceManager.RequestTrackDevice("group", "device" + producer), probe.getRef());
+			probe.expectMsgClass(DeviceManager.DeviceRegistered.class);
+		}
+		Sink<DeviceManager.DeviceReading, NotUsed> hub = TemperatureIngestion.hub(managerActor, settings, materializer).first();
+
+		List<CompletableFuture<Done>> producers = new ArrayList<>();
+		for(int producer = 0; producer < 3; producer++) {
+			String deviceId = "device" + producer;
+			producers.add(Source.range(1, 100)
+					.map(i -> new DeviceManager.DeviceReading("group", deviceId, i, i))
+					.alsoToMat(Sink.ignore(), Keep.right())
+					.to(hub)
+					.run(materializer)
+					.toCompletableFuture());
+		}
+		CompletableFuture.allOf(producers.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+
+		probe.awaitAssert(() -> {
+			managerActor.tell(new DeviceManager.GroupEnvelope("group", new DeviceGroup.RequestAllTemperatures(0L)), probe.getRef());
+			Map<String, DeviceGroup.TemperatureReading> temperatures =
+					probe.expectMsgClass(DeviceGroup.RespondAllTemperatures.class).getTemperatures();
+			for(int producer = 0; producer < 3; producer++) {
+				assertEquals(new DeviceGroup.Temperature(100.0), temperatures.get("device" + producer));
+			}
+			return null;
+		});
+	}
+
+	@Test
+	public void testReportUnacknowledgedBatchAsUnconfirmedAndGoOn() throws Exception {
+		TestKit deviceManager = new TestKit(system);
+		Pair<SourceQueueWithComplete<DeviceManager.DeviceReading>, CompletionStage<List<DeviceManager.TemperatureBatchRecorded>>> ingestion =
+				TemperatureIngestion.queue(deviceManager.getRef(), settings.withAskTimeout(new FiniteDuration(100, TimeUnit.MILLISECONDS))
+						.withBatching(1, new FiniteDuration(10, TimeUnit.MILLISECONDS)), Sink.seq(), materializer);
+		SourceQueueWithComplete<DeviceManager.DeviceReading> queue = ingestion.first();
+
+		queue.offer(new DeviceManager.DeviceReading("group", "device", 1.0, 1L));
+		deviceManager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+		queue.offer(new DeviceManager.DeviceReading("group", "unknown", 2.0, 2L));
+		DeviceManager.RecordTemperatureBatch batch = deviceManager.expectMsgClass(DeviceManager.RecordTemperatureBatch.class);
+		deviceManager.reply(new DeviceManager.TemperatureBatchRecorded(batch.getRequestId(), 0, batch.getReadings()));
+		queue.complete();
+
+		List<DeviceManager.TemperatureBatchRecorded> acks = ingestion.second().toCompletableFuture().get(3, TimeUnit.SECONDS);
+		assertEquals(2, acks.size());
+		assertEquals(1, acks.get(0).getUnconfirmed().size());
+		assertEquals(0, acks.get(0).getRecorded());
+		assertEquals("unknown", acks.get(1).getRejected().get(0).getDeviceId());
+	}
+
+	@Test
+	public void testCompleteWhenQueueIsCompleted() throws Exception {
+		TestKit deviceManager = new TestKit(system);
+		Pair<SourceQueueWithComplete<DeviceManager.DeviceReading>, CompletionStage<Done>> ingestion =
+				TemperatureIngestion.queue(deviceManager.getRef(), settings, materializer);
+		ingestion.first().complete();
+		assertEquals(Done.getInstance(), ingestion.second().toCompletableFuture().get(3, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,95 @@
+package mr.cell.akka.iot;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TemperatureStatisticsTest {
+
+	@Test
+	public void testStartEmpty() {
+		TemperatureStatistics statistics = new TemperatureStatistics();
+		assertTrue(statistics.isEmpty());
+		assertTrue(Double.isNaN(statistics.getMean()));
+		assertTrue(Double.isNaN(statistics.getPercentile(0.5)));
+	}
+
+	@Test
+	public void testComputeExactMoments() {
+		TemperatureStatistics statistics = new TemperatureStatistics();
+		for(double value : new double[] {2.0, 4.0, 4.0, 4.0, 5.0, 5.0, 7.0, 9.0}) {
+			statistics.add(value);
+		}
+
+		assertEquals(8, statistics.getCount());
+		assertEquals(2.0, statistics.getMin(), 0.0);
+		assertEquals(9.0, statistics.getMax(), 0.0);
+		assertEquals(5.0, statistics.getMean(), 1e-12);
+		assertEquals(2.0, statistics.getStandardDeviation(), 1e-12);
+	}
+
+	@Test
+	public void testPercentilesWithinRelativeAccuracy() {
+		Random random = new Random(42);
+		double[] values = new double[10_000];
+		TemperatureStatistics statistics = new TemperatureStatistics();
+		for(int i = 0; i < values.length; i++) {
+			values[i] = -30.0 + random.nextDouble() * 80.0;
+			statistics.add(values[i]);
+		}
+		Arrays.sort(values);
+
+		for(double quantile : new double[] {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999}) {
+			double exact = values[(int) (quantile * (values.length - 1))];
+			assertEquals("p" + quantile, exact, statistics.getPercentile(quantile), Math.abs(exact) * 0.01 + 1e-9);
+		}
+	}
+
+	@Test
+	public void testMergeEqualsAddingEverything() {
+		TemperatureStatistics all = new TemperatureStatistics();
+		TemperatureStatistics first = new TemperatureStatistics();
+		TemperatureStatistics second = new TemperatureStatistics();
+		for(int i = -50; i <= 100; i++) {
+			all.add(i / 2.0);
+			(i % 3 == 0 ? first : second).add(i / 2.0);
+		}
+
+		TemperatureStatistics merged = first.merge(second);
+		assertEquals(all.getCount(), merged.getCount());
+		assertEquals(all.getMin(), merged.getMin(), 0.0);
+		assertEquals(all.getMax(), merged.getMax(), 0.0);
+		assertEquals(all.getMean(), merged.getMean(), 1e-9);
+		assertEquals(all.getStandardDeviation(), merged.getStandardDeviation(), 1e-9);
+		for(double quantile : new double[] {0.1, 0.5, 0.9}) {
+			assertEquals(all.getPercentile(quantile), merged.getPercentile(quantile), 0.0);
+		}
+	}
+
+	@Test
+	public void testCollapseLowestBucketsBeyondMaxBuckets() {
+		TemperatureStatistics statistics = new TemperatureStatistics();
+		TemperatureStatistics merged = new TemperatureStatistics();
+		for(int exponent = -300; exponent <= 300; exponent++) {
+			statistics.add(Math.pow(10, exponent)).add(-Math.pow(10, exponent));
+			merged.merge(new TemperatureStatistics().add(Math.pow(10, exponent)));
+		}
+		for(TemperatureStatistics sketch : new TemperatureStatistics[] {statistics, merged}) {
+			assertTrue(sketch.getBucketCounts(true).length <= TemperatureStatistics.MAX_BUCKETS);
+			assertTrue(sketch.getBucketCounts(false).length <= TemperatureStatistics.MAX_BUCKETS);
+		}
+		// Values far from zero keep their accuracy, those closest to zero are what gets collapsed.
+		// 601 negative values come first, then 601 positive ones: rank 601 + 590 is 1e290 and rank 10 is -1e290.
+		assertEquals(1e290, statistics.getPercentile((601 + 590 + 0.5) / 1201), 1e290 * 0.01);
+		assertEquals(-1e290, statistics.getPercentile(10.5 / 1201), 1e290 * 0.01);
+		assertEquals(1e290, merged.getPercentile(590.5 / 600), 1e290 * 0.01);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRejectMergeWithDifferentAccuracy() {
+		new TemperatureStatistics(0.01).merge(new TemperatureStatistics(0.02).add(1.0));
+	}
+}
@@ -0,0 +1,163 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import com.typesafe.config.ConfigFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class TopologySnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testWriteAndReadGroups() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("topology.bin");
+		assertFalse(TopologySnapshot.read(file, topology -> fail()));
+
+		List<DeviceGroup.GroupTopology> groups = Arrays.asList(
+				new DeviceGroup.GroupTopology("group1", Arrays.asList("device1", "device2"),
+						new long[] {100L, DeviceGroup.GroupTopology.NO_READING}, new double[] {21.5, 0.0}),
+				new DeviceGroup.GroupTopology("gr\u00f6up2", Arrays.asList("device3"), new long[] {200L}, new double[] {-3.0}));
+		assertEquals(3, TopologySnapshot.write(file, groups, true));
+
+		List<DeviceGroup.GroupTopology> read = new ArrayList<>();
+		assertTrue(TopologySnapshot.read(file, read::add));
+		assertEquals(2, read.size());
+		assertEquals("group1", read.get(0).getGroupId());
+		assertEquals(Arrays.asList("device1", "device2"), read.get(0).getDeviceIds());
+		assertArrayEquals(new long[] {100L, DeviceGroup.GroupTopology.NO_READING}, read.get(0).getTimestamps());
+		assertEquals(21.5, read.get(0).getValues()[0], 0.0);
+		assertEquals("gr\u00f6up2", read.get(1).getGroupId());
+		assertEquals(-3.0, read.get(1).getValues()[0], 0.0);
+
+		TopologySnapshot.write(file, groups, false);
+		read.clear();
+		assertTrue(TopologySnapshot.read(file, read::add));
+		assertEquals(Arrays.asList("device1", "device2"), read.get(0).getDeviceIds());
+		assertArrayEquals(new long[] {DeviceGroup.GroupTopology.NO_READING}, read.get(1).getTimestamps());
+	}
+
+	@Test
+	public void testRejectDamagedSnapshotsWithoutHandingOutGroups() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("topology.bin");
+		List<DeviceGroup.GroupTopology> groups = Arrays.asList(
+				new DeviceGroup.GroupTopology("group1", Arrays.asList("device1", "device2"),
+						new long[] {100L, DeviceGroup.GroupTopology.NO_READING}, new double[] {21.5, 0.0}),
+				new DeviceGroup.GroupTopology("group2", Arrays.asList("device3"), new long[] {200L}, new double[] {-3.0}));
+		TopologySnapshot.write(file, groups, true);
+		byte[] valid = Files.readAllBytes(file);
+
+		// Device count of the first group, after the header and the group id.
+		byte[] hugeCount = valid.clone();
+		ByteBuffer.wrap(hugeCount).putInt(4 + 4 + 1 + 4 + 2 + "group1".length(), Integer.MAX_VALUE);
+		byte[] negativeGroups = valid.clone();
+		ByteBuffer.wrap(negativeGroups).putInt(4 + 4 + 1, -1);
+		byte[] trailing = Arrays.copyOf(valid, valid.length + 1);
+
+		for(byte[] damaged : Arrays.asList(hugeCount, negativeGroups, Arrays.copyOf(valid, valid.length - 1), trailing)) {
+			Files.write(file, damaged);
+			try {
+				TopologySnapshot.read(file, topology -> fail("Handed out " + topology.getGroupId()));
+				fail();
+			} catch(IOException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void testStartWithoutDevicesFromADamagedSnapshot() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("topology.bin");
+		TopologySnapshot.write(file, Arrays.asList(new DeviceGroup.GroupTopology("group1", Arrays.asList("device1"),
+				new long[] {100L}, new double[] {21.5})), true);
+		byte[] valid = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(valid, valid.length - 1));
+
+		ActorSystem system = startSystem(file);
+		try {
+			TestKit probe = new TestKit(system);
+			system.actorOf(DeviceManager.props(2), "device-manager");
+			IoTMetrics metrics = IoTMetrics.get(system);
+			probe.awaitCond(() -> metrics.getTimeToReadyMillis() >= 0L);
+			assertEquals(0L, metrics.getRestoredDevices());
+		} finally {
+			TestKit.shutdownActorSystem(system);
+		}
+	}
+
+	@Test
+	public void testRestoreDevicesAndReadingsAfterRestart() throws Exception {
+		Path file = folder.getRoot().toPath().resolve("topology.bin");
+
+		ActorSystem first = startSystem(file);
+		try {
+			TestKit probe = new TestKit(first);
+			ActorRef manager = first.actorOf(DeviceManager.props(2), "device-manager");
+			manager.tell(new DeviceManager.RequestTrackDevices("group1", Arrays.asList("device1", "device2")), probe.getRef());
+			probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+			manager.tell(new DeviceManager.RequestTrackDevices("group2", Arrays.asList("device3")), probe.getRef());
+			probe.expectMsgClass(DeviceManager.DevicesRegistered.class);
+			manager.tell(new DeviceManager.DeviceEnvelope("group1", "device1", new Device.RecordTemperature(1L, 21.5, 100L)), probe.getRef());
+			probe.expectMsgClass(Device.TemperatureRecorded.class);
+
+			probe.awaitCond(() -> {
+				List<DeviceGroup.GroupTopology> groups = new ArrayList<>();
+				try {
+					TopologySnapshot.read(file, groups::add);
+				} catch(Exception e) {
+					return false;
+				}
+				return groups.stream().mapToInt(group -> group.getDeviceIds().size()).sum() == 3 &&
+						groups.stream().anyMatch(group -> group.getTimestamps()[0] == 100L);
+			});
+		} finally {
+			TestKit.shutdownActorSystem(first);
+		}
+
+		ActorSystem second = startSystem(file);
+		try {
+			TestKit probe = new TestKit(second);
+			ActorRef manager = second.actorOf(DeviceManager.props(2), "device-manager");
+			IoTMetrics metrics = IoTMetrics.get(second);
+			probe.awaitCond(() -> metrics.getRestoredDevices() == 3L);
+			assertTrue(metrics.getTimeToReadyMillis() >= 0L);
+
+			manager.tell(new DeviceManager.GroupEnvelope("group1", new DeviceGroup.RequestDeviceList(1L)), probe.getRef());
+			assertEquals(new HashSet<>(Arrays.asList("device1", "device2")),
+					new HashSet<>(probe.expectMsgClass(DeviceGroup.ReplyDeviceList.class).getDeviceIds()));
+			manager.tell(new DeviceManager.DeviceEnvelope("group1", "device1", new Device.ReadTemperature(2L)), probe.getRef());
+			assertEquals(Optional.of(21.5), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+			manager.tell(new DeviceManager.DeviceEnvelope("group2", "device3", new Device.ReadTemperature(3L)), probe.getRef());
+			assertEquals(Optional.empty(), probe.expectMsgClass(Device.RespondTemperature.class).getValue());
+		} finally {
+			TestKit.shutdownActorSystem(second);
+		}
+	}
+
+	private static ActorSystem startSystem(Path file) {
+		return ActorSystem.create("topology-test", ConfigFactory.parseString(
+				"iot.topology.enabled = on\n" +
+				"iot.topology.file = \"" + file.toString().replace("\\", "\\\\") + "\"\n" +
+				"iot.topology.snapshot-interval = 100ms\n" +
+				"iot.group.latest-reading-cache = on\n" +
+				"iot.group.passivate-after = 1h\n" +
+				"iot.metrics.jmx = off\n" +
+				"akka.loglevel = WARNING\n")
+				.withFallback(ConfigFactory.load()));
+	}
+}
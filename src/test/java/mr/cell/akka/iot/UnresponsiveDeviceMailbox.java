@@ -0,0 +1,32 @@
+package mr.cell.akka.iot;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.dispatch.Envelope;
+import akka.dispatch.MailboxType;
+import akka.dispatch.MessageQueue;
+import akka.dispatch.UnboundedMailbox;
+import com.typesafe.config.Config;
+import scala.Option;
+
+/**
+ * Mailbox that drops every {@link Device.ReadTemperature}, so a device deployed with it stays alive but never
+ * answers a query, like a device behind a stalled connection.
+ */
+public class UnresponsiveDeviceMailbox implements MailboxType {
+
+	public UnresponsiveDeviceMailbox(ActorSystem.Settings settings, Config config) {
+	}
+
+	@Override
+	public MessageQueue create(Option<ActorRef> owner, Option<ActorSystem> system) {
+		return new UnboundedMailbox.MessageQueue() {
+			@Override
+			public void enqueue(ActorRef receiver, Envelope handle) {
+				if(!(handle.message() instanceof Device.ReadTemperature)) {
+					super.enqueue(receiver, handle);
+				}
+			}
+		};
+	}
+}